@@ -137,7 +137,8 @@ public class AppRegistryController extends BaseController {
 					if (roleName != null && !roleName.trim().isEmpty()) {
 						role.putString("name", roleName);
 					}
-					appRegistryService.updateRole(roleId, role, actions, notEmptyResponseHandler(request));
+					appRegistryService.updateRole(roleId, role, actions,
+							updatedProfileGroupActions(null, notEmptyResponseHandler(request)));
 				} else {
 					badRequest(request, "invalid.id");
 				}
@@ -151,7 +152,8 @@ public class AppRegistryController extends BaseController {
 	public void deleteRole(final HttpServerRequest request) {
 		String roleId = request.params().get("id");
 		if (roleId != null && !roleId.trim().isEmpty()) {
-			appRegistryService.deleteRole(roleId, defaultResponseHandler(request, 204));
+			appRegistryService.deleteRole(roleId,
+					updatedProfileGroupActions(null, defaultResponseHandler(request, 204)));
 		} else {
 			badRequest(request, "invalid.id");
 		}
@@ -191,7 +193,8 @@ public class AppRegistryController extends BaseController {
 	public void addGroupLink(final HttpServerRequest request) {
 		final String groupId = request.params().get("groupId");
 		final String roleId = request.params().get("roleId");
-		appRegistryService.addGroupLink(groupId, roleId, defaultResponseHandler(request));
+		appRegistryService.addGroupLink(groupId, roleId,
+				updatedProfileGroupActions(groupId, defaultResponseHandler(request)));
 	}
 
 	@Delete("/authorize/group/:groupId/role/:roleId")
@@ -200,7 +203,8 @@ public class AppRegistryController extends BaseController {
 	public void removeGroupLink(final HttpServerRequest request) {
 		final String groupId = request.params().get("groupId");
 		final String roleId = request.params().get("roleId");
-		appRegistryService.deleteGroupLink(groupId, roleId, defaultResponseHandler(request, 204));
+		appRegistryService.deleteGroupLink(groupId, roleId,
+				updatedProfileGroupActions(groupId, defaultResponseHandler(request, 204)));
 	}
 
 	@Get("/roles")
@@ -471,6 +475,20 @@ public class AppRegistryController extends BaseController {
 		}
 	}
 
+	// Publishes the update of the groups actions (of every group if groupId is null) when the result is successful
+	private Handler<Either<String, JsonObject>> updatedProfileGroupActions(final String groupId,
+			final Handler<Either<String, JsonObject>> handler) {
+		return new Handler<Either<String, JsonObject>>() {
+			@Override
+			public void handle(Either<String, JsonObject> event) {
+				if (event.isRight()) {
+					updatedProfileGroupActions(groupId);
+				}
+				handler.handle(event);
+			}
+		};
+	}
+
 	private void updatedProfileGroupActions(String groupId) {
 		JsonObject message = new JsonObject().putString("type", PROFILE_GROUP_ACTIONS_UPDATED);
 		if (groupId != null && !groupId.trim().isEmpty()) {
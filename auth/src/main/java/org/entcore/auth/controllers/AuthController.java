@@ -96,6 +96,7 @@ import fr.wseduc.webutils.security.SecureHttpServerRequest;
 
 import org.entcore.common.user.UserUtils;
 import org.entcore.common.user.UserInfos;
+import org.entcore.common.user.UserInfosCache;
 
 import fr.wseduc.security.SecuredAction;
 
@@ -124,7 +125,7 @@ public class AuthController extends BaseController {
 		OpenIdConnectService openIdConnectService = (oic != null) ? new DefaultOpendIdConnectService(
 				oic.getString("iss"), vertx, oic.getString("keys")) : null;
 		oauthDataFactory = new OAuthDataHandlerFactory(Neo4j.getInstance(), MongoDb.getInstance(), openIdConnectService,
-				container.config().getBoolean("check-federated-login", false));
+				container.config().getBoolean("check-federated-login", false), UserInfosCache.getInstance(vertx));
 		GrantHandlerProvider grantHandlerProvider = new DefaultGrantHandlerProvider();
 		ClientCredentialFetcher clientCredentialFetcher = new ClientCredentialFetcherImpl();
 		token = new Token();
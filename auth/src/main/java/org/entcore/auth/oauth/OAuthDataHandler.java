@@ -34,6 +34,7 @@ import jp.eisbahn.oauth2.server.models.Request;
 
 import org.entcore.auth.services.OpenIdConnectService;
 import org.entcore.common.neo4j.Neo4j;
+import org.entcore.common.user.UserInfosCache;
 import org.vertx.java.core.AsyncResult;
 import org.vertx.java.core.AsyncResultHandler;
 import org.vertx.java.core.eventbus.Message;
@@ -51,6 +52,7 @@ public class OAuthDataHandler extends DataHandler {
 	private final MongoDb mongo;
 	private final OpenIdConnectService openIdConnectService;
 	private final boolean checkFederatedLogin;
+	private final UserInfosCache userInfosCache;
 	private static final String AUTH_INFO_COLLECTION = "authorizations";
 	private static final String ACCESS_TOKEN_COLLECTION = "tokens";
 	private static final int CODE_EXPIRES = 600000; // 10 min
@@ -58,11 +60,17 @@ public class OAuthDataHandler extends DataHandler {
 
 	public OAuthDataHandler(Request request, Neo4j neo, MongoDb mongo, OpenIdConnectService openIdConnectService,
 			boolean checkFederatedLogin) {
+		this(request, neo, mongo, openIdConnectService, checkFederatedLogin, null);
+	}
+
+	public OAuthDataHandler(Request request, Neo4j neo, MongoDb mongo, OpenIdConnectService openIdConnectService,
+			boolean checkFederatedLogin, UserInfosCache userInfosCache) {
 		super(request);
 		this.neo = neo;
 		this.mongo = mongo;
 		this.openIdConnectService = openIdConnectService;
 		this.checkFederatedLogin = checkFederatedLogin;
+		this.userInfosCache = userInfosCache;
 	}
 
 	@Override
@@ -105,8 +113,18 @@ public class OAuthDataHandler extends DataHandler {
 			}
 			query +=
 					"OPTIONAL MATCH (p:Profile) " +
-					"WHERE HAS(n.profiles) AND p.name = head(n.profiles) " +
-					"RETURN DISTINCT n.id as userId, n.password as password, p.blocked as blockedProfile";
+					"WHERE HAS(n.profiles) AND p.name = head(n.profiles) ";
+			if (userInfosCache != null) {
+				query +=
+						"OPTIONAL MATCH n-[:IN]->(gp:ProfileGroup) " +
+						"OPTIONAL MATCH n-[:IN]->()-[:DEPENDS]->(s:Structure) " +
+						"OPTIONAL MATCH n-[:IN]->()-[:DEPENDS]->(c:Class) " +
+						"RETURN DISTINCT n.id as userId, n.password as password, p.blocked as blockedProfile, " +
+						"p.name as type, COLLECT(distinct gp.id) as profilGroupsIds, " +
+						"COLLECT(distinct c.id) as classes, COLLECT(distinct s.id) as structures";
+			} else {
+				query += "RETURN DISTINCT n.id as userId, n.password as password, p.blocked as blockedProfile";
+			}
 			Map<String, Object> params = new HashMap<>();
 			params.put("login", username);
 			neo.execute(query, params, new org.vertx.java.core.Handler<Message<JsonObject>>() {
@@ -142,6 +160,9 @@ public class OAuthDataHandler extends DataHandler {
 								log.error(e.getMessage(), e);
 							}
 							if (success) {
+								if (userInfosCache != null) {
+									userInfosCache.put(username, r);
+								}
 								handler.handle(r.getString("userId"));
 							} else {
 								handler.handle(null);
@@ -25,6 +25,7 @@ import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
 import jp.eisbahn.oauth2.server.models.Request;
 import org.entcore.auth.services.OpenIdConnectService;
 import org.entcore.common.neo4j.Neo4j;
+import org.entcore.common.user.UserInfosCache;
 
 public class OAuthDataHandlerFactory implements DataHandlerFactory {
 
@@ -32,17 +33,25 @@ public class OAuthDataHandlerFactory implements DataHandlerFactory {
 	private final MongoDb mongo;
 	private final OpenIdConnectService openIdConnectService;
 	private final boolean checkFederatedLogin;
+	private final UserInfosCache userInfosCache;
 
 	public OAuthDataHandlerFactory(Neo4j neo, MongoDb mongo, OpenIdConnectService openIdConnectService, boolean cfl) {
+		this(neo, mongo, openIdConnectService, cfl, null);
+	}
+
+	public OAuthDataHandlerFactory(Neo4j neo, MongoDb mongo, OpenIdConnectService openIdConnectService, boolean cfl,
+			UserInfosCache userInfosCache) {
 		this.neo = neo;
 		this.mongo = mongo;
 		this.openIdConnectService = openIdConnectService;
 		this.checkFederatedLogin = cfl;
+		this.userInfosCache = userInfosCache;
 	}
 
 	@Override
 	public DataHandler create(Request request) {
-		return new OAuthDataHandler(request, neo, mongo, openIdConnectService, checkFederatedLogin);
+		return new OAuthDataHandler(request, neo, mongo, openIdConnectService, checkFederatedLogin,
+				userInfosCache);
 	}
 
 }
@@ -27,7 +27,8 @@ public class MongoConstants {
 	//COLLECTION NAMES
 	public static enum COLLECTIONS{
 		events,
-		stats
+		stats,
+		statsWatermarks
 	}
 
 	//TRACE COLLECTION FIELD NAMES
@@ -22,6 +22,7 @@ package org.entcore.common.aggregation.filters.mongo;
 import java.util.Date;
 
 import org.entcore.common.aggregation.filters.dbbuilders.MongoDBBuilder;
+import org.vertx.java.core.json.JsonObject;
 
 import static org.entcore.common.aggregation.MongoConstants.*;
 
@@ -46,4 +47,15 @@ public class DateFilter extends IndicatorFilterMongoImpl {
 		builder.and(TRACE_FIELD_DATE).greaterThanEquals(from.getTime()).lessThan(to.getTime());
 	}
 
+	@Override
+	public boolean isTraceFilter() {
+		return true;
+	}
+
+	@Override
+	public boolean accept(JsonObject trace) {
+		Number date = trace.getNumber(TRACE_FIELD_DATE);
+		return date != null && date.longValue() >= from.getTime() && date.longValue() < to.getTime();
+	}
+
 }
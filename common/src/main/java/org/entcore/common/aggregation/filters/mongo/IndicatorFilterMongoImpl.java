@@ -23,6 +23,7 @@ package org.entcore.common.aggregation.filters.mongo;
 import org.entcore.common.aggregation.filters.IndicatorFilter;
 import org.entcore.common.aggregation.filters.dbbuilders.DBBuilder;
 import org.entcore.common.aggregation.filters.dbbuilders.MongoDBBuilder;
+import org.vertx.java.core.json.JsonObject;
 
 /**
  * MongoDB implementation of the IndicatorFilter class.
@@ -38,4 +39,22 @@ public abstract class IndicatorFilterMongoImpl implements IndicatorFilter{
 		filter((MongoDBBuilder) builder);
 	}
 
+	/**
+	 * Override this method, along with accept, if the filter can check a trace in memory.
+	 * Indicators are only computed by the incremental aggregation if all their filters can.
+	 * @return true if the accept method is implemented.
+	 */
+	public boolean isTraceFilter(){
+		return false;
+	}
+
+	/**
+	 * Checks a trace in memory, with the same criteria as the filtering clauses.
+	 * @param trace : Trace from the events collection.
+	 * @return true if the trace is kept.
+	 */
+	public boolean accept(JsonObject trace){
+		return true;
+	}
+
 }
@@ -81,7 +81,7 @@ public abstract class Indicator{
 	 * Returns the indicator key.
 	 * @return Indicator key
 	 */
-	protected String getKey(){
+	public String getKey(){
 		return indicatorKey;
 	}
 
@@ -109,6 +109,15 @@ public abstract class Indicator{
 		filters.add(filter);
 		return this;
 	}
+	/**
+	 * Remove an indicator filter from the collection.
+	 * @param filter Filter to remove.
+	 * @return This object.
+	 */
+	public Indicator removeFilter(IndicatorFilter filter){
+		filters.remove(filter);
+		return this;
+	}
 	/**
 	 * Add a new group to the collection.
 	 * @param group Group to add.
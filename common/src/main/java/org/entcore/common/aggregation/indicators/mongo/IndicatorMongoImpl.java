@@ -23,9 +23,15 @@ import static org.entcore.common.aggregation.MongoConstants.STATS_FIELD_DATE;
 import static org.entcore.common.aggregation.MongoConstants.STATS_FIELD_GROUPBY;
 import static org.entcore.common.aggregation.MongoConstants.TRACE_FIELD_TYPE;
 
+import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.entcore.common.aggregation.MongoConstants.COLLECTIONS;
@@ -56,6 +62,21 @@ public class IndicatorMongoImpl extends Indicator{
 	//Logger
 	private Logger log = LoggerFactory.getLogger(IndicatorMongoImpl.class);
 
+	//Bulk writes of the stats, disabled when the write action is overridden
+	private static final int DEFAULT_WRITE_BATCH_SIZE = 1000;
+	private int writeBatchSize = DEFAULT_WRITE_BATCH_SIZE;
+	private final boolean customWriteAction = isOverridden("writeAction");
+
+	//Write metrics
+	private long writeTime;
+	private long writtenResults;
+	private long writeBatches;
+	private long writeErrors;
+
+	//In memory counts of the incremental aggregation, by write date, group and group values
+	private final Map<String, JsonObject> counts = new HashMap<>();
+	private final Map<String, IndicatorGroup> countedGroups = new HashMap<>();
+
 	/**
 	 * Creates a new Indicator without filters or groups.<br>
 	 * @param key : Traces will be filtered using this String and an equality check against the type of trace.
@@ -96,32 +117,67 @@ public class IndicatorMongoImpl extends Indicator{
 		return this.writtenIndicatorKey;
 	}
 
+	/**
+	 * Sets the maximum number of stats documents written by request.
+	 * @param writeBatchSize : Batch size, 1000 by default. 0 writes each document with its own request.
+	 */
+	public void setWriteBatchSize(int writeBatchSize){
+		this.writeBatchSize = writeBatchSize;
+	}
+
+	/**
+	 * Returns the write metrics of the indicator : time spent writing (ms), written results, batches and errors.
+	 * @return Write metrics
+	 */
+	public synchronized JsonObject getWriteMetrics(){
+		return new JsonObject()
+			.putNumber("time", writeTime)
+			.putNumber("results", writtenResults)
+			.putNumber("batches", writeBatches)
+			.putNumber("errors", writeErrors);
+	}
+
+	private synchronized void addWriteMetrics(long time, long results, long batches, long errors){
+		writeTime += time;
+		writtenResults += results;
+		writeBatches += batches;
+		writeErrors += errors;
+	}
+
 	//Write aggregated data to the database, using data from a Mongo count
 	private void writeStats(JsonArray results, final IndicatorGroup group, final Handler<JsonObject> callBack){
+		writeStats(results, group, this.writeDate, callBack);
+	}
+
+	private void writeStats(JsonArray results, final IndicatorGroup group, Date writeDate, final Handler<JsonObject> callBack){
 
 		//If no documents found, write nothing
 		if(results.size() == 0){
-			callBack.handle(new JsonObject());
+			callBack.handle(new JsonObject().putNumber("errors", 0));
 			return;
 		}
 
-		//Document date
-		Date writeDate = this.writeDate;
-
 		final MongoDBBuilder criteriaQuery = new MongoDBBuilder();
+		final long start = System.currentTimeMillis();
+		final int resultsSize = results.size();
+		final StatsBulkWriter bulkWriter = (writeBatchSize > 0 && !customWriteAction) ?
+				new StatsBulkWriter(mongo, COLLECTIONS.stats.name(), writeBatchSize) : null;
 
 		//Synchronization handler
-		final AtomicInteger countDown = new AtomicInteger(results.size());
+		final AtomicInteger countDown = new AtomicInteger(resultsSize);
+		final AtomicInteger errors = new AtomicInteger();
 		Handler<Message<JsonObject>> synchroHandler = new Handler<Message<JsonObject>>() {
 			public void handle(Message<JsonObject> message) {
 				if (!"ok".equals(message.body().getString("status"))){
 					String groupstr = group == null ? "Global" : group.toString();
 					log.error("[Aggregation][Error]{"+writtenIndicatorKey+"} ("+ groupstr +") writeStats : "+message.body().toString());
 					log.info(criteriaQuery.toString());
+					errors.incrementAndGet();
 				}
 
 				if(countDown.decrementAndGet() == 0){
-					callBack.handle(new JsonObject());
+					addWriteMetrics(System.currentTimeMillis() - start, resultsSize - errors.get(), resultsSize, errors.get());
+					callBack.handle(new JsonObject().putNumber("errors", errors.get()));
 				}
 			}
 		};
@@ -149,7 +205,22 @@ public class IndicatorMongoImpl extends Indicator{
 			}
 
 			//Perform write action
-			writeAction(criteriaQuery, result.getInteger("count"), synchroHandler);
+			if(bulkWriter != null){
+				bulkWriter.add(MongoQueryBuilder.build(criteriaQuery),
+						new MongoUpdateBuilder().inc(writtenIndicatorKey, result.getInteger("count")).build());
+			} else {
+				writeAction(criteriaQuery, result.getInteger("count"), synchroHandler);
+			}
+		}
+
+		if(bulkWriter != null){
+			bulkWriter.write(new Handler<JsonObject>() {
+				public void handle(JsonObject metrics) {
+					addWriteMetrics(System.currentTimeMillis() - start, metrics.getInteger("written"),
+							metrics.getInteger("batches"), metrics.getInteger("errors"));
+					callBack.handle(new JsonObject().putNumber("errors", metrics.getInteger("errors")));
+				}
+			});
 		}
 	}
 
@@ -157,6 +228,7 @@ public class IndicatorMongoImpl extends Indicator{
 	 * <em><b>You may override this method in order to perform a custom write action.</b></em><br>
 	 * Default write action performed on each aggregated result,
 	 * increments the MongoDB collection entry with the results count.
+	 * Unless it is overridden, results are written in bulk instead (see setWriteBatchSize).
 	 *
 	 * @param criteriaQuery : Already built query, containing the write date, the aggregated values and the group label.
 	 * @param resultsCount : Aggregation count.
@@ -237,7 +309,7 @@ public class IndicatorMongoImpl extends Indicator{
 					String groupstr = group == null ? "Global" : group.toString();
 					log.error("[Aggregation][Error]{"+writtenIndicatorKey+"} ("+ groupstr +") executeAggregationQuery : "+message.body().toString());
 					log.info(aggregation.toString());
-					finalHandler.handle(new JsonObject());
+					finalHandler.handle(new JsonObject().putNumber("errors", 1));
 				}
 			}
 		});
@@ -249,6 +321,161 @@ public class IndicatorMongoImpl extends Indicator{
 			}
 	}
 
+	/* INCREMENTAL AGGREGATION */
+
+	/**
+	 * Returns true if the indicator can be computed in memory by the incremental aggregation,
+	 * which is the case when all its filters can check a trace and its pipeline isn't customized.
+	 * @return true if the traces can be counted with the count method
+	 */
+	public boolean isIncremental(){
+		for(IndicatorFilter filter : filters){
+			if(!(filter instanceof IndicatorFilterMongoImpl) || !((IndicatorFilterMongoImpl) filter).isTraceFilter())
+				return false;
+		}
+		return !isOverridden("customizeGroupBy") && !isOverridden("customizePipeline");
+	}
+
+	//True if a subclass declares the method
+	private boolean isOverridden(String methodName){
+		for(Class<?> c = getClass(); c != IndicatorMongoImpl.class; c = c.getSuperclass()){
+			for(Method m : c.getDeclaredMethods()){
+				if(methodName.equals(m.getName()))
+					return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Counts a trace in memory, for the indicator and each of its groups, as the aggregation pipeline would.
+	 * Traces not matching the indicator type or filters are ignored.
+	 * @param trace : Trace from the events collection
+	 * @param date : Date of the stats document to increment
+	 */
+	public void count(JsonObject trace, Date date){
+		if(!indicatorKey.equals(trace.getString(TRACE_FIELD_TYPE)))
+			return;
+		for(IndicatorFilter filter : filters){
+			if(!((IndicatorFilterMongoImpl) filter).accept(trace))
+				return;
+		}
+		count(trace, date, null);
+		for(IndicatorGroup group : groups){
+			countGroup(trace, date, group);
+		}
+	}
+
+	private void countGroup(JsonObject trace, Date date, IndicatorGroup group){
+		count(trace, date, group);
+		for(IndicatorGroup child : group.getChildren()){
+			countGroup(trace, date, child);
+		}
+	}
+
+	private void count(JsonObject trace, Date date, IndicatorGroup group){
+		final String prefix = date.getTime() + "|" + (group == null ? "" : group.toString());
+		if(group != null && !countedGroups.containsKey(prefix)){
+			countedGroups.put(prefix, group);
+		}
+		final List<JsonObject> ids = new ArrayList<>();
+		ids.add(new JsonObject());
+		addGroupValues(trace, group, ids);
+		for(JsonObject id : ids){
+			final String key = prefix + "|" + id.encode();
+			final JsonObject result = counts.get(key);
+			if(result == null){
+				counts.put(key, new JsonObject().putObject("_id", id).putNumber("count", 1));
+			} else {
+				result.putNumber("count", result.getInteger("count") + 1);
+			}
+		}
+	}
+
+	//Same values as the $unwind and $group stages : one id per element of the array groups
+	private void addGroupValues(JsonObject trace, IndicatorGroup group, List<JsonObject> ids){
+		if(group == null)
+			return;
+
+		addGroupValues(trace, group.getParent(), ids);
+		final Object value = trace.getField(group.getKey());
+		if(!group.isArray() || !(value instanceof JsonArray)){
+			if(group.isArray() && value == null){
+				ids.clear();
+			}
+			for(JsonObject id : ids){
+				id.putValue(group.getKey(), value);
+			}
+			return;
+		}
+		final List<JsonObject> unwound = new ArrayList<>();
+		for(JsonObject id : ids){
+			for(Object element : (JsonArray) value){
+				unwound.add(id.copy().putValue(group.getKey(), element));
+			}
+		}
+		ids.clear();
+		ids.addAll(unwound);
+	}
+
+	/**
+	 * Writes the traces counted in memory, then clears the counts.
+	 * @param callBack : Handler called when the counts are written, with an "error" status if some of them couldn't be.
+	 */
+	public void writeCounts(final Handler<JsonObject> callBack){
+		final Map<String, JsonArray> results = new LinkedHashMap<>();
+		for(Map.Entry<String, JsonObject> count : counts.entrySet()){
+			final String prefix = count.getKey().substring(0, count.getKey().indexOf('|', count.getKey().indexOf('|') + 1));
+			JsonArray r = results.get(prefix);
+			if(r == null){
+				r = new JsonArray();
+				results.put(prefix, r);
+			}
+			r.addObject(count.getValue());
+		}
+		final Map<String, IndicatorGroup> groupsByPrefix = new HashMap<>(countedGroups);
+		counts.clear();
+		countedGroups.clear();
+		if(results.isEmpty()){
+			callBack.handle(new JsonObject().putString("status", "ok"));
+			return;
+		}
+
+		final Date start = new Date();
+		final AtomicInteger remaining = new AtomicInteger(results.size());
+		final AtomicInteger errors = new AtomicInteger();
+		final Handler<JsonObject> writeHandler = new Handler<JsonObject>() {
+			public void handle(JsonObject event) {
+				errors.addAndGet(event.getInteger("errors", 0));
+				if(remaining.decrementAndGet() == 0){
+					log.info("[Aggregation]{"+writtenIndicatorKey+"} Incremental write took ["+(new Date().getTime() - start.getTime())+"] ms, writes : "+getWriteMetrics().encode());
+					callBack.handle(status(errors.get()));
+				}
+			}
+		};
+		for(Map.Entry<String, JsonArray> r : results.entrySet()){
+			final Date date = new Date(Long.parseLong(r.getKey().substring(0, r.getKey().indexOf('|'))));
+			writeStats(r.getValue(), groupsByPrefix.get(r.getKey()), date, writeHandler);
+		}
+	}
+
+	/**
+	 * Drops the traces counted in memory, when they won't be written.
+	 */
+	public void clearCounts(){
+		counts.clear();
+		countedGroups.clear();
+	}
+
+	//Status of a processing, "error" when some results couldn't be aggregated or written
+	private JsonObject status(int errors){
+		if(errors > 0){
+			return new JsonObject().putString("status", "error")
+					.putString("message", errors + " results of " + writtenIndicatorKey + " were not written.");
+		}
+		return new JsonObject().putString("status", "ok");
+	}
+
 	/**
 	 * Launch the aggregation process which consists of :
 	 * <ul>
@@ -257,7 +484,7 @@ public class IndicatorMongoImpl extends Indicator{
 	 *  <li>Write to the database this aggregated number.</li>
 	 *  <li>For each IndicatorGroup, repeat the process recursively.</li>
 	 * </ul>
-	 * @param callBack : Handler called when processing is over.
+	 * @param callBack : Handler called when processing is over, with an "error" status if some results couldn't be aggregated or written.
 	 */
 	public void aggregate(final Handler<JsonObject> callBack){
 		final Date start = new Date();
@@ -273,12 +500,14 @@ public class IndicatorMongoImpl extends Indicator{
 			totalCalls.addAndGet(group.getTotalChildren());
 		}
 
+		final AtomicInteger errors = new AtomicInteger();
 		final Handler<JsonObject> finalHandler = new Handler<JsonObject>(){
 			public void handle(JsonObject event) {
+				errors.addAndGet(event.getInteger("errors", 0));
 				if(totalCalls.decrementAndGet() == 0){
 					final Date end = new Date();
-					log.info("[Aggregation]{"+writtenIndicatorKey+"} Took ["+(end.getTime() - start.getTime())+"] ms");
-					callBack.handle(new JsonObject().putString("status", "ok"));
+					log.info("[Aggregation]{"+writtenIndicatorKey+"} Took ["+(end.getTime() - start.getTime())+"] ms, writes : "+getWriteMetrics().encode());
+					callBack.handle(status(errors.get()));
 				}
 			}
 		};
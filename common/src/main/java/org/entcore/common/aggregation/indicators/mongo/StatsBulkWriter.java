@@ -0,0 +1,137 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2016
+ *
+ * This file is part of ENT Core. ENT Core is a versatile ENT engine based on the JVM.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with ENT Core is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of ENT Core, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package org.entcore.common.aggregation.indicators.mongo;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+import fr.wseduc.mongodb.MongoDb;
+
+/**
+ * Writes upserts in batches, with the unordered "update" write command, instead of one request per document.<br>
+ * Batches are sent one after another, an error in a batch doesn't stop the following ones.
+ */
+public class StatsBulkWriter {
+
+	private static final Logger log = LoggerFactory.getLogger(StatsBulkWriter.class);
+
+	private final MongoDb mongo;
+	private final String collection;
+	private final int batchSize;
+	private JsonArray updates = new JsonArray();
+	private final JsonArray batches = new JsonArray();
+
+	//Metrics
+	private int sentBatches;
+	private int written;
+	private int errors;
+	private long time;
+
+	/**
+	 * Creates a new StatsBulkWriter.
+	 * @param mongo : MongoDB instance
+	 * @param collection : Updated collection
+	 * @param batchSize : Maximum number of updates by request
+	 */
+	public StatsBulkWriter(MongoDb mongo, String collection, int batchSize){
+		this.mongo = mongo;
+		this.collection = collection;
+		this.batchSize = Math.max(1, batchSize);
+	}
+
+	/**
+	 * Adds an upsert to the pending batch.
+	 * @param criteria : Update criteria
+	 * @param update : Update document
+	 */
+	public void add(JsonObject criteria, JsonObject update){
+		updates.addObject(new JsonObject()
+				.putObject("q", criteria)
+				.putObject("u", update)
+				.putBoolean("upsert", true)
+				.putBoolean("multi", true));
+		if(updates.size() >= batchSize){
+			batches.addArray(updates);
+			updates = new JsonArray();
+		}
+	}
+
+	/**
+	 * Sends the pending updates.
+	 * @param handler : Handler called with the metrics when every batch is written.
+	 */
+	public void write(final Handler<JsonObject> handler){
+		if(updates.size() > 0){
+			batches.addArray(updates);
+			updates = new JsonArray();
+		}
+		writeBatch(0, handler);
+	}
+
+	private void writeBatch(final int index, final Handler<JsonObject> handler){
+		if(index >= batches.size()){
+			handler.handle(getMetrics());
+			return;
+		}
+		final JsonArray batch = batches.get(index);
+		final JsonObject command = new JsonObject()
+				.putString("update", collection)
+				.putArray("updates", batch)
+				.putBoolean("ordered", false);
+		final long start = System.currentTimeMillis();
+		mongo.command(command.toString(), new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> message) {
+				time += System.currentTimeMillis() - start;
+				sentBatches++;
+				final JsonObject result = message.body().getObject("result", new JsonObject());
+				final JsonArray writeErrors = result.getArray("writeErrors", new JsonArray());
+				if(!"ok".equals(message.body().getString("status")) || result.getInteger("ok", 0) != 1){
+					errors += batch.size();
+					log.error("[Aggregation][Error] Bulk write on " + collection + " : " + message.body().toString());
+				} else {
+					written += batch.size() - writeErrors.size();
+					if(writeErrors.size() > 0){
+						errors += writeErrors.size();
+						log.error("[Aggregation][Error] Bulk write on " + collection + " : " + writeErrors.toString());
+					}
+				}
+				writeBatch(index + 1, handler);
+			}
+		});
+	}
+
+	/**
+	 * Returns the number of batches sent, of documents written, of errors and the time spent writing (ms).
+	 * @return Metrics
+	 */
+	public JsonObject getMetrics(){
+		return new JsonObject()
+				.putNumber("batches", sentBatches)
+				.putNumber("written", written)
+				.putNumber("errors", errors)
+				.putNumber("time", time);
+	}
+
+}
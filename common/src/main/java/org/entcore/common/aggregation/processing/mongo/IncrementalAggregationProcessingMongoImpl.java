@@ -0,0 +1,379 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2016
+ *
+ * This file is part of ENT Core. ENT Core is a versatile ENT engine based on the JVM.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with ENT Core is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of ENT Core, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package org.entcore.common.aggregation.processing.mongo;
+
+import static org.entcore.common.aggregation.MongoConstants.TRACE_FIELD_DATE;
+import static org.entcore.common.aggregation.MongoConstants.TRACE_FIELD_TYPE;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.entcore.common.aggregation.AggregationTools;
+import org.entcore.common.aggregation.MongoConstants.COLLECTIONS;
+import org.entcore.common.aggregation.filters.mongo.DateFilter;
+import org.entcore.common.aggregation.indicators.Indicator;
+import org.entcore.common.aggregation.indicators.mongo.IndicatorMongoImpl;
+import org.entcore.common.aggregation.processing.AggregationProcessing;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+import fr.wseduc.mongodb.MongoDb;
+
+/**
+ * Incremental aggregation : each indicator only processes the traces newer than its own watermark,
+ * stored by the previous runs.<br>
+ * The traces are read once, by pages sorted on date, and counted in memory by every indicator which supports it
+ * (see IndicatorMongoImpl.isIncremental), each trace being counted in the stats document of its own day.
+ * The other indicators are aggregated as usual, one day at a time.<br>
+ * The watermark of an indicator is moved once its stats are written, and is left unchanged when the traces can't
+ * be read or some of its stats can't be written, so the indicators which succeeded aren't counted twice.
+ */
+public class IncrementalAggregationProcessingMongoImpl extends AggregationProcessing {
+
+	private static final int DEFAULT_PAGE_SIZE = 10000;
+	private static final long DEFAULT_LAG = 60 * 1000l;
+	private static final Logger log = LoggerFactory.getLogger(IncrementalAggregationProcessingMongoImpl.class);
+
+	private final MongoDb mongo = MongoDb.getInstance();
+	private final String watermarkId;
+	private int pageSize = DEFAULT_PAGE_SIZE;
+	private long lag = DEFAULT_LAG;
+
+	//Current trace day
+	private Date day;
+	private long dayStart = Long.MAX_VALUE;
+	private long dayEnd = Long.MIN_VALUE;
+
+	/**
+	 * Creates a new IncrementalAggregationProcessingMongoImpl instance.
+	 * @param watermarkId : Identifier of the watermark, unique for each set of indicators.
+	 */
+	public IncrementalAggregationProcessingMongoImpl(String watermarkId){
+		this.watermarkId = watermarkId;
+	}
+
+	/**
+	 * Creates a new IncrementalAggregationProcessingMongoImpl instance with a collection of indicators.
+	 * @param watermarkId : Identifier of the watermark, unique for each set of indicators.
+	 * @param indicatorsList : A collection of Indicators.
+	 */
+	public IncrementalAggregationProcessingMongoImpl(String watermarkId, Collection<Indicator> indicatorsList){
+		super(indicatorsList);
+		this.watermarkId = watermarkId;
+	}
+
+	/**
+	 * Sets the number of traces read by query.
+	 * @param pageSize : Page size, 10000 by default.
+	 */
+	public void setPageSize(int pageSize){
+		this.pageSize = Math.max(1, pageSize);
+	}
+
+	/**
+	 * Sets the delay before a trace is processed, so the traces still buffered by the event stores aren't missed.
+	 * @param lag : Delay in ms, one minute by default.
+	 */
+	public void setLag(long lag){
+		this.lag = Math.max(0, lag);
+	}
+
+	@Override
+	public void process(Handler<JsonObject> callBack) {
+		process(null, callBack);
+	}
+
+	/**
+	 * Processes, for each indicator, the traces from its watermark to now minus the lag.
+	 * @param marker : Start date of the first run, when no watermark is stored. Defaults to today at midnight.
+	 * @param callBack : Handler called when processing is over.
+	 */
+	@Override
+	public void process(final Date marker, final Handler<JsonObject> callBack) {
+		mongo.findOne(COLLECTIONS.statsWatermarks.name(), new JsonObject().putString("_id", watermarkId),
+				new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> message) {
+				if (!"ok".equals(message.body().getString("status"))) {
+					log.error("[Aggregation][Error] Incremental aggregation " + watermarkId + " watermark : " +
+							message.body().getString("message"));
+					callBack.handle(new JsonObject().putString("status", "error")
+							.putString("message", message.body().getString("message")));
+					return;
+				}
+				final JsonObject watermark = message.body().getObject("result", new JsonObject());
+				final long defaultFrom;
+				if (watermark.getLong("date") != null) {
+					defaultFrom = watermark.getLong("date");
+				} else if (marker != null) {
+					defaultFrom = marker.getTime();
+				} else {
+					defaultFrom = AggregationTools.setToMidnight(Calendar.getInstance()).getTime();
+				}
+				final JsonObject marks = watermark.getObject("indicators", new JsonObject());
+				final long to = System.currentTimeMillis() - lag;
+				final Map<Indicator, Long> froms = new LinkedHashMap<>();
+				for (Indicator indicator : indicators) {
+					final Long from = marks.getLong(watermarkField(indicator), defaultFrom);
+					if (from < to) {
+						froms.put(indicator, from);
+					}
+				}
+				if (froms.isEmpty()) {
+					callBack.handle(new JsonObject().putString("status", "ok"));
+					return;
+				}
+				aggregate(froms, to, callBack);
+			}
+		});
+	}
+
+	private void aggregate(final Map<Indicator, Long> froms, final long to, final Handler<JsonObject> callBack) {
+		final long start = System.currentTimeMillis();
+		final List<IndicatorMongoImpl> incremental = new ArrayList<>();
+		final Map<Indicator, DateFilter> dateFilters = new HashMap<>();
+		final JsonArray types = new JsonArray();
+		final AtomicReference<String> error = new AtomicReference<>();
+		final AggregationTools.HandlerChainer<Indicator, JsonObject> chainer =
+				new AggregationTools.HandlerChainer<Indicator, JsonObject>() {
+			@Override
+			protected void executeItem(final Indicator indicator, final Handler<JsonObject> nextCallback) {
+				final Handler<JsonObject> handler = new Handler<JsonObject>() {
+					@Override
+					public void handle(JsonObject event) {
+						if (event != null && "error".equals(event.getString("status"))) {
+							log.error("[Aggregation][Error] Incremental aggregation " + watermarkId + " : " +
+									event.getString("message") + " The watermark of " + indicator.getKey() +
+									" is left unchanged.");
+							error.compareAndSet(null, event.getString("message",
+									"Error processing indicator " + indicator.getKey() + "."));
+						}
+						nextCallback.handle(event);
+					}
+				};
+				if (incremental.contains(indicator)) {
+					((IndicatorMongoImpl) indicator).writeCounts(new Handler<JsonObject>() {
+						@Override
+						public void handle(JsonObject event) {
+							if ("ok".equals(event.getString("status"))) {
+								saveWatermark(indicator, to, handler);
+							} else {
+								handler.handle(event);
+							}
+						}
+					});
+				} else {
+					aggregateByDay(indicator, froms.get(indicator), to, handler);
+				}
+			}
+		};
+		long scanFrom = to;
+		for (Map.Entry<Indicator, Long> e : froms.entrySet()) {
+			final Indicator indicator = e.getKey();
+			if (indicator instanceof IndicatorMongoImpl && ((IndicatorMongoImpl) indicator).isIncremental()) {
+				incremental.add((IndicatorMongoImpl) indicator);
+				if (!types.contains(indicator.getKey())) {
+					types.addString(indicator.getKey());
+				}
+				//Traces already counted by the indicator are ignored
+				final DateFilter dateFilter = new DateFilter(new Date(e.getValue()), new Date(to));
+				indicator.addFilter(dateFilter);
+				dateFilters.put(indicator, dateFilter);
+				scanFrom = Math.min(scanFrom, e.getValue());
+			}
+			chainer.chainItem(indicator);
+		}
+
+		final Handler<Long> scanHandler = new Handler<Long>() {
+			@Override
+			public void handle(Long scanned) {
+				removeFilters(dateFilters);
+				if (scanned == null) {
+					for (IndicatorMongoImpl indicator : incremental) {
+						indicator.clearCounts();
+					}
+					callBack.handle(new JsonObject().putString("status", "error")
+							.putString("message", "Error reading traces."));
+					return;
+				}
+				log.info("[Aggregation] Incremental aggregation " + watermarkId + " read [" + scanned +
+						"] traces in [" + (System.currentTimeMillis() - start) + "] ms");
+				chainer.executeChain(new Handler<JsonObject>() {
+					@Override
+					public void handle(JsonObject event) {
+						log.info("[Aggregation] Incremental aggregation " + watermarkId + " took [" +
+								(System.currentTimeMillis() - start) + "] ms");
+						if (error.get() != null) {
+							callBack.handle(new JsonObject().putString("status", "error")
+									.putString("message", error.get()));
+						} else {
+							callBack.handle(new JsonObject().putString("status", "ok"));
+						}
+					}
+				});
+			}
+		};
+		if (types.size() > 0) {
+			scan(scanFrom, to, types, incremental, null, null, 0, scanHandler);
+		} else {
+			scanHandler.handle(0l);
+		}
+	}
+
+	//Aggregates a non incremental indicator one day at a time, so each day is written to its own stats document
+	private void aggregateByDay(final Indicator indicator, final long from, final long to,
+			final Handler<JsonObject> handler) {
+		final Calendar cal = Calendar.getInstance();
+		cal.setTimeInMillis(from);
+		final Date day = AggregationTools.setToMidnight(cal);
+		cal.setTime(day);
+		cal.add(Calendar.DAY_OF_MONTH, 1);
+		final long end = Math.min(to, cal.getTimeInMillis());
+		final DateFilter dateFilter = new DateFilter(new Date(from), new Date(end));
+		final Date writeDate = indicator.getWriteDate();
+		indicator.addFilter(dateFilter);
+		indicator.setWriteDate(day);
+		indicator.aggregate(new Handler<JsonObject>() {
+			@Override
+			public void handle(JsonObject event) {
+				indicator.removeFilter(dateFilter);
+				indicator.setWriteDate(writeDate);
+				if (event != null && "error".equals(event.getString("status"))) {
+					handler.handle(event);
+					return;
+				}
+				saveWatermark(indicator, end, new Handler<JsonObject>() {
+					@Override
+					public void handle(JsonObject event) {
+						if (end < to && "ok".equals(event.getString("status"))) {
+							aggregateByDay(indicator, end, to, handler);
+						} else {
+							handler.handle(event);
+						}
+					}
+				});
+			}
+		});
+	}
+
+	//Removes the date filters added for this run, so they don't pile up on the indicators
+	private void removeFilters(Map<Indicator, DateFilter> dateFilters) {
+		for (Map.Entry<Indicator, DateFilter> e : dateFilters.entrySet()) {
+			e.getKey().removeFilter(e.getValue());
+		}
+	}
+
+	//Reads the traces by pages, sorted on date then _id
+	private void scan(final long from, final long to, final JsonArray types, final List<IndicatorMongoImpl> incremental,
+			final Long lastDate, final Object lastId, final long scanned, final Handler<Long> handler) {
+		final JsonObject matcher = new JsonObject()
+				.putObject(TRACE_FIELD_TYPE, new JsonObject().putArray("$in", types))
+				.putObject(TRACE_FIELD_DATE, new JsonObject().putNumber("$gte", from).putNumber("$lt", to));
+		if (lastDate != null) {
+			matcher.putArray("$or", new JsonArray()
+					.addObject(new JsonObject().putObject(TRACE_FIELD_DATE, new JsonObject().putNumber("$gt", lastDate)))
+					.addObject(new JsonObject().putNumber(TRACE_FIELD_DATE, lastDate)
+							.putObject("_id", new JsonObject().putValue("$gt", lastId))));
+		}
+		final JsonObject sort = new JsonObject().putNumber(TRACE_FIELD_DATE, 1).putNumber("_id", 1);
+		mongo.find(COLLECTIONS.events.name(), matcher, sort, null, 0, pageSize, pageSize,
+				new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> message) {
+				if (!"ok".equals(message.body().getString("status"))) {
+					log.error("[Aggregation][Error] Incremental aggregation " + watermarkId + " scan : " +
+							message.body().getString("message"));
+					handler.handle(null);
+					return;
+				}
+				final JsonArray traces = message.body().getArray("results", new JsonArray());
+				Long date = lastDate;
+				Object id = lastId;
+				for (Object o : traces) {
+					if (!(o instanceof JsonObject)) continue;
+					final JsonObject trace = (JsonObject) o;
+					date = trace.getNumber(TRACE_FIELD_DATE).longValue();
+					id = trace.getField("_id");
+					final Date traceDay = getDay(date);
+					for (IndicatorMongoImpl indicator : incremental) {
+						indicator.count(trace, traceDay);
+					}
+				}
+				if (traces.size() < pageSize) {
+					handler.handle(scanned + traces.size());
+				} else {
+					scan(from, to, types, incremental, date, id, scanned + traces.size(), handler);
+				}
+			}
+		});
+	}
+
+	private Date getDay(long date) {
+		if (date < dayStart || date >= dayEnd) {
+			final Calendar cal = Calendar.getInstance();
+			cal.setTimeInMillis(date);
+			day = AggregationTools.setToMidnight(cal);
+			cal.setTime(day);
+			cal.add(Calendar.DAY_OF_MONTH, 1);
+			dayStart = day.getTime();
+			dayEnd = cal.getTimeInMillis();
+		}
+		return day;
+	}
+
+	//Field of the indicator watermark in the watermark document
+	private String watermarkField(Indicator indicator) {
+		final String key = indicator instanceof IndicatorMongoImpl ?
+				((IndicatorMongoImpl) indicator).getWriteKey() : indicator.getKey();
+		return key.replace('.', '_');
+	}
+
+	private void saveWatermark(final Indicator indicator, long date, final Handler<JsonObject> callBack) {
+		mongo.update(COLLECTIONS.statsWatermarks.name(),
+				new JsonObject().putString("_id", watermarkId),
+				new JsonObject().putObject("$set", new JsonObject()
+						.putNumber("indicators." + watermarkField(indicator), date)),
+				true,
+				false,
+				new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> message) {
+				if (!"ok".equals(message.body().getString("status"))) {
+					callBack.handle(new JsonObject().putString("status", "error")
+							.putString("message", "Error saving watermark : " + message.body().getString("message")));
+				} else {
+					callBack.handle(new JsonObject().putString("status", "ok"));
+				}
+			}
+		});
+	}
+
+}
@@ -21,6 +21,7 @@ package org.entcore.common.controller;
 
 import fr.wseduc.webutils.Either;
 import fr.wseduc.webutils.I18n;
+import fr.wseduc.webutils.Utils;
 import fr.wseduc.webutils.http.BaseController;
 import fr.wseduc.webutils.http.Renders;
 import fr.wseduc.webutils.request.RequestUtils;
@@ -29,6 +30,7 @@ import org.entcore.common.notification.TimelineHelper;
 import org.entcore.common.service.CrudService;
 import org.entcore.common.service.VisibilityFilter;
 import org.entcore.common.share.ShareService;
+import org.entcore.common.share.impl.GenericShareService;
 import org.entcore.common.user.UserInfos;
 import org.entcore.common.user.UserUtils;
 import org.vertx.java.core.Handler;
@@ -70,6 +72,7 @@ public abstract class ControllerHelper extends BaseController {
 			badRequest(request);
 			return;
 		}
+		final boolean visibles = !"false".equals(request.params().get("visibles"));
 		getUserInfos(eb, request, new Handler<UserInfos>() {
 			@Override
 			public void handle(final UserInfos user) {
@@ -79,16 +82,15 @@ public abstract class ControllerHelper extends BaseController {
 							@Override
 							public void handle(Boolean event) {
 								if (Boolean.TRUE.equals(event)) {
-									shareService.shareInfos(user.getUserId(), id,
-											I18n.acceptLanguage(request), defaultResponseHandler(request));
+									shareInfos(user, id, I18n.acceptLanguage(request), visibles,
+											defaultResponseHandler(request));
 								} else {
 									unauthorized(request);
 								}
 							}
 						});
 					} else {
-						shareService.shareInfos(user.getUserId(), id,
-								I18n.acceptLanguage(request), defaultResponseHandler(request));
+						shareInfos(user, id, I18n.acceptLanguage(request), visibles, defaultResponseHandler(request));
 					}
 				} else {
 					unauthorized(request);
@@ -97,6 +99,55 @@ public abstract class ControllerHelper extends BaseController {
 		});
 	}
 
+	private void shareInfos(UserInfos user, String id, String acceptLanguage, boolean visibles,
+			Handler<Either<String, JsonObject>> handler) {
+		if (!visibles && shareService instanceof GenericShareService) {
+			((GenericShareService) shareService).shareInfos(user.getUserId(), id, acceptLanguage, false, handler);
+		} else {
+			shareService.shareInfos(user.getUserId(), id, acceptLanguage, handler);
+		}
+	}
+
+	/**
+	 * Renders one page of the groups or users visible by the user, to add them to a share.
+	 * Parameters : type (groups or users), search, afterName, afterId and limit.
+	 * Needs a GenericShareService.
+	 */
+	protected void shareVisibles(final HttpServerRequest request) {
+		if (!(shareService instanceof GenericShareService)) {
+			notFound(request);
+			return;
+		}
+		final boolean groups = "groups".equals(request.params().get("type"));
+		final String search = request.params().get("search");
+		final String afterName = request.params().get("afterName");
+		final String afterId = request.params().get("afterId");
+		int l;
+		try {
+			l = Integer.parseInt(Utils.getOrElse(request.params().get("limit"), "50"));
+		} catch (NumberFormatException e) {
+			badRequest(request);
+			return;
+		}
+		final int limit = l;
+		getUserInfos(eb, request, new Handler<UserInfos>() {
+			@Override
+			public void handle(UserInfos user) {
+				if (user != null) {
+					((GenericShareService) shareService).visibleShareTargets(user.getUserId(), groups, search, afterName, afterId, limit,
+							I18n.acceptLanguage(request), new Handler<JsonArray>() {
+						@Override
+						public void handle(JsonArray visibles) {
+							renderJson(request, visibles);
+						}
+					});
+				} else {
+					unauthorized(request);
+				}
+			}
+		});
+	}
+
 	protected void shareJsonSubmit(final HttpServerRequest request, final String notificationName) {
 		shareJsonSubmit(request, notificationName, true, null, null);
 	}
@@ -118,12 +169,19 @@ public abstract class ControllerHelper extends BaseController {
 			@Override
 			protected void handle() {
 				final List<String> actions = request.formAttributes().getAll("actions");
-				final String groupId = request.formAttributes().get("groupId");
-				final String userId = request.formAttributes().get("userId");
+				final List<String> groupIds = request.formAttributes().getAll("groupId");
+				final List<String> userIds = request.formAttributes().getAll("userId");
 				if (actions == null || actions.isEmpty()) {
 					badRequest(request);
 					return;
 				}
+				final JsonObject shares = new JsonObject()
+						.putObject("groups", shares(groupIds, actions))
+						.putObject("users", shares(userIds, actions));
+				if (shares.getObject("groups").size() == 0 && shares.getObject("users").size() == 0) {
+					badRequest(request);
+					return;
+				}
 				getUserInfos(eb, request, new Handler<UserInfos>() {
 					@Override
 					public void handle(final UserInfos user) {
@@ -133,14 +191,14 @@ public abstract class ControllerHelper extends BaseController {
 									@Override
 									public void handle(Boolean event) {
 										if (Boolean.TRUE.equals(event)) {
-											response(user, groupId, actions, userId);
+											response(user, shares);
 										} else {
 											unauthorized(request);
 										}
 									}
 								});
 							} else {
-								response(user, groupId, actions, userId);
+								response(user, shares);
 							}
 						} else {
 							unauthorized(request);
@@ -149,15 +207,32 @@ public abstract class ControllerHelper extends BaseController {
 				});
 			}
 
-			private void response(final UserInfos user, String groupId, List<String> actions, String userId) {
+			private JsonObject shares(List<String> ids, List<String> actions) {
+				final JsonObject s = new JsonObject();
+				if (ids != null) {
+					for (String i : ids) {
+						if (i != null && !i.trim().isEmpty()) {
+							s.putArray(i, new JsonArray(actions.toArray()));
+						}
+					}
+				}
+				return s;
+			}
+
+			private void response(final UserInfos user, JsonObject shares) {
 				Handler<Either<String, JsonObject>> r = new Handler<Either<String, JsonObject>>() {
 					@Override
 					public void handle(Either<String, JsonObject> event) {
 						if (event.isRight()) {
-							JsonObject n = event.right().getValue()
+							JsonArray n = event.right().getValue()
+									.getArray("notify-timeline-array");
+							JsonObject o = event.right().getValue()
 									.getObject("notify-timeline");
-							if (n != null && notificationName != null) {
-								notifyShare(request, id, user, new JsonArray().add(n),
+							if (n == null && o != null) {
+								n = new JsonArray().add(o);
+							}
+							if (n != null && n.size() > 0 && notificationName != null) {
+								notifyShare(request, id, user, n,
 										notificationName, params, resourceNameAttribute);
 							}
 							renderJson(request, event.right().getValue());
@@ -168,13 +243,30 @@ public abstract class ControllerHelper extends BaseController {
 						}
 					}
 				};
-				if (groupId != null) {
-					shareService.groupShare(user.getUserId(), groupId, id, actions, r);
-				} else if (userId != null) {
-					shareService.userShare(user.getUserId(), userId, id, actions, r);
-				} else {
+				if (shareService instanceof GenericShareService) {
+					((GenericShareService) shareService).share(user.getUserId(), id, shares, r);
+					return;
+				}
+				// Other share services only share with one group or user at a time
+				JsonObject groups = shares.getObject("groups");
+				JsonObject users = shares.getObject("users");
+				if (groups.size() + users.size() != 1) {
 					badRequest(request);
+				} else if (groups.size() == 1) {
+					String groupId = groups.getFieldNames().iterator().next();
+					shareService.groupShare(user.getUserId(), groupId, id, toList(groups.getArray(groupId)), r);
+				} else {
+					String userId = users.getFieldNames().iterator().next();
+					shareService.userShare(user.getUserId(), userId, id, toList(users.getArray(userId)), r);
+				}
+			}
+
+			private List<String> toList(JsonArray a) {
+				List<String> l = new ArrayList<>();
+				for (Object o : a) {
+					l.add((String) o);
 				}
+				return l;
 			}
 		});
 	}
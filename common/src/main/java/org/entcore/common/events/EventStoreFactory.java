@@ -19,16 +19,22 @@
 
 package org.entcore.common.events;
 
+import org.entcore.common.events.impl.GenericEventStore;
 import org.entcore.common.events.impl.MongoDbEventStoreFactory;
+import org.entcore.common.user.UserInfosCache;
 import org.vertx.java.core.Vertx;
+import org.vertx.java.core.json.JsonObject;
 import org.vertx.java.platform.Container;
 
+import java.util.List;
 import java.util.ServiceLoader;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public abstract class EventStoreFactory {
 
 	protected Vertx vertx;
 	protected Container container;
+	private final List<GenericEventStore> eventStores = new CopyOnWriteArrayList<>();
 
 	private static class EventStoreFactoryHolder {
 
@@ -50,6 +56,29 @@ public abstract class EventStoreFactory {
 
 	public abstract EventStore getEventStore(String module);
 
+	protected JsonObject getBatchConfig() {
+		return (container != null) ? container.config().getObject("event-store-batch") : null;
+	}
+
+	protected void initBatching(GenericEventStore eventStore) {
+		eventStore.setBatching(vertx, getBatchConfig());
+		eventStores.add(eventStore);
+	}
+
+	/**
+	 * Stores the events still buffered by the event stores of the module.
+	 */
+	public void stop() {
+		for (GenericEventStore eventStore : eventStores) {
+			eventStore.stop();
+		}
+		eventStores.clear();
+	}
+
+	protected UserInfosCache getUserInfosCache() {
+		return (vertx != null) ? UserInfosCache.getInstance(vertx) : null;
+	}
+
 	public void setVertx(Vertx vertx) {
 		this.vertx = vertx;
 	}
@@ -22,6 +22,7 @@ package org.entcore.common.events.impl;
 import fr.wseduc.webutils.Either;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
 
 public class BusEventStore extends GenericEventStore {
@@ -41,4 +42,23 @@ public class BusEventStore extends GenericEventStore {
 		});
 	}
 
+	@Override
+	protected void storeEvents(final JsonArray events, final Handler<Either<String, Void>> handler) {
+		if (!bulkPayload) {
+			super.storeEvents(events, handler);
+			return;
+		}
+		eventBus.send("event.store", new JsonObject().putArray("events", events), new Handler<Message<JsonObject>>(){
+			@Override
+			public void handle(Message<JsonObject> res) {
+				if ("ok".equals(res.body().getString("status"))) {
+					handler.handle(new Either.Right<String, Void>(null));
+				} else {
+					handler.handle(new Either.Left<String, Void>(
+							"Error : " + res.body().getString("message") + ", Events : " + events.size()));
+				}
+			}
+		});
+	}
+
 }
@@ -30,6 +30,8 @@ public class BusEventStoreFactory extends EventStoreFactory {
 		BusEventStore eventStore = new BusEventStore();
 		eventStore.setEventBus(Server.getEventBus(vertx));
 		eventStore.setModule(module);
+		initBatching(eventStore);
+		eventStore.setUserInfosCache(getUserInfosCache());
 		return eventStore;
 	}
 
@@ -24,8 +24,10 @@ import fr.wseduc.webutils.request.CookieHelper;
 import org.entcore.common.events.EventStore;
 import org.entcore.common.neo4j.Neo4j;
 import org.entcore.common.user.UserInfos;
+import org.entcore.common.user.UserInfosCache;
 import org.entcore.common.user.UserUtils;
 import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
 import org.vertx.java.core.eventbus.EventBus;
 import org.vertx.java.core.eventbus.Message;
 import org.vertx.java.core.http.HttpServerRequest;
@@ -34,12 +36,43 @@ import org.vertx.java.core.json.JsonObject;
 import org.vertx.java.core.logging.Logger;
 import org.vertx.java.core.logging.impl.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 public abstract class GenericEventStore implements EventStore {
 
 	protected String module;
 	protected EventBus eventBus;
 	protected static final Logger logger = LoggerFactory.getLogger(GenericEventStore.class);
+	private volatile BlockingQueue<JsonObject> buffer;
+	private Vertx vertx;
+	private long timerId = -1;
+	protected boolean bulkPayload = false;
+	private int batchSize;
+	private int maxInFlight;
+	private int samplingRate;
+	private int highWatermark;
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicLong sampleCounter = new AtomicLong();
+	private final AtomicLong stored = new AtomicLong();
+	private final AtomicLong sampled = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private long lastLost = 0;
+	private UserInfosCache userInfosCache;
+	private final Handler<Either<String, Void>> storeHandler = new Handler<Either<String, Void>>() {
+		@Override
+		public void handle(Either<String, Void> event) {
+			if (event.isLeft()) {
+				logger.error("Error adding event : " + event.left().getValue());
+			}
+		}
+	};
 
 	@Override
 	public void createAndStoreEvent(String eventType, UserInfos user) {
@@ -69,6 +102,11 @@ public abstract class GenericEventStore implements EventStore {
 
 	@Override
 	public void createAndStoreEvent(final String eventType, final String login) {
+		final UserInfos user = (userInfosCache != null) ? userInfosCache.get(login) : null;
+		if (user != null) {
+			execute(user, eventType, null, null);
+			return;
+		}
 		String query =
 				"MATCH (n:User {login : {login}}) " +
 				"OPTIONAL MATCH n-[:IN]->(gp:ProfileGroup) " +
@@ -83,6 +121,9 @@ public abstract class GenericEventStore implements EventStore {
 			public void handle(Message<JsonObject> event) {
 				JsonArray res = event.body().getArray("result");
 				if ("ok".equals(event.body().getString("status")) && res.size() == 1) {
+					if (userInfosCache != null) {
+						userInfosCache.put(login, res.<JsonObject>get(0));
+					}
 					execute(UserUtils.sessionToUserInfos(
 							res.<JsonObject>get(0)), eventType, null, null);
 				} else {
@@ -95,16 +136,140 @@ public abstract class GenericEventStore implements EventStore {
 
 	private void execute(UserInfos user, String eventType, HttpServerRequest request,
 			JsonObject customAttributes) {
-		storeEvent(generateEvent(eventType, user, request, customAttributes), new Handler<Either<String, Void>>() {
+		bufferEvent(generateEvent(eventType, user, request, customAttributes));
+	}
+
+	/**
+	 * Buffers the events and stores them in bulk every "delay" ms or as soon as "size" events are waiting.
+	 * Events are never waited for : when the buffer is 3/4 full only one event out of "sampling" is kept,
+	 * and when it is full new events are dropped.
+	 * Stores sending the events to infra only send a batch as a single {"events": [...]} payload when
+	 * "bulk-payload" is set, because older infra versions store that payload as one event.
+	 *
+	 * @param config : enabled (true), size (100), delay (1000), capacity (10000), sampling (10),
+	 *                 max-in-flight (4), bulk-payload (false)
+	 */
+	public void setBatching(Vertx vertx, JsonObject config) {
+		if (config == null) {
+			config = new JsonObject();
+		}
+		if (vertx == null || !config.getBoolean("enabled", true)) {
+			return;
+		}
+		final int capacity = Math.max(1, config.getInteger("capacity", 10000));
+		batchSize = Math.max(1, config.getInteger("size", 100));
+		maxInFlight = Math.max(1, config.getInteger("max-in-flight", 4));
+		samplingRate = config.getInteger("sampling", 10);
+		highWatermark = capacity * 3 / 4;
+		bulkPayload = config.getBoolean("bulk-payload", false);
+		buffer = new ArrayBlockingQueue<>(capacity);
+		this.vertx = vertx;
+		timerId = vertx.setPeriodic(config.getLong("delay", 1000l), new Handler<Long>() {
+			@Override
+			public void handle(Long timerId) {
+				flush(true);
+				logLostEvents();
+			}
+		});
+	}
+
+	public void setUserInfosCache(UserInfosCache userInfosCache) {
+		this.userInfosCache = userInfosCache;
+	}
+
+	/**
+	 * Stores the buffered events without waiting for the periodic flush, and stores the next
+	 * events immediately. Called when the module is stopped.
+	 */
+	public void stop() {
+		final BlockingQueue<JsonObject> b = buffer;
+		if (b == null) {
+			return;
+		}
+		buffer = null;
+		if (timerId >= 0) {
+			vertx.cancelTimer(timerId);
+			timerId = -1;
+		}
+		while (!b.isEmpty()) {
+			final List<JsonObject> l = new ArrayList<>(batchSize);
+			b.drainTo(l, batchSize);
+			storeBatch(l);
+		}
+	}
+
+	private void bufferEvent(JsonObject event) {
+		final BlockingQueue<JsonObject> buffer = this.buffer;
+		if (buffer == null) {
+			storeEvent(event, storeHandler);
+			return;
+		}
+		if (samplingRate > 1 && buffer.size() >= highWatermark &&
+				sampleCounter.incrementAndGet() % samplingRate != 0) {
+			sampled.incrementAndGet();
+			return;
+		}
+		if (!buffer.offer(event)) {
+			dropped.incrementAndGet();
+			return;
+		}
+		if (buffer.size() >= batchSize) {
+			flush(false);
+		}
+	}
+
+	private void flush(boolean all) {
+		final BlockingQueue<JsonObject> buffer = this.buffer;
+		if (buffer == null) {
+			return;
+		}
+		while (inFlight.get() < maxInFlight && (all ? !buffer.isEmpty() : buffer.size() >= batchSize)) {
+			final List<JsonObject> l = new ArrayList<>(batchSize);
+			buffer.drainTo(l, batchSize);
+			if (l.isEmpty()) {
+				return;
+			}
+			storeBatch(l);
+		}
+	}
+
+	private void storeBatch(List<JsonObject> l) {
+		final JsonArray events = new JsonArray();
+		for (JsonObject e : l) {
+			events.addObject(e);
+		}
+		inFlight.incrementAndGet();
+		storeEvents(events, new Handler<Either<String, Void>>() {
 			@Override
 			public void handle(Either<String, Void> event) {
-				if (event.isLeft()) {
-					logger.error("Error adding event : " + event.left().getValue());
+				inFlight.decrementAndGet();
+				if (event.isRight()) {
+					stored.addAndGet(events.size());
+				} else {
+					failed.addAndGet(events.size());
+					logger.error("Error adding events : " + event.left().getValue());
 				}
 			}
 		});
 	}
 
+	private void logLostEvents() {
+		final long lost = sampled.get() + dropped.get() + failed.get();
+		if (lost != lastLost) {
+			lastLost = lost;
+			logger.warn("Event store " + module + " lost events : " + getMetrics().encode());
+		}
+	}
+
+	public JsonObject getMetrics() {
+		return new JsonObject()
+				.putNumber("stored", stored.get())
+				.putNumber("sampled", sampled.get())
+				.putNumber("dropped", dropped.get())
+				.putNumber("failed", failed.get())
+				.putNumber("buffered", (buffer != null) ? buffer.size() : 0);
+	}
+
 	private JsonObject generateEvent(String eventType, UserInfos user, HttpServerRequest request,
 			JsonObject customAttributes) {
 		JsonObject event = new JsonObject();
@@ -136,6 +301,28 @@ public abstract class GenericEventStore implements EventStore {
 
 	protected abstract void storeEvent(JsonObject event, Handler<Either<String, Void>> handler);
 
+	protected void storeEvents(JsonArray events, final Handler<Either<String, Void>> handler) {
+		final AtomicInteger remaining = new AtomicInteger(events.size());
+		final AtomicReference<String> error = new AtomicReference<>();
+		for (Object o : events) {
+			storeEvent((JsonObject) o, new Handler<Either<String, Void>>() {
+				@Override
+				public void handle(Either<String, Void> event) {
+					if (event.isLeft()) {
+						error.compareAndSet(null, event.left().getValue());
+					}
+					if (remaining.decrementAndGet() == 0) {
+						if (error.get() != null) {
+							handler.handle(new Either.Left<String, Void>(error.get()));
+						} else {
+							handler.handle(new Either.Right<String, Void>(null));
+						}
+					}
+				}
+			});
+		}
+	}
+
 	public void setEventBus(EventBus eventBus) {
 		this.eventBus = eventBus;
 	}
@@ -25,6 +25,7 @@ import org.vertx.java.core.buffer.Buffer;
 import org.vertx.java.core.http.HttpClient;
 import org.vertx.java.core.http.HttpClientRequest;
 import org.vertx.java.core.http.HttpClientResponse;
+import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
 
 public class HttpLocalhostEventStore extends GenericEventStore {
@@ -37,6 +38,19 @@ public class HttpLocalhostEventStore extends GenericEventStore {
 
 	@Override
 	protected void storeEvent(final JsonObject event, final Handler<Either<String, Void>> handler) {
+		post(event, "Event : " + event.encode(), handler);
+	}
+
+	@Override
+	protected void storeEvents(JsonArray events, Handler<Either<String, Void>> handler) {
+		if (!bulkPayload) {
+			super.storeEvents(events, handler);
+			return;
+		}
+		post(new JsonObject().putArray("events", events), "Events : " + events.size(), handler);
+	}
+
+	private void post(JsonObject body, final String description, final Handler<Either<String, Void>> handler) {
 		HttpClientRequest req = httpClient.post("/infra/event/localhost/store", new Handler<HttpClientResponse>() {
 			@Override
 			public void handle(final HttpClientResponse response) {
@@ -44,7 +58,7 @@ public class HttpLocalhostEventStore extends GenericEventStore {
 					handler.handle(new Either.Right<String, Void>(null));
 				} else if (response.statusCode() == 403) {
 					handler.handle(new Either.Left<String, Void>(
-							"Error : " + response.statusMessage() + ", Event : " + event.encode()));
+							"Error : " + response.statusMessage() + ", " + description));
 				} else {
 					response.bodyHandler(new Handler<Buffer>() {
 						@Override
@@ -52,17 +66,17 @@ public class HttpLocalhostEventStore extends GenericEventStore {
 							if (b.length() > 0) {
 								JsonObject body = new JsonObject(b.toString());
 								handler.handle(new Either.Left<String, Void>(
-										"Error : " + body.getString("error") + ", Event : " + event.encode()));
+										"Error : " + body.getString("error") + ", " + description));
 							} else {
 								handler.handle(new Either.Left<String, Void>(
-										"Error : " + response.statusMessage() + ", Event : " + event.encode()));
+										"Error : " + response.statusMessage() + ", " + description));
 							}
 						}
 					});
 				}
 			}
 		});
-		req.end(event.encode());
+		req.end(body.encode());
 	}
 
 }
@@ -36,6 +36,8 @@ public class HttpLocalhostEventStoreFactory extends EventStoreFactory {
 		HttpLocalhostEventStore eventStore = new HttpLocalhostEventStore(httpClient);
 		eventStore.setEventBus(Server.getEventBus(vertx));
 		eventStore.setModule(module);
+		initBatching(eventStore);
+		eventStore.setUserInfosCache(getUserInfosCache());
 		return eventStore;
 	}
 
@@ -23,6 +23,7 @@ import fr.wseduc.mongodb.MongoDb;
 import fr.wseduc.webutils.Either;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
 
 public class MongoDbEventStore extends GenericEventStore {
@@ -45,4 +46,19 @@ public class MongoDbEventStore extends GenericEventStore {
 		});
 	}
 
+	@Override
+	protected void storeEvents(final JsonArray events, final Handler<Either<String, Void>> handler) {
+		mongoDb.insert(COLLECTION, events, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> res) {
+				if ("ok".equals(res.body().getString("status"))) {
+					handler.handle(new Either.Right<String, Void>(null));
+				} else {
+					handler.handle(new Either.Left<String, Void>(
+							"Error : " + res.body().getString("message") + ", Events : " + events.size()));
+				}
+			}
+		});
+	}
+
 }
@@ -30,6 +30,8 @@ public class MongoDbEventStoreFactory extends EventStoreFactory {
 		MongoDbEventStore eventStore =  new MongoDbEventStore();
 		eventStore.setEventBus(Server.getEventBus(vertx));
 		eventStore.setModule(module);
+		initBatching(eventStore);
+		eventStore.setUserInfosCache(getUserInfosCache());
 		return eventStore;
 	}
 
@@ -32,6 +32,7 @@ import org.entcore.common.controller.RightsController;
 import org.entcore.common.events.EventStoreFactory;
 import org.entcore.common.http.filter.ActionFilter;
 import org.entcore.common.http.filter.HttpActionFilter;
+import org.entcore.common.http.filter.CachedResourcesProvider;
 import org.entcore.common.http.filter.ResourceProviderFilter;
 import org.entcore.common.http.filter.ResourcesProvider;
 import org.entcore.common.neo4j.Neo4j;
@@ -87,6 +88,11 @@ public abstract class BaseServer extends Server {
 		eventStoreFactory.setContainer(container);
 		eventStoreFactory.setVertx(vertx);
 
+		JsonObject resourcesCache = config.getObject("resources-cache");
+		if (resourcesCache != null && resourcesCache.getBoolean("enabled", false)) {
+			resourceProvider = new CachedResourcesProvider(vertx, resourceProvider, resourcesCache);
+		}
+
 		if (config.getString("integration-mode","BUS").equals("HTTP")) {
 			addFilter(new HttpActionFilter(securedUriBinding, config, vertx, resourceProvider));
 		} else {
@@ -102,6 +108,12 @@ public abstract class BaseServer extends Server {
 		SecurityHandler.setVertx(vertx);
 	}
 
+	@Override
+	public void stop() {
+		EventStoreFactory.getFactory().stop();
+		super.stop();
+	}
+
 	@Override
 	protected void i18nMessages(HttpServerRequest request) {
 		String sessionId = CookieHelper.getInstance().getSigned("oneSessionId", request);
@@ -255,8 +267,12 @@ public abstract class BaseServer extends Server {
 	}
 
 	protected BaseServer setDefaultResourceFilter(ResourcesProvider resourceProvider) {
-		if (this.resourceProvider instanceof ResourceProviderFilter) {
-			((ResourceProviderFilter) this.resourceProvider).setDefault(resourceProvider);
+		ResourcesProvider provider = this.resourceProvider;
+		if (provider instanceof CachedResourcesProvider) {
+			provider = ((CachedResourcesProvider) provider).getProvider();
+		}
+		if (provider instanceof ResourceProviderFilter) {
+			((ResourceProviderFilter) provider).setDefault(resourceProvider);
 		}
 		return this;
 	}
@@ -121,7 +121,7 @@ public class ActionFilter implements Filter {
 
 	private void authorizeResourceAction(HttpServerRequest request, JsonObject session,
 										 Binding binding, Handler<Boolean> handler) {
-		UserInfos user = UserUtils.sessionToUserInfos(session);
+		UserInfos user = UserUtils.sessionToUserInfos(request, session);
 		if (user != null && provider != null) {
 			provider.authorize(request, binding, user, handler);
 		} else {
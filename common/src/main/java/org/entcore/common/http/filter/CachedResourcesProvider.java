@@ -0,0 +1,252 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2016
+ *
+ * This file is part of ENT Core. ENT Core is a versatile ENT engine based on the JVM.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with ENT Core is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of ENT Core, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package org.entcore.common.http.filter;
+
+import fr.wseduc.webutils.Either;
+import fr.wseduc.webutils.http.Binding;
+import org.entcore.common.user.UserInfos;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.eventbus.EventBus;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.http.HttpServerRequest;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.entcore.common.appregistry.AppRegistryEvents.*;
+
+/**
+ * Keeps the decisions of a resources provider for a short time, by user, binding and resource
+ * (request path and query). Only the requests with a cached method (GET and HEAD by default) are cached,
+ * as the other ones may be authorized from their body.<br>
+ * Decisions are invalidated by the ids of the users or resources published on INVALIDATION_ADDRESS
+ * (all of them without ids), and after imports and rights updates.
+ */
+public class CachedResourcesProvider implements ResourcesProvider {
+
+	public static final String INVALIDATION_ADDRESS = "resources.cache.invalidation";
+	private static final Logger log = LoggerFactory.getLogger(CachedResourcesProvider.class);
+	private final ResourcesProvider provider;
+	private final long ttl;
+	private final long negativeTtl;
+	private final Set<String> methods = new HashSet<>();
+	private final Map<String, Decision> decisions;
+	private final Map<String, long[]> metrics = new HashMap<>();
+	private long lookups;
+
+	private static final class Decision {
+		private final boolean authorized;
+		private final long expireAt;
+		private final String userId;
+		private final String resource;
+
+		private Decision(boolean authorized, long expireAt, String userId, String resource) {
+			this.authorized = authorized;
+			this.expireAt = expireAt;
+			this.userId = userId;
+			this.resource = resource;
+		}
+	}
+
+	/**
+	 * @param config : ttl (30000 ms), negative-ttl (5000 ms), max-size (10000), methods (["GET", "HEAD"])
+	 *               and metrics-period (600000 ms)
+	 */
+	public CachedResourcesProvider(Vertx vertx, ResourcesProvider provider, JsonObject config) {
+		this.provider = provider;
+		this.ttl = config.getLong("ttl", 30000l);
+		this.negativeTtl = config.getLong("negative-ttl", 5000l);
+		final int maxSize = config.getInteger("max-size", 10000);
+		this.decisions = new LinkedHashMap<String, Decision>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Decision> eldest) {
+				return size() > maxSize;
+			}
+		};
+		for (Object m : config.getArray("methods", new JsonArray().addString("GET").addString("HEAD"))) {
+			methods.add(m.toString());
+		}
+		vertx.eventBus().registerHandler(INVALIDATION_ADDRESS, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> message) {
+				invalidate(message.body().getArray("ids"));
+			}
+		});
+		vertx.eventBus().registerHandler(APP_REGISTRY_PUBLISH_ADDRESS, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> message) {
+				final String type = message.body().getString("type");
+				if (PROFILE_GROUP_ACTIONS_UPDATED.equals(type) || USER_GROUP_UPDATED.equals(type) ||
+						IMPORT_SUCCEEDED.equals(type)) {
+					invalidate(null);
+				}
+			}
+		});
+		vertx.setPeriodic(config.getLong("metrics-period", 600000l), new Handler<Long>() {
+			@Override
+			public void handle(Long timerId) {
+				logMetrics();
+			}
+		});
+	}
+
+	@Override
+	public void authorize(HttpServerRequest resourceRequest, Binding binding, final UserInfos user,
+			final Handler<Boolean> handler) {
+		if (user == null || user.getUserId() == null || !methods.contains(resourceRequest.method())) {
+			provider.authorize(resourceRequest, binding, user, handler);
+			return;
+		}
+		final String query = resourceRequest.query();
+		final String resource = resourceRequest.path() + (query != null ? "?" + query : "");
+		final String key = user.getUserId() + "|" + binding.getServiceMethod() + "|" + resource;
+		final String providerName = getProviderName(binding);
+		final Decision decision = get(key);
+		count(providerName, decision != null);
+		if (decision != null) {
+			handler.handle(decision.authorized);
+			return;
+		}
+		provider.authorize(resourceRequest, binding, user, new Handler<Boolean>() {
+			@Override
+			public void handle(Boolean authorized) {
+				put(key, new Decision(Boolean.TRUE.equals(authorized), System.currentTimeMillis() +
+						(Boolean.TRUE.equals(authorized) ? ttl : negativeTtl), user.getUserId(), resource));
+				handler.handle(authorized);
+			}
+		});
+	}
+
+	private String getProviderName(Binding binding) {
+		ResourcesProvider p = provider;
+		if (provider instanceof ResourceProviderFilter) {
+			p = ((ResourceProviderFilter) provider).getFilter(binding);
+		}
+		return (p != null) ? p.getClass().getSimpleName() : "none";
+	}
+
+	private synchronized Decision get(String key) {
+		final Decision decision = decisions.get(key);
+		if (decision != null && decision.expireAt < System.currentTimeMillis()) {
+			decisions.remove(key);
+			return null;
+		}
+		return decision;
+	}
+
+	private synchronized void put(String key, Decision decision) {
+		decisions.put(key, decision);
+	}
+
+	private synchronized void invalidate(JsonArray ids) {
+		if (ids == null || ids.size() == 0) {
+			decisions.clear();
+			return;
+		}
+		final Iterator<Decision> it = decisions.values().iterator();
+		while (it.hasNext()) {
+			final Decision decision = it.next();
+			for (Object id : ids) {
+				if (id != null && (id.equals(decision.userId) || decision.resource.contains(id.toString()))) {
+					it.remove();
+					break;
+				}
+			}
+		}
+	}
+
+	private synchronized void count(String providerName, boolean hit) {
+		long[] m = metrics.get(providerName);
+		if (m == null) {
+			m = new long[2];
+			metrics.put(providerName, m);
+		}
+		m[hit ? 0 : 1]++;
+		lookups++;
+	}
+
+	/**
+	 * @return Hits, misses and hit rate by provider
+	 */
+	public synchronized JsonObject getMetrics() {
+		final JsonObject json = new JsonObject();
+		for (Map.Entry<String, long[]> e : metrics.entrySet()) {
+			final long[] m = e.getValue();
+			json.putObject(e.getKey(), new JsonObject()
+					.putNumber("hits", m[0])
+					.putNumber("misses", m[1])
+					.putNumber("hitRate", (m[0] + m[1] > 0) ? (double) m[0] / (m[0] + m[1]) : 0d));
+		}
+		return json;
+	}
+
+	private void logMetrics() {
+		final long l;
+		synchronized (this) {
+			l = lookups;
+			lookups = 0;
+		}
+		if (l > 0) {
+			log.info("Resources decisions cache : " + getMetrics().encode());
+		}
+	}
+
+	public ResourcesProvider getProvider() {
+		return provider;
+	}
+
+	/**
+	 * Invalidates the cached decisions of these users or resources, in every module.
+	 * @param ids : Ids of users or resources, all the decisions are invalidated if null or empty.
+	 */
+	public static void invalidate(EventBus eb, JsonArray ids) {
+		final JsonObject message = new JsonObject();
+		if (ids != null) {
+			message.putArray("ids", ids);
+		}
+		eb.publish(INVALIDATION_ADDRESS, message);
+	}
+
+	/**
+	 * @return A handler invalidating the decisions on these ids when the result is successful, before calling handler.
+	 */
+	public static <T> Handler<Either<String, T>> invalidateOnSuccess(final EventBus eb, final JsonArray ids,
+			final Handler<Either<String, T>> handler) {
+		return new Handler<Either<String, T>>() {
+			@Override
+			public void handle(Either<String, T> event) {
+				if (event.isRight()) {
+					invalidate(eb, ids);
+				}
+				handler.handle(event);
+			}
+		};
+	}
+
+}
@@ -115,7 +115,7 @@ public class HttpActionFilter implements Filter {
 	private void authorizeResourceAction(HttpServerRequest request, JsonObject session,
 										 Binding binding, Handler<Boolean> handler) {
 		if (session != null && provider != null) {
-			UserInfos user = UserUtils.sessionToUserInfos(session);
+			UserInfos user = UserUtils.sessionToUserInfos(request, session);
 			provider.authorize(request, binding, user, handler);
 		} else {
 			handler.handle(false);
@@ -91,16 +91,21 @@ public class ResourceProviderFilter implements ResourcesProvider {
 
 	@Override
 	public void authorize(HttpServerRequest resourceRequest, Binding binding, UserInfos user, Handler<Boolean> handler) {
+		ResourcesProvider filter = getFilter(binding);
+		if (filter == null) {
+			log.warn("Missing filter for method " + binding.getServiceMethod());
+			handler.handle(false);
+			return;
+		}
+		filter.authorize(resourceRequest, binding, user, handler);
+	}
+
+	public ResourcesProvider getFilter(Binding binding) {
 		ResourcesProvider filter = filtersMapping.get(binding.getServiceMethod());
 		if (filter == null) {
 			filter = filtersMapping.get(DEFAULT);
-			if (filter == null) {
-				log.warn("Missing filter for method " + binding.getServiceMethod());
-				handler.handle(false);
-				return;
-			}
 		}
-		filter.authorize(resourceRequest, binding, user, handler);
+		return filter;
 	}
 
 	public void setDefault(ResourcesProvider f) {
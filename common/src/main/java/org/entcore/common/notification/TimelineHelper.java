@@ -264,6 +264,7 @@ public class TimelineHelper {
 				}
 			}
 		}
+		TimelineTemplateCache.getInstance(vertx).invalidateI18n();
 	}
 
 }
@@ -21,12 +21,15 @@ package org.entcore.common.notification;
 
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.entcore.common.email.EmailFactory;
@@ -52,6 +55,7 @@ import fr.wseduc.mongodb.MongoQueryBuilder;
 import fr.wseduc.webutils.Either;
 import fr.wseduc.webutils.I18n;
 import fr.wseduc.webutils.email.EmailSender;
+import fr.wseduc.webutils.http.Renders;
 
 public class TimelineMailer {
 
@@ -65,16 +69,44 @@ public class TimelineMailer {
 	private static final Logger log = LoggerFactory.getLogger(TimelineMailer.class);
 
 	private final int USERS_LIMIT;
+	private final int MAILS_CONCURRENCY;
+	private final int MAILS_PER_SECOND;
+	private final TimelineTemplateCache templateCache;
+	private final Renders localRenders;
 
 	public TimelineMailer(Vertx vertx, EventBus eb, Container container){
 		this(vertx, eb, container, 10);
 	}
 	public TimelineMailer(Vertx vertx, EventBus eb, Container container, int usersLimit){
+		this(vertx, eb, container, usersLimit, false);
+	}
+
+	/**
+	 * @param localRendering : Render and translate in-process instead of calling the timeline module,
+	 *                       only when the mailer runs inside the timeline module.
+	 */
+	public TimelineMailer(Vertx vertx, EventBus eb, Container container, int usersLimit, boolean localRendering){
 		this.vertx = vertx;
 		this.eb = eb;
 		this.USERS_LIMIT = usersLimit;
+		this.MAILS_CONCURRENCY = Math.max(1, container.config().getInteger("mails-concurrency", 10));
+		this.MAILS_PER_SECOND = container.config().getInteger("mails-per-second", 0);
 		EmailFactory emailFactory = new EmailFactory(this.vertx, container, container.config());
 		emailSender = emailFactory.getSender();
+		if(localRendering){
+			final TimelineTemplateCache cache = TimelineTemplateCache.getInstance(vertx);
+			this.templateCache = cache;
+			this.localRenders = new Renders(vertx, container) {
+				@Override
+				protected void setLambdaTemplateRequest(HttpServerRequest request, Map<String, Object> ctx) {
+					super.setLambdaTemplateRequest(request, ctx);
+					cache.setLambdas(request, ctx);
+				}
+			};
+		} else {
+			this.templateCache = null;
+			this.localRenders = null;
+		}
 	}
 
 	/**
@@ -87,6 +119,14 @@ public class TimelineMailer {
 	 */
 	private void translateTimeline(JsonArray keys, String domain,
 			String language, final Handler<JsonArray> handler){
+		if(templateCache != null){
+			JsonArray translations = new JsonArray();
+			for(Object key : keys){
+				translations.add(templateCache.translate((String) key, domain, language));
+			}
+			handler.handle(translations);
+			return;
+		}
 		eb.send(TIMELINE_ADDRESS, new JsonObject()
 				.putString("action", "translate-timeline")
 				.putString("language", language)
@@ -111,13 +151,22 @@ public class TimelineMailer {
 	 */
 	private void processTimelineTemplate(JsonObject parameters, String notificationName,
 			String template, String domain, String scheme, String language, final Handler<String> handler){
+		final JsonObject request = new JsonObject()
+				.putObject("headers", new JsonObject()
+						.putString("Host", domain)
+						.putString("X-Forwarded-Proto", scheme)
+						.putString("Accept-Language", language));
+		if(localRenders != null){
+			localRenders.processTemplate(new JsonHttpServerRequest(request), template, parameters, new Handler<String>() {
+				public void handle(String processedTemplate) {
+					handler.handle(processedTemplate != null ? processedTemplate : "");
+				}
+			});
+			return;
+		}
 		eb.send(TIMELINE_ADDRESS, new JsonObject()
 				.putString("action", "process-timeline-template")
-				.putObject("request", new JsonObject()
-					.putObject("headers", new JsonObject()
-							.putString("Host", domain)
-							.putString("X-Forwarded-Proto", scheme)
-							.putString("Accept-Language", language)))
+				.putObject("request", request)
 				.putObject("parameters", parameters)
 				.putString("resourceName", notificationName)
 				.putString("template", template), new Handler<Message<JsonObject>>() {
@@ -191,57 +240,82 @@ public class TimelineMailer {
 	}
 
 	/**
-	 * Retrieves users having an email address, paginated.
+	 * Retrieves users having an email address, paginated on their id.
 	 *
-	 * @param page : Page number
+	 * @param lastId : Id of the last user of the previous page
 	 * @param handler : Handles the users
 	 */
-	private void getImpactedUsers(int page, final Handler<Either<String, JsonArray>> handler){
+	private void getImpactedUsers(String lastId, final Handler<Either<String, JsonArray>> handler){
 		String query =
 			"MATCH (u:User), u-[:IN]->(g:Group)-[:AUTHORIZED]-(r:Role)-[:AUTHORIZE]->(act:WorkflowAction) " +
 			"WHERE u.activationCode IS NULL AND u.email IS NOT NULL AND length(u.email) > 0 " +
-			"AND act.name = \"org.entcore.timeline.controllers.TimelineController|mixinConfig\"" +
+			"AND act.name = \"org.entcore.timeline.controllers.TimelineController|mixinConfig\" " +
+			"AND u.id > {lastId} " +
 			"RETURN DISTINCT u.email as mail, u.id as id " +
-			"SKIP {skip} LIMIT {limit}";
+			"ORDER BY id " +
+			"LIMIT {limit}";
 		JsonObject params = new JsonObject()
-			.putNumber("skip", page * USERS_LIMIT)
+			.putString("lastId", lastId)
 			.putNumber("limit", USERS_LIMIT);
 		neo4j.execute(query, params, Neo4jResult.validResultHandler(handler));
 	}
 
 	/**
-	 * Retrieves all timeline notifications from mongodb for a single user, from a specific date in the past.
+	 * Retrieves all timeline notifications from mongodb for a set of users, from a specific date in the past.
 	 *
-	 * @param userId : Userid
+	 * @param userIds : Ids of the users
 	 * @param from : The starting date
-	 * @param handler : Handles the notifications
+	 * @param handler : Handles the notifications, by user id
 	 */
-	private void getUserNotifications(String userId, Date from, final Handler<JsonArray> handler){
+	private void getUsersNotifications(final String[] userIds, Date from, final Handler<Map<String, JsonArray>> handler){
 		JsonObject matcher = MongoQueryBuilder.build(
 				QueryBuilder
-					.start("recipients").elemMatch(QueryBuilder.start("userId").is(userId).get())
+					.start("recipients.userId").in(userIds)
 					.and("date").greaterThanEquals(from));
-
-		mongo.find("timeline", matcher, new Handler<Message<JsonObject>>() {
+		JsonObject keys = new JsonObject()
+				.putNumber("type", 1)
+				.putNumber("event-type", 1)
+				.putNumber("params", 1)
+				.putNumber("date", 1)
+				.putNumber("recipients.userId", 1);
+
+		mongo.find("timeline", matcher, null, keys, new Handler<Message<JsonObject>>() {
 			public void handle(Message<JsonObject> event) {
+				final Map<String, JsonArray> notifications = new HashMap<>();
 				if("error".equals(event.body().getString("status", "error"))){
-					handler.handle(new JsonArray());
-				} else {
-					handler.handle(event.body().getArray("results"));
+					log.error("[getUsersNotifications] Error while retrieving notifications : " + event.body().getString("message"));
+					handler.handle(notifications);
+					return;
 				}
+				final Set<String> ids = new HashSet<>(Arrays.asList(userIds));
+				for(Object o : event.body().getArray("results", new JsonArray())){
+					final JsonObject notification = (JsonObject) o;
+					for(Object r : notification.getArray("recipients", new JsonArray())){
+						final String userId = ((JsonObject) r).getString("userId");
+						if(!ids.contains(userId))
+							continue;
+						JsonArray userNotifications = notifications.get(userId);
+						if(userNotifications == null){
+							userNotifications = new JsonArray();
+							notifications.put(userId, userNotifications);
+						}
+						userNotifications.addObject(notification);
+					}
+				}
+				handler.handle(notifications);
 			}
 		});
 	}
 
 	/**
-	 * Retrieves an aggregated list of notifications from mongodb for a single user.
+	 * Retrieves an aggregated list of notifications from mongodb for a set of users.
 	 *
-	 *  Notifications are grouped by type & event-type.
-	 * @param userId : Userid
+	 *  Notifications are grouped by user, type & event-type.
+	 * @param userIds : Ids of the users
 	 * @param from : Starting date in the past
-	 * @param handler: Handles the notifications
+	 * @param handler: Handles the notifications, by user id
 	 */
-	private void getAggregatedUserNotifications(String userId, Date from, final Handler<JsonArray> handler){
+	private void getAggregatedUsersNotifications(final String[] userIds, Date from, final Handler<Map<String, JsonArray>> handler){
 		final JsonObject aggregation = new JsonObject();
 		JsonArray pipeline = new JsonArray();
 		aggregation
@@ -251,25 +325,43 @@ public class TimelineMailer {
 
 		JsonObject matcher = MongoQueryBuilder.build(
 			QueryBuilder
-				.start("recipients").elemMatch(QueryBuilder.start("userId").is(userId).get())
+				.start("recipients.userId").in(userIds)
 				.and("date").greaterThanEquals(from));
-		JsonObject grouper = new JsonObject("{ \"_id\" : { \"type\": \"$type\", \"event-type\": \"$event-type\"}, \"count\": { \"$sum\": 1 } }");
-		JsonObject transformer = new JsonObject("{ \"type\": \"$_id.type\", \"event-type\": \"$_id.event-type\", \"count\": 1, \"_id\": 0 }");
+		JsonObject recipientsMatcher = MongoQueryBuilder.build(
+			QueryBuilder.start("recipients.userId").in(userIds));
+		JsonObject projection = new JsonObject("{ \"type\": 1, \"event-type\": 1, \"recipients.userId\": 1 }");
+		JsonObject grouper = new JsonObject("{ \"_id\" : { \"userId\": \"$recipients.userId\", \"type\": \"$type\", \"event-type\": \"$event-type\"}, \"count\": { \"$sum\": 1 } }");
+		JsonObject transformer = new JsonObject("{ \"userId\": \"$_id.userId\", \"type\": \"$_id.type\", \"event-type\": \"$_id.event-type\", \"count\": 1, \"_id\": 0 }");
 
 		pipeline.addObject(new JsonObject().putObject("$match", matcher));
+		pipeline.addObject(new JsonObject().putObject("$project", projection));
+		pipeline.addObject(new JsonObject().putString("$unwind", "$recipients"));
+		pipeline.addObject(new JsonObject().putObject("$match", recipientsMatcher));
 		pipeline.add(new JsonObject().putObject("$group", grouper));
 		pipeline.add(new JsonObject().putObject("$project", transformer));
 
 		mongo.command(aggregation.toString(), new Handler<Message<JsonObject>>() {
 			@Override
 			public void handle(Message<JsonObject> event) {
+				final Map<String, JsonArray> notifications = new HashMap<>();
 				if("error".equals(event.body().getString("status", "error"))){
-					handler.handle(new JsonArray());
-				} else {
-					handler.handle(
-						event.body().getObject("result", new JsonObject())
-							.getArray("result", new JsonArray()));
+					log.error("[getAggregatedUsersNotifications] Error while retrieving notifications : " + event.body().getString("message"));
+					handler.handle(notifications);
+					return;
+				}
+				JsonArray results = event.body().getObject("result", new JsonObject()).getArray("result", new JsonArray());
+				for(Object o : results){
+					final JsonObject notification = (JsonObject) o;
+					final String userId = notification.getString("userId");
+					notification.removeField("userId");
+					JsonArray userNotifications = notifications.get(userId);
+					if(userNotifications == null){
+						userNotifications = new JsonArray();
+						notifications.put(userId, userNotifications);
+					}
+					userNotifications.addObject(notification);
 				}
+				handler.handle(notifications);
 			}
 
 		});
@@ -415,6 +507,60 @@ public class TimelineMailer {
 		});
 	}
 
+	/**
+	 * Builds the template parameters of a periodic mail from the notifications of a single user.
+	 */
+	private interface MailContentBuilder {
+		JsonObject build(JsonObject userPrefs, JsonArray notifications, JsonObject notificationsDefaults, String language);
+	}
+
+	/**
+	 * State of a daily or weekly mailing run.
+	 */
+	private static final class MailingRun {
+		private final String logPrefix;
+		private final String template;
+		private final String subjectKey;
+		private final Date from;
+		private final boolean aggregated;
+		private final MailContentBuilder builder;
+		private final HttpServerRequest request = new JsonHttpServerRequest(new JsonObject());
+		private final JsonObject notificationsDefaults = new JsonObject();
+		private final Map<String, String> subjects = new HashMap<>();
+		private final JsonObject results = new JsonObject()
+			.putNumber("mails.sent", 0)
+			.putNumber("users.ko", 0)
+			.putNumber("users.processed", 0)
+			.putNumber("pages", 0);
+		private final long start = System.currentTimeMillis();
+		private long nextSendSlot;
+
+		private MailingRun(String logPrefix, String template, String subjectKey, Date from,
+				boolean aggregated, MailContentBuilder builder){
+			this.logPrefix = logPrefix;
+			this.template = template;
+			this.subjectKey = subjectKey;
+			this.from = from;
+			this.aggregated = aggregated;
+			this.builder = builder;
+		}
+
+		private void increment(String field, int delta){
+			results.putNumber(field, results.getInteger(field, 0) + delta);
+		}
+	}
+
+	/**
+	 * A page of impacted users, with their preferences and notifications.
+	 */
+	private static final class UsersPage {
+		private JsonArray preferences = new JsonArray();
+		private Map<String, JsonArray> notifications = new HashMap<>();
+		private String lastId;
+		private boolean last;
+		private String error;
+	}
+
 	/**
 	 * Send daily notification emails for all users.
 	 *
@@ -422,9 +568,6 @@ public class TimelineMailer {
 	 * @param handler : Handles the results, emails sent / users KO
 	 */
 	public void sendDailyMails(int dayDelta, final Handler<Either<String, JsonObject>> handler){
-
-		final HttpServerRequest request = new JsonHttpServerRequest(new JsonObject());
-		final AtomicInteger userPagination = new AtomicInteger(0);
 		final Calendar dayDate = Calendar.getInstance();
 		dayDate.add(Calendar.DAY_OF_MONTH, dayDelta);
 		dayDate.set(Calendar.HOUR_OF_DAY, 0);
@@ -432,168 +575,47 @@ public class TimelineMailer {
 		dayDate.set(Calendar.SECOND, 0);
 		dayDate.set(Calendar.MILLISECOND, 0);
 
-		final JsonObject results = new JsonObject()
-			.putNumber("mails.sent", 0)
-			.putNumber("users.ko", 0);
-		final JsonObject notificationsDefaults = new JsonObject();
-
-		final Handler<Boolean> userContinuationHandler = new Handler<Boolean>() {
-
-			private final Handler<Boolean> continuation = this;
-			private final Handler<JsonArray> usersHandler = new Handler<JsonArray>() {
-				public void handle(final JsonArray users) {
-					final int nbUsers = users.size();
-					if(nbUsers == 0){
-						continuation.handle(false);
-						return;
+		final MailContentBuilder builder = new MailContentBuilder() {
+			public JsonObject build(JsonObject userPrefs, JsonArray notifications, JsonObject notificationsDefaults, String language) {
+				SimpleDateFormat formatter = new SimpleDateFormat("EEE, d MMM yyyy HH:mm:ss", Locale.forLanguageTag(language));
+				final JsonArray dates = new JsonArray();
+				final JsonArray templates = new JsonArray();
+
+				for(Object notificationObj : notifications){
+					JsonObject notification = (JsonObject) notificationObj;
+					final String notificationName =
+						notification.getString("type","").toLowerCase() + "." +
+						notification.getString("event-type", "").toLowerCase();
+					if(notificationsDefaults.getObject(notificationName) == null)
+						continue;
+
+					JsonObject notificationPreference = userPrefs
+							.getObject("preferences", new JsonObject())
+								.getObject("config", new JsonObject())
+									.getObject(notificationName, new JsonObject());
+					if(TimelineNotificationsLoader.Frequencies.DAILY.name().equals(
+							notificationPrefsMixin("defaultFrequency", notificationPreference, notificationsDefaults.getObject(notificationName))) &&
+						!TimelineNotificationsLoader.Restrictions.INTERNAL.name().equals(
+							notificationPrefsMixin("restriction", notificationPreference, notificationsDefaults.getObject(notificationName))) &&
+						!TimelineNotificationsLoader.Restrictions.HIDDEN.name().equals(
+							notificationPrefsMixin("restriction", notificationPreference, notificationsDefaults.getObject(notificationName)))){
+						templates.add(new JsonObject()
+							.putString("template", notificationsDefaults.getObject(notificationName, new JsonObject()).getString("template", ""))
+							.putObject("params", notification.getObject("params", new JsonObject())));
+						dates.add(formatter.format(MongoDb.parseIsoDate(notification.getObject("date"))));
 					}
-					final AtomicInteger usersCountdown = new AtomicInteger(nbUsers);
-
-					final VoidHandler usersEndHandler = new VoidHandler() {
-						protected void handle() {
-							if(usersCountdown.decrementAndGet() <= 0){
-								continuation.handle(nbUsers == USERS_LIMIT);
-							}
-						}
-					};
-
-					final JsonArray userIds = new JsonArray();
-					for(Object userObj : users)
-						userIds.add(((JsonObject) userObj).getString("id", ""));
-					getUsersPreferences(userIds, new Handler<JsonArray>(){
-						public void handle(JsonArray preferences) {
-							for(Object userObj : preferences){
-								final JsonObject userPrefs = (JsonObject) userObj;
-								final String userDomain = userPrefs.getString("lastDomain", I18n.DEFAULT_DOMAIN);
-								final String userScheme = userPrefs.getString("lastScheme", "http");
-								String mutableUserLanguage = "fr";
-								try {
-									mutableUserLanguage = new JsonObject(userPrefs.getString("language", "{}")).getString("default-domain", "fr");
-								} catch(Exception e) {
-									log.error("UserId [" + userPrefs.getString("userId", "") + "] - Bad language preferences format");
-								}
-								final String userLanguage = mutableUserLanguage;
-
-								getUserNotifications(userPrefs.getString("userId", ""), dayDate.getTime(), new Handler<JsonArray>(){
-									public void handle(JsonArray notifications) {
-										if(notifications.size() == 0){
-											usersEndHandler.handle(null);
-											return;
-										}
-
-										SimpleDateFormat formatter = new SimpleDateFormat("EEE, d MMM yyyy HH:mm:ss", Locale.forLanguageTag(userLanguage));
-										final JsonArray dates = new JsonArray();
-										final JsonArray templates = new JsonArray();
-
-										for(Object notificationObj : notifications){
-											JsonObject notification = (JsonObject) notificationObj;
-											final String notificationName =
-												notification.getString("type","").toLowerCase() + "." +
-												notification.getString("event-type", "").toLowerCase();
-											if(notificationsDefaults.getObject(notificationName) == null)
-												continue;
-
-											JsonObject notificationPreference = userPrefs
-													.getObject("preferences", new JsonObject())
-														.getObject("config", new JsonObject())
-															.getObject(notificationName, new JsonObject());
-											if(TimelineNotificationsLoader.Frequencies.DAILY.name().equals(
-													notificationPrefsMixin("defaultFrequency", notificationPreference, notificationsDefaults.getObject(notificationName))) &&
-												!TimelineNotificationsLoader.Restrictions.INTERNAL.name().equals(
-													notificationPrefsMixin("restriction", notificationPreference, notificationsDefaults.getObject(notificationName))) &&
-												!TimelineNotificationsLoader.Restrictions.HIDDEN.name().equals(
-													notificationPrefsMixin("restriction", notificationPreference, notificationsDefaults.getObject(notificationName)))){
-												templates.add(new JsonObject()
-													.putString("template", notificationsDefaults.getObject(notificationName, new JsonObject()).getString("template", ""))
-													.putObject("params", notification.getObject("params", new JsonObject())));
-												dates.add(formatter.format(MongoDb.parseIsoDate(notification.getObject("date"))));
-											}
-										}
-										if(templates.size() > 0){
-											JsonObject templateParams = new JsonObject()
-												.putArray("nestedTemplatesArray", templates)
-												.putArray("notificationDates", dates);
-											processTimelineTemplate(templateParams, "", "notifications/daily-mail.html",
-													userDomain, userScheme, userLanguage, new Handler<String>() {
-												public void handle(final String processedTemplate) {
-													//On completion : log
-													final Handler<Message<JsonObject>> completionHandler = new Handler<Message<JsonObject>>(){
-														public void handle(Message<JsonObject> event) {
-															if("error".equals(event.body().getString("status", "error"))){
-																log.error("[Timeline daily emails] Error while sending mail : " + event.body());
-																results.putNumber("users.ko", results.getInteger("users.ko") + 1);
-															} else {
-																results.putNumber("mails.sent", results.getInteger("mails.sent") + 1);
-															}
-															usersEndHandler.handle(null);
-														}
-
-													};
-
-													//Translate mail title
-													JsonArray keys = new JsonArray()
-														.add("timeline.daily.mail.subject.header");
-													translateTimeline(keys, userDomain, userLanguage, new Handler<JsonArray>() {
-														public void handle(JsonArray translations) {
-															//Send mail containing the "daily" notifications
-															emailSender.sendEmail(request,
-																userPrefs.getString("userMail", ""),
-																null,
-																null,
-																translations.get(0).toString(),
-																processedTemplate,
-																null,
-																false,
-																completionHandler);
-														}
-													});
-												}
-											});
-										} else {
-											usersEndHandler.handle(null);
-										}
-
-									}
-								});
-							}
-						}
-					});
 				}
-			};
-
-			public void handle(Boolean continuation) {
-				if(continuation){
-					getImpactedUsers(userPagination.getAndIncrement(), new Handler<Either<String,JsonArray>>() {
-						public void handle(Either<String, JsonArray> event) {
-							if(event.isLeft()){
-								log.error("[sendDailyMails] Error while retrieving impacted users : " + event.left().getValue());
-								handler.handle(new Either.Left<String, JsonObject>(event.left().getValue()));
-							} else {
-								JsonArray users = event.right().getValue();
-								usersHandler.handle(users);
-							}
-						}
-					});
-				} else {
-					handler.handle(new Either.Right<String, JsonObject>(results));
+				if(templates.size() == 0){
+					return null;
 				}
+				return new JsonObject()
+					.putArray("nestedTemplatesArray", templates)
+					.putArray("notificationDates", dates);
 			}
 		};
 
-		getNotificationsDefaults(new Handler<JsonArray>() {
-			public void handle(final JsonArray notifications) {
-				if(notifications == null){
-					log.error("[sendDailyMails] Error while retrieving notifications defaults.");
-					return;
-				} else {
-					for(Object notifObj: notifications){
-						final JsonObject notif = (JsonObject) notifObj;
-						notificationsDefaults.putObject(notif.getString("key", ""), notif);
-					}
-					userContinuationHandler.handle(true);
-				}
-			}
-		});
+		sendMails(new MailingRun("[Timeline daily emails]", "notifications/daily-mail.html",
+				"timeline.daily.mail.subject.header", dayDate.getTime(), false, builder), handler);
 	}
 
 	/**
@@ -603,9 +625,6 @@ public class TimelineMailer {
 	 * @param handler : Handles the results, emails sent / users KO
 	 */
 	public void sendWeeklyMails(int dayDelta, final Handler<Either<String, JsonObject>> handler){
-
-		final HttpServerRequest request = new JsonHttpServerRequest(new JsonObject());
-		final AtomicInteger userPagination = new AtomicInteger(0);
 		final Calendar weekDate = Calendar.getInstance();
 		weekDate.add(Calendar.DAY_OF_MONTH, dayDelta - 6);
 		weekDate.set(Calendar.HOUR_OF_DAY, 0);
@@ -613,183 +632,305 @@ public class TimelineMailer {
 		weekDate.set(Calendar.SECOND, 0);
 		weekDate.set(Calendar.MILLISECOND, 0);
 
-		final JsonObject results = new JsonObject()
-			.putNumber("mails.sent", 0)
-			.putNumber("users.ko", 0);
-		final JsonObject notificationsDefaults = new JsonObject();
-
-		final Handler<Boolean> userContinuationHandler = new Handler<Boolean>() {
-
-			private final Handler<Boolean> continuation = this;
-			private final Handler<JsonArray> usersHandler = new Handler<JsonArray>() {
-				public void handle(final JsonArray users) {
-					final int nbUsers = users.size();
-					if(nbUsers == 0){
-						continuation.handle(false);
-						return;
+		final MailContentBuilder builder = new MailContentBuilder() {
+			public JsonObject build(JsonObject userPrefs, JsonArray notifications, JsonObject notificationsDefaults, String language) {
+				final JsonArray weeklyNotifications = new JsonArray();
+
+				for(Object notificationObj : notifications){
+					JsonObject notification = (JsonObject) notificationObj;
+					final String notificationName =
+						notification.getString("type","").toLowerCase() + "." +
+						notification.getString("event-type", "").toLowerCase();
+					if(notificationsDefaults.getObject(notificationName) == null)
+						continue;
+
+					JsonObject notificationPreference = userPrefs
+							.getObject("preferences", new JsonObject())
+								.getObject("config", new JsonObject())
+										.getObject(notificationName, new JsonObject());
+					if(TimelineNotificationsLoader.Frequencies.WEEKLY.name().equals(
+							notificationPrefsMixin("defaultFrequency", notificationPreference, notificationsDefaults.getObject(notificationName))) &&
+						!TimelineNotificationsLoader.Restrictions.INTERNAL.name().equals(
+							notificationPrefsMixin("restriction", notificationPreference, notificationsDefaults.getObject(notificationName))) &&
+						!TimelineNotificationsLoader.Restrictions.HIDDEN.name().equals(
+								notificationPrefsMixin("restriction", notificationPreference, notificationsDefaults.getObject(notificationName)))){
+						notification.putString("notificationName", notificationName);
+						weeklyNotifications.add(notification);
 					}
-					final AtomicInteger usersCountdown = new AtomicInteger(nbUsers);
-
-					final VoidHandler usersEndHandler = new VoidHandler() {
-						protected void handle() {
-							if(usersCountdown.decrementAndGet() <= 0){
-								continuation.handle(nbUsers == USERS_LIMIT);
-							}
-						}
-					};
-
-					final JsonArray userIds = new JsonArray();
-					for(Object userObj : users)
-						userIds.add(((JsonObject) userObj).getString("id", ""));
-					getUsersPreferences(userIds, new Handler<JsonArray>(){
-						public void handle(JsonArray preferences) {
-							for(Object userObj : preferences){
-								final JsonObject userPrefs = (JsonObject) userObj;
-								final String userDomain = userPrefs.getString("lastDomain", I18n.DEFAULT_DOMAIN);
-								final String userScheme = userPrefs.getString("lastScheme", "http");
-								String mutableUserLanguage = "fr";
-								try {
-									mutableUserLanguage = new JsonObject(userPrefs.getString("language", "{}")).getString("default-domain", "fr");
-								} catch(Exception e) {
-									log.error("UserId [" + userPrefs.getString("userId", "") + "] - Bad language preferences format");
-								}
-								final String userLanguage = mutableUserLanguage;
-
-								getAggregatedUserNotifications(userPrefs.getString("userId", ""), weekDate.getTime(), new Handler<JsonArray>(){
-									public void handle(JsonArray notifications) {
-										if(notifications.size() == 0){
-											usersEndHandler.handle(null);
-											return;
-										}
-
-										final JsonArray weeklyNotifications = new JsonArray();
-
-										for(Object notificationObj : notifications){
-											JsonObject notification = (JsonObject) notificationObj;
-											final String notificationName =
-												notification.getString("type","").toLowerCase() + "." +
-												notification.getString("event-type", "").toLowerCase();
-											if(notificationsDefaults.getObject(notificationName) == null)
-												continue;
-
-											JsonObject notificationPreference = userPrefs
-													.getObject("preferences", new JsonObject())
-														.getObject("config", new JsonObject())
-																.getObject(notificationName, new JsonObject());
-											if(TimelineNotificationsLoader.Frequencies.WEEKLY.name().equals(
-													notificationPrefsMixin("defaultFrequency", notificationPreference, notificationsDefaults.getObject(notificationName))) &&
-												!TimelineNotificationsLoader.Restrictions.INTERNAL.name().equals(
-													notificationPrefsMixin("restriction", notificationPreference, notificationsDefaults.getObject(notificationName))) &&
-												!TimelineNotificationsLoader.Restrictions.HIDDEN.name().equals(
-														notificationPrefsMixin("restriction", notificationPreference, notificationsDefaults.getObject(notificationName)))){
-												notification.putString("notificationName", notificationName);
-												weeklyNotifications.add(notification);
-											}
-										}
-
-										final JsonObject weeklyNotificationsObj = new JsonObject();
-										final JsonArray weeklyNotificationsGroupedArray = new JsonArray();
-										for(Object notif : weeklyNotifications){
-											JsonObject notification = (JsonObject) notif;
-											if(!weeklyNotificationsObj.containsField(notification.getString("type").toLowerCase()))
-												weeklyNotificationsObj.putObject(notification.getString("type").toLowerCase(), new JsonObject()
-													.putString("link", notificationsDefaults
-															.getObject(notification.getString("notificationName")).getString("app-address", ""))
-													.putArray("event-types", new JsonArray()));
-											weeklyNotificationsObj
-												.getObject(notification.getString("type").toLowerCase())
-													.getArray(("event-types"), new JsonArray())
-														.add(notification);
-										}
-
-										for(String key : weeklyNotificationsObj.toMap().keySet()){
-											weeklyNotificationsGroupedArray.add(new JsonObject()
-												.putString("type", key)
-												.putString("link", weeklyNotificationsObj.getObject(key).getString("link", ""))
-												.putArray("event-types", weeklyNotificationsObj.getObject(key).getArray("event-types")));
-										}
-
-										if(weeklyNotifications.size() > 0){
-											JsonObject templateParams = new JsonObject().putArray("notifications", weeklyNotificationsGroupedArray);
-											processTimelineTemplate(templateParams, "", "notifications/weekly-mail.html",
-													userDomain, userScheme, userLanguage, new Handler<String>() {
-												public void handle(final String processedTemplate) {
-													//On completion : log
-													final Handler<Message<JsonObject>> completionHandler = new Handler<Message<JsonObject>>(){
-														public void handle(Message<JsonObject> event) {
-															if("error".equals(event.body().getString("status", "error"))){
-																log.error("[Timeline weekly emails] Error while sending mail : " + event.body());
-																results.putNumber("users.ko", results.getInteger("users.ko") + 1);
-															} else {
-																results.putNumber("mails.sent", results.getInteger("mails.sent") + 1);
-															}
-															usersEndHandler.handle(null);
-														}
-
-													};
-
-													//Translate mail title
-													JsonArray keys = new JsonArray()
-														.add("timeline.weekly.mail.subject.header");
-													translateTimeline(keys, userDomain, userLanguage, new Handler<JsonArray>() {
-														public void handle(JsonArray translations) {
-															//Send mail containing the "weekly" notifications
-															emailSender.sendEmail(request,
-																userPrefs.getString("userMail", ""),
-																null,
-																null,
-																translations.get(0).toString(),
-																processedTemplate,
-																null,
-																false,
-																completionHandler);
-														}
-													});
-												}
-											});
-										} else {
-											usersEndHandler.handle(null);
-										}
+				}
+				if(weeklyNotifications.size() == 0){
+					return null;
+				}
 
-									}
-								});
-							}
-						}
-					});
+				final JsonObject weeklyNotificationsObj = new JsonObject();
+				final JsonArray weeklyNotificationsGroupedArray = new JsonArray();
+				for(Object notif : weeklyNotifications){
+					JsonObject notification = (JsonObject) notif;
+					if(!weeklyNotificationsObj.containsField(notification.getString("type").toLowerCase()))
+						weeklyNotificationsObj.putObject(notification.getString("type").toLowerCase(), new JsonObject()
+							.putString("link", notificationsDefaults
+									.getObject(notification.getString("notificationName")).getString("app-address", ""))
+							.putArray("event-types", new JsonArray()));
+					weeklyNotificationsObj
+						.getObject(notification.getString("type").toLowerCase())
+							.getArray(("event-types"), new JsonArray())
+								.add(notification);
 				}
-			};
 
-			public void handle(Boolean continuation) {
-				if(continuation){
-					getImpactedUsers(userPagination.getAndIncrement(), new Handler<Either<String,JsonArray>>() {
-						public void handle(Either<String, JsonArray> event) {
-							if(event.isLeft()){
-								log.error("[sendWeeklyMails] Error while retrieving impacted users : " + event.left().getValue());
-								handler.handle(new Either.Left<String, JsonObject>(event.left().getValue()));
-							} else {
-								JsonArray users = event.right().getValue();
-								usersHandler.handle(users);
-							}
-						}
-					});
-				} else {
-					handler.handle(new Either.Right<String, JsonObject>(results));
+				for(String key : weeklyNotificationsObj.toMap().keySet()){
+					weeklyNotificationsGroupedArray.add(new JsonObject()
+						.putString("type", key)
+						.putString("link", weeklyNotificationsObj.getObject(key).getString("link", ""))
+						.putArray("event-types", weeklyNotificationsObj.getObject(key).getArray("event-types")));
 				}
+				return new JsonObject().putArray("notifications", weeklyNotificationsGroupedArray);
 			}
 		};
 
+		sendMails(new MailingRun("[Timeline weekly emails]", "notifications/weekly-mail.html",
+				"timeline.weekly.mail.subject.header", weekDate.getTime(), true, builder), handler);
+	}
+
+	private void sendMails(final MailingRun run, final Handler<Either<String, JsonObject>> handler){
 		getNotificationsDefaults(new Handler<JsonArray>() {
 			public void handle(final JsonArray notifications) {
 				if(notifications == null){
-					log.error("[sendWeeklyMails] Error while retrieving notifications defaults.");
+					log.error(run.logPrefix + " Error while retrieving notifications defaults.");
 					return;
-				} else {
-					for(Object notifObj: notifications){
-						final JsonObject notif = (JsonObject) notifObj;
-						notificationsDefaults.putObject(notif.getString("key", ""), notif);
+				}
+				for(Object notifObj: notifications){
+					final JsonObject notif = (JsonObject) notifObj;
+					run.notificationsDefaults.putObject(notif.getString("key", ""), notif);
+				}
+				loadUsersPage(run, "", new Handler<UsersPage>() {
+					public void handle(UsersPage page) {
+						sendPage(run, page, handler);
 					}
-					userContinuationHandler.handle(true);
+				});
+			}
+		});
+	}
+
+	/**
+	 * Sends the mails of a page while the next page is being loaded.
+	 */
+	private void sendPage(final MailingRun run, final UsersPage page, final Handler<Either<String, JsonObject>> handler){
+		if(page.error != null){
+			log.error(run.logPrefix + " Error while retrieving impacted users : " + page.error);
+			handler.handle(new Either.Left<String, JsonObject>(page.error));
+			return;
+		}
+		final AtomicInteger countdown = new AtomicInteger(page.last ? 1 : 2);
+		final UsersPage[] nextPage = new UsersPage[1];
+		final VoidHandler next = new VoidHandler() {
+			protected void handle() {
+				if(countdown.decrementAndGet() == 0){
+					if(page.last){
+						run.results.putNumber("duration", System.currentTimeMillis() - run.start);
+						handler.handle(new Either.Right<String, JsonObject>(run.results));
+					} else {
+						sendPage(run, nextPage[0], handler);
+					}
+				}
+			}
+		};
+		if(!page.last){
+			loadUsersPage(run, page.lastId, new Handler<UsersPage>() {
+				public void handle(UsersPage loaded) {
+					nextPage[0] = loaded;
+					next.handle(null);
+				}
+			});
+		}
+		final JsonArray preferences = page.preferences;
+		final AtomicInteger index = new AtomicInteger(0);
+		final AtomicInteger remaining = new AtomicInteger(preferences.size());
+		final VoidHandler pageEnd = new VoidHandler() {
+			protected void handle() {
+				run.increment("users.processed", preferences.size());
+				run.increment("pages", 1);
+				log.info(run.logPrefix + " Progress : " + run.results.encode());
+				next.handle(null);
+			}
+		};
+		if(preferences.size() == 0){
+			pageEnd.handle(null);
+			return;
+		}
+		final VoidHandler worker = new VoidHandler() {
+			protected void handle() {
+				final int i = index.getAndIncrement();
+				if(i >= preferences.size()){
+					return;
+				}
+				final VoidHandler self = this;
+				final JsonObject userPrefs = preferences.get(i);
+				sendUserMail(run, userPrefs, page.notifications.get(userPrefs.getString("userId", "")), new VoidHandler() {
+					protected void handle() {
+						if(remaining.decrementAndGet() == 0){
+							pageEnd.handle(null);
+						} else {
+							// users without notifications complete synchronously : reschedule instead of recursing
+							vertx.runOnContext(new Handler<Void>() {
+								public void handle(Void v) {
+									self.handle(null);
+								}
+							});
+						}
+					}
+				});
+			}
+		};
+		for(int i = 0; i < Math.min(MAILS_CONCURRENCY, preferences.size()); i++){
+			worker.handle(null);
+		}
+	}
+
+	/**
+	 * Loads a page of impacted users, their preferences and their notifications (one query for the whole page).
+	 */
+	private void loadUsersPage(final MailingRun run, String lastId, final Handler<UsersPage> handler){
+		final UsersPage page = new UsersPage();
+		getImpactedUsers(lastId, new Handler<Either<String,JsonArray>>() {
+			public void handle(Either<String, JsonArray> event) {
+				if(event.isLeft()){
+					page.error = event.left().getValue();
+					handler.handle(page);
+					return;
 				}
+				final JsonArray users = event.right().getValue();
+				page.last = users.size() < USERS_LIMIT;
+				if(users.size() == 0){
+					page.last = true;
+					handler.handle(page);
+					return;
+				}
+				page.lastId = ((JsonObject) users.get(users.size() - 1)).getString("id");
+				final JsonArray userIds = new JsonArray();
+				for(Object userObj : users)
+					userIds.add(((JsonObject) userObj).getString("id", ""));
+				getUsersPreferences(userIds, new Handler<JsonArray>(){
+					public void handle(JsonArray preferences) {
+						if(preferences == null || preferences.size() == 0){
+							handler.handle(page);
+							return;
+						}
+						page.preferences = preferences;
+						final String[] ids = new String[preferences.size()];
+						for(int i = 0; i < preferences.size(); i++){
+							ids[i] = ((JsonObject) preferences.get(i)).getString("userId", "");
+						}
+						final Handler<Map<String, JsonArray>> notificationsHandler = new Handler<Map<String, JsonArray>>() {
+							public void handle(Map<String, JsonArray> notifications) {
+								page.notifications = notifications;
+								handler.handle(page);
+							}
+						};
+						if(run.aggregated){
+							getAggregatedUsersNotifications(ids, run.from, notificationsHandler);
+						} else {
+							getUsersNotifications(ids, run.from, notificationsHandler);
+						}
+					}
+				});
+			}
+		});
+	}
+
+	private void sendUserMail(final MailingRun run, final JsonObject userPrefs, JsonArray notifications, final VoidHandler end){
+		if(notifications == null || notifications.size() == 0){
+			end.handle(null);
+			return;
+		}
+		final String userDomain = userPrefs.getString("lastDomain", I18n.DEFAULT_DOMAIN);
+		final String userScheme = userPrefs.getString("lastScheme", "http");
+		String mutableUserLanguage = "fr";
+		try {
+			mutableUserLanguage = new JsonObject(userPrefs.getString("language", "{}")).getString("default-domain", "fr");
+		} catch(Exception e) {
+			log.error("UserId [" + userPrefs.getString("userId", "") + "] - Bad language preferences format");
+		}
+		final String userLanguage = mutableUserLanguage;
+
+		final JsonObject templateParams = run.builder.build(userPrefs, notifications, run.notificationsDefaults, userLanguage);
+		if(templateParams == null){
+			end.handle(null);
+			return;
+		}
+		processTimelineTemplate(templateParams, "", run.template, userDomain, userScheme, userLanguage, new Handler<String>() {
+			public void handle(final String processedTemplate) {
+				getSubject(run, userDomain, userLanguage, new Handler<String>() {
+					public void handle(final String subject) {
+						final Handler<Message<JsonObject>> completionHandler = new Handler<Message<JsonObject>>(){
+							public void handle(Message<JsonObject> event) {
+								if("error".equals(event.body().getString("status", "error"))){
+									log.error(run.logPrefix + " Error while sending mail : " + event.body());
+									run.increment("users.ko", 1);
+								} else {
+									run.increment("mails.sent", 1);
+								}
+								end.handle(null);
+							}
+						};
+						final VoidHandler send = new VoidHandler() {
+							protected void handle() {
+								emailSender.sendEmail(run.request,
+									userPrefs.getString("userMail", ""),
+									null,
+									null,
+									subject,
+									processedTemplate,
+									null,
+									false,
+									completionHandler);
+							}
+						};
+						final long delay = nextSendDelay(run);
+						if(delay > 0){
+							vertx.setTimer(delay, new Handler<Long>() {
+								public void handle(Long timerId) {
+									send.handle(null);
+								}
+							});
+						} else {
+							send.handle(null);
+						}
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Spaces the mails of a run according to the configured rate.
+	 *
+	 * @return The delay to wait before sending the next mail
+	 */
+	private long nextSendDelay(MailingRun run){
+		if(MAILS_PER_SECOND <= 0){
+			return 0;
+		}
+		final long now = System.currentTimeMillis();
+		final long slot = Math.max(now, run.nextSendSlot);
+		run.nextSendSlot = slot + 1000l / MAILS_PER_SECOND;
+		return slot - now;
+	}
+
+	/**
+	 * Translates the mail subject once per domain and language.
+	 */
+	private void getSubject(final MailingRun run, String domain, String language, final Handler<String> handler){
+		final String cacheKey = domain + "|" + language;
+		final String subject = run.subjects.get(cacheKey);
+		if(subject != null){
+			handler.handle(subject);
+			return;
+		}
+		translateTimeline(new JsonArray().add(run.subjectKey), domain, language, new Handler<JsonArray>() {
+			public void handle(JsonArray translations) {
+				final String translated = translations.size() > 0 ? translations.get(0).toString() : run.subjectKey;
+				run.subjects.put(cacheKey, translated);
+				handler.handle(translated);
 			}
 		});
 	}
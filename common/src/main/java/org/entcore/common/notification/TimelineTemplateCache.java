@@ -0,0 +1,189 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2016
+ *
+ * This file is part of ENT Core. ENT Core is a versatile ENT engine based on the JVM.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with ENT Core is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of ENT Core, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package org.entcore.common.notification;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.http.HttpServerRequest;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+import com.samskivert.mustache.Mustache;
+import com.samskivert.mustache.Template;
+
+import fr.wseduc.webutils.I18n;
+import fr.wseduc.webutils.Utils;
+import fr.wseduc.webutils.http.Renders;
+
+/**
+ * Cache of the compiled notification templates and of the parsed timeline i18n bundles.
+ * Bundles are built from the "timelineEventsI18n" shared map and dropped when its version,
+ * bumped each time an application appends its timeline translations, changes.
+ */
+public class TimelineTemplateCache {
+
+	private static final String EVENTS_I18N_MAP = "timelineEventsI18n";
+	private static final String EVENTS_I18N_VERSION_MAP = "timelineEventsI18nVersion";
+	private static final String VERSION = "version";
+	private static final int MAX_TEMPLATES = 1000;
+	private static final Logger log = LoggerFactory.getLogger(TimelineTemplateCache.class);
+	private static TimelineTemplateCache instance = null;
+
+	private final ConcurrentMap<String, String> eventsI18n;
+	private final ConcurrentMap<String, Long> versions;
+	private final Map<String, JsonObject> bundles = new HashMap<>();
+	private final Map<String, Template> templates;
+	private long bundlesVersion = -1;
+
+	public static synchronized TimelineTemplateCache getInstance(Vertx vertx){
+		if(instance == null){
+			instance = new TimelineTemplateCache(vertx);
+		}
+		return instance;
+	}
+
+	private TimelineTemplateCache(Vertx vertx){
+		this.eventsI18n = vertx.sharedData().getMap(EVENTS_I18N_MAP);
+		this.versions = vertx.sharedData().getMap(EVENTS_I18N_VERSION_MAP);
+		this.templates = new LinkedHashMap<String, Template>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Template> eldest) {
+				return size() > MAX_TEMPLATES;
+			}
+		};
+	}
+
+	/**
+	 * Marks the parsed timeline i18n bundles of every module as outdated.
+	 */
+	public void invalidateI18n(){
+		Long version = versions.putIfAbsent(VERSION, 1l);
+		while(version != null && !versions.replace(VERSION, version, version + 1)){
+			version = versions.get(VERSION);
+		}
+	}
+
+	/**
+	 * @param template : Template contents
+	 * @return The compiled template, shared between renderings
+	 */
+	public synchronized Template compile(String template){
+		Template compiled = templates.get(template);
+		if(compiled == null){
+			compiled = Mustache.compiler().compile(template);
+			templates.put(template, compiled);
+		}
+		return compiled;
+	}
+
+	/**
+	 * @param language : Accept-Language value or language code
+	 * @return The timeline translations of the language, must not be modified
+	 */
+	public synchronized JsonObject getI18n(String language){
+		final Long version = versions.get(VERSION);
+		final long currentVersion = version != null ? version : 0l;
+		if(currentVersion != bundlesVersion){
+			bundles.clear();
+			bundlesVersion = currentVersion;
+		}
+		final String lang = language.split(",")[0].split("-")[0];
+		JsonObject bundle = bundles.get(lang);
+		if(bundle == null){
+			String i18n = eventsI18n.get(lang);
+			i18n = i18n != null ? i18n : "}";
+			bundle = new JsonObject("{" + i18n.substring(0, i18n.length() - 1) + "}");
+			bundles.put(lang, bundle);
+		}
+		return bundle;
+	}
+
+	/**
+	 * Translates a key with the module i18n, then with the timeline translations of all applications.
+	 */
+	public String translate(String key, String domain, String language){
+		final String translated = I18n.getInstance().translate(key, domain, language);
+		if(!translated.equals(key)){
+			return translated;
+		}
+		return getI18n(language).getString(key, key);
+	}
+
+	/**
+	 * Adds the timeline lambdas (i18n, host, nested, nestedArray) to a template context.
+	 */
+	public void setLambdas(final HttpServerRequest request, final Map<String, Object> ctx){
+		ctx.put("i18n", new Mustache.Lambda() {
+			@Override
+			public void execute(Template.Fragment frag, Writer out) throws IOException {
+				String key = frag.execute();
+				String language = Utils.getOrElse(I18n.acceptLanguage(request), "fr", false);
+				compile(translate(key, Renders.getHost(request), language)).execute(ctx, out);
+			}
+		});
+
+		ctx.put("host", new Mustache.Lambda() {
+			@Override
+			public void execute(Template.Fragment frag, Writer out) throws IOException{
+				String contents = frag.execute();
+				if(contents.matches("^(http://|https://).*")){
+					out.write(contents);
+				} else {
+					String host = Renders.getScheme(request) + "://" + Renders.getHost(request);
+					out.write(host + contents);
+				}
+			}
+		});
+
+		ctx.put("nested", new Mustache.Lambda() {
+			public void execute(Template.Fragment frag, Writer out) throws IOException {
+				String nestedTemplateName = frag.execute();
+				String nestedTemplate = (String) ctx.get(nestedTemplateName);
+				if(nestedTemplate != null)
+					compile(nestedTemplate).execute(ctx, out);
+			}
+		});
+
+		ctx.put("nestedArray", new Mustache.Lambda() {
+			@SuppressWarnings("unchecked")
+			public void execute(Template.Fragment frag, Writer out) throws IOException {
+				String nestedTemplatePos = frag.execute();
+				JsonArray nestedArray = new JsonArray((List<Object>) ctx.get("nestedTemplatesArray"));
+				try {
+					JsonObject nestedTemplate = (JsonObject) nestedArray.get(Integer.parseInt(nestedTemplatePos) - 1);
+					ctx.putAll(nestedTemplate.getObject("params", new JsonObject()).toMap());
+					compile(nestedTemplate.getString("template", "")).execute(ctx, out);
+				} catch(NumberFormatException e) {
+					log.error("Mustache compiler error while parsing a nested template array lambda.");
+				}
+			}
+		});
+	}
+
+}
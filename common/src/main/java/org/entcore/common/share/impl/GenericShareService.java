@@ -20,8 +20,11 @@
 package org.entcore.common.share.impl;
 
 import fr.wseduc.webutils.I18n;
+import org.entcore.common.http.filter.CachedResourcesProvider;
+import org.entcore.common.neo4j.Neo4j;
 import org.entcore.common.share.ShareService;
 import org.entcore.common.user.UserUtils;
+import org.entcore.common.validation.StringValidation;
 import fr.wseduc.webutils.Either;
 import fr.wseduc.webutils.security.ActionType;
 import fr.wseduc.webutils.security.SecuredAction;
@@ -32,11 +35,25 @@ import org.vertx.java.core.json.JsonObject;
 
 import java.util.*;
 
-import static org.entcore.common.user.UserUtils.findVisibleProfilsGroups;
+import static org.entcore.common.neo4j.Neo4jResult.validResultHandler;
+import static org.entcore.common.user.UserUtils.filterVisibles;
 import static org.entcore.common.user.UserUtils.findVisibleUsers;
 
 public abstract class GenericShareService implements ShareService {
 
+	private static final String CHECKED_GROUPS =
+			"MATCH (g:Group) WHERE g.id in {groupIds} " +
+			"RETURN distinct g.id as id, g.name as name, g.groupDisplayName as groupDisplayName " +
+			"ORDER BY name ";
+	private static final String CHECKED_USERS =
+			"MATCH (u:User) WHERE u.id in {userIds} " +
+			"RETURN distinct u.id as id, u.login as login, u.displayName as username, " +
+			"u.lastName as lastName, u.firstName as firstName, u.profiles[0] as profile  " +
+			"ORDER BY username ";
+	private static final JsonArray GROUP_FIELDS = new JsonArray().addString("name").addString("groupDisplayName");
+	private static final JsonArray USER_FIELDS = new JsonArray().addString("login").addString("username")
+			.addString("lastName").addString("firstName").addString("profiles");
+	private static final int GROUPS_SEARCH_PAGE_SIZE = 500;
 	protected final EventBus eb;
 	protected final Map<String, SecuredAction> securedActions;
 	protected final Map<String, List<String>> groupedActions;
@@ -50,6 +67,11 @@ public abstract class GenericShareService implements ShareService {
 		this.groupedActions = groupedActions;
 	}
 
+	protected Handler<Either<String, JsonObject>> invalidateOnSuccess(String resourceId,
+			Handler<Either<String, JsonObject>> handler) {
+		return CachedResourcesProvider.invalidateOnSuccess(eb, new JsonArray().addString(resourceId), handler);
+	}
+
 	protected JsonArray getResoureActions(Map<String, SecuredAction> securedActions) {
 		if (resourceActions != null) {
 			return resourceActions;
@@ -76,14 +98,23 @@ public abstract class GenericShareService implements ShareService {
 	protected void getShareInfos(final String userId, final JsonArray actions,
 			final JsonObject groupCheckedActions, final JsonObject userCheckedActions,
 			final String acceptLanguage, final Handler<JsonObject> handler) {
+		getShareInfos(userId, actions, groupCheckedActions, userCheckedActions, acceptLanguage, true, handler);
+	}
+
+	/**
+	 * @param visibles : false to only return the groups and users already in the share, whatever the number
+	 *                 of groups and users visible by the user, which are then fetched by pages.
+	 * @param handler : share infos, or an object with the "error" message when the share can't be read.
+	 */
+	protected void getShareInfos(final String userId, final JsonArray actions,
+			final JsonObject groupCheckedActions, final JsonObject userCheckedActions,
+			final String acceptLanguage, final boolean visibles, final Handler<JsonObject> handler) {
 		final String q =
 				"RETURN distinct profileGroup.id as id, profileGroup.name as name, " +
 				"profileGroup.groupDisplayName as groupDisplayName " +
 				"ORDER BY name " +
 				"UNION " +
-				"MATCH (g:Group) WHERE g.id in {groupIds} " +
-				"RETURN distinct g.id as id, g.name as name, g.groupDisplayName as groupDisplayName " +
-				"ORDER BY name ";
+				CHECKED_GROUPS;
 		final JsonObject params = new JsonObject().putArray("groupIds",
 				new JsonArray(groupCheckedActions.getFieldNames().toArray()));
 		final String q2 =
@@ -91,13 +122,10 @@ public abstract class GenericShareService implements ShareService {
 				"visibles.lastName as lastName, visibles.firstName as firstName, visibles.profiles[0] as profile " +
 				"ORDER BY username " +
 				"UNION " +
-				"MATCH (u:User) WHERE u.id in {userIds} " +
-				"RETURN distinct u.id as id, u.login as login, u.displayName as username, " +
-				"u.lastName as lastName, u.firstName as firstName, u.profiles[0] as profile  " +
-				"ORDER BY username ";
+				CHECKED_USERS;
 		final JsonObject params2 = new JsonObject().putArray("userIds",
 				new JsonArray(userCheckedActions.getFieldNames().toArray()));
-		UserUtils.findVisibleProfilsGroups(eb, userId, q, params, new Handler<JsonArray>() {
+		final Handler<JsonArray> groupsHandler = new Handler<JsonArray>() {
 			@Override
 			public void handle(JsonArray visibleGroups) {
 				final JsonObject groups = new JsonObject();
@@ -108,7 +136,7 @@ public abstract class GenericShareService implements ShareService {
 					JsonObject group = (JsonObject) u;
 					UserUtils.groupDisplayName(group, acceptLanguage);
 				}
-				findVisibleUsers(eb, userId, true, q2, params2, new Handler<JsonArray>() {
+				final Handler<JsonArray> usersHandler = new Handler<JsonArray>() {
 					@Override
 					public void handle(JsonArray visibleUsers) {
 						JsonObject users = new JsonObject();
@@ -120,48 +148,129 @@ public abstract class GenericShareService implements ShareService {
 								.putObject("users", users);
 						handler.handle(share);
 					}
-				});
+				};
+				if (visibles) {
+					findVisibleUsers(eb, userId, true, q2, params2, usersHandler);
+				} else {
+					findChecked(CHECKED_USERS, params2, usersHandler, handler);
+				}
 			}
-		});
+		};
+		if (visibles) {
+			UserUtils.findVisibleProfilsGroups(eb, userId, q, params, groupsHandler);
+		} else {
+			findChecked(CHECKED_GROUPS, params, groupsHandler, handler);
+		}
 	}
 
-	// TODO improve query
-	protected void profilGroupIsVisible(String userId, final String groupId, final Handler<Boolean> handler) {
-		if (userId == null || groupId == null) {
-			handler.handle(false);
-			return;
+	private void findChecked(String query, JsonObject params, final Handler<JsonArray> handler,
+			final Handler<JsonObject> errorHandler) {
+		Neo4j.getInstance().execute(query, params, validResultHandler(new Handler<Either<String, JsonArray>>() {
+			@Override
+			public void handle(Either<String, JsonArray> event) {
+				if (event.isRight()) {
+					handler.handle(event.right().getValue());
+				} else {
+					errorHandler.handle(new JsonObject().putString("error", event.left().getValue()));
+				}
+			}
+		}));
+	}
+
+	/**
+	 * @param visibles : false to only return the groups and users already in the share,
+	 *                 the other ones being fetched by pages with visibleShareTargets.
+	 */
+	public abstract void shareInfos(String userId, String resourceId, String acceptLanguage, boolean visibles,
+			Handler<Either<String, JsonObject>> handler);
+
+	/**
+	 * Validates and shares with many groups and users at once.
+	 * @param shares : {"groups" : {groupId : [actions]}, "users" : {userId : [actions]}}
+	 * @param handler : result with the new members of the share in "notify-timeline-array"
+	 */
+	public abstract void share(String userId, String resourceId, JsonObject shares,
+			Handler<Either<String, JsonObject>> handler);
+
+	/**
+	 * Fetch one page of the groups or users visible by the user, to add them to a share.
+	 * @param groups : true for the groups, false for the users
+	 * @param search : prefix of the user name, or part of the translated group name (optional)
+	 * @param afterName : sortName of the last row of the previous page (null for the first page)
+	 * @param afterId : id of the last row of the previous page (null for the first page)
+	 */
+	public void visibleShareTargets(String userId, boolean groups, String search, String afterName, String afterId,
+			int limit, final String acceptLanguage, final Handler<JsonArray> handler) {
+		if (groups && search != null && !search.trim().isEmpty()) {
+			searchVisibleGroups(userId, StringValidation.removeAccents(search.trim()).toLowerCase(), afterName,
+					afterId, limit, acceptLanguage, new JsonArray(), handler);
+		} else if (groups) {
+			UserUtils.findVisibles(eb, userId, new JsonArray().addString("Group"), false, true, false, search,
+					afterName, afterId, limit, GROUP_FIELDS, new Handler<JsonArray>() {
+				@Override
+				public void handle(JsonArray visibleGroups) {
+					for (Object g : visibleGroups) {
+						if (!(g instanceof JsonObject) || ((JsonObject) g).getString("name") == null) continue;
+						UserUtils.groupDisplayName((JsonObject) g, acceptLanguage);
+					}
+					handler.handle(visibleGroups);
+				}
+			});
+		} else {
+			UserUtils.findVisibleUsers(eb, userId, false, false, search, afterName, afterId, limit, USER_FIELDS,
+					handler);
 		}
-		findVisibleProfilsGroups(eb, userId, new Handler<JsonArray>() {
+	}
+
+	// Group names are translated, so the search is applied on the translated names of the scanned pages
+	private void searchVisibleGroups(final String userId, final String search, String afterName, String afterId,
+			final int limit, final String acceptLanguage, final JsonArray result, final Handler<JsonArray> handler) {
+		UserUtils.findVisibles(eb, userId, new JsonArray().addString("Group"), false, true, false, null,
+				afterName, afterId, GROUPS_SEARCH_PAGE_SIZE, GROUP_FIELDS, new Handler<JsonArray>() {
 			@Override
 			public void handle(JsonArray visibleGroups) {
-				final List<String> visibleGroupsIds = new ArrayList<>();
-				for (int i = 0; i < visibleGroups.size(); i++) {
-					JsonObject j = visibleGroups.get(i);
-					if (j != null && j.getString("id") != null) {
-						visibleGroupsIds.add(j.getString("id"));
+				JsonObject last = null;
+				for (Object o : visibleGroups) {
+					if (!(o instanceof JsonObject)) continue;
+					last = (JsonObject) o;
+					if (last.getString("name") == null) continue;
+					UserUtils.groupDisplayName(last, acceptLanguage);
+					if (StringValidation.removeAccents(last.getString("name")).toLowerCase().contains(search)) {
+						result.addObject(last);
+						if (result.size() >= limit) {
+							handler.handle(result);
+							return;
+						}
 					}
 				}
-				handler.handle(visibleGroupsIds.contains(groupId));
+				if (last == null || visibleGroups.size() < GROUPS_SEARCH_PAGE_SIZE) {
+					handler.handle(result);
+				} else {
+					searchVisibleGroups(userId, search, last.getString("sortName"), last.getString("id"), limit,
+							acceptLanguage, result, handler);
+				}
 			}
 		});
 	}
 
+	protected void profilGroupIsVisible(String userId, final String groupId, final Handler<Boolean> handler) {
+		isVisible(userId, groupId, true, handler);
+	}
+
 	protected void userIsVisible(String userId, final String userShareId, final Handler<Boolean> handler) {
-		if (userId == null || userShareId == null) {
+		isVisible(userId, userShareId, false, handler);
+	}
+
+	private void isVisible(String userId, final String shareId, boolean group, final Handler<Boolean> handler) {
+		if (userId == null || shareId == null) {
 			handler.handle(false);
 			return;
 		}
-		findVisibleUsers(eb, userId, false, new Handler<JsonArray>() {
+		final JsonArray ids = new JsonArray().addString(shareId);
+		filterVisibles(eb, userId, group ? ids : null, group ? null : ids, new Handler<Set<String>>() {
 			@Override
-			public void handle(JsonArray visibleUsers) {
-				final List<String> visibleUsersIds = new ArrayList<>();
-				for (int i = 0; i < visibleUsers.size(); i++) {
-					JsonObject j = visibleUsers.get(i);
-					if (j != null && j.getString("id") != null) {
-						visibleUsersIds.add(j.getString("id"));
-					}
-				}
-				handler.handle(visibleUsersIds.contains(userShareId));
+			public void handle(Set<String> visibles) {
+				handler.handle(visibles.contains(shareId));
 			}
 		});
 	}
@@ -214,6 +323,76 @@ public abstract class GenericShareService implements ShareService {
 	}
 
 
+	/**
+	 * @param shares : share request, as {"groups" : {groupId : [actions]}, "users" : {userId : [actions]}}
+	 * @param type : groups or users
+	 * @return Actions by id of the targets of this type
+	 */
+	protected static Map<String, List<String>> getShares(JsonObject shares, String type) {
+		Map<String, List<String>> targets = new LinkedHashMap<>();
+		JsonObject t = (shares != null) ? shares.getObject(type) : null;
+		if (t == null) {
+			return targets;
+		}
+		for (String id : t.getFieldNames()) {
+			List<String> actions = new ArrayList<>();
+			for (Object a : t.getArray(id, new JsonArray())) {
+				if (a instanceof String) {
+					actions.add((String) a);
+				}
+			}
+			targets.put(id, actions);
+		}
+		return targets;
+	}
+
+	/**
+	 * Validates the actions of every target, then the visibility of the targets which aren't already
+	 * in the share with a single query.
+	 */
+	protected void sharesValidation(String userId, final Map<String, List<String>> groups,
+			Map<String, List<String>> users, Set<String> inShare, final Handler<Either<String, JsonObject>> handler) {
+		final JsonArray groupIds = new JsonArray();
+		final JsonArray userIds = new JsonArray();
+		for (Map<String, List<String>> targets : Arrays.asList(groups, users)) {
+			for (Map.Entry<String, List<String>> e : targets.entrySet()) {
+				if (e.getValue().isEmpty() || !actionsExists(e.getValue())) {
+					handler.handle(new Either.Left<String, JsonObject>("Invalid actions."));
+					return;
+				}
+				if (!inShare.contains(e.getKey())) {
+					(targets == groups ? groupIds : userIds).addString(e.getKey());
+				}
+			}
+		}
+		if (groupIds.size() == 0 && userIds.size() == 0) {
+			handler.handle(new Either.Right<String, JsonObject>(new JsonObject()));
+			return;
+		}
+		if (userId == null) {
+			handler.handle(new Either.Left<String, JsonObject>("Invalid userId."));
+			return;
+		}
+		filterVisibles(eb, userId, groupIds, userIds, new Handler<Set<String>>() {
+			@Override
+			public void handle(Set<String> visibles) {
+				for (Object id : groupIds) {
+					if (!visibles.contains(id)) {
+						handler.handle(new Either.Left<String, JsonObject>("Profil group not found."));
+						return;
+					}
+				}
+				for (Object id : userIds) {
+					if (!visibles.contains(id)) {
+						handler.handle(new Either.Left<String, JsonObject>("User not found."));
+						return;
+					}
+				}
+				handler.handle(new Either.Right<String, JsonObject>(new JsonObject()));
+			}
+		});
+	}
+
 	protected List<String> findRemoveActions(List<String> removeActions) {
 		if (removeActions == null || removeActions.isEmpty()) {
 			return null;
@@ -31,8 +31,11 @@ import org.vertx.java.core.eventbus.Message;
 import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
 
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class MongoDbShareService extends GenericShareService {
@@ -47,9 +50,15 @@ public class MongoDbShareService extends GenericShareService {
 		this.collection = collection;
 	}
 
+	@Override
+	public void shareInfos(String userId, String resourceId, String acceptLanguage,
+			Handler<Either<String, JsonObject>> handler) {
+		shareInfos(userId, resourceId, acceptLanguage, true, handler);
+	}
+
 	@Override
 	public void shareInfos(final String userId, String resourceId, final String acceptLanguage,
-			final Handler<Either<String, JsonObject>> handler) {
+			final boolean visibles, final Handler<Either<String, JsonObject>> handler) {
 		if (userId == null || userId.trim().isEmpty()) {
 			handler.handle(new Either.Left<String, JsonObject>("Invalid userId."));
 			return;
@@ -94,13 +103,14 @@ public class MongoDbShareService extends GenericShareService {
 								us.putArray(u, a);
 							}
 						}
-						getShareInfos(userId, actions, gs, us, acceptLanguage, new Handler<JsonObject>() {
+						getShareInfos(userId, actions, gs, us, acceptLanguage, visibles, new Handler<JsonObject>() {
 							@Override
 							public void handle(JsonObject event) {
 								if (event != null && event.size() == 3) {
 									handler.handle(new Either.Right<String, JsonObject>(event));
 								} else {
-									handler.handle(new Either.Left<String, JsonObject>(
+									handler.handle(new Either.Left<String, JsonObject>(event != null ?
+											event.getString("error", "Error finding shared resource.") :
 											"Error finding shared resource."));
 								}
 							}
@@ -121,13 +131,13 @@ public class MongoDbShareService extends GenericShareService {
 			@Override
 			public void handle(Boolean event) {
 				if (Boolean.TRUE.equals(event)) {
-					share(resourceId, groupShareId, actions, true, handler);
+					share(resourceId, groupShareId, actions, true, invalidateOnSuccess(resourceId, handler));
 				} else {
 					groupShareValidation(userId, groupShareId, actions, new Handler<Either<String, JsonObject>>() {
 						@Override
 						public void handle(Either<String, JsonObject> event) {
 							if (event.isRight()) {
-								share(resourceId, groupShareId, actions, true, handler);
+								share(resourceId, groupShareId, actions, true, invalidateOnSuccess(resourceId, handler));
 							} else {
 								handler.handle(event);
 							}
@@ -172,16 +182,7 @@ public class MongoDbShareService extends GenericShareService {
 						JsonObject s = actual.get(i);
 						String id = s.getString(shareIdAttr);
 						if (groupShareId.equals(id)) {
-							for (String action: actions) {
-								s.putBoolean(action, true);
-							}
-							if (groupedActions != null) {
-								for (Map.Entry<String, List<String>> ga: groupedActions.entrySet()) {
-									if (actions.containsAll(ga.getValue())) {
-										s.putBoolean(ga.getKey(), true);
-									}
-								}
-							}
+							addActions(s, actions);
 							exist = true;
 							break;
 						}
@@ -190,16 +191,7 @@ public class MongoDbShareService extends GenericShareService {
 					if (!exist) {
 						JsonObject t = new JsonObject().putString(shareIdAttr, groupShareId);
 						actual.add(t);
-						for (String action: actions) {
-							t.putBoolean(action, true);
-						}
-						if (groupedActions != null) {
-							for (Map.Entry<String, List<String>> ga: groupedActions.entrySet()) {
-								if (actions.containsAll(ga.getValue())) {
-									t.putBoolean(ga.getKey(), true);
-								}
-							}
-						}
+						addActions(t, actions);
 						notifyTimeline.set(true);
 					}
 					MongoUpdateBuilder updateQuery = new MongoUpdateBuilder().set("shared", actual);
@@ -221,6 +213,90 @@ public class MongoDbShareService extends GenericShareService {
 		});
 	}
 
+	private void addActions(JsonObject share, List<String> actions) {
+		for (String action: actions) {
+			share.putBoolean(action, true);
+		}
+		if (groupedActions != null) {
+			for (Map.Entry<String, List<String>> ga: groupedActions.entrySet()) {
+				if (actions.containsAll(ga.getValue())) {
+					share.putBoolean(ga.getKey(), true);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void share(final String userId, String resourceId, JsonObject shares,
+			Handler<Either<String, JsonObject>> h) {
+		final Handler<Either<String, JsonObject>> handler = invalidateOnSuccess(resourceId, h);
+		final Map<String, List<String>> groups = getShares(shares, "groups");
+		final Map<String, List<String>> users = getShares(shares, "users");
+		if (groups.isEmpty() && users.isEmpty()) {
+			handler.handle(new Either.Left<String, JsonObject>("Invalid shares."));
+			return;
+		}
+		QueryBuilder query = QueryBuilder.start("_id").is(resourceId);
+		JsonObject keys = new JsonObject().putNumber("shared", 1);
+		final JsonObject q = MongoQueryBuilder.build(query);
+		mongo.findOne(collection, q, keys, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> event) {
+				if (!"ok".equals(event.body().getString("status")) || event.body().getObject("result") == null) {
+					handler.handle(new Either.Left<String, JsonObject>("Resource not found."));
+					return;
+				}
+				final JsonArray actual = event.body().getObject("result").getArray("shared", new JsonArray());
+				final Map<String, JsonObject> groupsShared = new HashMap<>();
+				final Map<String, JsonObject> usersShared = new HashMap<>();
+				for (Object o : actual) {
+					if (!(o instanceof JsonObject)) continue;
+					JsonObject s = (JsonObject) o;
+					if (s.getString("groupId") != null) {
+						groupsShared.put(s.getString("groupId"), s);
+					} else if (s.getString("userId") != null) {
+						usersShared.put(s.getString("userId"), s);
+					}
+				}
+				Set<String> inShare = new HashSet<>(groupsShared.keySet());
+				inShare.addAll(usersShared.keySet());
+				sharesValidation(userId, groups, users, inShare, new Handler<Either<String, JsonObject>>() {
+					@Override
+					public void handle(Either<String, JsonObject> event) {
+						if (event.isLeft()) {
+							handler.handle(event);
+							return;
+						}
+						final JsonArray notify = new JsonArray();
+						addShares(actual, groupsShared, groups, "groupId", notify);
+						addShares(actual, usersShared, users, "userId", notify);
+						MongoUpdateBuilder updateQuery = new MongoUpdateBuilder().set("shared", actual);
+						mongo.update(collection, q, updateQuery.build(), new Handler<Message<JsonObject>>() {
+							@Override
+							public void handle(Message<JsonObject> res) {
+								res.body().putArray("notify-timeline-array", notify);
+								handler.handle(Utils.validResult(res));
+							}
+						});
+					}
+				});
+			}
+		});
+	}
+
+	private void addShares(JsonArray actual, Map<String, JsonObject> shared, Map<String, List<String>> targets,
+			String shareIdAttr, JsonArray notify) {
+		for (Map.Entry<String, List<String>> e : targets.entrySet()) {
+			JsonObject s = shared.get(e.getKey());
+			if (s == null) {
+				s = new JsonObject().putString(shareIdAttr, e.getKey());
+				actual.add(s);
+				notify.addObject(new JsonObject().putString(shareIdAttr, e.getKey()));
+			}
+			addActions(s, e.getValue());
+		}
+	}
+
 	@Override
 	public void userShare(final String userId, final String userShareId, final String resourceId,
 			final List<String> actions, final Handler<Either<String, JsonObject>> handler) {
@@ -229,13 +305,13 @@ public class MongoDbShareService extends GenericShareService {
 			@Override
 			public void handle(Boolean event) {
 				if (Boolean.TRUE.equals(event)) {
-					share(resourceId, userShareId, actions, false, handler);
+					share(resourceId, userShareId, actions, false, invalidateOnSuccess(resourceId, handler));
 				} else {
 					userShareValidation(userId, userShareId, actions, new Handler<Either<String, JsonObject>>() {
 						@Override
 						public void handle(Either<String, JsonObject> event) {
 							if (event.isRight()) {
-								share(resourceId, userShareId, actions, false, handler);
+								share(resourceId, userShareId, actions, false, invalidateOnSuccess(resourceId, handler));
 							} else {
 								handler.handle(event);
 							}
@@ -249,13 +325,13 @@ public class MongoDbShareService extends GenericShareService {
 	@Override
 	public void removeGroupShare(String groupId, String resourceId, List<String> actions,
 			Handler<Either<String, JsonObject>> handler) {
-		removeShare(resourceId, groupId, actions, true, handler);
+		removeShare(resourceId, groupId, actions, true, invalidateOnSuccess(resourceId, handler));
 	}
 
 	@Override
 	public void removeUserShare(String userId, String resourceId, List<String> actions,
 			Handler<Either<String, JsonObject>> handler) {
-		removeShare(resourceId, userId, actions, false, handler);
+		removeShare(resourceId, userId, actions, false, invalidateOnSuccess(resourceId, handler));
 	}
 
 	private void removeShare(String resourceId, final String shareId, List<String> removeActions,
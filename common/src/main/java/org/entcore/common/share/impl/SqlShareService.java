@@ -30,8 +30,10 @@ import org.vertx.java.core.eventbus.Message;
 import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
 
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class SqlShareService extends GenericShareService {
 
@@ -52,9 +54,15 @@ public class SqlShareService extends GenericShareService {
 		this.shareTable = this.schema+((shareTable != null && !shareTable.trim().isEmpty()) ? shareTable : "shares");
 	}
 
+	@Override
+	public void shareInfos(String userId, String resourceId, String acceptLanguage,
+			Handler<Either<String, JsonObject>> handler) {
+		shareInfos(userId, resourceId, acceptLanguage, true, handler);
+	}
+
 	@Override
 	public void shareInfos(final String userId, String resourceId, final String acceptLanguage,
-			final Handler<Either<String, JsonObject>> handler) {
+			final boolean visibles, final Handler<Either<String, JsonObject>> handler) {
 		if (userId == null || userId.trim().isEmpty()) {
 			handler.handle(new Either.Left<String, JsonObject>("Invalid userId."));
 			return;
@@ -86,13 +94,15 @@ public class SqlShareService extends GenericShareService {
 						}
 						m.add(row.get(1));
 					}
-					getShareInfos(userId, actions, groupCheckedActions, userCheckedActions, acceptLanguage, new Handler<JsonObject>() {
+					getShareInfos(userId, actions, groupCheckedActions, userCheckedActions, acceptLanguage, visibles,
+							new Handler<JsonObject>() {
 						@Override
 						public void handle(JsonObject event) {
 							if (event != null && event.size() == 3) {
 								handler.handle(new Either.Right<String, JsonObject>(event));
 							} else {
-								handler.handle(new Either.Left<String, JsonObject>(
+								handler.handle(new Either.Left<String, JsonObject>(event != null ?
+										event.getString("error", "Error finding shared resource.") :
 										"Error finding shared resource."));
 							}
 						}
@@ -110,13 +120,13 @@ public class SqlShareService extends GenericShareService {
 			@Override
 			public void handle(Boolean event) {
 				if (Boolean.TRUE.equals(event)) {
-					share(resourceId, groupShareId, actions, "groups", handler);
+					share(resourceId, groupShareId, actions, "groups", invalidateOnSuccess(resourceId, handler));
 				} else {
 					groupShareValidation(userId, groupShareId, actions, new Handler<Either<String, JsonObject>>() {
 						@Override
 						public void handle(Either<String, JsonObject> event) {
 							if (event.isRight()) {
-								share(resourceId, groupShareId, actions, "groups", handler);
+								share(resourceId, groupShareId, actions, "groups", invalidateOnSuccess(resourceId, handler));
 							} else {
 								handler.handle(event);
 							}
@@ -146,13 +156,13 @@ public class SqlShareService extends GenericShareService {
 			@Override
 			public void handle(Boolean event) {
 				if (Boolean.TRUE.equals(event)) {
-					share(resourceId, userShareId, actions, "users", handler);
+					share(resourceId, userShareId, actions, "users", invalidateOnSuccess(resourceId, handler));
 				} else {
 					userShareValidation(userId, userShareId, actions, new Handler<Either<String, JsonObject>>() {
 						@Override
 						public void handle(Either<String, JsonObject> event) {
 							if (event.isRight()) {
-								share(resourceId, userShareId, actions, "users", handler);
+								share(resourceId, userShareId, actions, "users", invalidateOnSuccess(resourceId, handler));
 							} else {
 								handler.handle(event);
 							}
@@ -166,13 +176,13 @@ public class SqlShareService extends GenericShareService {
 	@Override
 	public void removeGroupShare(String groupId, String resourceId,
 			List<String> actions, Handler<Either<String, JsonObject>> handler) {
-		removeShare(resourceId, groupId, actions, handler);
+		removeShare(resourceId, groupId, actions, invalidateOnSuccess(resourceId, handler));
 	}
 
 	@Override
 	public void removeUserShare(String userId, String resourceId,
 			List<String> actions, Handler<Either<String, JsonObject>> handler) {
-		removeShare(resourceId, userId, actions, handler);
+		removeShare(resourceId, userId, actions, invalidateOnSuccess(resourceId, handler));
 	}
 
 	private void removeShare(String resourceId, String userId, List<String> actions,
@@ -197,19 +207,7 @@ public class SqlShareService extends GenericShareService {
 		final SqlStatementsBuilder s = new SqlStatementsBuilder();
 		s.raw("LOCK TABLE " + schema + membersTable + " IN SHARE ROW EXCLUSIVE MODE");
 		s.raw("LOCK TABLE " + shareTable + " IN SHARE ROW EXCLUSIVE MODE");
-		s.raw(
-				"INSERT INTO " + schema + membersTable + " (id) SELECT '" + shareId +
-				"' WHERE NOT EXISTS (SELECT * FROM " + schema + membersTable + " WHERE id='" + shareId + "');"
-		);
-		final Object rId = Sql.parseId(resourceId);
-		final String query =
-				"INSERT INTO " + shareTable + " (member_id, resource_id, action) SELECT ?, ?, ? WHERE NOT EXISTS " +
-				"(SELECT * FROM " + shareTable + " WHERE member_id = ? AND resource_id = ? AND action = ?);";
-		for (String action : actions) {
-			JsonArray ar = new JsonArray()
-					.add(shareId).add(rId).add(action).add(shareId).add(rId).add(action);
-			s.prepared(query, ar);
-		}
+		shareStatements(s, Sql.parseId(resourceId), shareId, actions, membersTable);
 		sql.prepared("SELECT count(*) FROM " + shareTable + " WHERE member_id = ? AND resource_id = ?",
 				new JsonArray().add(shareId).add(Sql.parseId(resourceId)), new Handler<Message<JsonObject>>() {
 			@Override
@@ -231,4 +229,98 @@ public class SqlShareService extends GenericShareService {
 		});
 	}
 
+	private void shareStatements(SqlStatementsBuilder s, Object rId, String shareId, List<String> actions,
+			String membersTable) {
+		s.raw(
+				"INSERT INTO " + schema + membersTable + " (id) SELECT '" + shareId +
+				"' WHERE NOT EXISTS (SELECT * FROM " + schema + membersTable + " WHERE id='" + shareId + "');"
+		);
+		final String query =
+				"INSERT INTO " + shareTable + " (member_id, resource_id, action) SELECT ?, ?, ? WHERE NOT EXISTS " +
+				"(SELECT * FROM " + shareTable + " WHERE member_id = ? AND resource_id = ? AND action = ?);";
+		for (String action : actions) {
+			JsonArray ar = new JsonArray()
+					.add(shareId).add(rId).add(action).add(shareId).add(rId).add(action);
+			s.prepared(query, ar);
+		}
+	}
+
+	@Override
+	public void share(final String userId, String resourceId, JsonObject shares,
+			Handler<Either<String, JsonObject>> h) {
+		final Handler<Either<String, JsonObject>> handler = invalidateOnSuccess(resourceId, h);
+		final Map<String, List<String>> groups = getShares(shares, "groups");
+		final Map<String, List<String>> users = getShares(shares, "users");
+		if (groups.isEmpty() && users.isEmpty()) {
+			handler.handle(new Either.Left<String, JsonObject>("Invalid shares."));
+			return;
+		}
+		final Object rId = Sql.parseId(resourceId);
+		final Set<String> memberIds = new HashSet<>(groups.keySet());
+		memberIds.addAll(users.keySet());
+		final Object[] ids = memberIds.toArray();
+		String query = "SELECT DISTINCT member_id FROM " + shareTable +
+				" WHERE resource_id = ? AND member_id IN " + Sql.listPrepared(ids);
+		JsonArray params = new JsonArray().add(rId);
+		for (Object id : ids) {
+			params.add(id);
+		}
+		sql.prepared(query, params, SqlResult.validResultHandler(new Handler<Either<String, JsonArray>>() {
+			@Override
+			public void handle(Either<String, JsonArray> r) {
+				if (r.isLeft()) {
+					handler.handle(new Either.Left<String, JsonObject>(r.left().getValue()));
+					return;
+				}
+				final Set<String> inShare = new HashSet<>();
+				for (Object o : r.right().getValue()) {
+					if (!(o instanceof JsonObject)) continue;
+					inShare.add(((JsonObject) o).getString("member_id"));
+				}
+				sharesValidation(userId, groups, users, inShare, new Handler<Either<String, JsonObject>>() {
+					@Override
+					public void handle(Either<String, JsonObject> event) {
+						if (event.isLeft()) {
+							handler.handle(event);
+							return;
+						}
+						final SqlStatementsBuilder s = new SqlStatementsBuilder();
+						final JsonArray notify = new JsonArray();
+						if (!groups.isEmpty()) {
+							s.raw("LOCK TABLE " + schema + "groups IN SHARE ROW EXCLUSIVE MODE");
+						}
+						if (!users.isEmpty()) {
+							s.raw("LOCK TABLE " + schema + "users IN SHARE ROW EXCLUSIVE MODE");
+						}
+						s.raw("LOCK TABLE " + shareTable + " IN SHARE ROW EXCLUSIVE MODE");
+						for (Map.Entry<String, List<String>> e : groups.entrySet()) {
+							shareStatements(s, rId, e.getKey(), e.getValue(), "groups");
+							if (!inShare.contains(e.getKey())) {
+								notify.addObject(new JsonObject().putString("groupId", e.getKey()));
+							}
+						}
+						for (Map.Entry<String, List<String>> e : users.entrySet()) {
+							shareStatements(s, rId, e.getKey(), e.getValue(), "users");
+							if (!inShare.contains(e.getKey())) {
+								notify.addObject(new JsonObject().putString("userId", e.getKey()));
+							}
+						}
+						sql.transaction(s.build(), new Handler<Message<JsonObject>>() {
+							@Override
+							public void handle(Message<JsonObject> res) {
+								if ("ok".equals(res.body().getString("status"))) {
+									handler.handle(new Either.Right<String, JsonObject>(
+											new JsonObject().putArray("notify-timeline-array", notify)));
+								} else {
+									handler.handle(new Either.Left<String, JsonObject>(
+											res.body().getString("message", "")));
+								}
+							}
+						});
+					}
+				});
+			}
+		}));
+	}
+
 }
@@ -0,0 +1,116 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2016
+ *
+ * This file is part of ENT Core. ENT Core is a versatile ENT engine based on the JVM.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with ENT Core is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of ENT Core, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package org.entcore.common.user;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Short lived cache of the user profile (userId, type, profilGroupsIds, classes and structures) by login,
+ * so a user is resolved once per login by the authentication, the session manager and the event store.
+ * Entries are stored in the "userInfosCache" shared map, as the encoded profile with its "expireAt" date,
+ * so modules which don't depend on this class (session) can fill it.
+ */
+public class UserInfosCache {
+
+	public static final String USER_INFOS_CACHE_MAP = "userInfosCache";
+	public static final String EXPIRE_AT = "expireAt";
+	private static final long DEFAULT_TTL = 30 * 1000;
+	private static UserInfosCache instance = null;
+
+	private final ConcurrentMap<String, String> users;
+	private final long ttl;
+
+	public static synchronized UserInfosCache getInstance(Vertx vertx) {
+		if (instance == null) {
+			instance = new UserInfosCache(vertx, DEFAULT_TTL);
+		}
+		return instance;
+	}
+
+	private UserInfosCache(Vertx vertx, long ttl) {
+		this.users = vertx.sharedData().getMap(USER_INFOS_CACHE_MAP);
+		this.ttl = ttl;
+		vertx.setPeriodic(ttl, new Handler<Long>() {
+			@Override
+			public void handle(Long timerId) {
+				removeExpired();
+			}
+		});
+	}
+
+	/**
+	 * @return The profile of the user, or null if it isn't cached or has expired
+	 */
+	public UserInfos get(String login) {
+		if (login == null) {
+			return null;
+		}
+		final String u = users.get(login);
+		if (u == null) {
+			return null;
+		}
+		final JsonObject user = new JsonObject(u);
+		if (user.getLong(EXPIRE_AT, 0l) < System.currentTimeMillis()) {
+			users.remove(login, u);
+			return null;
+		}
+		user.removeField(EXPIRE_AT);
+		return UserUtils.sessionToUserInfos(user);
+	}
+
+	/**
+	 * @param user : userId, type, profilGroupsIds, classes and structures of the user
+	 */
+	public void put(String login, JsonObject user) {
+		if (login == null || user == null || user.getString("userId") == null) {
+			return;
+		}
+		final JsonObject u = new JsonObject()
+				.putString("userId", user.getString("userId"))
+				.putString("type", user.getString("type"))
+				.putArray("profilGroupsIds", user.getArray("profilGroupsIds", new JsonArray()))
+				.putArray("classes", user.getArray("classes", new JsonArray()))
+				.putArray("structures", user.getArray("structures", new JsonArray()))
+				.putNumber(EXPIRE_AT, System.currentTimeMillis() + ttl);
+		users.put(login, u.encode());
+	}
+
+	public void invalidate(String login) {
+		if (login != null) {
+			users.remove(login);
+		}
+	}
+
+	private void removeExpired() {
+		final long now = System.currentTimeMillis();
+		for (Map.Entry<String, String> e : users.entrySet()) {
+			if (new JsonObject(e.getValue()).getLong(EXPIRE_AT, 0l) < now) {
+				users.remove(e.getKey(), e.getValue());
+			}
+		}
+	}
+
+}
@@ -31,12 +31,25 @@ import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
 
 import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
 
 public class UserUtils {
 
 	private static final String COMMUNICATION_USERS = "wse.communication.users";
 	private static final String DIRECTORY = "directory";
 	private static final String SESSION_ADDRESS = "wse.session";
+	private static final ObjectMapper mapper = new ObjectMapper();
+	// Requests are handled by a single event loop thread, so each thread keeps the users of its own requests
+	private static final ThreadLocal<Map<HttpServerRequest, RequestUserInfos>> requestsUserInfos =
+			new ThreadLocal<Map<HttpServerRequest, RequestUserInfos>>() {
+				@Override
+				protected Map<HttpServerRequest, RequestUserInfos> initialValue() {
+					return new WeakHashMap<>();
+				}
+			};
 	private static final JsonArray usersTypes = new JsonArray().addString("User");
 	private static final JsonObject QUERY_VISIBLE_PROFILS_GROUPS = new JsonObject()
 			.putString("action", "visibleProfilsGroups");
@@ -76,6 +89,36 @@ public class UserUtils {
 		}
 	}
 
+	/**
+	 * Filters, with a single query, the ids of the groups and users visible by the user.
+	 * A group id is only kept if it is a visible group, and a user id if it is a visible user.
+	 */
+	public static void filterVisibles(final EventBus eb, String userId, JsonArray groupIds, JsonArray userIds,
+			final Handler<Set<String>> handler) {
+		if ((groupIds == null || groupIds.size() == 0) && (userIds == null || userIds.size() == 0)) {
+			handler.handle(new HashSet<String>());
+			return;
+		}
+		JsonObject query = new JsonObject()
+				.putString("action", "visibleIds")
+				.putArray("groupIds", groupIds != null ? groupIds : new JsonArray())
+				.putArray("userIds", userIds != null ? userIds : new JsonArray());
+		findUsers(eb, userId, query, new Handler<JsonArray>() {
+			@Override
+			public void handle(JsonArray visibles) {
+				Set<String> ids = new HashSet<>();
+				for (Object o : visibles) {
+					if (!(o instanceof JsonObject)) continue;
+					String id = ((JsonObject) o).getString("id");
+					if (id != null) {
+						ids.add(id);
+					}
+				}
+				handler.handle(ids);
+			}
+		});
+	}
+
 	public static void findVisibleUsers(final EventBus eb, HttpServerRequest request, boolean profile,
 										final Handler<JsonArray> handler) {
 		findVisibleUsers(eb, request, profile, null, null, handler);
@@ -116,6 +159,48 @@ public class UserUtils {
 		findUsers(eb, userId, m, handler);
 	}
 
+	/**
+	 * Fetch one page of the visible users, ordered by display name then id.
+	 * @param search prefix of the display name (optional)
+	 * @param afterName sortName of the last row of the previous page (null for the first page)
+	 * @param afterId id of the last row of the previous page (null for the first page)
+	 * @param limit page size
+	 * @param fields returned fields in addition to id and sortName (null for all fields)
+	 */
+	public static void findVisibleUsers(final EventBus eb, String userId, boolean itSelf, boolean profile,
+			String search, String afterName, String afterId, int limit, JsonArray fields,
+			final Handler<JsonArray> handler) {
+		findVisibles(eb, userId, usersTypes, itSelf, false, profile, search, afterName, afterId, limit, fields,
+				handler);
+	}
+
+	/**
+	 * Fetch one page of the visible nodes of these types (User, Group), ordered by display name then id.
+	 * @param myGroup include the groups of the user
+	 * @see #findVisibleUsers(EventBus, String, boolean, boolean, String, String, String, int, JsonArray, Handler)
+	 */
+	public static void findVisibles(final EventBus eb, String userId, JsonArray expectedTypes, boolean itSelf,
+			boolean myGroup, boolean profile, String search, String afterName, String afterId, int limit,
+			JsonArray fields, final Handler<JsonArray> handler) {
+		JsonObject m = new JsonObject()
+				.putBoolean("itself", itSelf)
+				.putBoolean("mygroup", myGroup)
+				.putBoolean("profile", profile)
+				.putString("action", "visibleUsersPage")
+				.putArray("expectedTypes", expectedTypes)
+				.putNumber("limit", limit);
+		if (search != null) {
+			m.putString("search", search);
+		}
+		if (afterName != null) {
+			m.putString("afterName", afterName).putString("afterId", afterId);
+		}
+		if (fields != null) {
+			m.putArray("fields", fields);
+		}
+		findUsers(eb, userId, m, handler);
+	}
+
 	private static JsonObject queryVisibleUsers(String customReturn, JsonObject additionnalParams, boolean itSelf,
 			boolean profile) {
 		return queryVisibleUsers(null, customReturn, additionnalParams, itSelf, profile);
@@ -321,11 +406,20 @@ public class UserUtils {
 		findSession(eb, null, findSession, handler);
 	}
 
+	private static final class RequestUserInfos {
+		private final JsonObject session;
+		private final UserInfos user;
+
+		private RequestUserInfos(JsonObject session, UserInfos user) {
+			this.session = session;
+			this.user = user;
+		}
+	}
+
 	public static UserInfos sessionToUserInfos(JsonObject session) {
 		if (session == null) {
 			return null;
 		}
-		ObjectMapper mapper = new ObjectMapper();
 		try {
 			return mapper.readValue(session.encode(), UserInfos.class);
 		} catch (IOException e) {
@@ -334,12 +428,33 @@ public class UserUtils {
 		}
 	}
 
-	public static void getUserInfos(EventBus eb, HttpServerRequest request,
+	/**
+	 * Converts the session once per request : the user is kept with the request while its session is unchanged,
+	 * so the filters and the controller share the same instance, and see the changes made to it.
+	 * A request handled by another thread (worker) only converts its session again.
+	 */
+	public static UserInfos sessionToUserInfos(HttpServerRequest request, JsonObject session) {
+		if (request == null || session == null) {
+			return sessionToUserInfos(session);
+		}
+		final Map<HttpServerRequest, RequestUserInfos> users = requestsUserInfos.get();
+		RequestUserInfos r = users.get(request);
+		if (r != null && r.session == session) {
+			return r.user;
+		}
+		UserInfos user = sessionToUserInfos(session);
+		if (user != null) {
+			users.put(request, new RequestUserInfos(session, user));
+		}
+		return user;
+	}
+
+	public static void getUserInfos(EventBus eb, final HttpServerRequest request,
 									final Handler<UserInfos> handler) {
 		getSession(eb, request, new Handler<JsonObject>() {
 			@Override
 			public void handle(JsonObject session) {
-				handler.handle(sessionToUserInfos(session));
+				handler.handle(sessionToUserInfos(request, session));
 			}
 		});
 	}
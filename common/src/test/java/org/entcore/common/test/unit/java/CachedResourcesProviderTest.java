@@ -0,0 +1,134 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2016
+ *
+ * This file is part of ENT Core. ENT Core is a versatile ENT engine based on the JVM.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with ENT Core is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of ENT Core, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package org.entcore.common.test.unit.java;
+
+import fr.wseduc.webutils.http.Binding;
+import fr.wseduc.webutils.http.HttpMethod;
+import fr.wseduc.webutils.security.ActionType;
+import org.entcore.common.http.filter.CachedResourcesProvider;
+import org.entcore.common.http.filter.ResourcesProvider;
+import org.entcore.common.user.UserInfos;
+import org.junit.Before;
+import org.junit.Test;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.http.HttpServerRequest;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+import java.util.regex.Pattern;
+
+import static org.entcore.common.appregistry.AppRegistryEvents.*;
+import static org.entcore.common.test.unit.java.Stubs.request;
+import static org.entcore.common.test.unit.java.Stubs.user;
+import static org.junit.Assert.*;
+
+public class CachedResourcesProviderTest {
+
+	private final Binding binding = new Binding(HttpMethod.GET, Pattern.compile("/blog/.*"),
+			"org.entcore.blog.controllers.BlogController|get", ActionType.RESOURCE);
+	private Stubs.Bus bus;
+	private Vertx vertx;
+	private int calls;
+	private boolean authorized;
+	private final ResourcesProvider provider = new ResourcesProvider() {
+		@Override
+		public void authorize(HttpServerRequest resourceRequest, Binding binding, UserInfos user,
+				Handler<Boolean> handler) {
+			calls++;
+			handler.handle(authorized);
+		}
+	};
+	private final Handler<Boolean> result = new Handler<Boolean>() {
+		@Override
+		public void handle(Boolean event) {
+			assertEquals(authorized, event);
+		}
+	};
+
+	@Before
+	public void setUp() {
+		calls = 0;
+		authorized = true;
+		bus = new Stubs.Bus();
+		vertx = Stubs.vertx(bus.eventBus, null);
+	}
+
+	@Test
+	public void testCacheDecision() {
+		CachedResourcesProvider cache = new CachedResourcesProvider(vertx, provider, new JsonObject());
+		cache.authorize(request("GET", "/blog/b1"), binding, user("u1"), result);
+		cache.authorize(request("GET", "/blog/b1"), binding, user("u1"), result);
+		assertEquals(1, calls);
+		cache.authorize(request("GET", "/blog/b2"), binding, user("u1"), result);
+		cache.authorize(request("GET", "/blog/b1"), binding, user("u2"), result);
+		assertEquals(3, calls);
+		JsonObject metrics = cache.getMetrics().getObject(provider.getClass().getSimpleName());
+		assertEquals(1l, metrics.getLong("hits").longValue());
+		assertEquals(3l, metrics.getLong("misses").longValue());
+	}
+
+	@Test
+	public void testNotCached() {
+		CachedResourcesProvider cache = new CachedResourcesProvider(vertx, provider, new JsonObject());
+		cache.authorize(request("POST", "/blog/b1"), binding, user("u1"), result);
+		cache.authorize(request("POST", "/blog/b1"), binding, user("u1"), result);
+		cache.authorize(request("GET", "/blog/b1"), binding, null, result);
+		cache.authorize(request("GET", "/blog/b1"), binding, null, result);
+		assertEquals(4, calls);
+	}
+
+	@Test
+	public void testDeniedExpires() {
+		CachedResourcesProvider cache = new CachedResourcesProvider(vertx, provider,
+				new JsonObject().putNumber("negative-ttl", -1));
+		authorized = false;
+		cache.authorize(request("GET", "/blog/b1"), binding, user("u1"), result);
+		cache.authorize(request("GET", "/blog/b1"), binding, user("u1"), result);
+		assertEquals(2, calls);
+	}
+
+	@Test
+	public void testInvalidateIds() {
+		CachedResourcesProvider cache = new CachedResourcesProvider(vertx, provider, new JsonObject());
+		cache.authorize(request("GET", "/blog/b1"), binding, user("u1"), result);
+		cache.authorize(request("GET", "/blog/b2"), binding, user("u2"), result);
+		cache.authorize(request("GET", "/blog/b3"), binding, user("u3"), result);
+		bus.publish(CachedResourcesProvider.INVALIDATION_ADDRESS,
+				new JsonObject().putArray("ids", new JsonArray().add("u1").add("b2")));
+		cache.authorize(request("GET", "/blog/b1"), binding, user("u1"), result);
+		cache.authorize(request("GET", "/blog/b2"), binding, user("u2"), result);
+		cache.authorize(request("GET", "/blog/b3"), binding, user("u3"), result);
+		assertEquals(5, calls);
+	}
+
+	@Test
+	public void testInvalidateOnRightsUpdate() {
+		CachedResourcesProvider cache = new CachedResourcesProvider(vertx, provider, new JsonObject());
+		cache.authorize(request("GET", "/blog/b1"), binding, user("u1"), result);
+		bus.publish(APP_REGISTRY_PUBLISH_ADDRESS, new JsonObject().putString("type", "OTHER_EVENT"));
+		cache.authorize(request("GET", "/blog/b1"), binding, user("u1"), result);
+		assertEquals(1, calls);
+		bus.publish(APP_REGISTRY_PUBLISH_ADDRESS, new JsonObject().putString("type", PROFILE_GROUP_ACTIONS_UPDATED));
+		cache.authorize(request("GET", "/blog/b1"), binding, user("u1"), result);
+		assertEquals(2, calls);
+	}
+
+}
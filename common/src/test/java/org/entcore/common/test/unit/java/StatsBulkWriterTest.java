@@ -0,0 +1,123 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2016
+ *
+ * This file is part of ENT Core. ENT Core is a versatile ENT engine based on the JVM.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with ENT Core is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of ENT Core, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package org.entcore.common.test.unit.java;
+
+import fr.wseduc.mongodb.MongoDb;
+import org.entcore.common.aggregation.indicators.mongo.StatsBulkWriter;
+import org.junit.Before;
+import org.junit.Test;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StatsBulkWriterTest {
+
+	private final List<JsonObject> metrics = new ArrayList<>();
+	private final Handler<JsonObject> metricsHandler = new Handler<JsonObject>() {
+		@Override
+		public void handle(JsonObject m) {
+			metrics.add(m);
+		}
+	};
+	private Stubs.Bus bus;
+	private List<JsonObject> commands;
+	private MongoDb mongo;
+
+	@Before
+	public void setUp() {
+		metrics.clear();
+		bus = new Stubs.Bus();
+		commands = bus.commands;
+		mongo = MongoDb.getInstance();
+		mongo.init(bus.eventBus, "wse.mongodb.persistor");
+	}
+
+	private static JsonObject ok(int n, JsonArray writeErrors) {
+		final JsonObject result = new JsonObject().putNumber("ok", 1).putNumber("n", n);
+		if (writeErrors != null) {
+			result.putArray("writeErrors", writeErrors);
+		}
+		return new JsonObject().putString("status", "ok").putObject("result", result);
+	}
+
+	private static void add(StatsBulkWriter writer, int count) {
+		for (int i = 0; i < count; i++) {
+			writer.add(new JsonObject().putString("date", "d" + i), new JsonObject()
+					.putObject("$inc", new JsonObject().putNumber("LOGIN", 1)));
+		}
+	}
+
+	@Test
+	public void testNothingToWrite() {
+		StatsBulkWriter writer = new StatsBulkWriter(mongo, "stats", 2);
+		writer.write(metricsHandler);
+		assertTrue(commands.isEmpty());
+		assertEquals(1, metrics.size());
+		assertEquals(0, metrics.get(0).getInteger("batches").intValue());
+	}
+
+	@Test
+	public void testBatches() {
+		StatsBulkWriter writer = new StatsBulkWriter(mongo, "stats", 2);
+		add(writer, 5);
+		assertTrue(commands.isEmpty());
+		writer.write(metricsHandler);
+		assertEquals(1, commands.size());
+		JsonObject command = commands.get(0);
+		assertEquals("stats", command.getString("update"));
+		assertFalse(command.getBoolean("ordered"));
+		assertEquals(2, command.getArray("updates").size());
+		JsonObject update = command.getArray("updates").get(0);
+		assertTrue(update.getBoolean("upsert"));
+		assertEquals("d0", update.getObject("q").getString("date"));
+
+		bus.reply(0, ok(2, null));
+		assertEquals(2, commands.size());
+		bus.reply(1, ok(2, null));
+		assertEquals(3, commands.size());
+		assertEquals(1, commands.get(2).getArray("updates").size());
+		assertTrue(metrics.isEmpty());
+		bus.reply(2, ok(1, null));
+		assertEquals(1, metrics.size());
+		assertEquals(3, metrics.get(0).getInteger("batches").intValue());
+		assertEquals(5, metrics.get(0).getInteger("written").intValue());
+		assertEquals(0, metrics.get(0).getInteger("errors").intValue());
+	}
+
+	@Test
+	public void testErrors() {
+		StatsBulkWriter writer = new StatsBulkWriter(mongo, "stats", 2);
+		add(writer, 4);
+		writer.write(metricsHandler);
+		bus.reply(0, new JsonObject().putString("status", "error").putString("message", "timeout"));
+		assertEquals(2, commands.size());
+		bus.reply(1, ok(1, new JsonArray().addObject(new JsonObject().putNumber("index", 1).putNumber("code", 2))));
+		assertEquals(1, metrics.size());
+		assertEquals(2, metrics.get(0).getInteger("batches").intValue());
+		assertEquals(1, metrics.get(0).getInteger("written").intValue());
+		assertEquals(3, metrics.get(0).getInteger("errors").intValue());
+	}
+
+}
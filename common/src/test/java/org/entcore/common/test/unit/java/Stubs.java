@@ -0,0 +1,143 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2016
+ *
+ * This file is part of ENT Core. ENT Core is a versatile ENT engine based on the JVM.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with ENT Core is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of ENT Core, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package org.entcore.common.test.unit.java;
+
+import org.entcore.common.user.UserInfos;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.eventbus.EventBus;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.http.HttpServerRequest;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.shareddata.SharedData;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stubs of the Vert.x interfaces used by the unit tests which don't need a running platform.
+ * Methods without a configured answer return null, true or 1.
+ */
+public final class Stubs {
+
+	private Stubs() {}
+
+	@SuppressWarnings("unchecked")
+	public static <T> T stub(Class<T> type, final Map<String, Object> answers) {
+		return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class[]{ type }, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (answers.containsKey(method.getName())) {
+					return answers.get(method.getName());
+				} else if (long.class.equals(method.getReturnType())) {
+					return 1l;
+				} else if (boolean.class.equals(method.getReturnType())) {
+					return true;
+				}
+				return null;
+			}
+		});
+	}
+
+	public static Vertx vertx(EventBus eb, SharedData sharedData) {
+		final Map<String, Object> answers = new HashMap<>();
+		answers.put("eventBus", eb);
+		answers.put("sharedData", sharedData);
+		return stub(Vertx.class, answers);
+	}
+
+	@SuppressWarnings("unchecked")
+	public static <T> Message<T> message(T body) {
+		final Map<String, Object> answers = new HashMap<>();
+		answers.put("body", body);
+		return stub(Message.class, answers);
+	}
+
+	public static HttpServerRequest request(String method, String path) {
+		final Map<String, Object> answers = new HashMap<>();
+		answers.put("method", method);
+		answers.put("path", path);
+		return stub(HttpServerRequest.class, answers);
+	}
+
+	public static UserInfos user(String userId) {
+		UserInfos user = new UserInfos();
+		user.setUserId(userId);
+		return user;
+	}
+
+	public static JsonObject session(String userId) {
+		return new JsonObject()
+				.putString("userId", userId)
+				.putString("type", "Teacher")
+				.putArray("profilGroupsIds", new JsonArray().add("pg1"))
+				.putArray("classes", new JsonArray().add("c1"))
+				.putArray("structures", new JsonArray().add("s1"))
+				.putString("displayName", "not cached");
+	}
+
+	/**
+	 * Event bus keeping the sent persistor commands with their reply handlers
+	 * and the registered handlers, to answer or publish from the tests.
+	 */
+	public static class Bus implements InvocationHandler {
+
+		public final List<JsonObject> commands = new ArrayList<>();
+		public final EventBus eventBus = (EventBus) Proxy.newProxyInstance(EventBus.class.getClassLoader(),
+				new Class[]{ EventBus.class }, this);
+		private final List<Handler<Message<JsonObject>>> replies = new ArrayList<>();
+		private final Map<String, Handler<Message<JsonObject>>> handlers = new HashMap<>();
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if ("send".equals(method.getName()) && args != null) {
+				for (Object arg : args) {
+					if (arg instanceof JsonObject) {
+						final JsonObject json = (JsonObject) arg;
+						commands.add(json.containsField("command") ?
+								new JsonObject(json.getString("command")) : json);
+					} else if (arg instanceof Handler) {
+						replies.add((Handler<Message<JsonObject>>) arg);
+					}
+				}
+			} else if ("registerHandler".equals(method.getName()) && args.length == 2) {
+				handlers.put((String) args[0], (Handler<Message<JsonObject>>) args[1]);
+			}
+			return null;
+		}
+
+		public void reply(int index, JsonObject body) {
+			replies.get(index).handle(message(body));
+		}
+
+		public void publish(String address, JsonObject body) {
+			handlers.get(address).handle(message(body));
+		}
+
+	}
+
+}
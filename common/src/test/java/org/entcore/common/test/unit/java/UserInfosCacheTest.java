@@ -0,0 +1,94 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2016
+ *
+ * This file is part of ENT Core. ENT Core is a versatile ENT engine based on the JVM.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with ENT Core is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of ENT Core, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package org.entcore.common.test.unit.java;
+
+import org.entcore.common.user.UserInfos;
+import org.entcore.common.user.UserInfosCache;
+import org.junit.Before;
+import org.junit.Test;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.shareddata.SharedData;
+
+import java.util.Map;
+
+import static org.entcore.common.test.unit.java.Stubs.session;
+import static org.junit.Assert.*;
+
+public class UserInfosCacheTest {
+
+	private static final SharedData sharedData = new SharedData();
+	private static final Vertx vertx = Stubs.vertx(null, sharedData);
+	private UserInfosCache cache;
+	private Map<String, String> map;
+
+	@Before
+	public void setUp() {
+		cache = UserInfosCache.getInstance(vertx);
+		map = sharedData.getMap(UserInfosCache.USER_INFOS_CACHE_MAP);
+		map.clear();
+	}
+
+	@Test
+	public void testPutGet() {
+		cache.put("login1", session("u1"));
+		UserInfos u = cache.get("login1");
+		assertNotNull(u);
+		assertEquals("u1", u.getUserId());
+		assertEquals("Teacher", u.getType());
+		assertEquals("s1", u.getStructures().get(0));
+		assertEquals("c1", u.getClasses().get(0));
+		assertNull(u.getUsername());
+		assertFalse(new JsonObject(map.get("login1")).containsField("displayName"));
+	}
+
+	@Test
+	public void testMissing() {
+		assertNull(cache.get(null));
+		assertNull(cache.get("unknown"));
+		cache.put("login2", new JsonObject().putString("type", "Student"));
+		cache.put(null, session("u2"));
+		assertTrue(map.isEmpty());
+	}
+
+	@Test
+	public void testInvalidate() {
+		cache.put("login3", session("u3"));
+		cache.invalidate("login3");
+		cache.invalidate(null);
+		assertNull(cache.get("login3"));
+	}
+
+	@Test
+	public void testExpired() {
+		map.put("login4", session("u4").putNumber(UserInfosCache.EXPIRE_AT, System.currentTimeMillis() - 1).encode());
+		assertNull(cache.get("login4"));
+		assertFalse(map.containsKey("login4"));
+	}
+
+	@Test
+	public void testFilledByAnotherModule() {
+		map.put("login5", session("u5").putNumber(UserInfosCache.EXPIRE_AT, System.currentTimeMillis() + 60000).encode());
+		UserInfos u = cache.get("login5");
+		assertNotNull(u);
+		assertEquals("u5", u.getUserId());
+	}
+
+}
@@ -36,12 +36,16 @@ import org.entcore.common.http.filter.ResourceFilter;
 import org.entcore.communication.services.CommunicationService;
 import org.entcore.communication.services.impl.DefaultCommunicationService;
 import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
 import org.vertx.java.core.eventbus.Message;
 import org.vertx.java.core.http.HttpServerRequest;
+import org.vertx.java.core.http.RouteMatcher;
 import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.platform.Container;
 
 import java.util.List;
+import java.util.Map;
 
 import static org.entcore.common.http.response.DefaultResponseHandler.arrayResponseHandler;
 import static org.entcore.common.http.response.DefaultResponseHandler.defaultResponseHandler;
@@ -49,7 +53,14 @@ import static org.entcore.common.http.response.DefaultResponseHandler.notEmptyRe
 
 public class CommunicationController extends BaseController {
 
-	private final CommunicationService communicationService = new DefaultCommunicationService();
+	private CommunicationService communicationService;
+
+	@Override
+	public void init(Vertx vertx, Container container, RouteMatcher rm,
+			Map<String, fr.wseduc.webutils.security.SecuredAction> securedActions) {
+		super.init(vertx, container, rm, securedActions);
+		communicationService = new DefaultCommunicationService(container.config().getBoolean("visible-index", false));
+	}
 
 	@Get("/admin-console")
 	@SecuredAction(value = "", type = ActionType.RESOURCE)
@@ -127,6 +138,20 @@ public class CommunicationController extends BaseController {
 		if (userId != null && !userId.trim().isEmpty()) {
 			String schoolId = request.params().get("schoolId");
 			List<String> expectedTypes = request.params().getAll("expectedType");
+			String limit = request.params().get("limit");
+			if (limit != null && (schoolId == null || schoolId.trim().isEmpty())) {
+				int l;
+				try {
+					l = Integer.parseInt(limit);
+				} catch (NumberFormatException e) {
+					badRequest(request, "invalid.limit");
+					return;
+				}
+				communicationService.visibleUsers(userId, new JsonArray(expectedTypes.toArray()), false, false, true,
+						request.params().get("search"), request.params().get("afterName"),
+						request.params().get("afterId"), l, null, arrayResponseHandler(request));
+				return;
+			}
 			visibleUsers(userId, schoolId, new JsonArray(expectedTypes.toArray()), arrayResponseHandler(request));
 		} else {
 			renderJson(request, new JsonArray());
@@ -165,9 +190,24 @@ public class CommunicationController extends BaseController {
 				communicationService.visibleUsers(userId, schoolId, expectedTypes, itSelf, myGroup,
 						profile, preFilter, customReturn, ap, responseHandler);
 				break;
+			case "visibleUsersPage":
+				communicationService.visibleUsers(userId, expectedTypes,
+						message.body().getBoolean("itself", false),
+						message.body().getBoolean("mygroup", false),
+						message.body().getBoolean("profile", true),
+						message.body().getString("search"),
+						message.body().getString("afterName"),
+						message.body().getString("afterId"),
+						message.body().getInteger("limit", 0),
+						message.body().getArray("fields"), responseHandler);
+				break;
 			case "usersCanSeeMe":
 				communicationService.usersCanSeeMe(userId, responseHandler);
 				break;
+			case "visibleIds":
+				communicationService.visibleIds(userId, message.body().getArray("groupIds"),
+						message.body().getArray("userIds"), responseHandler);
+				break;
 			case "visibleProfilsGroups":
 				String c = message.body().getString("customReturn");
 				JsonObject p = message.body().getObject("additionnalParams");
@@ -283,10 +323,22 @@ public class CommunicationController extends BaseController {
 				communicationService.applyDefaultRules(
 						message.body().getArray("schoolIds"), responseHandler);
 				break;
+			case "rebuildGroupVisibleIndex" :
+				communicationService.rebuildGroupVisibleIndex(
+						message.body().getString("groupId"), responseHandler);
+				break;
 			case "setCommunicationRules" :
 				communicationService.applyRules(
 						message.body().getString("groupId"), responseHandler);
 				break;
+			case "rebuildVisibleIndex" :
+				communicationService.rebuildVisibleIndex(
+						message.body().getArray("schoolIds"), responseHandler);
+				break;
+			case "isVisible" :
+				communicationService.isVisible(message.body().getString("userId"),
+						message.body().getString("targetId"), responseHandler);
+				break;
 			default:
 				message.reply(new JsonObject().putString("status", "error")
 						.putString("message", "invalid.action"));
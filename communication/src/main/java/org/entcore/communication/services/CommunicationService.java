@@ -60,10 +60,22 @@ public interface CommunicationService {
 
 	void removeRules(String structureId, Handler<Either<String, JsonObject>> handler);
 
+	void rebuildVisibleIndex(JsonArray structureIds, Handler<Either<String, JsonObject>> handler);
+
+	void rebuildGroupVisibleIndex(String groupId, Handler<Either<String, JsonObject>> handler);
+
+	void isVisible(String userId, String targetId, Handler<Either<String, JsonObject>> handler);
+
+	void visibleIds(String userId, JsonArray groupIds, JsonArray userIds, Handler<Either<String, JsonArray>> handler);
+
 	void visibleUsers(String userId, String structureId, JsonArray expectedTypes, boolean itSelf, boolean myGroup,
 			boolean profile, String preFilter, String customReturn, JsonObject additionnalParams,
 			Handler<Either<String, JsonArray>> handler);
 
+	void visibleUsers(String userId, JsonArray expectedTypes, boolean itSelf, boolean myGroup, boolean profile,
+			String search, String afterName, String afterId, int limit, JsonArray fields,
+			Handler<Either<String, JsonArray>> handler);
+
 	void usersCanSeeMe(String userId, final Handler<Either<String, JsonArray>> handler);
 
 	void visibleProfilsGroups(String userId, String customReturn, JsonObject additionnalParams,
@@ -23,6 +23,7 @@ import fr.wseduc.webutils.Either;
 import fr.wseduc.webutils.collections.Joiner;
 import org.entcore.common.neo4j.Neo4j;
 import org.entcore.common.neo4j.StatementsBuilder;
+import org.entcore.common.validation.StringValidation;
 import org.entcore.communication.services.CommunicationService;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.eventbus.Message;
@@ -31,7 +32,9 @@ import org.vertx.java.core.json.JsonObject;
 import org.vertx.java.core.logging.Logger;
 import org.vertx.java.core.logging.impl.LoggerFactory;
 
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 import static org.entcore.common.neo4j.Neo4jResult.*;
@@ -40,6 +43,51 @@ public class DefaultCommunicationService implements CommunicationService {
 
 	private final Neo4j neo4j = Neo4j.getInstance();
 	private static final Logger log = LoggerFactory.getLogger(DefaultCommunicationService.class);
+	private static final String VISIBLE_INDEX_GROUP = "MATCH (t:Group {id : {groupId}}) ";
+	private static final String VISIBLE_INDEX_GROUPS_TO =
+			"MATCH (t:Group)-[:COMMUNIQUE]->(:Group {id : {groupId}}) WITH DISTINCT t ";
+	private static final String VISIBLE_INDEX_STRUCTURES =
+			"MATCH (s:Structure)<-[:DEPENDS*1..2]-(t:Group) WHERE s.id IN {structures} WITH DISTINCT t ";
+	private static final String VISIBLE_INDEX_GROUP_STRUCTURES =
+			"MATCH (:Group {id : {groupId}})-[:DEPENDS]->()-[:BELONGS*0..1]->(s:Structure) " +
+			"WITH DISTINCT s " +
+			"MATCH s<-[:DEPENDS*1..2]-(t:Group) WITH DISTINCT t ";
+	private static final String VISIBLE_INDEX_ALL = "MATCH (t:Group) ";
+	private static final String VISIBLE_INDEX_UPDATE =
+			"OPTIONAL MATCH t-[:COMMUNIQUE]->(x:Group) " +
+			"WITH t, COLLECT(distinct x) as xs " +
+			"OPTIONAL MATCH t<-[:DEPENDS]-(d:Group) " +
+			"WITH t, xs, COLLECT(distinct d.id) as ds " +
+			"OPTIONAL MATCH t-[:COMMUNIQUE]->(:Group)<-[:DEPENDS]-(dx:Group) " +
+			"WITH t, xs, ds, COLLECT(distinct dx.id) as dxs " +
+			"SET t.visibleGroups = EXTRACT(x IN xs | x.id) + ds + dxs, " +
+			"t.visibleMembersGroups = " +
+			"EXTRACT(x IN FILTER(x IN xs WHERE x.users = 'OUTGOING' OR x.users = 'BOTH') | x.id) + " +
+			"CASE WHEN t.users = 'OUTGOING' OR t.users = 'BOTH' THEN [t.id] ELSE [] END ";
+	private static final int MAX_PAGE_SIZE = 500;
+	private static final Map<String, String> PAGE_FIELDS = new HashMap<>();
+	static {
+		PAGE_FIELDS.put("name", "visibles.name as name");
+		PAGE_FIELDS.put("groupDisplayName", "visibles.groupDisplayName as groupDisplayName");
+		PAGE_FIELDS.put("login", "visibles.login as login");
+		PAGE_FIELDS.put("username", "visibles.displayName as username");
+		PAGE_FIELDS.put("lastName", "visibles.lastName as lastName");
+		PAGE_FIELDS.put("firstName", "visibles.firstName as firstName");
+		PAGE_FIELDS.put("profiles", "visibles.profiles as profiles");
+	}
+	private final boolean visibleIndex;
+
+	public DefaultCommunicationService() {
+		this(false);
+	}
+
+	/**
+	 * @param visibleIndex answer visibleUsers from the visible groups index maintained on the
+	 *                     groups instead of walking the COMMUNIQUE relationships.
+	 */
+	public DefaultCommunicationService(boolean visibleIndex) {
+		this.visibleIndex = visibleIndex;
+	}
 
 	@Override
 	public void addLink(String startGroupId, String endGroupId, Handler<Either<String, JsonObject>> handler) {
@@ -51,7 +99,9 @@ public class DefaultCommunicationService implements CommunicationService {
 		JsonObject params = new JsonObject()
 				.putString("startGroupId", startGroupId)
 				.putString("endGroupId", endGroupId);
-		neo4j.execute(query, params, validUniqueResultHandler(handler));
+		StatementsBuilder s = new StatementsBuilder().add(query, params);
+		updateVisibleIndex(s, VISIBLE_INDEX_GROUP, new JsonObject().putString("groupId", startGroupId));
+		neo4j.executeTransaction(s.build(), null, true, validUniqueResultHandler(0, handler));
 	}
 
 	@Override
@@ -64,7 +114,9 @@ public class DefaultCommunicationService implements CommunicationService {
 		JsonObject params = new JsonObject()
 				.putString("startGroupId", startGroupId)
 				.putString("endGroupId", endGroupId);
-		neo4j.execute(query, params, validUniqueResultHandler(handler));
+		StatementsBuilder s = new StatementsBuilder().add(query, params);
+		updateVisibleIndex(s, VISIBLE_INDEX_GROUP, new JsonObject().putString("groupId", startGroupId));
+		neo4j.executeTransaction(s.build(), null, true, validUniqueResultHandler(0, handler));
 	}
 
 	@Override
@@ -88,7 +140,9 @@ public class DefaultCommunicationService implements CommunicationService {
 				"CREATE UNIQUE " + createRelationship +
 				"RETURN COUNT(*) as number ";
 		JsonObject params = new JsonObject().putString("groupId", groupId).putString("direction", direction.name());
-		neo4j.execute(query, params, validUniqueResultHandler(handler));
+		StatementsBuilder s = new StatementsBuilder().add(query, params);
+		updateVisibleIndexOfUsersGroup(s, groupId);
+		neo4j.executeTransaction(s.build(), null, true, validUniqueResultHandler(0, handler));
 	}
 
 	@Override
@@ -116,7 +170,37 @@ public class DefaultCommunicationService implements CommunicationService {
 				"DELETE r " +
 				"RETURN COUNT(*) as number ";
 		JsonObject params = new JsonObject().putString("groupId", groupId);
-		neo4j.execute(query, params, validUniqueResultHandler(handler));
+		StatementsBuilder s = new StatementsBuilder().add(query, params);
+		updateVisibleIndexOfUsersGroup(s, groupId);
+		neo4j.executeTransaction(s.build(), null, true, validUniqueResultHandler(0, handler));
+	}
+
+	private void updateVisibleIndexOfUsersGroup(StatementsBuilder s, String groupId) {
+		JsonObject params = new JsonObject().putString("groupId", groupId);
+		updateVisibleIndex(s, VISIBLE_INDEX_GROUP, params);
+		updateVisibleIndex(s, VISIBLE_INDEX_GROUPS_TO, params);
+	}
+
+	private void updateVisibleIndex(StatementsBuilder s, String groups, JsonObject params) {
+		s.add(groups + VISIBLE_INDEX_UPDATE, params);
+	}
+
+	@Override
+	public void rebuildVisibleIndex(JsonArray structureIds, Handler<Either<String, JsonObject>> handler) {
+		StatementsBuilder s = new StatementsBuilder();
+		if (structureIds != null && structureIds.size() > 0) {
+			updateVisibleIndex(s, VISIBLE_INDEX_STRUCTURES, new JsonObject().putArray("structures", structureIds));
+		} else {
+			updateVisibleIndex(s, VISIBLE_INDEX_ALL, new JsonObject());
+		}
+		neo4j.executeTransaction(s.build(), null, true, validEmptyHandler(handler));
+	}
+
+	@Override
+	public void rebuildGroupVisibleIndex(String groupId, Handler<Either<String, JsonObject>> handler) {
+		StatementsBuilder s = new StatementsBuilder();
+		updateVisibleIndex(s, VISIBLE_INDEX_GROUP_STRUCTURES, new JsonObject().putString("groupId", groupId));
+		neo4j.executeTransaction(s.build(), null, true, validEmptyHandler(handler));
 	}
 
 	@Override
@@ -219,6 +303,9 @@ public class DefaultCommunicationService implements CommunicationService {
 		for (String attr : defaultRules.getFieldNames()) {
 			initDefaultRules(structureIds, attr, defaultRules.getObject(attr), s1, s2);
 		}
+		if (visibleIndex) {
+			updateVisibleIndex(s3, VISIBLE_INDEX_STRUCTURES, new JsonObject().putArray("structures", structureIds));
+		}
 		neo4j.executeTransaction(s1.build(), null, false, new Handler<Message<JsonObject>>() {
 			@Override
 			public void handle(Message<JsonObject> event) {
@@ -391,6 +478,7 @@ public class DefaultCommunicationService implements CommunicationService {
 				"WITH DISTINCT v " +
 				"SET v:Visible ";
 		s.add(setVisible, params);
+		updateVisibleIndex(s, VISIBLE_INDEX_STRUCTURES, params);
 		neo4j.executeTransaction(s.build(), null, true, validEmptyHandler(handler));
 	}
 
@@ -435,6 +523,7 @@ public class DefaultCommunicationService implements CommunicationService {
 				"WITH DISTINCT v " +
 				"SET v:Visible ";
 		s.add(setVisible, params);
+		updateVisibleIndexOfUsersGroup(s, groupId);
 		neo4j.executeTransaction(s.build(), null, true, validEmptyHandler(handler));
 	}
 
@@ -454,7 +543,14 @@ public class DefaultCommunicationService implements CommunicationService {
 					"OPTIONAL MATCH ()-[r1:COMMUNIQUE_DIRECT]->() " +
 					"DELETE r, r1 ";
 		}
-		neo4j.execute(query, params, validEmptyHandler(handler));
+		StatementsBuilder s = new StatementsBuilder().add(query, params);
+		if (structureId != null && !structureId.trim().isEmpty()) {
+			updateVisibleIndex(s, VISIBLE_INDEX_STRUCTURES,
+					new JsonObject().putArray("structures", new JsonArray().add(structureId)));
+		} else {
+			updateVisibleIndex(s, VISIBLE_INDEX_ALL, new JsonObject());
+		}
+		neo4j.executeTransaction(s.build(), null, true, validEmptyHandler(handler));
 	}
 
 	@Override
@@ -467,6 +563,8 @@ public class DefaultCommunicationService implements CommunicationService {
 		if (structureId != null && !structureId.trim().isEmpty()) {
 			query.append("MATCH (n:User)-[:COMMUNIQUE*1..3]->m-[:DEPENDS*1..2]->(s:Structure {id:{schoolId}})"); //TODO manage leaf
 			params.putString("schoolId", structureId);
+		} else if (visibleIndex) {
+			query.append(visibleFromIndex(myGroup));
 		} else {
 			String l = (myGroup) ? " AND (length(p) >= 2 OR m.users <> 'INCOMING')" : " AND length(p) >= 2";
 			query.append(" MATCH p=(n:User)-[r:COMMUNIQUE|COMMUNIQUE_DIRECT]->t-[:COMMUNIQUE*0..1]->ipg" +
@@ -475,7 +573,11 @@ public class DefaultCommunicationService implements CommunicationService {
 					"XOR (type(r) = 'COMMUNIQUE'"+ l +
 					" AND (length(p) < 3 OR (ipg:Group AND (m:User OR g<-[:DEPENDS]-m) AND length(p) = 3)))) ";
 		}
-		query.append("WHERE n.id = {userId} AND (NOT(HAS(m.blocked)) OR m.blocked = false) ");
+		if (visibleIndex && (structureId == null || structureId.trim().isEmpty())) {
+			query.append("WHERE (NOT(HAS(m.blocked)) OR m.blocked = false) ");
+		} else {
+			query.append("WHERE n.id = {userId} AND (NOT(HAS(m.blocked)) OR m.blocked = false) ");
+		}
 		if (preFilter != null) {
 			query.append(preFilter);
 		}
@@ -513,6 +615,108 @@ public class DefaultCommunicationService implements CommunicationService {
 		neo4j.execute(query.toString(), params, validResultHandler(handler));
 	}
 
+	@Override
+	public void visibleUsers(String userId, JsonArray expectedTypes, boolean itSelf, boolean myGroup, boolean profile,
+			String search, String afterName, String afterId, int limit, JsonArray fields,
+			Handler<Either<String, JsonArray>> handler) {
+		final String sortName = "coalesce(m.displayName, m.name)";
+		final JsonObject params = new JsonObject()
+				.putNumber("limit", (limit > 0 && limit < MAX_PAGE_SIZE) ? limit : MAX_PAGE_SIZE);
+		final StringBuilder preFilter = new StringBuilder();
+		if (search != null && !search.trim().isEmpty()) {
+			preFilter.append("AND coalesce(m.displayNameSearchField, LOWER(m.name)) STARTS WITH {search} ");
+			params.putString("search", StringValidation.removeAccents(search.trim()).toLowerCase());
+		}
+		if (afterName != null) {
+			preFilter.append("AND (").append(sortName).append(" > {afterName} OR (").append(sortName)
+					.append(" = {afterName} AND m.id > {afterId})) ");
+			params.putString("afterName", afterName).putString("afterId", afterId != null ? afterId : "");
+		}
+		final StringBuilder customReturn = new StringBuilder(
+				"RETURN distinct visibles.id as id, coalesce(visibles.displayName, visibles.name) as sortName");
+		if (profile) {
+			customReturn.append(", profile.name as type");
+		}
+		final Set<String> projection = new HashSet<>();
+		if (fields != null && fields.size() > 0) {
+			for (Object f : fields) {
+				if (f instanceof String) {
+					projection.add((String) f);
+				}
+			}
+		} else {
+			projection.addAll(PAGE_FIELDS.keySet());
+		}
+		for (String field : projection) {
+			String expression = PAGE_FIELDS.get(field);
+			if (expression != null) {
+				customReturn.append(", ").append(expression);
+			}
+		}
+		customReturn.append(" ORDER BY sortName, id LIMIT {limit} ");
+		visibleUsers(userId, null, expectedTypes, itSelf, myGroup, profile, preFilter.toString(),
+				customReturn.toString(), params, handler);
+	}
+
+	private String visibleFromIndex(boolean myGroup) {
+		return "MATCH (n:User {id : {userId}}) " +
+				"OPTIONAL MATCH n-[:COMMUNIQUE]->(t:Group) " +
+				"WITH n, COLLECT(t) as ts " +
+				"WITH n, REDUCE(acc = [], t IN ts | acc + coalesce(t.visibleGroups, [])) " +
+				(myGroup ? "+ EXTRACT(t IN FILTER(t IN ts WHERE t.users <> 'INCOMING') | t.id) " : "") +
+				"as vgIds, REDUCE(acc = [], t IN ts | acc + coalesce(t.visibleMembersGroups, [])) as vmgIds " +
+				"OPTIONAL MATCH (vg:Group) WHERE vg.id IN vgIds " +
+				"WITH n, vmgIds, COLLECT(vg) as vgs " +
+				"OPTIONAL MATCH (mg:Group)<-[:IN]-(vu:User) WHERE mg.id IN vmgIds " +
+				"WITH n, vgs, COLLECT(vu) as vus " +
+				"OPTIONAL MATCH n-[:COMMUNIQUE_DIRECT]->(du:User) " +
+				"WITH n, vgs + vus + COLLECT(du) as vs " +
+				"UNWIND vs as m " +
+				"WITH DISTINCT n, m ";
+	}
+
+	@Override
+	public void isVisible(String userId, String targetId, Handler<Either<String, JsonObject>> handler) {
+		JsonObject params = new JsonObject()
+				.putString("userId", userId)
+				.putString("targetId", targetId);
+		String query;
+		if (visibleIndex) {
+			query = visibleFromIndex(false) +
+					"WHERE m.id = {targetId} " +
+					"RETURN COUNT(m) > 0 as visible ";
+		} else {
+			query =
+					"MATCH p=(n:User)-[r:COMMUNIQUE|COMMUNIQUE_DIRECT]->t-[:COMMUNIQUE*0..1]->ipg" +
+					"-[:COMMUNIQUE*0..1]->g<-[:DEPENDS*0..1]-m " +
+					"WHERE n.id = {userId} AND m.id = {targetId} " +
+					"AND ((type(r) = 'COMMUNIQUE_DIRECT' AND length(p) = 1) " +
+					"XOR (type(r) = 'COMMUNIQUE' AND length(p) >= 2 " +
+					"AND (length(p) < 3 OR (ipg:Group AND (m:User OR g<-[:DEPENDS]-m) AND length(p) = 3)))) " +
+					"RETURN COUNT(distinct m) > 0 as visible ";
+		}
+		neo4j.execute(query, params, validUniqueResultHandler(handler));
+	}
+
+	@Override
+	public void visibleIds(String userId, JsonArray groupIds, JsonArray userIds,
+			Handler<Either<String, JsonArray>> handler) {
+		if (groupIds == null) {
+			groupIds = new JsonArray();
+		}
+		if (userIds == null) {
+			userIds = new JsonArray();
+		}
+		if (groupIds.size() == 0 && userIds.size() == 0) {
+			handler.handle(new Either.Right<String, JsonArray>(new JsonArray()));
+			return;
+		}
+		JsonObject params = new JsonObject().putArray("groupIds", groupIds).putArray("userIds", userIds);
+		visibleUsers(userId, null, null, false, true, false,
+				"AND ((m:Group AND m.id IN {groupIds}) OR (m:User AND m.id IN {userIds})) ",
+				"RETURN visibles.id as id ", params, handler);
+	}
+
 	@Override
 	public void usersCanSeeMe(String userId, Handler<Either<String, JsonArray>> handler) {
 		String query =
@@ -25,6 +25,7 @@ import fr.wseduc.rs.Post;
 import fr.wseduc.rs.Put;
 import fr.wseduc.security.ActionType;
 import fr.wseduc.security.SecuredAction;
+import fr.wseduc.webutils.Either;
 import fr.wseduc.webutils.http.BaseController;
 import org.entcore.common.user.UserInfos;
 import org.entcore.common.user.UserUtils;
@@ -70,7 +71,19 @@ public class GroupController extends BaseController {
 				final String classId = body.getString("classId");
 				body.removeField("structureId");
 				body.removeField("classId");
-				groupService.createOrUpdateManual(body, structureId, classId, notEmptyResponseHandler(request, 201));
+				final Handler<Either<String, JsonObject>> handler = notEmptyResponseHandler(request, 201);
+				groupService.createOrUpdateManual(body, structureId, classId, new Handler<Either<String, JsonObject>>() {
+					@Override
+					public void handle(Either<String, JsonObject> r) {
+						if (r.isRight() && r.right().getValue().getString("id") != null) {
+							JsonObject j = new JsonObject()
+									.putString("action", "rebuildGroupVisibleIndex")
+									.putString("groupId", r.right().getValue().getString("id"));
+							eb.send("wse.communication", j);
+						}
+						handler.handle(r);
+					}
+				});
 			}
 		});
 	}
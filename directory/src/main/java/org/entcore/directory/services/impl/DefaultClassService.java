@@ -35,6 +35,7 @@ import org.vertx.java.core.json.JsonObject;
 
 import java.util.List;
 
+import static org.entcore.common.http.filter.CachedResourcesProvider.invalidateOnSuccess;
 import static org.entcore.common.neo4j.Neo4jResult.validResultHandler;
 import static org.entcore.common.neo4j.Neo4jResult.validUniqueResultHandler;
 import static org.entcore.common.user.DefaultFunctions.ADMIN_LOCAL;
@@ -173,7 +174,8 @@ public class DefaultClassService implements ClassService {
 				.putString("action", "manual-add-user")
 				.putString("classId", classId)
 				.putString("userId", userId);
-		eb.send(Directory.FEEDER, action, validUniqueResultHandler(result));
+		eb.send(Directory.FEEDER, action, validUniqueResultHandler(
+				invalidateOnSuccess(eb, new JsonArray().addString(userId), result)));
 	}
 
 	@Override
@@ -182,7 +184,8 @@ public class DefaultClassService implements ClassService {
 				.putString("action", "manual-remove-user")
 				.putString("classId", classId)
 				.putString("userId", userId);
-		eb.send(Directory.FEEDER, action, validUniqueResultHandler(result));
+		eb.send(Directory.FEEDER, action, validUniqueResultHandler(
+				invalidateOnSuccess(eb, new JsonArray().addString(userId), result)));
 	}
 
 	@Override
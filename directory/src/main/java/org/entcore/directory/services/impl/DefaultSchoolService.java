@@ -32,6 +32,7 @@ import org.vertx.java.core.json.JsonObject;
 
 import java.util.List;
 
+import static org.entcore.common.http.filter.CachedResourcesProvider.invalidateOnSuccess;
 import static org.entcore.common.neo4j.Neo4jResult.*;
 import static org.entcore.common.user.DefaultFunctions.ADMIN_LOCAL;
 import static org.entcore.common.user.DefaultFunctions.CLASS_ADMIN;
@@ -113,7 +114,8 @@ public class DefaultSchoolService implements SchoolService {
 				.putString("action", "manual-add-user")
 				.putString("structureId", structureId)
 				.putString("userId", userId);
-		eventBus.send(Directory.FEEDER, action, validUniqueResultHandler(result));
+		eventBus.send(Directory.FEEDER, action, validUniqueResultHandler(
+				invalidateOnSuccess(eventBus, new JsonArray().addString(userId), result)));
 	}
 
 	@Override
@@ -122,7 +124,8 @@ public class DefaultSchoolService implements SchoolService {
 				.putString("action", "manual-remove-user")
 				.putString("structureId", structureId)
 				.putString("userId", userId);
-		eventBus.send(Directory.FEEDER, action, validUniqueResultHandler(result));
+		eventBus.send(Directory.FEEDER, action, validUniqueResultHandler(
+				invalidateOnSuccess(eventBus, new JsonArray().addString(userId), result)));
 	}
 
 	@Override
@@ -131,7 +134,8 @@ public class DefaultSchoolService implements SchoolService {
 				.putString("action", "manual-structure-attachment")
 				.putString("structureId", structureId)
 				.putString("parentStructureId", parentStructureId);
-		eventBus.send(Directory.FEEDER, action, validUniqueResultHandler(0, handler));
+		eventBus.send(Directory.FEEDER, action, validUniqueResultHandler(0,
+				invalidateOnSuccess(eventBus, null, handler)));
 	}
 
 	@Override
@@ -140,7 +144,8 @@ public class DefaultSchoolService implements SchoolService {
 			.putString("action", "manual-structure-detachment")
 			.putString("structureId", structureId)
 			.putString("parentStructureId", parentStructureId);
-		eventBus.send(Directory.FEEDER, action, validUniqueResultHandler(handler));
+		eventBus.send(Directory.FEEDER, action, validUniqueResultHandler(
+				invalidateOnSuccess(eventBus, null, handler)));
 	}
 
 	@Override
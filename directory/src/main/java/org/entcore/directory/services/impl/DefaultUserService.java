@@ -41,6 +41,7 @@ import java.util.List;
 import java.util.UUID;
 import java.util.regex.Pattern;
 
+import static org.entcore.common.http.filter.CachedResourcesProvider.invalidateOnSuccess;
 import static org.entcore.common.neo4j.Neo4jResult.*;
 import static org.entcore.common.user.DefaultFunctions.ADMIN_LOCAL;
 import static org.entcore.common.user.DefaultFunctions.CLASS_ADMIN;
@@ -305,7 +306,8 @@ public class DefaultUserService implements UserService {
 		JsonObject action = new JsonObject()
 				.putString("action", "manual-delete-user")
 				.putArray("users", new JsonArray(users.toArray()));
-		eb.send(Directory.FEEDER, action, validEmptyHandler(result));
+		eb.send(Directory.FEEDER, action, validEmptyHandler(
+				invalidateOnSuccess(eb, new JsonArray(users.toArray()), result)));
 	}
 
 	@Override
@@ -313,7 +315,8 @@ public class DefaultUserService implements UserService {
 		JsonObject action = new JsonObject()
 				.putString("action", "manual-restore-user")
 				.putArray("users", new JsonArray(users.toArray()));
-		eb.send(Directory.FEEDER, action, validEmptyHandler(result));
+		eb.send(Directory.FEEDER, action, validEmptyHandler(
+				invalidateOnSuccess(eb, new JsonArray(users.toArray()), result)));
 	}
 
 	@Override
@@ -325,7 +328,8 @@ public class DefaultUserService implements UserService {
 				.putString("function", functionCode)
 				.putString("inherit", inherit)
 				.putArray("scope", scope);
-		eb.send(Directory.FEEDER, action, validEmptyHandler(result));
+		eb.send(Directory.FEEDER, action, validEmptyHandler(
+				invalidateOnSuccess(eb, new JsonArray().addString(id), result)));
 	}
 
 	@Override
@@ -334,7 +338,8 @@ public class DefaultUserService implements UserService {
 				.putString("action", "manual-remove-user-function")
 				.putString("userId", id)
 				.putString("function", functionCode);
-		eb.send(Directory.FEEDER, action, validEmptyHandler(result));
+		eb.send(Directory.FEEDER, action, validEmptyHandler(
+				invalidateOnSuccess(eb, new JsonArray().addString(id), result)));
 	}
 
 	@Override
@@ -343,7 +348,8 @@ public class DefaultUserService implements UserService {
 				.putString("action", "manual-add-user-group")
 				.putString("userId", id)
 				.putString("groupId", groupId);
-		eb.send(Directory.FEEDER, action, validEmptyHandler(result));
+		eb.send(Directory.FEEDER, action, validEmptyHandler(
+				invalidateOnSuccess(eb, new JsonArray().addString(id), result)));
 	}
 
 	@Override
@@ -352,7 +358,8 @@ public class DefaultUserService implements UserService {
 				.putString("action", "manual-remove-user-group")
 				.putString("userId", id)
 				.putString("groupId", groupId);
-		eb.send(Directory.FEEDER, action, validEmptyHandler(result));
+		eb.send(Directory.FEEDER, action, validEmptyHandler(
+				invalidateOnSuccess(eb, new JsonArray().addString(id), result)));
 	}
 
 	@Override
@@ -392,7 +399,8 @@ public class DefaultUserService implements UserService {
 				.putString("action", "manual-relative-student")
 				.putString("relativeId", relativeId)
 				.putString("studentId", studentId);
-		eb.send(Directory.FEEDER, action, validUniqueResultHandler(0, eitherHandler));
+		eb.send(Directory.FEEDER, action, validUniqueResultHandler(0,
+				invalidateOnSuccess(eb, new JsonArray().addString(relativeId).addString(studentId), eitherHandler)));
 	}
 
 	@Override
@@ -401,7 +409,8 @@ public class DefaultUserService implements UserService {
 				.putString("action", "manual-unlink-relative-student")
 				.putString("relativeId", relativeId)
 				.putString("studentId", studentId);
-		eb.send(Directory.FEEDER, action, validEmptyHandler(eitherHandler));
+		eb.send(Directory.FEEDER, action, validEmptyHandler(
+				invalidateOnSuccess(eb, new JsonArray().addString(relativeId).addString(studentId), eitherHandler)));
 	}
 
 	@Override
@@ -428,7 +437,8 @@ public class DefaultUserService implements UserService {
 				.putString("action", "merge-duplicate")
 				.putString("userId1", userId1)
 				.putString("userId2", userId2);
-		eb.send(Directory.FEEDER, action, validEmptyHandler(handler));
+		eb.send(Directory.FEEDER, action, validEmptyHandler(
+				invalidateOnSuccess(eb, new JsonArray().addString(userId1).addString(userId2), handler)));
 	}
 
 	@Override
@@ -83,7 +83,12 @@ public class Feeder extends BusModBase implements Handler<Message<JsonObject>> {
 				container.config().getBoolean("aafNeo4jPlugin", false)));
 		feeds.put("AAF1D", new Aaf1dFeeder(vertx, getFilesDirectory("AAF1D")));
 		feeds.put("BE1D", new Be1dFeeder(vertx, getFilesDirectory("BE1D")));
-		feeds.put("CSV", new CsvFeeder(vertx, container.config().getObject("csvMappings", new JsonObject())));
+		feeds.put("CSV", new CsvFeeder(vertx, container.config().getObject("csvMappings", new JsonObject()),
+				container.config().getInteger("csv-batch-size", 500)));
+		Importer.getInstance().setTransactionConfig(container.config().getInteger("transaction-batch-size", 1000),
+				container.config().getInteger("transaction-max-batch-size", 1000),
+				container.config().getLong("transaction-target-latency", 2000l));
+		Importer.getInstance().setDeltaImport(container.config().getBoolean("delta-import", false));
 		final long deleteUserDelay = container.config().getLong("delete-user-delay", 90 * 24 * 3600 * 1000l);
 		final long preDeleteUserDelay = container.config().getLong("pre-delete-user-delay", 90 * 24 * 3600 * 1000l);
 		final String deleteCron = container.config().getString("delete-cron", "0 0 2 * * ? *");
@@ -138,7 +143,10 @@ public class Feeder extends BusModBase implements Handler<Message<JsonObject>> {
 				exporter = new EliotExporter(container.config().getString("export-path", "/tmp"),
 						container.config().getString("export-destination"),
 						container.config().getBoolean("concat-export", false),
-						container.config().getBoolean("delete-export", true), vertx);
+						container.config().getBoolean("delete-export", true),
+						container.config().getBoolean("gzip-export", false),
+						container.config().getLong("export-max-part-size", 0l),
+						container.config().getBoolean("parallel-export", true), vertx);
 				break;
 		}
 		I18n.getInstance().init(container, vertx);
@@ -265,6 +265,7 @@ public class ManualFeeder extends BusModBase {
 				"CREATE UNIQUE pg<-[:IN {source:'MANUAL'}]-u " +
 				"SET u.structures = CASE WHEN s.externalId IN u.structures THEN " +
 				"u.structures ELSE coalesce(u.structures, []) + s.externalId END " +
+				"REMOVE u.linksChecksum " +
 				"RETURN DISTINCT u.id as id";
 		neo4j.execute(query, params, new Handler<Message<JsonObject>>() {
 			@Override
@@ -303,6 +304,7 @@ public class ManualFeeder extends BusModBase {
 				"CREATE UNIQUE dpg<-[:IN]-u " +
 				"SET u.structures = FILTER(sId IN u.structures WHERE sId <> s.externalId), " +
 				"u.classes = FILTER(cId IN u.classes WHERE NOT(cId =~ (s.externalId + '.*'))) " +
+				"REMOVE u.linksChecksum " +
 				"DELETE r " +
 				"RETURN DISTINCT u.id as id";
 		neo4j.execute(query, params, new Handler<Message<JsonObject>>() {
@@ -363,6 +365,7 @@ public class ManualFeeder extends BusModBase {
 				"u.classes ELSE coalesce(u.classes, []) + s.externalId END, " +
 				"u.structures = CASE WHEN struct.externalId IN u.structures THEN " +
 				"u.structures ELSE coalesce(u.structures, []) + struct.externalId END " +
+				"REMOVE u.linksChecksum " +
 				"RETURN DISTINCT u.id as id";
 		neo4j.execute(query, params, new Handler<Message<JsonObject>>() {
 			@Override
@@ -383,6 +386,7 @@ public class ManualFeeder extends BusModBase {
 				"p<-[:HAS_PROFILE]-(dpg:DefaultProfileGroup) " +
 				"CREATE UNIQUE dpg<-[:IN]-u " +
 				"SET u.classes = FILTER(cId IN u.classes WHERE cId <> c.externalId) " +
+				"REMOVE u.linksChecksum " +
 				"DELETE r " +
 				"RETURN DISTINCT u.id as id";
 		neo4j.execute(query, params, new Handler<Message<JsonObject>>() {
@@ -631,6 +635,7 @@ public class ManualFeeder extends BusModBase {
 							"MATCH (student:User)-[:IN]->(pg:ProfileGroup)-[:DEPENDS]->(c) " +
 							"WHERE student.externalId IN {linkStudents} " +
 							"CREATE student-[:RELATED]->u " +
+							"REMOVE student.linksChecksum " +
 							"RETURN DISTINCT u.id as id";
 					final Validator v = profiles.get("Relative");
 					final JsonArray errors = new JsonArray();
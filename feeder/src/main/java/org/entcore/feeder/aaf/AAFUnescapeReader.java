@@ -0,0 +1,160 @@
+/* Copyright © WebServices pour l'Éducation, 2014
+ *
+ * This file is part of ENT Core. ENT Core is a versatile ENT engine based on the JVM.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with ENT Core is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of ENT Core, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package org.entcore.feeder.aaf;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+
+import static org.entcore.feeder.aaf.BaseImportProcessing.UNESCAPE_AAF;
+
+/**
+ * Reader unescaping the AAF entities on the fly, so files are never loaded in memory.
+ * Only candidate entities (from '&' to ';') are given to UNESCAPE_AAF, everything else
+ * is copied as is, which gives the same result as translating the whole content.
+ */
+public class AAFUnescapeReader extends FilterReader {
+
+	private static final int MAX_ENTITY_LENGTH = 32;
+	private static final int NONE = -2;
+	private final char[] buffer;
+	private int bufferPos;
+	private int bufferLength;
+	private int lookahead = NONE;
+	private String pending;
+	private int pendingPos;
+	private boolean eof;
+
+	public AAFUnescapeReader(Reader in) {
+		this(in, 8192);
+	}
+
+	public AAFUnescapeReader(Reader in, int bufferSize) {
+		super(in);
+		this.buffer = new char[bufferSize];
+	}
+
+	@Override
+	public int read() throws IOException {
+		final char[] c = new char[1];
+		return read(c, 0, 1) < 0 ? -1 : c[0];
+	}
+
+	@Override
+	public int read(char[] cbuf, int off, int len) throws IOException {
+		int n = 0;
+		while (n < len) {
+			if (pending != null) {
+				final int count = Math.min(len - n, pending.length() - pendingPos);
+				pending.getChars(pendingPos, pendingPos + count, cbuf, off + n);
+				n += count;
+				pendingPos += count;
+				if (pendingPos >= pending.length()) {
+					pending = null;
+				}
+				continue;
+			}
+			final int c = next();
+			if (c < 0) {
+				break;
+			}
+			if (c == '&') {
+				pending = unescapeEntity();
+				pendingPos = 0;
+			} else {
+				cbuf[off + n++] = (char) c;
+			}
+		}
+		return (n == 0 && len > 0) ? -1 : n;
+	}
+
+	private String unescapeEntity() throws IOException {
+		final StringBuilder entity = new StringBuilder(MAX_ENTITY_LENGTH).append('&');
+		while (entity.length() < MAX_ENTITY_LENGTH) {
+			final int c = next();
+			if (c == ';') {
+				entity.append(';');
+				return UNESCAPE_AAF.translate(entity);
+			}
+			if (c < 0 || !(Character.isLetterOrDigit(c) || c == '#')) {
+				lookahead = c;
+				break;
+			}
+			entity.append((char) c);
+		}
+		return entity.toString();
+	}
+
+	private int next() throws IOException {
+		if (lookahead != NONE) {
+			final int c = lookahead;
+			lookahead = NONE;
+			return c;
+		}
+		if (bufferPos >= bufferLength) {
+			if (eof) {
+				return -1;
+			}
+			bufferLength = in.read(buffer, 0, buffer.length);
+			bufferPos = 0;
+			if (bufferLength <= 0) {
+				eof = true;
+				bufferLength = 0;
+				return -1;
+			}
+		}
+		return buffer[bufferPos++];
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		final char[] skipBuffer = new char[(int) Math.min(n, buffer.length)];
+		long skipped = 0;
+		while (skipped < n) {
+			final int count = read(skipBuffer, 0, (int) Math.min(n - skipped, skipBuffer.length));
+			if (count < 0) {
+				break;
+			}
+			skipped += count;
+		}
+		return skipped;
+	}
+
+	@Override
+	public boolean ready() throws IOException {
+		return pending != null || bufferPos < bufferLength || in.ready();
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	@Override
+	public void mark(int readAheadLimit) throws IOException {
+		throw new IOException("mark() not supported");
+	}
+
+	@Override
+	public void reset() throws IOException {
+		throw new IOException("reset() not supported");
+	}
+
+}
@@ -35,8 +35,13 @@ import org.xml.sax.ext.EntityResolver2;
 import org.xml.sax.helpers.XMLReaderFactory;
 
 import java.io.*;
-import java.nio.file.Files;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 
 public abstract class BaseImportProcessing implements ImportProcessing {
@@ -45,6 +50,7 @@ public abstract class BaseImportProcessing implements ImportProcessing {
 	protected final String path;
 	protected final Vertx vertx;
 	protected final Importer importer = Importer.getInstance();
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
 	private static final String[][] OTHER_UNESCAPE = {{"&quot;", "\""}};
 	public static final CharSequenceTranslator UNESCAPE_AAF =
 			new AggregateTranslator(
@@ -79,9 +85,6 @@ public abstract class BaseImportProcessing implements ImportProcessing {
 					try {
 						String file = files[j];
 						log.info("Parsing file : " + file);
-						byte[] encoded = Files.readAllBytes(Paths.get(file));
-						String content = UNESCAPE_AAF.translate(new String(encoded, "UTF-8"));
-						InputSource in = new InputSource(new StringReader(content));
 						AAFHandler sh = new AAFHandler(BaseImportProcessing.this);
 						XMLReader xr = XMLReaderFactory.createXMLReader();
 						xr.setContentHandler(sh);
@@ -106,7 +109,9 @@ public abstract class BaseImportProcessing implements ImportProcessing {
 								}
 							}
 						});
-						xr.parse(in);
+						try (Reader reader = openFile(file)) {
+							xr.parse(new InputSource(reader));
+						}
 						importer.flush(new Handler<Message<JsonObject>>() {
 							@Override
 							public void handle(Message<JsonObject> message) {
@@ -129,6 +134,14 @@ public abstract class BaseImportProcessing implements ImportProcessing {
 		handlers[0].handle(null);
 	}
 
+	private static Reader openFile(String file) throws IOException {
+		final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		return new AAFUnescapeReader(Channels.newReader(
+				FileChannel.open(Paths.get(file), StandardOpenOption.READ), decoder, READ_BUFFER_SIZE));
+	}
+
 	protected void next(final Handler<Message<JsonObject>> handler, final ImportProcessing importProcessing) {
 		preCommit();
 		if (importProcessing != null) {
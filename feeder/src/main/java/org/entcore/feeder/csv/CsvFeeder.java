@@ -21,6 +21,7 @@ package org.entcore.feeder.csv;
 
 import au.com.bytecode.opencsv.CSV;
 import au.com.bytecode.opencsv.CSVReadProc;
+import au.com.bytecode.opencsv.CSVReader;
 import org.entcore.feeder.Feed;
 import org.entcore.feeder.ManualFeeder;
 import org.entcore.feeder.dictionary.structures.DefaultFunctions;
@@ -57,10 +58,16 @@ public class CsvFeeder implements Feed {
 	public static final long DEFAULT_STUDENT_SEED = 0l;
 	private final ColumnsMapper columnsMapper;
 	private final Vertx vertx;
+	private final int batchSize;
 
 	public CsvFeeder(Vertx vertx, JsonObject additionnalsMappings) {
+		this(vertx, additionnalsMappings, 500);
+	}
+
+	public CsvFeeder(Vertx vertx, JsonObject additionnalsMappings, int batchSize) {
 		this.vertx = vertx;
 		this.columnsMapper = new ColumnsMapper(additionnalsMappings);
+		this.batchSize = batchSize;
 	}
 
 	@Override
@@ -167,16 +174,25 @@ public class CsvFeeder implements Feed {
 
 							@Override
 							public void handle(String charset) {
-								start(profile, structure, file, charset, importer, handler);
-								importer.flush(new Handler<Message<JsonObject>>() {
+								start(profile, structure, file, charset, importer, handler, new Handler<Message<JsonObject>>() {
 									@Override
-									public void handle(Message<JsonObject> message) {
-										if ("ok".equals(message.body().getString("status"))) {
-											handlers[j + 1].handle(null);
-										} else {
+									public void handle(Message<JsonObject> m) {
+										if (!"ok".equals(m.body().getString("status"))) {
 											importer.getReport().addErrorWithParams("file.error", file);
 											handler.handle(null);
+											return;
 										}
+										importer.flush(new Handler<Message<JsonObject>>() {
+											@Override
+											public void handle(Message<JsonObject> message) {
+												if ("ok".equals(message.body().getString("status"))) {
+													handlers[j + 1].handle(null);
+												} else {
+													importer.getReport().addErrorWithParams("file.error", file);
+													handler.handle(null);
+												}
+											}
+										});
 									}
 								});
 							}
@@ -271,8 +287,9 @@ public class CsvFeeder implements Feed {
 		}
 	}
 
-	public void start(final String profile, final Structure structure, String file, String charset,
-			final Importer importer, final Handler<Message<JsonObject>> handler) {
+	public void start(final String profile, final Structure structure, final String file, String charset,
+			final Importer importer, final Handler<Message<JsonObject>> handler,
+			final Handler<Message<JsonObject>> endHandler) {
 		importer.createOrUpdateProfile(STUDENT_PROFILE);
 		importer.createOrUpdateProfile(RELATIVE_PROFILE);
 		importer.createOrUpdateProfile(PERSONNEL_PROFILE);
@@ -281,200 +298,250 @@ public class CsvFeeder implements Feed {
 		DefaultFunctions.createOrUpdateFunctions(importer);
 
 		final Validator validator = ManualFeeder.profiles.get(profile);
-//		final Structure structure = importer.getStructure(structureExternalId);
-//		if (structure == null) {
-//			handler.handle(new ResultMessage().error("invalid.structure"));
-//			return;
-//		}
-
-		CSV csvParser = CSV
-				.ignoreLeadingWhiteSpace()
-				.separator(';')
-				.skipLines(0)
-				.charset(charset)
-				.create();
+		final CSVReader reader;
+		try {
+			reader = CSV
+					.ignoreLeadingWhiteSpace()
+					.separator(';')
+					.skipLines(0)
+					.charset(charset)
+					.create()
+					.reader(file);
+		} catch (RuntimeException e) {
+			log.error("Error opening file " + file, e);
+			endHandler.handle(new ResultMessage().error("file.error"));
+			return;
+		}
 		final List<String> columns = new ArrayList<>();
-		csvParser.read(file, new CSVReadProc() {
-			@Override
-			public void procRow(int i, String... strings) {
+		importBatch(reader, new AtomicInteger(0), columns, profile, structure, validator, importer, handler, endHandler);
+	}
+
+	/**
+	 * Imports the next rows of the file, then waits for the flush of their statements
+	 * before reading more, so neither the rows nor the statements pile up in memory.
+	 */
+	private void importBatch(final CSVReader reader, final AtomicInteger rowIndex, final List<String> columns,
+			final String profile, final Structure structure, final Validator validator, final Importer importer,
+			final Handler<Message<JsonObject>> handler, final Handler<Message<JsonObject>> endHandler) {
+		boolean eof = false;
+		try {
+			for (int n = 0; n < batchSize; n++) {
+				final String[] strings = reader.readNext();
+				if (strings == null) {
+					eof = true;
+					break;
+				}
+				final int i = rowIndex.getAndIncrement();
 				if (i == 0) {
 					columnsMapper.getColumsNames(strings, columns, handler);
 				} else if (!columns.isEmpty()) {
-					JsonObject user = new JsonObject();
-					user.putArray("structures", new JsonArray().add(structure.getExternalId()));
-					user.putArray("profiles", new JsonArray().add(profile));
-					List<String[]> classes = new ArrayList<>();
-					for (int j = 0; j < strings.length; j++) {
-						final String c = columns.get(j);
-						final String v = strings[j].trim();
-						if (v.isEmpty()) continue;
-						switch (validator.getType(c)) {
-							case "string":
-								if ("birthDate".equals(c)) {
-									Matcher m = frenchDatePatter.matcher(v);
-									if (m.find()) {
-										user.putString(c, m.group(3) + "-" + m.group(2) + "-" + m.group(1));
-									} else {
-										user.putString(c, v);
-									}
-								} else {
-									user.putString(c, v);
-								}
-								break;
-							case "array-string":
-								JsonArray a = user.getArray(c);
-								if (a == null) {
-									a = new JsonArray();
-									user.putArray(c, a);
-								}
-								if (("classes".equals(c) || "subjectTaught".equals(c) || "functions".equals(c)) &&
-										!v.startsWith(structure.getExternalId() + "$")) {
-									a.add(structure.getExternalId() + "$" + v);
-								} else {
-									a.add(v);
-								}
-								break;
-							case "boolean":
-								user.putBoolean(c, "true".equals(v.toLowerCase()));
-								break;
-							default:
-								Object o = user.getValue(c);
-								final String v2;
-								if ("childClasses".equals(c) && !v.startsWith(structure.getExternalId() + "$")) {
-									v2 = structure.getExternalId() + "$" + v;
-								} else {
-									v2 = v;
-								}
-								if (o != null) {
-									if (o instanceof JsonArray) {
-										((JsonArray) o).add(v2);
-									} else {
-										JsonArray array = new JsonArray();
-										array.add(o).add(v2);
-										user.putArray(c, array);
-									}
-								} else {
-									user.putString(c, v2);
-								}
-						}
-						if ("classes".equals(c)) {
-							String eId = structure.getExternalId() + '$' + v;
-							structure.createClassIfAbsent(eId, v);
-							String[] classId = new String[2];
-							classId[0] = structure.getExternalId();
-							classId[1] = eId;
-							classes.add(classId);
+					importRow(i, strings, columns, profile, structure, validator, importer, handler);
+				}
+			}
+		} catch (IOException e) {
+			log.error("Error reading csv file.", e);
+			closeQuietly(reader);
+			endHandler.handle(new ResultMessage().error("file.error"));
+			return;
+		}
+		if (eof) {
+			closeQuietly(reader);
+			switch (profile) {
+				case "Relative":
+					importer.linkRelativeToClass(RELATIVE_PROFILE_EXTERNAL_ID);
+					importer.linkRelativeToStructure(RELATIVE_PROFILE_EXTERNAL_ID);
+					importer.addRelativeProperties(getSource());
+					break;
+			}
+			endHandler.handle(new ResultMessage());
+			return;
+		}
+		try {
+			importer.flush(new Handler<Message<JsonObject>>() {
+				@Override
+				public void handle(Message<JsonObject> message) {
+					if ("ok".equals(message.body().getString("status"))) {
+						importBatch(reader, rowIndex, columns, profile, structure, validator, importer,
+								handler, endHandler);
+					} else {
+						closeQuietly(reader);
+						endHandler.handle(message);
+					}
+				}
+			});
+		} catch (IllegalStateException e) {
+			closeQuietly(reader);
+			endHandler.handle(new ResultMessage().error(e.getMessage()));
+		}
+	}
+
+	private void importRow(int i, String[] strings, List<String> columns, String profile, Structure structure,
+			Validator validator, Importer importer, Handler<Message<JsonObject>> handler) {
+		JsonObject user = new JsonObject();
+		user.putArray("structures", new JsonArray().add(structure.getExternalId()));
+		user.putArray("profiles", new JsonArray().add(profile));
+		List<String[]> classes = new ArrayList<>();
+		for (int j = 0; j < strings.length; j++) {
+			final String c = columns.get(j);
+			final String v = strings[j].trim();
+			if (v.isEmpty()) continue;
+			switch (validator.getType(c)) {
+				case "string":
+					if ("birthDate".equals(c)) {
+						Matcher m = frenchDatePatter.matcher(v);
+						if (m.find()) {
+							user.putString(c, m.group(3) + "-" + m.group(2) + "-" + m.group(1));
+						} else {
+							user.putString(c, v);
 						}
+					} else {
+						user.putString(c, v);
+					}
+					break;
+				case "array-string":
+					JsonArray a = user.getArray(c);
+					if (a == null) {
+						a = new JsonArray();
+						user.putArray(c, a);
 					}
-					String ca;
-					long seed;
-					JsonArray classesA;
-					Object co = user.getValue("classes");
-					if (co != null && co instanceof JsonArray) {
-						classesA = (JsonArray) co;
-					} else if (co instanceof String) {
-						classesA = new JsonArray().add(co);
+					if (("classes".equals(c) || "subjectTaught".equals(c) || "functions".equals(c)) &&
+							!v.startsWith(structure.getExternalId() + "$")) {
+						a.add(structure.getExternalId() + "$" + v);
 					} else {
-						classesA = null;
+						a.add(v);
 					}
-					if ("Student".equals(profile) && classesA != null && classesA.size() == 1) {
-						seed = DEFAULT_STUDENT_SEED;
-						ca = classesA.get(0);
+					break;
+				case "boolean":
+					user.putBoolean(c, "true".equals(v.toLowerCase()));
+					break;
+				default:
+					Object o = user.getValue(c);
+					final String v2;
+					if ("childClasses".equals(c) && !v.startsWith(structure.getExternalId() + "$")) {
+						v2 = structure.getExternalId() + "$" + v;
 					} else {
-						ca = String.valueOf(i);
-						seed = System.currentTimeMillis();
+						v2 = v;
 					}
-					generateUserExternalId(user, ca, structure, seed);
-					switch (profile) {
-						case "Teacher":
-							importer.createOrUpdatePersonnel(user, TEACHER_PROFILE_EXTERNAL_ID,
-									user.getArray("structures"), classes.toArray(new String[classes.size()][2]),
-									null, true, true);
-							break;
-						case "Personnel":
-							importer.createOrUpdatePersonnel(user, PERSONNEL_PROFILE_EXTERNAL_ID,
-									user.getArray("structures"), classes.toArray(new String[classes.size()][2]),
-									null, true, true);
-							break;
-						case "Student":
-							importer.createOrUpdateStudent(user, STUDENT_PROFILE_EXTERNAL_ID, null, null,
-									classes.toArray(new String[classes.size()][2]), null, null, true, true);
-							break;
-						case "Relative":
-							JsonArray linkStudents = new JsonArray();
-							for (String attr : user.getFieldNames()) {
-								if ("childExternalId".equals(attr)) {
-									Object o = user.getValue(attr);
-									if (o instanceof JsonArray) {
-										for (Object c : (JsonArray) o) {
-											linkStudents.add(c);
-										}
-									} else {
-										linkStudents.add(o);
-									}
-								} else if ("childLastName".equals(attr)) {
-									Object childLastName = user.getValue(attr);
-									Object childFirstName = user.getValue("childFirstName");
-									Object childClasses = user.getValue("childClasses");
-									if (childLastName instanceof JsonArray && childFirstName instanceof JsonArray &&
-											childClasses instanceof JsonArray &&
-											((JsonArray) childClasses).size() == ((JsonArray) childLastName).size() &&
-											((JsonArray) childFirstName).size() == ((JsonArray) childLastName).size()) {
-										for (int j = 0; j < ((JsonArray) childLastName).size(); j++) {
-											String mapping = structure.getExternalId() +
-													((JsonArray) childLastName).<String>get(i).trim() +
-													((JsonArray) childFirstName).<String>get(i).trim() +
-													((JsonArray) childClasses).<String>get(i).trim() + DEFAULT_STUDENT_SEED;
-											relativeStudentMapping(linkStudents, mapping);
-										}
-									} else if (childLastName instanceof String && childFirstName instanceof String &&
-											childClasses instanceof String) {
-										if (childLastName != null && childFirstName != null && childClasses != null) {
-											String mapping = structure.getExternalId() +
-													childLastName.toString().trim() +
-													childFirstName.toString().trim() +
-													childClasses.toString().trim() + DEFAULT_STUDENT_SEED;
-											relativeStudentMapping(linkStudents, mapping);
-										}
-									} else {
-										handler.handle(new ResultMessage().error("invalid.child.mapping"));
-										return;
-									}
-								}
-							}
-							importer.createOrUpdateUser(user, linkStudents);
-							break;
-						case "Guest":
-							importer.createOrUpdateGuest(user, classes.toArray(new String[classes.size()][2]));
-							break;
+					if (o != null) {
+						if (o instanceof JsonArray) {
+							((JsonArray) o).add(v2);
+						} else {
+							JsonArray array = new JsonArray();
+							array.add(o).add(v2);
+							user.putArray(c, array);
+						}
+					} else {
+						user.putString(c, v2);
 					}
-				}
 			}
-
-			private void relativeStudentMapping(JsonArray linkStudents, String mapping) {
-				if (mapping.trim().isEmpty()) return;
-				try {
-					linkStudents.add(Hash.sha1(mapping.getBytes("UTF-8")));
-				} catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
-					log.error(e.getMessage(), e);
-				}
+			if ("classes".equals(c)) {
+				String eId = structure.getExternalId() + '$' + v;
+				structure.createClassIfAbsent(eId, v);
+				String[] classId = new String[2];
+				classId[0] = structure.getExternalId();
+				classId[1] = eId;
+				classes.add(classId);
 			}
-
-		});
+		}
+		String ca;
+		long seed;
+		JsonArray classesA;
+		Object co = user.getValue("classes");
+		if (co != null && co instanceof JsonArray) {
+			classesA = (JsonArray) co;
+		} else if (co instanceof String) {
+			classesA = new JsonArray().add(co);
+		} else {
+			classesA = null;
+		}
+		if ("Student".equals(profile) && classesA != null && classesA.size() == 1) {
+			seed = DEFAULT_STUDENT_SEED;
+			ca = classesA.get(0);
+		} else {
+			ca = String.valueOf(i);
+			seed = System.currentTimeMillis();
+		}
+		generateUserExternalId(user, ca, structure, seed);
 		switch (profile) {
+			case "Teacher":
+				importer.createOrUpdatePersonnel(user, TEACHER_PROFILE_EXTERNAL_ID,
+						user.getArray("structures"), classes.toArray(new String[classes.size()][2]),
+						null, true, true);
+				break;
+			case "Personnel":
+				importer.createOrUpdatePersonnel(user, PERSONNEL_PROFILE_EXTERNAL_ID,
+						user.getArray("structures"), classes.toArray(new String[classes.size()][2]),
+						null, true, true);
+				break;
+			case "Student":
+				importer.createOrUpdateStudent(user, STUDENT_PROFILE_EXTERNAL_ID, null, null,
+						classes.toArray(new String[classes.size()][2]), null, null, true, true);
+				break;
 			case "Relative":
-				importer.linkRelativeToClass(RELATIVE_PROFILE_EXTERNAL_ID);
-				importer.linkRelativeToStructure(RELATIVE_PROFILE_EXTERNAL_ID);
-				importer.addRelativeProperties(getSource());
+				JsonArray linkStudents = new JsonArray();
+				for (String attr : user.getFieldNames()) {
+					if ("childExternalId".equals(attr)) {
+						Object o = user.getValue(attr);
+						if (o instanceof JsonArray) {
+							for (Object c : (JsonArray) o) {
+								linkStudents.add(c);
+							}
+						} else {
+							linkStudents.add(o);
+						}
+					} else if ("childLastName".equals(attr)) {
+						Object childLastName = user.getValue(attr);
+						Object childFirstName = user.getValue("childFirstName");
+						Object childClasses = user.getValue("childClasses");
+						if (childLastName instanceof JsonArray && childFirstName instanceof JsonArray &&
+								childClasses instanceof JsonArray &&
+								((JsonArray) childClasses).size() == ((JsonArray) childLastName).size() &&
+								((JsonArray) childFirstName).size() == ((JsonArray) childLastName).size()) {
+							for (int j = 0; j < ((JsonArray) childLastName).size(); j++) {
+								String mapping = structure.getExternalId() +
+										((JsonArray) childLastName).<String>get(i).trim() +
+										((JsonArray) childFirstName).<String>get(i).trim() +
+										((JsonArray) childClasses).<String>get(i).trim() + DEFAULT_STUDENT_SEED;
+								relativeStudentMapping(linkStudents, mapping);
+							}
+						} else if (childLastName instanceof String && childFirstName instanceof String &&
+								childClasses instanceof String) {
+							if (childLastName != null && childFirstName != null && childClasses != null) {
+								String mapping = structure.getExternalId() +
+										childLastName.toString().trim() +
+										childFirstName.toString().trim() +
+										childClasses.toString().trim() + DEFAULT_STUDENT_SEED;
+								relativeStudentMapping(linkStudents, mapping);
+							}
+						} else {
+							handler.handle(new ResultMessage().error("invalid.child.mapping"));
+							return;
+						}
+					}
+				}
+				importer.createOrUpdateUser(user, linkStudents);
+				break;
+			case "Guest":
+				importer.createOrUpdateGuest(user, classes.toArray(new String[classes.size()][2]));
 				break;
 		}
-//		importer.markMissingUsers(structure.getExternalId(), new Handler<Void>() {
-//			@Override
-//			public void handle(Void event) {
-//				importer.persist(handler);
-//			}
-//		});
-	//	importer.persist(handler);
+	}
+
+	private void relativeStudentMapping(JsonArray linkStudents, String mapping) {
+		if (mapping.trim().isEmpty()) return;
+		try {
+			linkStudents.add(Hash.sha1(mapping.getBytes("UTF-8")));
+		} catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+			log.error(e.getMessage(), e);
+		}
+	}
+
+	private static void closeQuietly(CSVReader reader) {
+		try {
+			reader.close();
+		} catch (IOException e) {
+			log.error("Error closing csv file.", e);
+		}
 	}
 
 }
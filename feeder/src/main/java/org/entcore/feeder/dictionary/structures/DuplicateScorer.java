@@ -0,0 +1,294 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2015
+ *
+ * This file is part of ENT Core. ENT Core is a versatile ENT engine based on the JVM.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with ENT Core is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of ENT Core, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package org.entcore.feeder.dictionary.structures;
+
+import org.apache.commons.lang3.StringUtils;
+import org.entcore.feeder.utils.Validator;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * In memory duplicates search for the users of a profile.
+ * A pair is marked when at least two of lastName, firstName, birthDate and email are equal
+ * (score > 3) and the names are close, so users are only compared inside blocks sharing
+ * the values of two of these attributes.
+ */
+public class DuplicateScorer {
+
+	private static final Logger log = LoggerFactory.getLogger(DuplicateScorer.class);
+	private static final int LAST_NAME = 0;
+	private static final int FIRST_NAME = 1;
+	private static final int BIRTH_DATE = 2;
+	private static final int EMAIL = 3;
+	private static final int[][] BLOCKING_KEYS = {
+			{LAST_NAME, FIRST_NAME}, {LAST_NAME, BIRTH_DATE}, {LAST_NAME, EMAIL},
+			{FIRST_NAME, BIRTH_DATE}, {FIRST_NAME, EMAIL}, {BIRTH_DATE, EMAIL}
+	};
+	private static final double NAME_SIMILARITY = 0.6;
+	private final int threads;
+	private final List<User> users = new ArrayList<>();
+	private boolean searchedUsers = false;
+
+	private static final class User {
+		private final String id;
+		private final String[] attributes = new String[4];
+		private final List<String> searchFirstNames;
+		private final List<String> searchLastNames;
+		private final List<String> firstNames;
+		private final List<String> lastNames;
+
+		private User(JsonObject json, boolean searched) {
+			id = json.getString("id");
+			attributes[LAST_NAME] = cleanAttribute(json.getString("lastName"));
+			attributes[FIRST_NAME] = cleanAttribute(json.getString("firstName"));
+			attributes[BIRTH_DATE] = cleanAttribute(json.getString("birthDate"));
+			attributes[EMAIL] = cleanAttribute(json.getString("email"));
+			firstNames = nameTokens(json.getString("firstName"));
+			lastNames = nameTokens(json.getString("lastName"));
+			if (searched) {
+				List<String> sf = searchTokens(json.getString("firstName"));
+				List<String> sl = searchTokens(json.getString("lastName"));
+				if (!sf.isEmpty() && !sl.isEmpty()) {
+					searchFirstNames = sf;
+					searchLastNames = sl;
+					return;
+				}
+			}
+			searchFirstNames = null;
+			searchLastNames = null;
+		}
+
+		private boolean isSearched() {
+			return searchFirstNames != null;
+		}
+
+	}
+
+	private static final class Block {
+		private final int key;
+		private final List<User> users = new ArrayList<>();
+		private boolean searched = false;
+
+		private Block(int key) {
+			this.key = key;
+		}
+
+	}
+
+	public DuplicateScorer() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	public DuplicateScorer(int threads) {
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * @param user : id, firstName, lastName, birthDate and email of the user
+	 * @param searched : true if duplicates of this user must be searched
+	 */
+	public void add(JsonObject user, boolean searched) {
+		final User u = new User(user, searched);
+		users.add(u);
+		searchedUsers |= u.isSearched();
+	}
+
+	public int size() {
+		return users.size();
+	}
+
+	public boolean hasSearchedUsers() {
+		return searchedUsers;
+	}
+
+	/**
+	 * @return The duplicates found, as sId (searched user), dId and score
+	 */
+	public List<JsonObject> score() {
+		final long start = System.currentTimeMillis();
+		final List<Block> blocks = new ArrayList<>();
+		for (int k = 0; k < BLOCKING_KEYS.length; k++) {
+			final Map<String, Block> keyBlocks = new HashMap<>();
+			final int a0 = BLOCKING_KEYS[k][0];
+			final int a1 = BLOCKING_KEYS[k][1];
+			for (User u : users) {
+				if (u.attributes[a0] == null || u.attributes[a1] == null) continue;
+				final String key = u.attributes[a0] + '\u0000' + u.attributes[a1];
+				Block b = keyBlocks.get(key);
+				if (b == null) {
+					b = new Block(k);
+					keyBlocks.put(key, b);
+				}
+				b.users.add(u);
+				b.searched |= u.isSearched();
+			}
+			for (Block b : keyBlocks.values()) {
+				if (b.searched && b.users.size() > 1) {
+					blocks.add(b);
+				}
+			}
+		}
+		Collections.sort(blocks, new Comparator<Block>() {
+			@Override
+			public int compare(Block b1, Block b2) {
+				return Integer.compare(b2.users.size(), b1.users.size());
+			}
+		});
+
+		final List<JsonObject> duplicates = new ArrayList<>();
+		final int nbTasks = Math.min(threads, Math.max(1, blocks.size()));
+		final ExecutorService executor = Executors.newFixedThreadPool(nbTasks);
+		try {
+			final List<Callable<List<JsonObject>>> tasks = new ArrayList<>();
+			for (int t = 0; t < nbTasks; t++) {
+				final int offset = t;
+				tasks.add(new Callable<List<JsonObject>>() {
+					@Override
+					public List<JsonObject> call() {
+						final List<JsonObject> result = new ArrayList<>();
+						for (int i = offset; i < blocks.size(); i += nbTasks) {
+							scoreBlock(blocks.get(i), result);
+						}
+						return result;
+					}
+				});
+			}
+			for (Future<List<JsonObject>> f : executor.invokeAll(tasks)) {
+				duplicates.addAll(f.get());
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			log.error("Error scoring duplicate users.", e);
+		} finally {
+			executor.shutdown();
+		}
+		log.info("Score duplicates : " + users.size() + " users, " + blocks.size() + " blocks, " +
+				duplicates.size() + " duplicates - elapsed time " + (System.currentTimeMillis() - start) + " ms.");
+		return duplicates;
+	}
+
+	private void scoreBlock(Block block, List<JsonObject> result) {
+		final List<User> l = block.users;
+		for (int i = 0; i < l.size(); i++) {
+			final User u = l.get(i);
+			for (int j = i + 1; j < l.size(); j++) {
+				final User d = l.get(j);
+				if (!u.isSearched() && !d.isSearched()) continue;
+				int matches = 0;
+				for (int a = 0; a < u.attributes.length; a++) {
+					if (u.attributes[a] != null && u.attributes[a].equals(d.attributes[a])) {
+						matches |= 1 << a;
+					}
+				}
+				if (firstBlockingKey(matches) != block.key) continue;
+				final User s;
+				if (u.isSearched() && closeNames(u, d)) {
+					s = u;
+				} else if (d.isSearched() && closeNames(d, u)) {
+					s = d;
+				} else {
+					continue;
+				}
+				result.add(new JsonObject()
+						.putString("sId", s.id)
+						.putString("dId", (s == u ? d : u).id)
+						.putNumber("score", 2 + Integer.bitCount(matches)));
+			}
+		}
+	}
+
+	private static int firstBlockingKey(int matches) {
+		for (int k = 0; k < BLOCKING_KEYS.length; k++) {
+			if ((matches & (1 << BLOCKING_KEYS[k][0])) != 0 && (matches & (1 << BLOCKING_KEYS[k][1])) != 0) {
+				return k;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean closeNames(User searched, User found) {
+		return closeTokens(searched.searchFirstNames, found.firstNames) &&
+				closeTokens(searched.searchLastNames, found.lastNames);
+	}
+
+	private static boolean closeTokens(List<String> search, List<String> values) {
+		for (String s : search) {
+			for (String v : values) {
+				final int min = Math.min(s.length(), v.length());
+				if (min == 0) continue;
+				final int distance = StringUtils.getLevenshteinDistance(s, v, (int) (min * (1 - NAME_SIMILARITY)));
+				if (distance >= 0 && 1 - ((double) distance / min) > NAME_SIMILARITY) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static List<String> searchTokens(String value) {
+		final List<String> tokens = new ArrayList<>();
+		if (value == null || value.trim().isEmpty()) {
+			return tokens;
+		}
+		final String[] values = Validator.removeAccents(value).toLowerCase().split("\\s+");
+		for (String v : values) {
+			if (v.startsWith("-")) {
+				v = v.replaceFirst("-+", "");
+			}
+			v = v.replaceAll("\\W+", "");
+			if (v.isEmpty() || (v.length() < 4 && values.length > 1)) continue;
+			tokens.add(v);
+		}
+		return tokens;
+	}
+
+	private static List<String> nameTokens(String value) {
+		final List<String> tokens = new ArrayList<>();
+		if (value == null || value.trim().isEmpty()) {
+			return tokens;
+		}
+		final String v = Validator.removeAccents(value).toLowerCase();
+		final String whole = v.replaceAll("\\W+", "");
+		if (!whole.isEmpty()) {
+			tokens.add(whole);
+		}
+		for (String t : v.split("\\W+")) {
+			if (!t.isEmpty() && !t.equals(whole)) {
+				tokens.add(t);
+			}
+		}
+		return tokens;
+	}
+
+	private static String cleanAttribute(String attribute) {
+		if (attribute == null || attribute.trim().isEmpty()) {
+			return null;
+		}
+		return Validator.removeAccents(attribute).replaceAll("\\s+", "").toLowerCase();
+	}
+
+}
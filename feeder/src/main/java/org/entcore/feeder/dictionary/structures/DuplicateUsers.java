@@ -23,7 +23,6 @@ import org.entcore.feeder.ManualFeeder;
 import org.entcore.feeder.exceptions.TransactionException;
 import org.entcore.feeder.utils.TransactionHelper;
 import org.entcore.feeder.utils.TransactionManager;
-import org.entcore.feeder.utils.Validator;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.VoidHandler;
 import org.vertx.java.core.eventbus.Message;
@@ -40,6 +39,7 @@ import java.util.Map;
 public class DuplicateUsers {
 
 	private static final Logger log = LoggerFactory.getLogger(DuplicateUsers.class);
+	private static final int LOAD_USERS_LIMIT = 50000;
 	private final JsonArray searchSources;
 	private final List<String> notDeduplicateSource = Arrays.asList("AAF");
 	private final Map<String, Integer> sourcePriority = new HashMap<>();
@@ -315,160 +315,81 @@ public class DuplicateUsers {
 	}
 
 	private void searchDuplicatesByProfile(final String profile, final VoidHandler handler) {
+		loadUsers(profile, "", new DuplicateScorer(), handler);
+	}
+
+	private void loadUsers(final String profile, final String lastId, final DuplicateScorer scorer,
+			final VoidHandler handler) {
 		String query =
-				"MATCH (u:User) WHERE u.source IN {searchSources} AND HEAD(u.profiles) = {profile} AND NOT(HAS(u.deleteDate)) " +
+				"MATCH (u:User) WHERE HEAD(u.profiles) = {profile} AND NOT(HAS(u.deleteDate)) AND u.id > {lastId} " +
 				"RETURN u.id as id, u.firstName as firstName, u.lastName as lastName, " +
-						"u.birthDate as birthDate, u.email as email";
-		JsonObject params = new JsonObject().putString("profile", profile).putArray("searchSources", searchSources);
+						"u.birthDate as birthDate, u.email as email, u.source IN {searchSources} as searched " +
+				"ORDER BY id LIMIT {limit}";
+		JsonObject params = new JsonObject()
+				.putString("profile", profile)
+				.putString("lastId", lastId)
+				.putArray("searchSources", searchSources)
+				.putNumber("limit", LOAD_USERS_LIMIT);
 		TransactionManager.getNeo4jHelper().execute(query, params, new Handler<Message<JsonObject>>() {
 			@Override
 			public void handle(Message<JsonObject> event) {
 				JsonArray result = event.body().getArray("result");
-				if ("ok".equals(event.body().getString("status")) && result != null && result.size() > 0) {
-					scoreDuplicates(profile, result, handler);
-				} else {
-					if ("ok".equals(event.body().getString("status"))) {
-						log.info("No users findings for search duplicates");
-					} else {
-						log.error("Error finding users for search duplicates : " + event.body().getString("message"));
-					}
+				if (!"ok".equals(event.body().getString("status")) || result == null) {
+					log.error("Error finding users for search duplicates : " + event.body().getString("message"));
 					handler.handle(null);
+					return;
+				}
+				for (int i = 0; i < result.size(); i++) {
+					JsonObject u = result.get(i);
+					scorer.add(u, u.getBoolean("searched", false));
+				}
+				if (result.size() == LOAD_USERS_LIMIT) {
+					loadUsers(profile, ((JsonObject) result.get(result.size() - 1)).getString("id"), scorer, handler);
+				} else {
+					storeDuplicates(profile, scorer, handler);
 				}
 			}
 		});
 	}
 
-	private void scoreDuplicates(final String profile, final JsonArray search, final VoidHandler handler) {
-		final String query =
-				"START u=node:node_auto_index({luceneQuery}) " +
-				"WHERE HEAD(u.profiles) = {profile} AND u.id <> {id} AND NOT(HAS(u.deleteDate)) " +
-				"RETURN u.id as id, u.firstName as firstName, u.lastName as lastName, " +
-						"u.birthDate as birthDate, u.email as email";
-		final JsonObject params = new JsonObject().putString("profile", profile);
+	private void storeDuplicates(final String profile, final DuplicateScorer scorer, final VoidHandler handler) {
+		if (!scorer.hasSearchedUsers()) {
+			log.info("No users findings for search duplicates");
+			handler.handle(null);
+			return;
+		}
+		final List<JsonObject> duplicates = scorer.score();
+		if (duplicates.isEmpty()) {
+			log.info("No duplicate user with score > 3 found in profile " + profile);
+			handler.handle(null);
+			return;
+		}
 		TransactionHelper tx;
 		try {
-			tx = TransactionManager.getTransaction(false);
+			tx = TransactionManager.getTransaction();
 		} catch (TransactionException e) {
-			log.error("Error when find duplicate users.", e);
+			log.error("Error when score duplicate users.", e);
+			handler.handle(null);
 			return;
 		}
-		final JsonArray result = new JsonArray();
-		for (int i = 0; i < search.size(); i++) {
-			final JsonObject json = search.get(i);
-			final String firstNameAttr = luceneAttribute("firstName", json.getString("firstName"), 0.6);
-			final String lastNameAttr = luceneAttribute("lastName", json.getString("lastName"), 0.6);
-			String luceneQuery;
-			if (firstNameAttr != null && lastNameAttr != null &&
-					!firstNameAttr.trim().isEmpty() && !lastNameAttr.trim().isEmpty()) {
-				luceneQuery = firstNameAttr + " AND " + lastNameAttr;
-				result.add(json);
-				tx.add(query, params.copy().putString("luceneQuery", luceneQuery).putString("id", json.getString("id")));
-			}
+		final String query =
+				"MATCH (u:User {id : row.sId}), (d:User {id : row.dId}) " +
+				"WHERE NOT(row.dId IN u.ignoreDuplicates) AND NOT(row.sId IN d.ignoreDuplicates) " +
+				"MERGE u-[:DUPLICATE {score:row.score}]-d ";
+		for (JsonObject duplicate : duplicates) {
+			tx.addBulk(query, duplicate);
 		}
 		tx.commit(new Handler<Message<JsonObject>>() {
 			@Override
 			public void handle(Message<JsonObject> event) {
-				JsonArray results = event.body().getArray("results");
-				if ("ok".equals(event.body().getString("status")) && results != null && results.size() > 0) {
-					TransactionHelper tx;
-					try {
-						tx = TransactionManager.getTransaction();
-						tx.setAutoSend(false);
-					} catch (TransactionException e) {
-						log.error("Error when score duplicate users.", e);
-						return;
-					}
-					for (int i = 0; i < results.size(); i++) {
-						JsonArray findUsers = results.get(i);
-						if (findUsers == null || findUsers.size() == 0) continue;
-						JsonObject searchUser = result.get(i);
-						calculateAndStoreScore(searchUser, findUsers, tx);
-					}
-					if (!tx.isEmpty()) {
-						tx.commit(new Handler<Message<JsonObject>>() {
-							@Override
-							public void handle(Message<JsonObject> event) {
-								if ("ok".equals(event.body().getString("status"))) {
-									log.info("Mark duplicates " + profile + " finished.");
-								} else {
-									log.error("Error marking duplicates : " + event.body().getString("message"));
-								}
-								handler.handle(null);
-							}
-						});
-					} else {
-						log.info("No duplicate user with score > 3 found in profile " + profile);
-						handler.handle(null);
-					}
+				if ("ok".equals(event.body().getString("status"))) {
+					log.info("Mark duplicates " + profile + " finished.");
 				} else {
-					if ("ok".equals(event.body().getString("status"))) {
-						log.info("No duplicate user found in profile " + profile);
-					} else {
-						log.error("Error finding users for search duplicates : " + event.body().getString("message"));
-					}
-					handler.handle(null);
+					log.error("Error marking duplicates : " + event.body().getString("message"));
 				}
+				handler.handle(null);
 			}
 		});
 	}
 
-	private String luceneAttribute(String attributeName, String value, double distance) {
-		if (value == null || value.trim().isEmpty() || attributeName == null || attributeName.trim().isEmpty()) {
-			return "";
-		}
-		String d = (distance > 0.9 || distance < 0.1) ? "" : ("~" + distance);
-		StringBuilder sb = new StringBuilder().append("(");
-		String[] values = value.split("\\s+");
-		for (String v : values) {
-			if (v.startsWith("-")) {
-				v = v.replaceFirst("-+", "");
-			}
-			v = v.replaceAll("\\W+", "");
-			if (v.isEmpty() || (v.length() < 4 && values.length > 1)) continue;
-			sb.append(attributeName).append(":").append(v).append(d).append(" OR ");
-		}
-		int len = sb.length();
-		if (len == 1) {
-			return "";
-		}
-		sb.delete(len - 4, len);
-		return sb.append(")").toString();
-	}
-
-	private void calculateAndStoreScore(JsonObject searchUser, JsonArray findUsers, TransactionHelper tx) {
-		String query =
-				"MATCH (u:User {id : {sId}}), (d:User {id : {dId}}) " +
-				"WHERE NOT({dId} IN u.ignoreDuplicates) AND NOT({sId} IN d.ignoreDuplicates) " +
-				"MERGE u-[:DUPLICATE {score:{score}}]-d ";
-		JsonObject params = new JsonObject().putString("sId", searchUser.getString("id"));
-
-		final String lastName = cleanAttribute(searchUser.getString("lastName"));
-		final String firstName = cleanAttribute(searchUser.getString("firstName"));
-		final String birthDate = cleanAttribute(searchUser.getString("birthDate"));
-		final String email = cleanAttribute(searchUser.getString("email"));
-
-		for (int i = 0; i < findUsers.size(); i++) {
-			int score = 2;
-			JsonObject fu = findUsers.get(i);
-			score += exactMatch(lastName, cleanAttribute(fu.getString("lastName")));
-			score += exactMatch(firstName, cleanAttribute(fu.getString("firstName")));
-			score += exactMatch(birthDate, cleanAttribute(fu.getString("birthDate")));
-			score += exactMatch(email, cleanAttribute(fu.getString("email")));
-			if (score > 3) {
-				tx.add(query, params.copy().putString("dId", fu.getString("id")).putNumber("score", score));
-			}
-		}
-	}
-
-	private int exactMatch(String attribute0, String attribute1) {
-		return (attribute0 == null || attribute1 == null || !attribute0.equals(attribute1)) ? 0 : 1;
-	}
-
-	private String cleanAttribute(String attribute) {
-		if (attribute == null || attribute.trim().isEmpty()) {
-			return null;
-		}
-		return Validator.removeAccents(attribute).replaceAll("\\s+", "").toLowerCase();
-	}
-
 }
@@ -27,6 +27,9 @@ import org.vertx.java.core.json.JsonObject;
 import org.vertx.java.core.logging.Logger;
 import org.vertx.java.core.logging.impl.LoggerFactory;
 
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -34,6 +37,8 @@ import java.util.concurrent.ConcurrentMap;
 public class Importer {
 
 	private static final Logger log = LoggerFactory.getLogger(Importer.class);
+	private static final int CHECKSUMS_PAGE_SIZE = 100000;
+	private static final int LINKS_CHECKSUMS_BATCH_SIZE = 1000;
 	private ConcurrentMap<String, Structure> structures;
 	private ConcurrentMap<String, Profile> profiles;
 	private Set<String> userImportedExternalId = new HashSet<>();
@@ -52,6 +57,13 @@ public class Importer {
 	private ConcurrentHashMap<String, String> externalIdMapping;
 	private ConcurrentHashMap<String, List<String>> groupClasses = new ConcurrentHashMap<>();
 	private Report report;
+	private int transactionBatchSize = 1000;
+	private int transactionMaxBatchSize = 1000;
+	private long transactionTargetLatency = 0;
+	private boolean deltaImport = false;
+	private final Map<String, long[]> importChecksums = new HashMap<>();
+	private int unchangedEntities;
+	private JsonArray linksChecksums = new JsonArray();
 
 	private Importer() {
 		structureValidator = new Validator("dictionary/schema/Structure.json");
@@ -75,7 +87,7 @@ public class Importer {
 		this.neo4j = neo4j;
 		this.currentSource = source;
 		this.report = new Report(acceptLanguage);
-		this.transactionHelper = new TransactionHelper(neo4j, 1000);
+		this.transactionHelper = newTransaction();
 		GraphData.loadData(neo4j, new Handler<Message<JsonObject>>() {
 			@Override
 			public void handle(Message<JsonObject> event) {
@@ -84,13 +96,127 @@ public class Importer {
 				structuresByUAI = GraphData.getStructuresByUAI();
 				externalIdMapping = GraphData.getExternalIdMapping();
 				profiles = GraphData.getProfiles();
-				if (handler != null) {
+				if (deltaImport && !firstImport) {
+					loadImportChecksums("", event, handler);
+				} else if (handler != null) {
 					handler.handle(event);
 				}
 			}
 		});
 	}
 
+	private void loadImportChecksums(final String lastExternalId, final Message<JsonObject> graphData,
+			final Handler<Message<JsonObject>> handler) {
+		final String query =
+				"MATCH (u:User) " +
+				"WHERE u.source = {source} AND u.externalId > {lastExternalId} AND HAS(u.checksum) " +
+				"AND NOT(HAS(u.deleteDate)) " +
+				"RETURN u.externalId as externalId, u.checksum as checksum, u.linksChecksum as linksChecksum " +
+				"ORDER BY externalId " +
+				"LIMIT {limit}";
+		final JsonObject params = new JsonObject()
+				.putString("source", currentSource)
+				.putString("lastExternalId", lastExternalId)
+				.putNumber("limit", CHECKSUMS_PAGE_SIZE);
+		neo4j.execute(query, params, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> message) {
+				final JsonArray res = message.body().getArray("result");
+				if (!"ok".equals(message.body().getString("status")) || res == null) {
+					log.error("Error loading import checksums, full import : " + message.body().getString("message"));
+					importChecksums.clear();
+					if (handler != null) {
+						handler.handle(graphData);
+					}
+					return;
+				}
+				for (Object o : res) {
+					if (!(o instanceof JsonObject)) continue;
+					final JsonObject j = (JsonObject) o;
+					importChecksums.put(j.getString("externalId"), new long[] {
+							shortChecksum(j.getString("checksum")), shortChecksum(j.getString("linksChecksum"))
+					});
+				}
+				if (res.size() == CHECKSUMS_PAGE_SIZE) {
+					loadImportChecksums(((JsonObject) res.get(res.size() - 1)).getString("externalId"), graphData, handler);
+				} else {
+					log.info("Delta import : " + importChecksums.size() + " users checksums loaded.");
+					if (handler != null) {
+						handler.handle(graphData);
+					}
+				}
+			}
+		});
+	}
+
+	private static long shortChecksum(String checksum) {
+		if (checksum == null || checksum.length() < 16) {
+			return 0l;
+		}
+		return new BigInteger(checksum.substring(0, 16), 16).longValue();
+	}
+
+	private boolean changedNode(JsonObject object) {
+		if (!deltaImport) {
+			return true;
+		}
+		final long[] c = importChecksums.get(object.getString("externalId"));
+		if (c != null && c[0] == shortChecksum(object.getString("checksum"))) {
+			unchangedEntities++;
+			return false;
+		}
+		return true;
+	}
+
+	private String linksChecksum(Object... links) {
+		if (!deltaImport) {
+			return null;
+		}
+		try {
+			return Hash.sha1(Arrays.deepToString(links).getBytes("UTF-8"));
+		} catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+			log.error(e.getMessage(), e);
+			return null;
+		}
+	}
+
+	private boolean changedLinks(String externalId, String linksChecksum) {
+		if (linksChecksum == null) {
+			return true;
+		}
+		final long[] c = importChecksums.get(externalId);
+		if (c != null && c[1] == shortChecksum(linksChecksum)) {
+			unchangedEntities++;
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Queues the links checksum update, so bulk statements of consecutive users are not split
+	 * by one statement per user. Queued updates are sent in the same transaction as the links.
+	 */
+	private void updateLinksChecksum(String externalId, String linksChecksum) {
+		if (externalId != null && linksChecksum != null) {
+			linksChecksums.addObject(new JsonObject()
+					.putString("externalId", externalId).putString("linksChecksum", linksChecksum));
+			if (linksChecksums.size() >= LINKS_CHECKSUMS_BATCH_SIZE) {
+				addLinksChecksums();
+			}
+		}
+	}
+
+	private void addLinksChecksums() {
+		if (transactionHelper != null && linksChecksums.size() > 0) {
+			transactionHelper.add(
+					"UNWIND {rows} AS row " +
+					"MATCH (u:User {externalId : row.externalId}) " +
+					"SET u.linksChecksum = row.linksChecksum",
+					new JsonObject().putArray("rows", linksChecksums));
+			linksChecksums = new JsonArray();
+		}
+	}
+
 
 	public TransactionHelper getTransaction() {
 		return transactionHelper;
@@ -101,6 +227,12 @@ public class Importer {
 		profiles.clear();
 		userImportedExternalId.clear();
 		groupClasses.clear();
+		if (deltaImport) {
+			log.info("Delta import : " + unchangedEntities + " unchanged users nodes or links skipped.");
+		}
+		importChecksums.clear();
+		linksChecksums = new JsonArray();
+		unchangedEntities = 0;
 		report = null;
 		transactionHelper = null;
 	}
@@ -109,12 +241,31 @@ public class Importer {
 		return transactionHelper == null;
 	}
 
+	public void setTransactionConfig(int batchSize, int maxBatchSize, long targetLatency) {
+		this.transactionBatchSize = batchSize;
+		this.transactionMaxBatchSize = maxBatchSize;
+		this.transactionTargetLatency = targetLatency;
+	}
+
+	public void setDeltaImport(boolean deltaImport) {
+		this.deltaImport = deltaImport;
+	}
+
+	private TransactionHelper newTransaction() {
+		return new TransactionHelper(neo4j, transactionBatchSize, transactionMaxBatchSize, transactionTargetLatency);
+	}
+
 	public void persist(final Handler<Message<JsonObject>> handler) {
+		addLinksChecksums();
 		if (transactionHelper != null) {
+			final TransactionHelper tx = transactionHelper;
 			transactionHelper.commit(new Handler<Message<JsonObject>>() {
 				@Override
 				public void handle(Message<JsonObject> message) {
-					transactionHelper = new TransactionHelper(neo4j, 1000);
+					if (report != null) {
+						report.addTransactionMetrics(tx.getMetrics());
+					}
+					transactionHelper = newTransaction();
 					if (handler != null) {
 						handler.handle(message);
 					}
@@ -125,6 +276,7 @@ public class Importer {
 	}
 
 	public void flush(Handler<Message<JsonObject>> handler) {
+		addLinksChecksums();
 		if (transactionHelper != null) {
 			transactionHelper.flush(handler);
 		}
@@ -134,7 +286,8 @@ public class Importer {
 	 * Warning : all data in old uncommitted transaction will be lost.
 	 */
 	public void reinitTransaction() {
-		transactionHelper = new TransactionHelper(neo4j, 1000);
+		linksChecksums = new JsonArray();
+		transactionHelper = newTransaction();
 	}
 
 	public Structure createOrUpdateStructure(JsonObject struct) {
@@ -279,36 +432,50 @@ public class Importer {
 		} else {
 			object.putString("source", currentSource);
 			userImportedExternalId.add(object.getString("externalId"));
-			String query;
-			JsonObject params;
-			if (!firstImport) {
-				query =
-						"MERGE (u:User { externalId : {externalId}}) " +
-						"ON CREATE SET u.id = {id}, u.login = {login}, u.activationCode = {activationCode}, " +
-						"u.displayName = {displayName} " +
-						"WITH u " +
-						"WHERE u.checksum IS NULL OR u.checksum <> {checksum} " +
-						"SET " + Neo4j.nodeSetPropertiesFromJson("u", object,
-								"id", "externalId", "login", "activationCode", "displayName", "email");
-				params = object;
-			} else {
-				query = "CREATE (u:User {props}) ";
-				params = new JsonObject().putObject("props", object);
+			if (changedNode(object)) {
+				if (!firstImport) {
+					final String query =
+							"MERGE (u:User { externalId : row.externalId}) " +
+							"ON CREATE SET u.id = row.id, u.login = row.login, u.activationCode = row.activationCode, " +
+							"u.displayName = row.displayName " +
+							"WITH u, row " +
+							"WHERE u.checksum IS NULL OR u.checksum <> row.checksum " +
+							"SET u += row.props ";
+					final JsonObject props = object.copy();
+					final JsonObject row = new JsonObject().putObject("props", props);
+					for (String attr : new String[] {"id", "externalId", "login", "activationCode", "displayName"}) {
+						final Object value = props.removeField(attr);
+						if (value != null) {
+							row.putValue(attr, value);
+						}
+					}
+					props.removeField("email");
+					if (props.getValue("checksum") != null) {
+						row.putValue("checksum", props.getValue("checksum"));
+					}
+					transactionHelper.addBulk(query, row);
+				} else {
+					transactionHelper.addBulk("CREATE (u:User) SET u = row ", object);
+				}
+				checkUpdateEmail(object);
 			}
-			transactionHelper.add(query, params);
-			checkUpdateEmail(object);
 			if (linkStudent != null && linkStudent.size() > 0) {
-				String query2 =
-						"START u0=node:node_auto_index(externalId={externalId}), " +
-						"s=node:node_auto_index({studentExternalIds}) " +
-						"MATCH u0-[:MERGED*0..1]->u " +
-						"WHERE NOT(HAS(u.mergedWith)) " +
-						"MERGE u<-[:RELATED]-s ";
-				JsonObject p = new JsonObject()
-						.putString("externalId", object.getString("externalId"))
-						.putString("studentExternalIds",
-								"externalId:" + Joiner.on(" OR externalId:").join(linkStudent));
-				transactionHelper.add(query2, p);
+				final String externalId = object.getString("externalId");
+				final String linksChecksum = linksChecksum(linkStudent);
+				if (changedLinks(externalId, linksChecksum)) {
+					String query2 =
+							"MATCH (u0:User {externalId : row.externalId})-[:MERGED*0..1]->(u:User) " +
+							"WHERE NOT(HAS(u.mergedWith)) " +
+							"WITH u, row " +
+							"MATCH (s:User) " +
+							"WHERE s.externalId IN row.studentExternalIds " +
+							"MERGE u<-[:RELATED]-s ";
+					JsonObject p = new JsonObject()
+							.putString("externalId", externalId)
+							.putArray("studentExternalIds", linkStudent);
+					transactionHelper.addBulk(query2, p);
+					updateLinksChecksum(externalId, linksChecksum);
+				}
 			}
 		}
 	}
@@ -401,10 +568,12 @@ public class Importer {
 	private void checkUpdateEmail(JsonObject object) {
 		if (object.containsField("email")) {
 			final String queryUpdateEmail =
-					"MATCH (u:User {externalId: {externalId}}) " +
-					"WHERE NOT(HAS(u.email)) OR (HAS(u.activationCode) AND u.email <> {email}) " +
-					"SET u.email = {email}";
-			transactionHelper.add(queryUpdateEmail, object);
+					"MATCH (u:User {externalId: row.externalId}) " +
+					"WHERE NOT(HAS(u.email)) OR (HAS(u.activationCode) AND u.email <> row.email) " +
+					"SET u.email = row.email";
+			transactionHelper.addBulk(queryUpdateEmail, new JsonObject()
+					.putString("externalId", object.getString("externalId"))
+					.putValue("email", object.getValue("email")));
 		}
 	}
 
@@ -492,6 +661,8 @@ public class Importer {
 			if (nodeQueries) {
 				object.putString("source", currentSource);
 				userImportedExternalId.add(object.getString("externalId"));
+			}
+			if (nodeQueries && changedNode(object)) {
 				StringBuilder sb = new StringBuilder();
 				JsonObject params;
 				if (!firstImport) {
@@ -510,7 +681,9 @@ public class Importer {
 				transactionHelper.add(sb.toString(), params);
 				checkUpdateEmail(object);
 			}
-			if (relationshipQueries) {
+			final String linksChecksum = relationshipQueries ? linksChecksum(profileExternalId,
+					object.getArray("structures"), structuresByFunctions, linkClasses, linkGroups) : null;
+			if (relationshipQueries && changedLinks(object.getString("externalId"), linksChecksum)) {
 				final String externalId = object.getString("externalId");
 				JsonArray structures = getMappingStructures(object.getArray("structures"));
 				if (externalId != null && structures != null && structures.size() > 0) {
@@ -634,6 +807,7 @@ public class Importer {
 							.putArray("groups", groups);
 					transactionHelper.add(qdfg, pdfg);
 				}
+				updateLinksChecksum(externalId, linksChecksum);
 			}
 		}
 	}
@@ -649,6 +823,8 @@ public class Importer {
 			if (nodeQueries) {
 				object.putString("source", currentSource);
 				userImportedExternalId.add(object.getString("externalId"));
+			}
+			if (nodeQueries && changedNode(object)) {
 				StringBuilder sb = new StringBuilder();
 				JsonObject params;
 				if (!firstImport) {
@@ -667,7 +843,9 @@ public class Importer {
 				transactionHelper.add(sb.toString(), params);
 				checkUpdateEmail(object);
 			}
-			if (relationshipQueries) {
+			final String linksChecksum = relationshipQueries ? linksChecksum(profileExternalId,
+					object.getArray("structures"), module, fieldOfStudy, linkClasses, linkGroups, relative) : null;
+			if (relationshipQueries && changedLinks(object.getString("externalId"), linksChecksum)) {
 				final String externalId = object.getString("externalId");
 				JsonArray structures = getMappingStructures(object.getArray("structures"));
 				if (externalId != null && structures != null && structures.size() > 0) {
@@ -823,6 +1001,7 @@ public class Importer {
 						transactionHelper.add(query, p);
 					}
 				}
+				updateLinksChecksum(externalId, linksChecksum);
 			}
 		}
 	}
@@ -887,6 +1066,16 @@ public class Importer {
 	}
 
 	public void removeEmptyClasses() {
+		String query0 =
+				"MATCH (c:Class)<-[:DEPENDS]-(:Group)<-[:IN]-(:User) " +
+				"WITH COLLECT(distinct c.id) as usedClasses " +
+				"MATCH (c:Class) " +
+				"WHERE NOT(c.id IN usedClasses) " +
+				"WITH COLLECT(c.externalId) as removedClasses " +
+				"MATCH (u:User) " +
+				"WHERE HAS(u.linksChecksum) AND ANY(c IN u.classes WHERE c IN removedClasses) " +
+				"REMOVE u.linksChecksum ";
+		transactionHelper.add(query0, null);
 		String query =
 				"MATCH (c:Class)<-[:DEPENDS]-(:Group)<-[:IN]-(:User) " +
 				"WITH COLLECT(distinct c.id) as usedClasses " +
@@ -242,6 +242,7 @@ public class User {
 				"MATCH (u:User { id : {userId}}), (dg:DeleteGroup) " +
 				"OPTIONAL MATCH u-[r:IN|COMMUNIQUE|COMMUNIQUE_DIRECT|RELATED|DUPLICATE]-() " +
 				"SET u.deleteDate = timestamp() " +
+				"REMOVE u.linksChecksum " +
 				"DELETE r " +
 				"CREATE UNIQUE dg<-[:IN]-u";
 		transaction.add(query, params);
@@ -263,6 +264,8 @@ public class User {
 
 	public static void transition(String userId, TransactionHelper transaction) {
 		JsonObject params = new JsonObject().putString("userId", userId);
+		// links are rebuilt by the next import, even in delta mode
+		transaction.add("MATCH (u:User { id : {userId}}) REMOVE u.linksChecksum ", params);
 		String query =
 				"MATCH (u:User { id : {userId}})-[r:IN|COMMUNIQUE]-(:ProfileGroup)-[:DEPENDS]->(c:Class) " +
 				"DELETE r ";
@@ -294,7 +297,8 @@ public class User {
 		String query =
 				"MATCH (u:User { id : {userId}}), (f) " +
 				"WHERE (f:Function OR f:Functions) AND f.externalId = {functionCode} " +
-				"MERGE u-[rf:HAS_FUNCTION]->f ";
+				"MERGE u-[rf:HAS_FUNCTION]->f " +
+				"REMOVE u.linksChecksum ";
 
 		JsonArray scope = null;
 		JsonObject params = new JsonObject()
@@ -331,6 +335,7 @@ public class User {
 				"MATCH (u:User { id : {userId}})-[r:HAS_FUNCTION]->(f) " +
 				"WHERE (f:Function OR f:Functions) AND f.externalId = {functionCode} " +
 				"WITH r.scope as scope, r, u, f " +
+				"REMOVE u.linksChecksum " +
 				"DELETE r " +
 				"WITH coalesce(scope, []) as ids, u, f " +
 				"UNWIND ids as s " +
@@ -345,7 +350,8 @@ public class User {
 	public static void addGroup(String userId, String groupId, TransactionHelper transactionHelper) {
 		String query =
 				"MATCH (u:User { id : {userId}}), (f:ManualGroup {id : {groupId}}) " +
-				"CREATE UNIQUE u-[:IN {source:'MANUAL'}]->f";
+				"CREATE UNIQUE u-[:IN {source:'MANUAL'}]->f " +
+				"REMOVE u.linksChecksum";
 		JsonObject params = new JsonObject()
 				.putString("userId", userId)
 				.putString("groupId", groupId);
@@ -355,6 +361,7 @@ public class User {
 	public static void removeGroup(String userId, String groupId, TransactionHelper transactionHelper) {
 		String query =
 				"MATCH (u:User { id : {userId}})-[r:IN|COMMUNIQUE]->(f:ManualGroup {id : {groupId}}) " +
+				"REMOVE u.linksChecksum " +
 				"DELETE r";
 		JsonObject params = new JsonObject()
 				.putString("userId", userId)
@@ -442,6 +449,7 @@ public class User {
 				"MERGE r-[:IN]->rcpg " +
 				"SET s.relative = CASE WHEN r.externalId IN s.relative THEN " +
 				"s.relative ELSE coalesce(s.relative, []) + (r.externalId + '$1$1$1$1$0') END " +
+				"REMOVE s.linksChecksum, r.linksChecksum " +
 				"RETURN COLLECT(st.id) as structures ";
 		JsonObject params = new JsonObject()
 				.putString("relativeId", relativeId)
@@ -456,6 +464,7 @@ public class User {
 				"MATCH (s:User {id : {studentId}})-[:IN]->(:ProfileGroup)-[:HAS_PROFILE]->(:Profile { name : 'Student'}), " +
 				"s-[relations]-r " +
 				"SET s.relative = FILTER(rId IN s.relative WHERE NOT(rId =~ (r.externalId + '.*'))) " +
+				"REMOVE s.linksChecksum, r.linksChecksum " +
 				"DELETE relations";
 		String query2 =
 				"MATCH (s:User {id : {studentId}})-[:IN]->(:ProfileGroup)-[:DEPENDS]->(c:Class), " +
@@ -23,7 +23,6 @@ import org.entcore.feeder.utils.AAFUtil;
 import org.entcore.feeder.utils.JsonUtil;
 import org.entcore.feeder.utils.ResultMessage;
 import org.vertx.java.core.Handler;
-import org.vertx.java.core.VoidHandler;
 import org.vertx.java.core.eventbus.Message;
 import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonElement;
@@ -35,8 +34,12 @@ import javax.xml.stream.XMLEventFactory;
 import javax.xml.stream.XMLEventWriter;
 import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
-import java.io.FileWriter;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
 
 public abstract class BaseExportProcessing implements ExportProcessing {
 
@@ -45,8 +48,17 @@ public abstract class BaseExportProcessing implements ExportProcessing {
 	protected final JsonObject exportMapping;
 	protected final String path;
 	protected final boolean concat;
+	private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+	private final XMLEventFactory xmlEventFactory = XMLEventFactory.newInstance();
+	private boolean gzip = false;
+	private long maxPartSize = 0;
 	private XMLEventWriter xmlEventWriter;
-	private XMLEventFactory xmlEventFactory;
+	private OutputStream partStream;
+	private CountingOutputStream partOutput;
+	private String partPath;
+	private int partIndex = 0;
+	private int partElements;
+	private long partStart;
 
 	protected BaseExportProcessing(String exportMapping, int nbByFile, String path, boolean concat) {
 		this.path = path;
@@ -55,7 +67,18 @@ public abstract class BaseExportProcessing implements ExportProcessing {
 		this.concat = concat;
 	}
 
-	protected void export(final Handler<Message<JsonObject>> handler, final ExportProcessing exportProcessing) {
+	public void setOutput(boolean gzip, long maxPartSize) {
+		this.gzip = gzip;
+		this.maxPartSize = maxPartSize;
+	}
+
+	@Override
+	public void start(Handler<Message<JsonObject>> handler) {
+		export(handler);
+	}
+
+	protected void export(final Handler<Message<JsonObject>> handler) {
+		final long start = System.currentTimeMillis();
 		count(new Handler<Integer>() {
 			@Override
 			public void handle(Integer nb) {
@@ -63,100 +86,172 @@ public abstract class BaseExportProcessing implements ExportProcessing {
 					error("invalid.count", handler);
 					return;
 				}
-				final int nbHandlers = (nb % nbByFile == 0) ? nb / nbByFile : nb / nbByFile + 1;
-				final VoidHandler[] handlers = new VoidHandler[nbHandlers + 1];
-				handlers[handlers.length - 1] = new VoidHandler() {
-					@Override
-					protected void handle() {
-						if (concat && xmlEventWriter != null) {
-							try {
-								closeDocument();
-							} catch (IOException | XMLStreamException e) {
-								error(e, handler);
-								return;
-							}
-						}
-						if (exportProcessing != null) {
-							exportProcessing.start(handler);
-						} else {
-							handler.handle(new ResultMessage());
-						}
-					}
-				};
-				for (int i = handlers.length - 2; i >= 0; i--) {
-					final int j = i;
-					handlers[i] = new VoidHandler() {
-						@Override
-						protected void handle() {
-							list(j*nbByFile, nbByFile, new Handler<JsonArray>() {
-								@Override
-								public void handle(JsonArray objects) {
-									if (objects != null && objects.size() > 0) {
-										try {
-											if (!concat) {
-												writeDocument(j, objects);
-											} else {
-												if (xmlEventWriter == null) {
-													xmlEventFactory = XMLEventFactory.newInstance();
-													openDocument();
-												}
-												for (Object o : objects) {
-													if (!(o instanceof JsonObject)) continue;
-													writeElement(xmlEventWriter, xmlEventFactory, (JsonObject) o);
-												}
-											}
-										} catch (IOException | XMLStreamException e) {
-											error(e, handler);
-											return;
-										}
-									}
-									handlers[j + 1].handle(null);
-								}
-							});
-
-						}
-					};
+				final int nbPages = (nb % nbByFile == 0) ? nb / nbByFile : nb / nbByFile + 1;
+				if (nbPages > 0) {
+					exportPage(0, nbPages, fetchPage(0), start, handler);
+				} else {
+					end(start, handler);
+				}
+			}
+		});
+	}
+
+	private void exportPage(final int page, final int nbPages, final Page current, final long start,
+			final Handler<Message<JsonObject>> handler) {
+		current.then(new Handler<JsonArray>() {
+			@Override
+			public void handle(JsonArray objects) {
+				final Page next = (page + 1 < nbPages) ? fetchPage(page + 1) : null;
+				try {
+					writePage(objects);
+				} catch (IOException | XMLStreamException e) {
+					closeQuietly();
+					error(e, handler);
+					return;
+				}
+				if (next != null) {
+					exportPage(page + 1, nbPages, next, start, handler);
+				} else {
+					end(start, handler);
 				}
-				handlers[0].handle(null);
 			}
 		});
 	}
 
-	private void openDocument() throws IOException, XMLStreamException {
-		final String p = path + "0000.xml";
-		XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
-		xmlEventWriter = outputFactory.createXMLEventWriter(new FileWriter(p));
+	private Page fetchPage(int page) {
+		final Page p = new Page();
+		list(page * nbByFile, nbByFile, p);
+		return p;
+	}
+
+	private void end(long start, Handler<Message<JsonObject>> handler) {
+		if (xmlEventWriter != null) {
+			try {
+				closePart();
+			} catch (IOException | XMLStreamException e) {
+				closeQuietly();
+				error(e, handler);
+				return;
+			}
+		}
+		log.info("Export " + path + " : " + partIndex + " parts - elapsed time " +
+				(System.currentTimeMillis() - start) + " ms.");
+		handler.handle(new ResultMessage());
+	}
+
+	private void writePage(JsonArray objects) throws IOException, XMLStreamException {
+		if (!concat && xmlEventWriter != null) {
+			closePart();
+		}
+		if (objects == null) {
+			return;
+		}
+		for (Object o : objects) {
+			if (!(o instanceof JsonObject)) continue;
+			if (xmlEventWriter == null) {
+				openPart();
+			}
+			writeElement(xmlEventWriter, xmlEventFactory, (JsonObject) o);
+			partElements++;
+			if (maxPartSize > 0 && partOutput.getCount() >= maxPartSize) {
+				closePart();
+			}
+		}
+	}
+
+	private void openPart() throws IOException, XMLStreamException {
+		partPath = path + String.format("%04d", partIndex++) + ".xml" + (gzip ? ".gz" : "");
+		partElements = 0;
+		partStart = System.currentTimeMillis();
+		partOutput = new CountingOutputStream(new FileOutputStream(partPath));
+		partStream = gzip ? new GZIPOutputStream(partOutput, WRITE_BUFFER_SIZE) :
+				new BufferedOutputStream(partOutput, WRITE_BUFFER_SIZE);
+		xmlEventWriter = XMLOutputFactory.newInstance().createXMLEventWriter(partStream, "UTF-8");
 		xmlEventWriter.add(xmlEventFactory.createStartDocument());
 		xmlEventWriter.add(xmlEventFactory.createDTD("\n<!DOCTYPE ficAlimMENESR SYSTEM \"ficAlimMENESR.dtd\">\n"));
 		xmlEventWriter.add(xmlEventFactory.createStartElement("", "", "ficAlimMENESR"));
 		xmlEventWriter.add(xmlEventFactory.createDTD("\n\n"));
 	}
 
+	private void closePart() throws IOException, XMLStreamException {
+		try {
+			xmlEventWriter.add(xmlEventFactory.createEndElement("", "", "ficAlimMENESR"));
+			xmlEventWriter.add(xmlEventFactory.createEndDocument());
+			xmlEventWriter.flush();
+			xmlEventWriter.close();
+			partStream.close();
+		} finally {
+			xmlEventWriter = null;
+		}
+		log.info("Export part " + partPath + " : " + partElements + " elements, " + partOutput.getCount() +
+				" bytes - elapsed time " + (System.currentTimeMillis() - partStart) + " ms.");
+	}
+
+	private void closeQuietly() {
+		xmlEventWriter = null;
+		if (partStream != null) {
+			try {
+				partStream.close();
+			} catch (IOException e) {
+				log.error("Error closing export part " + partPath, e);
+			}
+		}
+	}
+
+	private static final class Page implements Handler<JsonArray> {
+
+		private JsonArray objects;
+		private Handler<JsonArray> handler;
+
+		@Override
+		public void handle(JsonArray result) {
+			final Handler<JsonArray> h;
+			synchronized (this) {
+				objects = (result != null) ? result : new JsonArray();
+				h = handler;
+				handler = null;
+			}
+			if (h != null) {
+				h.handle(objects);
+			}
+		}
+
+		private void then(Handler<JsonArray> h) {
+			synchronized (this) {
+				if (objects == null) {
+					handler = h;
+					return;
+				}
+			}
+			h.handle(objects);
+		}
 
-	private void closeDocument() throws IOException, XMLStreamException {
-		xmlEventWriter.add(xmlEventFactory.createEndElement("", "", "ficAlimMENESR"));
-		xmlEventWriter.add(xmlEventFactory.createEndDocument());
-		xmlEventWriter.flush();
-		xmlEventWriter.close();
 	}
 
-	private void writeDocument(int j, JsonArray objects) throws IOException, XMLStreamException {
-		final String p = path + String.format("%04d", j) + ".xml";
-		XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
-		XMLEventWriter writer = outputFactory.createXMLEventWriter(new FileWriter(p));
-		XMLEventFactory eventFactory = XMLEventFactory.newInstance();
-		writer.add(eventFactory.createStartDocument());
-		writer.add(eventFactory.createDTD("\n<!DOCTYPE ficAlimMENESR SYSTEM \"ficAlimMENESR.dtd\">\n"));
-		writer.add(eventFactory.createStartElement("", "", "ficAlimMENESR"));
-		writer.add(eventFactory.createDTD("\n\n"));
-		for (Object o : objects) {
-			if (!(o instanceof JsonObject)) continue;
-			writeElement(writer, eventFactory, (JsonObject) o);
+	private static final class CountingOutputStream extends FilterOutputStream {
+
+		private long count;
+
+		private CountingOutputStream(OutputStream out) {
+			super(out);
 		}
-		writer.add(eventFactory.createEndElement("", "", "ficAlimMENESR"));
-		writer.add(eventFactory.createEndDocument());
-		writer.flush();
-		writer.close();
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+
+		private long getCount() {
+			return count;
+		}
+
 	}
 
 	private void writeElement(XMLEventWriter writer, XMLEventFactory eventFactory,
@@ -39,7 +39,11 @@ import org.vertx.java.core.logging.impl.LoggerFactory;
 import java.io.File;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class EliotExporter implements Exporter {
 
@@ -53,8 +57,21 @@ public class EliotExporter implements Exporter {
 	private final String node;
 	private final boolean concatFiles;
 	private final boolean deleteExport;
+	private final boolean gzipFiles;
+	private final long maxPartSize;
+	private final boolean parallel;
 
 	public EliotExporter(String exportPath, String exportDestination, boolean concatFiles, boolean deleteExport, Vertx vertx) {
+		this(exportPath, exportDestination, concatFiles, deleteExport, false, 0, false, vertx);
+	}
+
+	/**
+	 * @param gzipFiles : Compress the XML files with gzip
+	 * @param maxPartSize : Size in bytes after which a new file is started, 0 for no limit
+	 * @param parallel : Export the students, relatives, personnels and structures files at the same time
+	 */
+	public EliotExporter(String exportPath, String exportDestination, boolean concatFiles, boolean deleteExport,
+			boolean gzipFiles, long maxPartSize, boolean parallel, Vertx vertx) {
 		this.exportBasePath = exportPath;
 		this.exportDestination = exportDestination;
 		this.vertx = vertx;
@@ -62,6 +79,9 @@ public class EliotExporter implements Exporter {
 		this.node = (n != null) ? n : "";
 		this.concatFiles = concatFiles;
 		this.deleteExport = deleteExport;
+		this.gzipFiles = gzipFiles;
+		this.maxPartSize = maxPartSize;
+		this.parallel = parallel;
 	}
 
 	@Override
@@ -87,8 +107,8 @@ public class EliotExporter implements Exporter {
 						@Override
 						public void handle(AsyncResult<Void> ar) {
 							if (ar.succeeded()) {
-								new EleveExportProcessing(path, date.format(exportDate), tenant + "_" + academy, concatFiles)
-										.start(new Handler<Message<JsonObject>>() {
+								exportProcessings(path, date.format(exportDate), tenant + "_" + academy,
+										new Handler<Message<JsonObject>>() {
 											@Override
 											public void handle(Message<JsonObject> message) {
 												if ("ok".equals(message.body().getString("status"))) {
@@ -119,6 +139,58 @@ public class EliotExporter implements Exporter {
 		});
 	}
 
+	private void exportProcessings(String path, String exportDate, String stdPrefix,
+			final Handler<Message<JsonObject>> handler) {
+		final List<BaseExportProcessing> processings = Arrays.asList(
+				new EleveExportProcessing(path, exportDate, stdPrefix, concatFiles),
+				new PersRelEleveExportProcessing(path, exportDate, stdPrefix, concatFiles),
+				new PersEducNatExportProcessing(path, exportDate, stdPrefix, concatFiles),
+				new EtabEducNatExportProcessing(path, exportDate, stdPrefix, concatFiles),
+				new PorteurENTExportProcessing(path, exportDate, concatFiles),
+				new PersALExportProcessing(path, exportDate, concatFiles)
+		);
+		for (BaseExportProcessing processing : processings) {
+			processing.setOutput(gzipFiles, maxPartSize);
+		}
+		if (parallel) {
+			final AtomicInteger remaining = new AtomicInteger(processings.size());
+			final AtomicReference<Message<JsonObject>> failure = new AtomicReference<>();
+			for (BaseExportProcessing processing : processings) {
+				processing.start(new Handler<Message<JsonObject>>() {
+					@Override
+					public void handle(Message<JsonObject> message) {
+						if (message == null || !"ok".equals(message.body().getString("status"))) {
+							failure.compareAndSet(null, (message != null) ? message : new ResultMessage().error("export.error"));
+						}
+						if (remaining.decrementAndGet() == 0) {
+							handler.handle((failure.get() != null) ? failure.get() : new ResultMessage());
+						}
+					}
+				});
+			}
+		} else {
+			exportSequentially(processings, 0, handler);
+		}
+	}
+
+	private void exportSequentially(final List<BaseExportProcessing> processings, final int index,
+			final Handler<Message<JsonObject>> handler) {
+		if (index >= processings.size()) {
+			handler.handle(new ResultMessage());
+			return;
+		}
+		processings.get(index).start(new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> message) {
+				if (message != null && "ok".equals(message.body().getString("status"))) {
+					exportSequentially(processings, index + 1, handler);
+				} else {
+					handler.handle((message != null) ? message : new ResultMessage().error("export.error"));
+				}
+			}
+		});
+	}
+
 	@Override
 	public String getName() {
 		return "ELIOT";
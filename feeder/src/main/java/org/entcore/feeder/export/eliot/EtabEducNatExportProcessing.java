@@ -36,20 +36,11 @@ import java.io.File;
 public class EtabEducNatExportProcessing extends BaseExportProcessing {
 
 	private final JsonArray attributes;
-	private final String basePath;
-	private final String date;
 
 	public EtabEducNatExportProcessing(String path, String date, String stdPrefix, boolean concat) {
 		super("dictionary/export/eliot/EtabEducNat.json", 5000, path + File.separator +
 				stdPrefix + "_Complet_" + date + "_EtabEducNat_", concat);
-		this.basePath = path;
 		attributes = new JsonArray(exportMapping.getFieldNames().toArray()).add("externalId");
-		this.date = date;
-	}
-
-	@Override
-	public void start(Handler<Message<JsonObject>> handler) {
-		export(handler, new PorteurENTExportProcessing(basePath, date, concat));
 	}
 
 	@Override
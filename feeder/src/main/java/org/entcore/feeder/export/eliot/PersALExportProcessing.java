@@ -41,11 +41,6 @@ public class PersALExportProcessing extends BaseExportProcessing {
 		super("dictionary/export/eliot/PersAL.json", 5000, path + File.separator + "Complet_" + date + "_PersAL_", concat);
 	}
 
-	@Override
-	public void start(Handler<Message<JsonObject>> handler) {
-		export(handler, null);
-	}
-
 	@Override
 	protected void process(XMLEventWriter writer, XMLEventFactory eventFactory) throws XMLStreamException {
 		writer.add(eventFactory.createAttribute("name", "categoriePersonne"));
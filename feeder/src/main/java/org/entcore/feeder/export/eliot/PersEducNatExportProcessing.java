@@ -19,26 +19,13 @@
 
 package org.entcore.feeder.export.eliot;
 
-import org.vertx.java.core.Handler;
-import org.vertx.java.core.eventbus.Message;
 import org.vertx.java.core.json.JsonArray;
-import org.vertx.java.core.json.JsonObject;
 
 public class PersEducNatExportProcessing extends UserExportProcessing {
 
-	private final String date;
-	private final String stdPrefix;
-
 	public PersEducNatExportProcessing(String path, String date, String stdPrefix, boolean concat) {
 		super("dictionary/export/eliot/PersEducNat.json", 5000, path,
 				new JsonArray().add("Personnel").add("Teacher"), "PersEducNat", date, stdPrefix, concat);
-		this.date = date;
-		this.stdPrefix = stdPrefix;
-	}
-
-	@Override
-	public void start(Handler<Message<JsonObject>> handler) {
-		export(handler, new EtabEducNatExportProcessing(basePath, date, stdPrefix, concat));
 	}
 
 }
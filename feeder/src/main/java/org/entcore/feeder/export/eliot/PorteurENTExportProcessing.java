@@ -36,20 +36,11 @@ import java.io.File;
 public class PorteurENTExportProcessing extends BaseExportProcessing {
 
 	private final JsonArray attributes;
-	private final String basePath;
-	private final String date;
 
 	public PorteurENTExportProcessing(String path, String date, boolean concat) {
 		super("dictionary/export/eliot/PorteurENT.json", 5000,
 				path + File.separator + "Complet_" + date + "_PorteurENT_", concat);
-		this.basePath = path;
 		attributes = new JsonArray(exportMapping.getFieldNames().toArray()).add("externalId");
-		this.date = date;
-	}
-
-	@Override
-	public void start(Handler<Message<JsonObject>> handler) {
-		export(handler, new PersALExportProcessing(basePath, date, concat));
 	}
 
 	@Override
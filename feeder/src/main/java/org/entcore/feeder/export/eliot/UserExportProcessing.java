@@ -38,7 +38,6 @@ public abstract class UserExportProcessing extends BaseExportProcessing {
 	private final JsonArray attributes;
 	private final JsonArray profiles;
 	private final String category;
-	protected final String basePath;
 
 	protected UserExportProcessing(String mapping, int nbByFile, String basePath, JsonArray profiles,
 			String category, String date, String stdPrefix, boolean concat) {
@@ -46,7 +45,6 @@ public abstract class UserExportProcessing extends BaseExportProcessing {
 		attributes = new JsonArray(exportMapping.getFieldNames().toArray()).add("externalId");
 		this.profiles = profiles;
 		this.category = category;
-		this.basePath = basePath;
 	}
 
 	@Override
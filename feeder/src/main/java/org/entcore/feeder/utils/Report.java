@@ -99,6 +99,20 @@ public class Report {
 		f.addObject(new JsonObject().putString("reason", reason).putObject("object", object));
 	}
 
+	public void addTransactionMetrics(JsonObject metrics) {
+		JsonObject t = result.getObject("transactions");
+		if (t == null) {
+			t = new JsonObject();
+			result.putObject("transactions", t);
+		}
+		t.putNumber("count", t.getInteger("count", 0) + 1);
+		t.putNumber("batches", t.getInteger("batches", 0) + metrics.getInteger("batches", 0));
+		t.putNumber("statements", t.getLong("statements", 0l) + metrics.getLong("statements", 0l));
+		t.putNumber("time", t.getLong("time", 0l) + metrics.getLong("time", 0l));
+		t.putNumber("maxBatchTime", Math.max(t.getLong("maxBatchTime", 0l), metrics.getLong("maxBatchTime", 0l)));
+		t.putNumber("batchSize", metrics.getInteger("batchSize", 0));
+	}
+
 	public String translate(String key, String... params) {
 		return i18n.translate(key, I18n.DEFAULT_DOMAIN, acceptLanguage, params);
 	}
@@ -26,17 +26,25 @@ import org.vertx.java.core.json.JsonObject;
 import org.vertx.java.core.logging.Logger;
 import org.vertx.java.core.logging.impl.LoggerFactory;
 
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
-import java.util.concurrent.atomic.AtomicInteger;
 
 public class TransactionHelper {
 
 	private static final Logger log = LoggerFactory.getLogger(TransactionHelper.class);
 	private final Neo4j neo4j;
 	private JsonArray statements;
-	private AtomicInteger remainingStatementNumber;
-	private final int statementNumber;
+	private int pendingStatementNumber;
+	private int statementNumber;
+	private final int minStatementNumber;
+	private final int maxStatementNumber;
+	private final long targetLatency;
+	private final LinkedList<JsonArray> readyBatches = new LinkedList<>();
+	private final Map<String, JsonArray> bulkRows = new LinkedHashMap<>();
+	private String lastBulkQuery;
 	private Integer transactionId;
 	private Timer resetTimeOutTimer;
 	private Message<JsonObject> error;
@@ -46,6 +54,10 @@ public class TransactionHelper {
 	private boolean flush = false;
 	private Handler<Message<JsonObject>> flushHandler;
 	private boolean autoSend = true;
+	private int batches;
+	private long sentStatements;
+	private long batchesTime;
+	private long maxBatchTime;
 
 	class ResetTransactionTimer extends TimerTask {
 
@@ -66,20 +78,27 @@ public class TransactionHelper {
 	}
 
 	public TransactionHelper(Neo4j neo4j, int statementNumber) {
+		this(neo4j, statementNumber, statementNumber, 0);
+	}
+
+	/**
+	 * @param statementNumber : Initial number of statements of a batch
+	 * @param maxStatementNumber : When greater than statementNumber, the batch size is adapted
+	 *                           between statementNumber / 4 and this value to stay around targetLatency
+	 * @param targetLatency : Expected duration of a batch, in ms
+	 */
+	public TransactionHelper(Neo4j neo4j, int statementNumber, int maxStatementNumber, long targetLatency) {
 		this.neo4j = neo4j;
-		this.remainingStatementNumber = new AtomicInteger(statementNumber);
 		this.statementNumber = statementNumber;
+		this.minStatementNumber = Math.max(1, statementNumber / 4);
+		this.maxStatementNumber = Math.max(statementNumber, maxStatementNumber);
+		this.targetLatency = targetLatency;
 		this.statements = new JsonArray();
 		send(new JsonArray());
 	}
 
 	public void add(String query, JsonObject params) {
-		if (autoSend && !waitingQuery && transactionId != null &&
-				remainingStatementNumber.getAndDecrement() == 0) {
-			send(statements.copy());
-			statements = new JsonArray();
-			remainingStatementNumber = new AtomicInteger(statementNumber);
-		}
+		closeBulk();
 		if (query != null && !query.trim().isEmpty()) {
 			if (log.isDebugEnabled()) {
 				log.debug("query : " + query + " - params : " + (params != null ? params.encode() : "{}"));
@@ -89,21 +108,84 @@ public class TransactionHelper {
 				statement.putObject("parameters", params);
 			}
 			statements.addObject(statement);
+			statementAdded();
+		}
+	}
+
+	/**
+	 * Adds a row to a parameterized bulk statement, sent as "UNWIND {rows} AS row " + query.
+	 * The query refers to the row values with row.xxx.
+	 * Consecutive rows of the same query are grouped in one statement. A query that reappears after
+	 * another one closes the pending bulk statements first, so the statements keep the order in
+	 * which the rows were added.
+	 */
+	public void addBulk(String query, JsonObject row) {
+		if (query == null || query.trim().isEmpty()) {
+			return;
+		}
+		JsonArray rows = bulkRows.get(query);
+		if (rows != null && !query.equals(lastBulkQuery)) {
+			closeBulk();
+			rows = null;
+		}
+		if (rows == null) {
+			rows = new JsonArray();
+			bulkRows.put(query, rows);
+		}
+		lastBulkQuery = query;
+		rows.addObject(row);
+		statementAdded();
+	}
+
+	private void closeBulk() {
+		for (Map.Entry<String, JsonArray> e : bulkRows.entrySet()) {
+			final String query = "UNWIND {rows} AS row " + e.getKey();
+			if (log.isDebugEnabled()) {
+				log.debug("bulk query : " + query + " - rows : " + e.getValue().size());
+			}
+			statements.addObject(new JsonObject().putString("statement", query)
+					.putObject("parameters", new JsonObject().putArray("rows", e.getValue())));
+		}
+		bulkRows.clear();
+		lastBulkQuery = null;
+	}
+
+	private void statementAdded() {
+		if (autoSend && ++pendingStatementNumber >= statementNumber) {
+			closeBulk();
+			readyBatches.add(statements);
+			statements = new JsonArray();
+			pendingStatementNumber = 0;
+			sendNextBatch();
+		}
+	}
+
+	private void sendNextBatch() {
+		if (!waitingQuery && transactionId != null && error == null && !readyBatches.isEmpty()) {
+			send(readyBatches.poll(), null, true);
 		}
 	}
 
 	private void send(JsonArray s) {
-		send(s, null);
+		send(s, null, false);
+	}
+
+	private void send(JsonArray s, Handler<Message<JsonObject>> handler) {
+		send(s, handler, false);
 	}
 
-	private void send(JsonArray s, final Handler<Message<JsonObject>> handler) {
+	private void send(final JsonArray s, final Handler<Message<JsonObject>> handler, final boolean fullBatch) {
 		if (error != null) {
 			throw new IllegalStateException(error.body().getString("message"));
 		}
 		waitingQuery = true;
+		final long start = System.currentTimeMillis();
 		neo4j.executeTransaction(s, transactionId, false, new Handler<Message<JsonObject>>() {
 			@Override
 			public void handle(Message<JsonObject> message) {
+				if (s.size() > 0) {
+					batchSent(s.size(), System.currentTimeMillis() - start, fullBatch);
+				}
 				if (handler != null) {
 					handler.handle(message);
 				}
@@ -119,24 +201,43 @@ public class TransactionHelper {
 					log.error(message.body().encode());
 				}
 				waitingQuery = false;
-				if (commit) {
+				if (error == null && !readyBatches.isEmpty()) {
+					sendNextBatch();
+				} else if (commit) {
+					commit = false;
 					commit(commitHandler);
 				} else if (flush) {
+					flush = false;
 					flush(flushHandler);
 				}
 			}
 		});
 	}
 
+	private void batchSent(int size, long time, boolean fullBatch) {
+		batches++;
+		sentStatements += size;
+		batchesTime += time;
+		maxBatchTime = Math.max(maxBatchTime, time);
+		if (fullBatch && targetLatency > 0 && maxStatementNumber > minStatementNumber) {
+			if (time < targetLatency / 2) {
+				statementNumber = Math.min(maxStatementNumber, statementNumber * 2);
+			} else if (time > targetLatency) {
+				statementNumber = Math.max(minStatementNumber, statementNumber / 2);
+			}
+		}
+	}
+
 	public void commit(Handler<Message<JsonObject>> handler) {
 		if (error != null) {
 			throw new IllegalStateException(error.body().getString("message"));
 		}
-		if (waitingQuery) {
+		if (waitingQuery || !readyBatches.isEmpty()) {
 			commit = true;
 			commitHandler = handler;
 			return;
 		}
+		closeBulk();
 		if (transactionId != null || statements.size() > 0) {
 			neo4j.executeTransaction(statements, transactionId, true, handler);
 			if (transactionId != null) {
@@ -162,16 +263,29 @@ public class TransactionHelper {
 		if (error != null) {
 			throw new IllegalStateException(error.body().getString("message"));
 		}
-		if (waitingQuery) {
+		if (waitingQuery || !readyBatches.isEmpty()) {
 			flush = true;
 			flushHandler = handler;
 		} else if (transactionId != null) {
+			closeBulk();
 			send(statements.copy(), handler);
 			statements = new JsonArray();
-			remainingStatementNumber = new AtomicInteger(statementNumber);
+			pendingStatementNumber = 0;
 		}
 	}
 
+	/**
+	 * @return Number of batches sent, statements sent and time spent waiting for Neo4j (in ms).
+	 */
+	public JsonObject getMetrics() {
+		return new JsonObject()
+				.putNumber("batches", batches)
+				.putNumber("statements", sentStatements)
+				.putNumber("time", batchesTime)
+				.putNumber("maxBatchTime", maxBatchTime)
+				.putNumber("batchSize", statementNumber);
+	}
+
 	private Integer getTransactionId() {
 		return transactionId;
 	}
@@ -181,7 +295,7 @@ public class TransactionHelper {
 	}
 
 	public boolean isEmpty() {
-		return statements == null || statements.size() == 0;
+		return (statements == null || statements.size() == 0) && bulkRows.isEmpty();
 	}
 
 
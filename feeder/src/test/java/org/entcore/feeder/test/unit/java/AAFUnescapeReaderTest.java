@@ -0,0 +1,89 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2016
+ *
+ * This file is part of ENT Core. ENT Core is a versatile ENT engine based on the JVM.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with ENT Core is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of ENT Core, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package org.entcore.feeder.test.unit.java;
+
+import org.entcore.feeder.aaf.AAFUnescapeReader;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+import static org.entcore.feeder.aaf.BaseImportProcessing.UNESCAPE_AAF;
+import static org.junit.Assert.*;
+
+public class AAFUnescapeReaderTest {
+
+	private static final String[] SAMPLES = {
+			"",
+			"<nom>DUPONT</nom>",
+			"<prenom>J&eacute;r&ocirc;me</prenom>",
+			"<prenom>Z&#233;lie &#xE9;</prenom>",
+			"Tom &amp; Jerry & co",
+			"&unknown; &eacute",
+			"&&eacute;&",
+			"&verylongentitynamethatisnotanentityatall;",
+			"l&apos;&eacute;cole"
+	};
+
+	private static String read(Reader reader, int chunk) throws IOException {
+		final StringBuilder sb = new StringBuilder();
+		final char[] buf = new char[chunk];
+		int n;
+		while ((n = reader.read(buf, 0, chunk)) >= 0) {
+			sb.append(buf, 0, n);
+		}
+		reader.close();
+		return sb.toString();
+	}
+
+	@Test
+	public void testSameResultAsTranslator() throws IOException {
+		for (String sample : SAMPLES) {
+			final String expected = UNESCAPE_AAF.translate(sample);
+			assertEquals(sample, expected, read(new AAFUnescapeReader(new StringReader(sample)), 1024));
+			for (int bufferSize = 1; bufferSize <= 4; bufferSize++) {
+				for (int chunk = 1; chunk <= 3; chunk++) {
+					assertEquals(sample, expected,
+							read(new AAFUnescapeReader(new StringReader(sample), bufferSize), chunk));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testEntities() throws IOException {
+		assertEquals("Jérôme", read(new AAFUnescapeReader(new StringReader("J&eacute;r&ocirc;me")), 16));
+		assertEquals("Zélie", read(new AAFUnescapeReader(new StringReader("Z&#233;lie")), 16));
+		assertEquals("a & b", read(new AAFUnescapeReader(new StringReader("a & b")), 16));
+		assertEquals("&eacute", read(new AAFUnescapeReader(new StringReader("&eacute")), 16));
+	}
+
+	@Test
+	public void testSingleCharReadAndSkip() throws IOException {
+		final Reader reader = new AAFUnescapeReader(new StringReader("&eacute;t&eacute;"), 2);
+		assertEquals('é', reader.read());
+		assertEquals(1, reader.skip(1));
+		assertEquals('é', reader.read());
+		assertEquals(-1, reader.read());
+		assertFalse(reader.markSupported());
+	}
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2016
+ *
+ * This file is part of ENT Core. ENT Core is a versatile ENT engine based on the JVM.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with ENT Core is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of ENT Core, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package org.entcore.feeder.test.unit.java;
+
+import org.entcore.feeder.dictionary.structures.DuplicateScorer;
+import org.junit.Test;
+import org.vertx.java.core.json.JsonObject;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class DuplicateScorerTest {
+
+	private static JsonObject user(String id, String firstName, String lastName, String birthDate, String email) {
+		return new JsonObject()
+				.putString("id", id)
+				.putString("firstName", firstName)
+				.putString("lastName", lastName)
+				.putString("birthDate", birthDate)
+				.putString("email", email);
+	}
+
+	@Test
+	public void testDuplicateFound() {
+		DuplicateScorer scorer = new DuplicateScorer(1);
+		scorer.add(user("u1", "Jean", "Dupont", "2000-01-01", null), true);
+		scorer.add(user("u2", "Jean", "Dupond", "2000-01-01", null), false);
+		assertEquals(2, scorer.size());
+		assertTrue(scorer.hasSearchedUsers());
+		List<JsonObject> duplicates = scorer.score();
+		assertEquals(1, duplicates.size());
+		assertEquals("u1", duplicates.get(0).getString("sId"));
+		assertEquals("u2", duplicates.get(0).getString("dId"));
+		assertEquals(4, duplicates.get(0).getInteger("score").intValue());
+	}
+
+	@Test
+	public void testPairScoredOnce() {
+		DuplicateScorer scorer = new DuplicateScorer(4);
+		scorer.add(user("u1", "Élodie", "Martin", "2001-02-03", "e.martin@ent.fr"), true);
+		scorer.add(user("u2", "Elodie", "MARTIN", "2001-02-03", "e.martin@ent.fr"), true);
+		List<JsonObject> duplicates = scorer.score();
+		assertEquals(1, duplicates.size());
+		assertEquals(6, duplicates.get(0).getInteger("score").intValue());
+	}
+
+	@Test
+	public void testNotEnoughMatches() {
+		DuplicateScorer scorer = new DuplicateScorer(1);
+		scorer.add(user("u1", "Jean", "Dupont", "2000-01-01", null), true);
+		scorer.add(user("u2", "Paul", "Dupont", "1999-05-05", null), false);
+		assertTrue(scorer.score().isEmpty());
+	}
+
+	@Test
+	public void testDistantNames() {
+		DuplicateScorer scorer = new DuplicateScorer(1);
+		scorer.add(user("u1", "Jean", "Dupont", "2000-01-01", null), true);
+		scorer.add(user("u2", "Jean", "Lefebvre", "2000-01-01", null), false);
+		assertTrue(scorer.score().isEmpty());
+	}
+
+	@Test
+	public void testOnlySearchedUsers() {
+		DuplicateScorer scorer = new DuplicateScorer(1);
+		scorer.add(user("u1", "Jean", "Dupont", "2000-01-01", null), false);
+		scorer.add(user("u2", "Jean", "Dupont", "2000-01-01", null), false);
+		assertFalse(scorer.hasSearchedUsers());
+		assertTrue(scorer.score().isEmpty());
+	}
+
+	@Test
+	public void testSameResultWithThreads() {
+		DuplicateScorer single = new DuplicateScorer(1);
+		DuplicateScorer multi = new DuplicateScorer(4);
+		for (int i = 0; i < 200; i++) {
+			JsonObject u = user("u" + i, "Prenom" + (i % 7), "Nom" + (i % 11), "2000-01-" + (i % 5), null);
+			single.add(u, i % 3 == 0);
+			multi.add(u, i % 3 == 0);
+		}
+		assertEquals(pairs(single.score()), pairs(multi.score()));
+	}
+
+	private static Set<String> pairs(List<JsonObject> duplicates) {
+		final Set<String> pairs = new HashSet<>();
+		for (JsonObject d : duplicates) {
+			assertTrue(pairs.add(d.getString("sId") + "/" + d.getString("dId") + "/" + d.getInteger("score")));
+		}
+		return pairs;
+	}
+
+}
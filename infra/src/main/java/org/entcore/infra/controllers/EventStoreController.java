@@ -29,6 +29,7 @@ import org.entcore.infra.services.EventStoreService;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.eventbus.Message;
 import org.vertx.java.core.http.HttpServerRequest;
+import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
 
 import static org.entcore.common.http.response.DefaultResponseHandler.voidResponseHandler;
@@ -52,7 +53,17 @@ public class EventStoreController extends BaseController {
 	public void storeLocalhost(final HttpServerRequest request) {
 		if (("localhost:"+ container.config().getInteger("port", 8001))
 				.equalsIgnoreCase(request.headers().get("Host"))) {
-			store(request);
+			RequestUtils.bodyToJson(request, new Handler<JsonObject>() {
+				@Override
+				public void handle(JsonObject event) {
+					final JsonArray events = event.getArray("events");
+					if (events != null) {
+						eventStoreService.store(events, voidResponseHandler(request));
+					} else {
+						eventStoreService.store(event, voidResponseHandler(request));
+					}
+				}
+			});
 		} else {
 			forbidden(request, "invalid.host");
 		}
@@ -60,7 +71,7 @@ public class EventStoreController extends BaseController {
 
 	@BusAddress("event.store")
 	public void eventStore(final Message<JsonObject> message) {
-		eventStoreService.store(message.body(), new Handler<Either<String, Void>>() {
+		final Handler<Either<String, Void>> handler = new Handler<Either<String, Void>>() {
 			@Override
 			public void handle(Either<String, Void> event) {
 				if (event.isRight()) {
@@ -70,7 +81,13 @@ public class EventStoreController extends BaseController {
 							.putString("message", event.left().getValue()));
 				}
 			}
-		});
+		};
+		final JsonArray events = message.body().getArray("events");
+		if (events != null) {
+			eventStoreService.store(events, handler);
+		} else {
+			eventStoreService.store(message.body(), handler);
+		}
 	}
 
 	public void setEventStoreService(EventStoreService eventStoreService) {
@@ -21,6 +21,7 @@ package org.entcore.infra.services;
 
 import fr.wseduc.webutils.Either;
 import org.vertx.java.core.Handler;
+import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
 
 
@@ -28,4 +29,6 @@ public interface EventStoreService {
 
 	void store(JsonObject event, Handler<Either<String, Void>> handler);
 
+	void store(JsonArray events, Handler<Either<String, Void>> handler);
+
 }
@@ -12,3 +12,7 @@ db.events.ensureIndex({ "classes" : 1 });
 db.events.ensureIndex({ "groups" : 1 });
 db.events.ensureIndex({ "referer" : 1 });
 db.events.ensureIndex({ "sessionId" : 1 });
+db.timeline.inbox.ensureIndex({ "userId" : 1, "date" : -1 });
+db.timeline.inbox.ensureIndex({ "eventRef" : 1, "userId" : 1 }, { "unique" : true });
+db.timeline.inbox.ensureIndex({ "resource" : 1 });
+db.timeline.inbox.ensureIndex({ "sub-resource" : 1 });
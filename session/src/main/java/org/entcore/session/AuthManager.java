@@ -41,18 +41,33 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 	protected Map<String, List<LoginInfo>> logins;
 
 	private static final long DEFAULT_SESSION_TIMEOUT = 30 * 60 * 1000;
+	private static final int DEFAULT_SESSION_CACHE_SIZE = 10000;
+	private static final long DEFAULT_SESSION_CACHE_TTL = 30 * 1000;
+	private static final long DEFAULT_SESSION_EXPIRY_TICK = 60 * 1000;
+	private static final int MAX_PUBLISHED_LAST_USED = 100000;
+	private static final long DEFAULT_SESSION_INFOS_CACHE_TTL = 10 * 60 * 1000;
+	private static final int DEFAULT_SESSION_INFOS_CACHE_GROUPS = 20000;
+	private static final String APP_REGISTRY_PUBLISH_ADDRESS = "app.registry.events";
 	private static final String SESSIONS_COLLECTION = "sessions";
+	private static final String USER_INFOS_CACHE_MAP = "userInfosCache";
+	private static final long USER_INFOS_CACHE_TTL = 30 * 1000;
 
 	private long sessionTimeout;
 	private String neo4jAddress;
 	private MongoDb mongo;
+	private SessionCache sessionCache;
+	private String cacheInvalidationAddress;
+	private SessionExpiryWheel expiryWheel;
+	private Map<String, Long> sessionsLastUsed;
+	private Map<String, Long> publishedLastUsed;
+	private boolean deleteExpiredSessions;
+	private SessionInfosCache sessionInfosCache;
+	private Map<String, String> userInfosCache;
 
 	private static final class LoginInfo implements Serializable {
-		final long timerId;
 		final String sessionId;
 
-		private LoginInfo(long timerId, String sessionId) {
-			this.timerId = timerId;
+		private LoginInfo(String sessionId) {
 			this.sessionId = sessionId;
 		}
 	}
@@ -69,6 +84,13 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 			ClusterManager cm = ((VertxInternal) vertx).clusterManager();
 			sessions = cm.getSyncMap("sessions");
 			logins = cm.getSyncMap("logins");
+			sessionsLastUsed = cm.getSyncMap("sessionsLastUsed");
+			publishedLastUsed = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+					return size() > MAX_PUBLISHED_LAST_USED;
+				}
+			};
 		} else {
 			sessions = new HashMap<>();
 			logins = new HashMap<>();
@@ -85,9 +107,125 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 			this.sessionTimeout = DEFAULT_SESSION_TIMEOUT;
 		}
 
+		final long cacheTtl = config.getLong("session-cache-ttl", DEFAULT_SESSION_CACHE_TTL);
+		sessionCache = new SessionCache(config.getInteger("session-cache-size", DEFAULT_SESSION_CACHE_SIZE), cacheTtl);
+		cacheInvalidationAddress = address + ".cache.invalidate";
+		eb.registerHandler(cacheInvalidationAddress, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> message) {
+				for (Object sessionId : message.body().getArray("sessionIds", new JsonArray())) {
+					if (!(sessionId instanceof String)) continue;
+					sessionCache.invalidate((String) sessionId);
+				}
+			}
+		});
+		if (sessionCache.isEnabled()) {
+			vertx.setPeriodic(cacheTtl, new Handler<Long>() {
+				@Override
+				public void handle(Long timerId) {
+					sessionCache.purgeExpired();
+				}
+			});
+		}
+
+		userInfosCache = vertx.sharedData().getMap(USER_INFOS_CACHE_MAP);
+		sessionInfosCache = new SessionInfosCache(
+				config.getLong("session-infos-cache-ttl", DEFAULT_SESSION_INFOS_CACHE_TTL),
+				config.getInteger("session-infos-cache-groups", DEFAULT_SESSION_INFOS_CACHE_GROUPS));
+		eb.registerHandler(APP_REGISTRY_PUBLISH_ADDRESS, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> message) {
+				String type = message.body().getString("type");
+				if ("PROFILE_GROUP_ACTIONS_UPDATED".equals(type)) {
+					sessionInfosCache.invalidateGroups(message.body().getArray("groups"));
+				} else if ("IMPORT_SUCCEEDED".equals(type)) {
+					sessionInfosCache.clear();
+				}
+			}
+		});
+
+		deleteExpiredSessions = config.getBoolean("delete-expired-sessions", false);
+		expiryWheel = new SessionExpiryWheel(sessionTimeout,
+				config.getLong("session-expiry-tick", DEFAULT_SESSION_EXPIRY_TICK),
+				new Handler<Map<String, String>>() {
+					@Override
+					public void handle(Map<String, String> expired) {
+						expireSessions(expired);
+					}
+				});
+		vertx.setPeriodic(expiryWheel.getTick(), new Handler<Long>() {
+			@Override
+			public void handle(Long timerId) {
+				expiryWheel.advance();
+			}
+		});
+
 		eb.registerLocalHandler(address, this);
 	}
 
+	/**
+	 * Sessions are expired by the node which created them. The other nodes of the cluster publish
+	 * the last use of the sessions they serve, at most once per tick, so the session is kept alive.
+	 */
+	private void touchSession(String sessionId) {
+		if (expiryWheel.touch(sessionId) || sessionsLastUsed == null) {
+			return;
+		}
+		final long now = System.currentTimeMillis();
+		synchronized (publishedLastUsed) {
+			final Long published = publishedLastUsed.get(sessionId);
+			if (published != null && published + expiryWheel.getTick() > now) {
+				return;
+			}
+			publishedLastUsed.put(sessionId, now);
+		}
+		try {
+			sessionsLastUsed.put(sessionId, now);
+		} catch (HazelcastSerializationException e) {
+			logger.error("Error putting last use of session " + sessionId, e);
+		}
+	}
+
+	private void removeLastUsed(String sessionId) {
+		if (sessionsLastUsed != null) {
+			sessionsLastUsed.remove(sessionId);
+		}
+	}
+
+	private void expireSessions(Map<String, String> expired) {
+		final JsonArray ids = new JsonArray();
+		final long now = System.currentTimeMillis();
+		final Iterator<Map.Entry<String, String>> it = expired.entrySet().iterator();
+		while (it.hasNext()) {
+			final Map.Entry<String, String> e = it.next();
+			final Long lastUsed = (sessionsLastUsed != null) ? sessionsLastUsed.get(e.getKey()) : null;
+			if (lastUsed != null && lastUsed + sessionTimeout > now) {
+				expiryWheel.schedule(e.getKey(), e.getValue(), lastUsed);
+				it.remove();
+				continue;
+			}
+			removeLastUsed(e.getKey());
+			removeLoginInfo(e.getKey(), e.getValue());
+			try {
+				if (sessions instanceof BaseMap) {
+					((BaseMap) sessions).delete(e.getKey());
+				} else {
+					sessions.remove(e.getKey());
+				}
+			} catch (HazelcastSerializationException e1) {
+				logger.error("Error removing expired hazelcast session " + e.getKey(), e1);
+			}
+			ids.addString(e.getKey());
+		}
+		if (expired.isEmpty()) {
+			return;
+		}
+		invalidateCachedSessions(expired.keySet().toArray(new String[expired.size()]));
+		if (deleteExpiredSessions) {
+			mongo.delete(SESSIONS_COLLECTION, new JsonObject().putObject("_id", new JsonObject().putArray("$in", ids)));
+		}
+	}
+
 	@Override
 	public void handle(Message<JsonObject> message) {
 		String action = message.body().getString("action");
@@ -119,6 +257,9 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 		case "removeAttribute":
 			doRemoveAttribute(message);
 			break;
+		case "cacheStats":
+			sendOK(message, new JsonObject().putObject("stats", sessionCache.stats()));
+			break;
 		default:
 			sendError(message, "Invalid action: " + action);
 		}
@@ -176,7 +317,7 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 		}
 		JsonObject session = null;
 		try {
-			session = unmarshal(sessions.get(info.sessionId));
+			session = getCachedSession(info.sessionId);
 		} catch (HazelcastSerializationException e) {
 			logger.error("Error in deserializing hazelcast session " + info.sessionId, e);
 		}
@@ -184,6 +325,7 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 			sendError(message, "Session not found.");
 			return;
 		}
+		touchSession(info.sessionId);
 		sendOK(message, new JsonObject().putString("status", "ok").putObject("session", session));
 	}
 
@@ -202,6 +344,24 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 		return null;
 	}
 
+	private JsonObject getCachedSession(String sessionId) {
+		JsonObject session = sessionCache.get(sessionId);
+		if (session == null) {
+			session = unmarshal(sessions.get(sessionId));
+			sessionCache.put(sessionId, session);
+		}
+		return session;
+	}
+
+	private void invalidateCachedSessions(String... sessionIds) {
+		JsonArray ids = new JsonArray();
+		for (String sessionId : sessionIds) {
+			sessionCache.invalidate(sessionId);
+			ids.addString(sessionId);
+		}
+		eb.publish(cacheInvalidationAddress, new JsonObject().putArray("sessionIds", ids));
+	}
+
 	private void doFind(final Message<JsonObject> message) {
 		final String sessionId = message.body().getString("sessionId");
 		if (sessionId == null || sessionId.trim().isEmpty()) {
@@ -211,7 +371,7 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 
 		JsonObject session = null;
 		try {
-			session = unmarshal(sessions.get(sessionId));
+			session = getCachedSession(sessionId);
 		} catch (HazelcastSerializationException e) {
 			logger.warn("Error in deserializing hazelcast session " + sessionId);
 			try {
@@ -241,7 +401,7 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 							public void handle(String sId) {
 								if (sId != null) {
 									try {
-										JsonObject s = unmarshal(sessions.get(sId));
+										JsonObject s = getCachedSession(sId);
 										if (s != null) {
 											JsonObject sessionResponse = new JsonObject().putString("status", "ok")
 													.putObject("session", s);
@@ -276,6 +436,7 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 				}
 			});
 		} else {
+			touchSession(sessionId);
 			sendOK(message, new JsonObject().putString("status", "ok").putObject("session", session));
 		}
 	}
@@ -310,22 +471,17 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 			@Override
 			public void handle(JsonObject infos) {
 				if (infos != null) {
-					long timerId = vertx.setTimer(sessionTimeout, new Handler<Long>() {
-						public void handle(Long timerId) {
-							logins.remove(userId);
-							sessions.remove(sessionId);
-						}
-					});
+					expiryWheel.schedule(sessionId, userId);
 					try {
 						sessions.put(sessionId, infos.encode());
-						addLoginInfo(userId, timerId, sessionId);
+						addLoginInfo(userId, sessionId);
 					} catch (HazelcastSerializationException e) {
 						logger.error("Error putting session in hazelcast map");
 						try {
 							if (sessions instanceof IMap) {
 								((IMap) sessions).putAsync(sessionId, infos.encode());
 							}
-							addLoginInfo(userId, timerId, sessionId);
+							addLoginInfo(userId, sessionId);
 						} catch (HazelcastSerializationException e1) {
 							logger.error("Error putting async session in hazelcast map", e1);
 						}
@@ -351,12 +507,12 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 		});
 	}
 
-	private void addLoginInfo(String userId, long timerId, String sessionId) {
+	private void addLoginInfo(String userId, String sessionId) {
 		List<LoginInfo> loginInfos = logins.get(userId);
 		if (loginInfos == null) {
 			loginInfos = new ArrayList<>();
 		}
-		loginInfos.add(new LoginInfo(timerId, sessionId));
+		loginInfos.add(new LoginInfo(sessionId));
 		logins.put(userId, loginInfos);
 	}
 
@@ -404,15 +560,15 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 		}
 
 		JsonObject s =  unmarshal(sessions.remove(sessionId));
+		invalidateCachedSessions(sessionId);
+		expiryWheel.remove(sessionId);
+		removeLastUsed(sessionId);
 		if (s != null) {
 			final String userId = s.getString("userId");
-			LoginInfo info = removeLoginInfo(sessionId, userId);
+			removeLoginInfo(sessionId, userId);
 			if (config.getBoolean("slo", false)) {
 				eb.send("cas", new JsonObject().putString("action", "logout").putString("userId", userId));
 			}
-			if (info != null) {
-				vertx.cancelTimer(info.timerId);
-			}
 		}
 		JsonObject res = new JsonObject().putString("status", "ok");
 		if (meta != null) {
@@ -508,13 +664,17 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 			sendError(message, "[updateSessionByUserId] info is null - Invalid userId : " + message.body().encode());
 			return;
 		}
+		final String[] sessionIds = new String[infos.size()];
+		int i = 0;
 		for (LoginInfo info : infos) {
 			try {
 				sessions.put(info.sessionId, session.encode());
 			} catch (HazelcastSerializationException e) {
 				logger.error("Error putting session in hazelcast map : " + info.sessionId, e);
 			}
+			sessionIds[i++] = info.sessionId;
 		}
+		invalidateCachedSessions(sessionIds);
 	}
 
 	private void doRemoveAttribute(Message<JsonObject> message) {
@@ -550,21 +710,106 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 				"n.displayName as username, HEAD(n.profiles) as type, COLLECT(distinct child.id) as childrenIds, " +
 				"COLLECT(distinct s.id) as structures, COLLECT(distinct [f.externalId, rf.scope]) as functions, " +
 				"COLLECT(distinct s.name) as structureNames, COLLECT(distinct s.UAI) as uai, " +
-				"COLLECT(distinct gp.id) as groupsIds, n.federatedIDP as federatedIDP, n.functions as aafFunctions";
-		final String query2 =
-				"MATCH (n:User {id : {id}})-[:IN]->()-[:AUTHORIZED]->(:Role)-[:AUTHORIZE]->(a:Action)" +
-				"<-[:PROVIDE]-(app:Application) " +
-				"WHERE HAS(n.login) " +
-				"RETURN DISTINCT COLLECT(distinct [a.name,a.displayName,a.type]) as authorizedActions, " +
+				"COLLECT(distinct gp.id) as groupsIds, n.federatedIDP as federatedIDP, n.functions as aafFunctions, " +
+				"COLLECT(distinct CASE WHEN gp:ProfileGroup THEN gp.id END) as profilGroupsIds";
+		final String query2 = "MATCH (u:User {id: {id}})-[:PREFERS]->(uac:UserAppConf) RETURN uac AS preferences";
+		final String query3 = "MATCH (s:Structure) return s.id as id, s.externalId as externalId";
+		JsonObject params = new JsonObject();
+		params.putString("id", userId);
+		final JsonObject cachedStructureMapping = sessionInfosCache.getStructureMapping();
+		JsonArray statements = new JsonArray()
+				.add(new JsonObject().putString("statement", query).putObject("parameters", params))
+				.add(new JsonObject().putString("statement", query2).putObject("parameters", params));
+		if (cachedStructureMapping == null) {
+			statements.add(new JsonObject().putString("statement", query3));
+		}
+		executeTransaction(statements, null, true, new Handler<Message<JsonObject>>() {
+
+			@Override
+			public void handle(Message<JsonObject> message) {
+				final JsonArray results = message.body().getArray("results");
+				if ("ok".equals(message.body().getString("status")) && results != null &&
+						results.size() == (cachedStructureMapping == null ? 3 : 2) &&
+						results.<JsonArray>get(0).size() > 0) {
+					final JsonObject j = results.<JsonArray>get(0).get(0);
+					cacheUserInfos(userId, j);
+					final JsonObject structureMapping;
+					if (cachedStructureMapping == null) {
+						structureMapping = new JsonObject();
+						for (Object o : results.<JsonArray>get(2)) {
+							if (!(o instanceof JsonObject)) continue;
+							JsonObject jsonObject = (JsonObject) o;
+							structureMapping.putString(jsonObject.getString("externalId"), jsonObject.getString("id"));
+						}
+						sessionInfosCache.setStructureMapping(structureMapping);
+					} else {
+						structureMapping = cachedStructureMapping;
+					}
+					final JsonObject cache = (results.<JsonArray>get(1) != null && results.<JsonArray>get(1).size() > 0 &&
+							results.<JsonArray>get(1).get(0) != null) ? results.<JsonArray>get(1).<JsonObject>get(0) : new JsonObject();
+					getGroupsInfos(j.getArray("groupsIds", new JsonArray()),
+							new Handler<List<SessionInfosCache.GroupInfos>>() {
+						@Override
+						public void handle(List<SessionInfosCache.GroupInfos> groupsInfos) {
+							if (groupsInfos != null) {
+								handler.handle(buildSessionInfos(userId, j, structureMapping, cache, groupsInfos));
+							} else {
+								handler.handle(null);
+							}
+						}
+					});
+				} else {
+					handler.handle(null);
+				}
+			}
+		});
+	}
+
+	private void cacheUserInfos(String userId, JsonObject j) {
+		final JsonArray profilGroupsIds = j.getArray("profilGroupsIds", new JsonArray());
+		j.removeField("profilGroupsIds");
+		if (j.getString("login") == null) {
+			return;
+		}
+		final JsonObject user = new JsonObject()
+				.putString("userId", userId)
+				.putString("type", j.getString("type"))
+				.putArray("profilGroupsIds", profilGroupsIds)
+				.putArray("classes", j.getArray("classes", new JsonArray()))
+				.putArray("structures", j.getArray("structures", new JsonArray()))
+				.putNumber("expireAt", System.currentTimeMillis() + USER_INFOS_CACHE_TTL);
+		userInfosCache.put(j.getString("login"), user.encode());
+	}
+
+	private void getGroupsInfos(JsonArray groupIds, final Handler<List<SessionInfosCache.GroupInfos>> handler) {
+		final List<SessionInfosCache.GroupInfos> groupsInfos = new ArrayList<>();
+		final JsonArray missingGroupIds = new JsonArray();
+		for (Object groupId : groupIds) {
+			if (!(groupId instanceof String)) continue;
+			SessionInfosCache.GroupInfos g = sessionInfosCache.getGroup((String) groupId);
+			if (g != null) {
+				groupsInfos.add(g);
+			} else {
+				missingGroupIds.addString((String) groupId);
+			}
+		}
+		if (missingGroupIds.size() == 0) {
+			handler.handle(groupsInfos);
+			return;
+		}
+		final String query =
+				"MATCH (g:Group)-[:AUTHORIZED]->(:Role)-[:AUTHORIZE]->(a:Action)<-[:PROVIDE]-(app:Application) " +
+				"WHERE g.id IN {groupIds} " +
+				"RETURN g.id as groupId, COLLECT(distinct [a.name,a.displayName,a.type]) as authorizedActions, " +
 				"COLLECT(distinct [app.name,app.address,app.icon,app.target,app.displayName,app.display,app.prefix]) as apps";
-		final String query3 =
-				"MATCH (u:User {id: {id}})-[:IN]->(g:Group)-[auth:AUTHORIZED]->(w:Widget) " +
-				"WHERE HAS(u.login) " +
+		final String query2 =
+				"MATCH (g:Group)-[auth:AUTHORIZED]->(w:Widget) " +
+				"WHERE g.id IN {groupIds} " +
 				"AND ( NOT(w<-[:HAS_WIDGET]-(:Application)-[:PROVIDE]->(:WorkflowAction)) " +
 				"XOR w<-[:HAS_WIDGET]-(:Application)-[:PROVIDE]->(:WorkflowAction)<-[:AUTHORIZE]-(:Role)<-[:AUTHORIZED]-g )  " +
 				"OPTIONAL MATCH (w)<-[:HAS_WIDGET]-(app:Application) " +
-				"WITH w, app, collect(auth) as authorizations " +
-				"RETURN DISTINCT COLLECT({" +
+				"WITH g, w, app, collect(auth) as authorizations " +
+				"RETURN g.id as groupId, COLLECT({" +
 					"id: w.id, name: w.name, " +
 					"path: coalesce(app.address, '') + w.path, " +
 					"js: coalesce(app.address, '') + w.js, "+
@@ -572,115 +817,139 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 					"application: app.name, " +
 					"mandatory: ANY(a IN authorizations WHERE HAS(a.mandatory) AND a.mandatory = true)"+
 				"}) as widgets";
-		final String query4 = "MATCH (s:Structure) return s.id as id, s.externalId as externalId";
-		final String query5 = "MATCH (u:User {id: {id}})-[:PREFERS]->(uac:UserAppConf) RETURN uac AS preferences";
-		JsonObject params = new JsonObject();
-		params.putString("id", userId);
-		JsonArray statements = new JsonArray()
+		final JsonObject params = new JsonObject().putArray("groupIds", missingGroupIds);
+		final JsonArray statements = new JsonArray()
 				.add(new JsonObject().putString("statement", query).putObject("parameters", params))
-				.add(new JsonObject().putString("statement", query2).putObject("parameters", params))
-				.add(new JsonObject().putString("statement", query3).putObject("parameters", params))
-				.add(new JsonObject().putString("statement", query4))
-				.add(new JsonObject().putString("statement", query5).putObject("parameters", params));
+				.add(new JsonObject().putString("statement", query2).putObject("parameters", params));
 		executeTransaction(statements, null, true, new Handler<Message<JsonObject>>() {
-
 			@Override
 			public void handle(Message<JsonObject> message) {
-				JsonArray results = message.body().getArray("results");
-				if ("ok".equals(message.body().getString("status")) && results != null && results.size() == 5 &&
-						results.<JsonArray>get(0).size() > 0 && results.<JsonArray>get(1).size() > 0) {
-					JsonObject j = results.<JsonArray>get(0).get(0);
-					JsonObject j2 = results.<JsonArray>get(1).get(0);
-					JsonObject j3 = results.<JsonArray>get(2).get(0);
-					JsonObject structureMapping = new JsonObject();
-					for (Object o : results.<JsonArray>get(3)) {
-						if (!(o instanceof JsonObject)) continue;
-						JsonObject jsonObject = (JsonObject) o;
-						structureMapping.putString(jsonObject.getString("externalId"), jsonObject.getString("id"));
-					}
-					j.putString("userId", userId);
-					JsonObject functions = new JsonObject();
-					JsonArray actions = new JsonArray();
-					JsonArray apps = new JsonArray();
-					for (Object o : j2.getArray("authorizedActions", new JsonArray())) {
-						if (!(o instanceof JsonArray)) continue;
-						JsonArray a = (JsonArray) o;
-						actions.addObject(new JsonObject()
-								.putString("name", (String) a.get(0))
-								.putString("displayName", (String) a.get(1))
-								.putString("type", (String) a.get(2)));
-					}
-					for (Object o : j2.getArray("apps", new JsonArray())) {
-						if (!(o instanceof JsonArray)) continue;
-						JsonArray a = (JsonArray) o;
-						apps.addObject(new JsonObject()
-								.putString("name", (String) a.get(0))
-								.putString("address", (String) a.get(1))
-								.putString("icon", (String) a.get(2))
-								.putString("target", (String) a.get(3))
-								.putString("displayName", (String) a.get(4))
-								.putBoolean("display", ((a.get(5) == null) || (boolean) a.get(5)))
-								.putString("prefix", (String) a.get(6))
-						);
-					}
-					for (Object o : j.getArray("aafFunctions", new JsonArray())) {
-						if (o == null) continue;
-						String [] sf = o.toString().split("\\$");
-						if (sf.length == 5) {
-							JsonObject jo = functions.getObject(sf[1]);
-							if (jo == null) {
-								jo = new JsonObject().putString("code", sf[1])
-										.putString("functionName", sf[2])
-										.putArray("scope", new JsonArray())
-										.putArray("structureExternalIds", new JsonArray())
-										.putObject("subjects", new JsonObject());
-								functions.putObject(sf[1], jo);
-							}
-							JsonObject subject = jo.getObject("subjects").getObject(sf[3]);
-							if (subject == null) {
-								subject = new JsonObject()
-										.putString("subjectCode", sf[3])
-										.putString("subjectName", sf[4])
-										.putArray("scope", new JsonArray())
-										.putArray("structureExternalIds", new JsonArray());
-								jo.getObject("subjects").putObject(sf[3], subject);
-							}
-							jo.getArray("structureExternalIds").addString(sf[0]);
-							subject.getArray("structureExternalIds").addString(sf[0]);
-							String sid = structureMapping.getString(sf[0]);
-							if (sid != null) {
-								jo.getArray("scope").addString(sid);
-								subject.getArray("scope").addString(sid);
-							}
-						}
-					}
-					j.removeField("aafFunctions");
-					for (Object o : j.getArray("functions", new JsonArray())) {
-						if (!(o instanceof JsonArray)) continue;
-						JsonArray a = (JsonArray) o;
-						String code = a.get(0);
-						if (code != null) {
-							functions.putObject(code, new JsonObject()
-									.putString("code", code)
-									.putArray("scope", (JsonArray) a.get(1))
-							);
-						}
-					}
-					j.putObject("functions", functions);
-					j.putArray("authorizedActions", actions);
-					j.putArray("apps", apps);
-					final JsonObject cache = (results.<JsonArray>get(4) != null && results.<JsonArray>get(4).size() > 0 &&
-							results.<JsonArray>get(4).get(0) != null) ? results.<JsonArray>get(4).<JsonObject>get(0) : new JsonObject();
-					j.putObject("cache", cache);
-					j.putArray("widgets", j3.getArray("widgets", new JsonArray()));
-					handler.handle(j);
-				} else {
+				final JsonArray results = message.body().getArray("results");
+				if (!"ok".equals(message.body().getString("status")) || results == null || results.size() != 2) {
 					handler.handle(null);
+					return;
+				}
+				final Map<String, JsonObject> rows = new HashMap<>();
+				for (Object o : results.<JsonArray>get(0)) {
+					if (!(o instanceof JsonObject)) continue;
+					rows.put(((JsonObject) o).getString("groupId"), (JsonObject) o);
 				}
+				final Map<String, JsonArray> widgets = new HashMap<>();
+				for (Object o : results.<JsonArray>get(1)) {
+					if (!(o instanceof JsonObject)) continue;
+					widgets.put(((JsonObject) o).getString("groupId"), ((JsonObject) o).getArray("widgets"));
+				}
+				for (Object groupId : missingGroupIds) {
+					final JsonObject row = rows.get(groupId);
+					final JsonArray w = widgets.get(groupId);
+					groupsInfos.add(sessionInfosCache.putGroup((String) groupId,
+							(row != null) ? row.getArray("authorizedActions", new JsonArray()) : new JsonArray(),
+							(row != null) ? row.getArray("apps", new JsonArray()) : new JsonArray(),
+							(w != null) ? w : new JsonArray()));
+				}
+				handler.handle(groupsInfos);
 			}
 		});
 	}
 
+	private JsonObject buildSessionInfos(String userId, JsonObject j, JsonObject structureMapping, JsonObject cache,
+			List<SessionInfosCache.GroupInfos> groupsInfos) {
+		j.putString("userId", userId);
+		JsonObject functions = new JsonObject();
+		JsonArray actions = new JsonArray();
+		JsonArray apps = new JsonArray();
+		JsonArray widgets = new JsonArray();
+		Set<String> actionKeys = new HashSet<>();
+		Set<String> appKeys = new HashSet<>();
+		Map<String, JsonObject> widgetsById = new HashMap<>();
+		for (SessionInfosCache.GroupInfos g : groupsInfos) {
+			for (Object o : g.getActions()) {
+				if (!(o instanceof JsonArray)) continue;
+				JsonArray a = (JsonArray) o;
+				if (!actionKeys.add(a.encode())) continue;
+				actions.addObject(new JsonObject()
+						.putString("name", (String) a.get(0))
+						.putString("displayName", (String) a.get(1))
+						.putString("type", (String) a.get(2)));
+			}
+			for (Object o : g.getApps()) {
+				if (!(o instanceof JsonArray)) continue;
+				JsonArray a = (JsonArray) o;
+				if (!appKeys.add(a.encode())) continue;
+				apps.addObject(new JsonObject()
+						.putString("name", (String) a.get(0))
+						.putString("address", (String) a.get(1))
+						.putString("icon", (String) a.get(2))
+						.putString("target", (String) a.get(3))
+						.putString("displayName", (String) a.get(4))
+						.putBoolean("display", ((a.get(5) == null) || (boolean) a.get(5)))
+						.putString("prefix", (String) a.get(6))
+				);
+			}
+			for (Object o : g.getWidgets()) {
+				if (!(o instanceof JsonObject)) continue;
+				JsonObject w = (JsonObject) o;
+				JsonObject existing = widgetsById.get(w.getString("id"));
+				if (existing == null) {
+					existing = w.copy();
+					widgetsById.put(w.getString("id"), existing);
+					widgets.addObject(existing);
+				} else if (w.getBoolean("mandatory", false)) {
+					existing.putBoolean("mandatory", true);
+				}
+			}
+		}
+		for (Object o : j.getArray("aafFunctions", new JsonArray())) {
+			if (o == null) continue;
+			String [] sf = o.toString().split("\\$");
+			if (sf.length == 5) {
+				JsonObject jo = functions.getObject(sf[1]);
+				if (jo == null) {
+					jo = new JsonObject().putString("code", sf[1])
+							.putString("functionName", sf[2])
+							.putArray("scope", new JsonArray())
+							.putArray("structureExternalIds", new JsonArray())
+							.putObject("subjects", new JsonObject());
+					functions.putObject(sf[1], jo);
+				}
+				JsonObject subject = jo.getObject("subjects").getObject(sf[3]);
+				if (subject == null) {
+					subject = new JsonObject()
+							.putString("subjectCode", sf[3])
+							.putString("subjectName", sf[4])
+							.putArray("scope", new JsonArray())
+							.putArray("structureExternalIds", new JsonArray());
+					jo.getObject("subjects").putObject(sf[3], subject);
+				}
+				jo.getArray("structureExternalIds").addString(sf[0]);
+				subject.getArray("structureExternalIds").addString(sf[0]);
+				String sid = structureMapping.getString(sf[0]);
+				if (sid != null) {
+					jo.getArray("scope").addString(sid);
+					subject.getArray("scope").addString(sid);
+				}
+			}
+		}
+		j.removeField("aafFunctions");
+		for (Object o : j.getArray("functions", new JsonArray())) {
+			if (!(o instanceof JsonArray)) continue;
+			JsonArray a = (JsonArray) o;
+			String code = a.get(0);
+			if (code != null) {
+				functions.putObject(code, new JsonObject()
+						.putString("code", code)
+						.putArray("scope", (JsonArray) a.get(1))
+				);
+			}
+		}
+		j.putObject("functions", functions);
+		j.putArray("authorizedActions", actions);
+		j.putArray("apps", apps);
+		j.putObject("cache", cache);
+		j.putArray("widgets", widgets);
+		return j;
+	}
+
 	public void executeTransaction(JsonArray statements, Integer transactionId, boolean commit,
 			Handler<Message<JsonObject>> handler) {
 		JsonObject jo = new JsonObject();
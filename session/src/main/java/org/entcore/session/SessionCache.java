@@ -0,0 +1,131 @@
+/* Copyright © WebServices pour l'Éducation, 2014
+ *
+ * This file is part of ENT Core. ENT Core is a versatile ENT engine based on the JVM.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with ENT Core is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of ENT Core, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package org.entcore.session;
+
+import org.vertx.java.core.json.JsonObject;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Node-local, size-bounded and TTL-aware cache of parsed sessions.
+ * Sits in front of the (possibly clustered) sessions map so that a session lookup
+ * does not pay a Hazelcast round-trip and a JSON parse on every request.
+ */
+public class SessionCache {
+
+	private final int maxSize;
+	private final long ttl;
+	private final LinkedHashMap<String, CachedSession> entries;
+	private long hits;
+	private long misses;
+	private long evictions;
+	private long expirations;
+	private long invalidations;
+
+	private static final class CachedSession {
+		final JsonObject session;
+		final long expireAt;
+
+		private CachedSession(JsonObject session, long expireAt) {
+			this.session = session;
+			this.expireAt = expireAt;
+		}
+	}
+
+	public SessionCache(int maxSize, long ttl) {
+		this.maxSize = maxSize;
+		this.ttl = ttl;
+		this.entries = new LinkedHashMap<String, CachedSession>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedSession> eldest) {
+				if (size() > SessionCache.this.maxSize) {
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * @return false when the size or the ttl isn't positive, nothing is cached then
+	 */
+	public boolean isEnabled() {
+		return maxSize > 0 && ttl > 0;
+	}
+
+	public synchronized JsonObject get(String sessionId) {
+		CachedSession e = entries.get(sessionId);
+		if (e == null) {
+			misses++;
+			return null;
+		}
+		if (e.expireAt < System.currentTimeMillis()) {
+			entries.remove(sessionId);
+			expirations++;
+			misses++;
+			return null;
+		}
+		hits++;
+		return e.session;
+	}
+
+	public synchronized void put(String sessionId, JsonObject session) {
+		if (sessionId == null || session == null || !isEnabled()) {
+			return;
+		}
+		entries.put(sessionId, new CachedSession(session, System.currentTimeMillis() + ttl));
+	}
+
+	public synchronized void invalidate(String sessionId) {
+		if (sessionId != null && entries.remove(sessionId) != null) {
+			invalidations++;
+		}
+	}
+
+	public synchronized int purgeExpired() {
+		final long now = System.currentTimeMillis();
+		int count = 0;
+		Iterator<CachedSession> it = entries.values().iterator();
+		while (it.hasNext()) {
+			if (it.next().expireAt < now) {
+				it.remove();
+				count++;
+			}
+		}
+		expirations += count;
+		return count;
+	}
+
+	public synchronized JsonObject stats() {
+		return new JsonObject()
+				.putNumber("size", entries.size())
+				.putNumber("maxSize", maxSize)
+				.putNumber("ttl", ttl)
+				.putNumber("hits", hits)
+				.putNumber("misses", misses)
+				.putNumber("evictions", evictions)
+				.putNumber("expirations", expirations)
+				.putNumber("invalidations", invalidations);
+	}
+
+}
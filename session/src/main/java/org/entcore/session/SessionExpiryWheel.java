@@ -0,0 +1,146 @@
+/* Copyright © WebServices pour l'Éducation, 2014
+ *
+ * This file is part of ENT Core. ENT Core is a versatile ENT engine based on the JVM.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with ENT Core is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of ENT Core, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package org.entcore.session;
+
+import org.vertx.java.core.Handler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Timing wheel tracking session deadlines with a single periodic tick.
+ * Touching a session only moves its id between two buckets, and all sessions
+ * expired during a tick are handed over in one batch (sessionId -> userId).
+ */
+public class SessionExpiryWheel {
+
+	private final long timeout;
+	private final long tick;
+	private final List<Set<String>> buckets;
+	private final Map<String, Expiry> expiries = new HashMap<>();
+	private final Handler<Map<String, String>> expireHandler;
+	private long lastSlot;
+
+	private static final class Expiry {
+		final String userId;
+		long deadline;
+		int bucket;
+
+		private Expiry(String userId) {
+			this.userId = userId;
+		}
+	}
+
+	public SessionExpiryWheel(long timeout, long tick, Handler<Map<String, String>> expireHandler) {
+		this.timeout = timeout;
+		this.tick = Math.max(1l, Math.min(tick, timeout));
+		this.expireHandler = expireHandler;
+		final int size = (int) (timeout / this.tick) + 2;
+		this.buckets = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			buckets.add(new LinkedHashSet<String>());
+		}
+		this.lastSlot = System.currentTimeMillis() / this.tick;
+	}
+
+	public long getTick() {
+		return tick;
+	}
+
+	public void schedule(String sessionId, String userId) {
+		schedule(sessionId, userId, System.currentTimeMillis());
+	}
+
+	/**
+	 * @param lastUsed : last use of the session, it expires after lastUsed + timeout
+	 */
+	public synchronized void schedule(String sessionId, String userId, long lastUsed) {
+		Expiry e = expiries.get(sessionId);
+		if (e == null) {
+			e = new Expiry(userId);
+			e.bucket = -1;
+			expiries.put(sessionId, e);
+		}
+		reschedule(sessionId, e, lastUsed);
+	}
+
+	public synchronized boolean touch(String sessionId) {
+		Expiry e = expiries.get(sessionId);
+		if (e == null) {
+			return false;
+		}
+		reschedule(sessionId, e, System.currentTimeMillis());
+		return true;
+	}
+
+	public synchronized void remove(String sessionId) {
+		Expiry e = expiries.remove(sessionId);
+		if (e != null) {
+			buckets.get(e.bucket).remove(sessionId);
+		}
+	}
+
+	public synchronized int size() {
+		return expiries.size();
+	}
+
+	private void reschedule(String sessionId, Expiry e, long lastUsed) {
+		e.deadline = lastUsed + timeout;
+		final int bucket = (int) ((e.deadline / tick) % buckets.size());
+		if (bucket != e.bucket) {
+			if (e.bucket >= 0) {
+				buckets.get(e.bucket).remove(sessionId);
+			}
+			buckets.get(bucket).add(sessionId);
+			e.bucket = bucket;
+		}
+	}
+
+	public void advance() {
+		final Map<String, String> expired = new HashMap<>();
+		synchronized (this) {
+			final long now = System.currentTimeMillis();
+			final long currentSlot = now / tick;
+			final long firstSlot = Math.max(lastSlot, currentSlot - buckets.size());
+			for (long slot = firstSlot; slot < currentSlot; slot++) {
+				Iterator<String> it = buckets.get((int) (slot % buckets.size())).iterator();
+				while (it.hasNext()) {
+					final String sessionId = it.next();
+					final Expiry e = expiries.get(sessionId);
+					if (e.deadline <= now) {
+						it.remove();
+						expiries.remove(sessionId);
+						expired.put(sessionId, e.userId);
+					}
+				}
+			}
+			lastSlot = currentSlot;
+		}
+		if (!expired.isEmpty()) {
+			expireHandler.handle(expired);
+		}
+	}
+
+}
@@ -0,0 +1,125 @@
+/* Copyright © WebServices pour l'Éducation, 2014
+ *
+ * This file is part of ENT Core. ENT Core is a versatile ENT engine based on the JVM.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with ENT Core is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of ENT Core, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package org.entcore.session;
+
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Node-local cache of the low-churn parts of the session infos : the structure
+ * externalId -> id mapping and, per group, the authorized actions, applications and widgets.
+ * Cached values are shared between sessions and must not be modified.
+ * The least recently used groups are evicted beyond maxGroups.
+ */
+public class SessionInfosCache {
+
+	private final long ttl;
+	private JsonObject structureMapping;
+	private long structureMappingExpireAt;
+	private final Map<String, GroupInfos> groups;
+
+	public static final class GroupInfos {
+		private final JsonArray actions;
+		private final JsonArray apps;
+		private final JsonArray widgets;
+		private final long expireAt;
+
+		private GroupInfos(JsonArray actions, JsonArray apps, JsonArray widgets, long expireAt) {
+			this.actions = actions;
+			this.apps = apps;
+			this.widgets = widgets;
+			this.expireAt = expireAt;
+		}
+
+		public JsonArray getActions() {
+			return actions;
+		}
+
+		public JsonArray getApps() {
+			return apps;
+		}
+
+		public JsonArray getWidgets() {
+			return widgets;
+		}
+
+	}
+
+	public SessionInfosCache(long ttl, final int maxGroups) {
+		this.ttl = ttl;
+		this.groups = new LinkedHashMap<String, GroupInfos>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, GroupInfos> eldest) {
+				return size() > maxGroups;
+			}
+		};
+	}
+
+	public synchronized JsonObject getStructureMapping() {
+		if (structureMapping != null && structureMappingExpireAt < System.currentTimeMillis()) {
+			structureMapping = null;
+		}
+		return structureMapping;
+	}
+
+	public synchronized void setStructureMapping(JsonObject mapping) {
+		if (ttl <= 0) {
+			return;
+		}
+		this.structureMapping = mapping;
+		this.structureMappingExpireAt = System.currentTimeMillis() + ttl;
+	}
+
+	public synchronized GroupInfos getGroup(String groupId) {
+		GroupInfos g = groups.get(groupId);
+		if (g != null && g.expireAt < System.currentTimeMillis()) {
+			groups.remove(groupId);
+			return null;
+		}
+		return g;
+	}
+
+	public synchronized GroupInfos putGroup(String groupId, JsonArray actions, JsonArray apps, JsonArray widgets) {
+		final GroupInfos g = new GroupInfos(actions, apps, widgets, System.currentTimeMillis() + ttl);
+		if (ttl > 0) {
+			groups.put(groupId, g);
+		}
+		return g;
+	}
+
+	public synchronized void invalidateGroups(JsonArray groupIds) {
+		if (groupIds == null) {
+			groups.clear();
+			return;
+		}
+		for (Object groupId : groupIds) {
+			groups.remove(groupId);
+		}
+	}
+
+	public synchronized void clear() {
+		structureMapping = null;
+		groups.clear();
+	}
+
+}
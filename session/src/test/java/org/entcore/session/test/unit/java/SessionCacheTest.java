@@ -0,0 +1,92 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2016
+ *
+ * This file is part of ENT Core. ENT Core is a versatile ENT engine based on the JVM.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with ENT Core is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of ENT Core, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package org.entcore.session.test.unit.java;
+
+import org.entcore.session.SessionCache;
+import org.junit.Test;
+import org.vertx.java.core.json.JsonObject;
+
+import static org.junit.Assert.*;
+
+public class SessionCacheTest {
+
+	private static JsonObject session(String userId) {
+		return new JsonObject().putString("userId", userId);
+	}
+
+	@Test
+	public void testGetPut() {
+		SessionCache cache = new SessionCache(10, 60000l);
+		assertNull(cache.get("s1"));
+		cache.put("s1", session("u1"));
+		assertEquals("u1", cache.get("s1").getString("userId"));
+		JsonObject stats = cache.stats();
+		assertEquals(1l, stats.getLong("hits").longValue());
+		assertEquals(1l, stats.getLong("misses").longValue());
+	}
+
+	@Test
+	public void testLruEviction() {
+		SessionCache cache = new SessionCache(2, 60000l);
+		cache.put("s1", session("u1"));
+		cache.put("s2", session("u2"));
+		assertNotNull(cache.get("s1"));
+		cache.put("s3", session("u3"));
+		assertNotNull(cache.get("s1"));
+		assertNull(cache.get("s2"));
+		assertNotNull(cache.get("s3"));
+		assertEquals(1l, cache.stats().getLong("evictions").longValue());
+	}
+
+	@Test
+	public void testExpiration() throws InterruptedException {
+		SessionCache cache = new SessionCache(10, 20l);
+		cache.put("s1", session("u1"));
+		cache.put("s2", session("u2"));
+		Thread.sleep(50l);
+		assertNull(cache.get("s1"));
+		assertEquals(1, cache.purgeExpired());
+		assertEquals(0, cache.stats().getInteger("size").intValue());
+		assertEquals(2l, cache.stats().getLong("expirations").longValue());
+	}
+
+	@Test
+	public void testInvalidate() {
+		SessionCache cache = new SessionCache(10, 60000l);
+		cache.put("s1", session("u1"));
+		cache.invalidate("s1");
+		cache.invalidate("unknown");
+		assertNull(cache.get("s1"));
+		assertEquals(1l, cache.stats().getLong("invalidations").longValue());
+	}
+
+	@Test
+	public void testDisabled() {
+		SessionCache noSize = new SessionCache(0, 60000l);
+		SessionCache noTtl = new SessionCache(10, 0l);
+		assertFalse(noSize.isEnabled());
+		assertFalse(noTtl.isEnabled());
+		noSize.put("s1", session("u1"));
+		noTtl.put("s1", session("u1"));
+		assertNull(noSize.get("s1"));
+		assertNull(noTtl.get("s1"));
+	}
+
+}
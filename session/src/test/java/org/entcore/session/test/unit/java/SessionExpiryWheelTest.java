@@ -0,0 +1,98 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2016
+ *
+ * This file is part of ENT Core. ENT Core is a versatile ENT engine based on the JVM.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with ENT Core is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of ENT Core, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package org.entcore.session.test.unit.java;
+
+import org.entcore.session.SessionExpiryWheel;
+import org.junit.Before;
+import org.junit.Test;
+import org.vertx.java.core.Handler;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class SessionExpiryWheelTest {
+
+	private static final long TIMEOUT = 100l;
+	private static final long TICK = 10l;
+	private final Map<String, String> expired = new HashMap<>();
+	private SessionExpiryWheel wheel;
+
+	@Before
+	public void setUp() {
+		expired.clear();
+		wheel = new SessionExpiryWheel(TIMEOUT, TICK, new Handler<Map<String, String>>() {
+			@Override
+			public void handle(Map<String, String> sessions) {
+				expired.putAll(sessions);
+			}
+		});
+	}
+
+	@Test
+	public void testExpire() throws InterruptedException {
+		wheel.schedule("s1", "u1");
+		wheel.schedule("s2", "u2");
+		assertEquals(2, wheel.size());
+		wheel.advance();
+		assertTrue(expired.isEmpty());
+		Thread.sleep(TIMEOUT + 3 * TICK);
+		wheel.advance();
+		assertEquals(2, expired.size());
+		assertEquals("u1", expired.get("s1"));
+		assertEquals("u2", expired.get("s2"));
+		assertEquals(0, wheel.size());
+	}
+
+	@Test
+	public void testTouch() throws InterruptedException {
+		wheel.schedule("s1", "u1");
+		wheel.schedule("s2", "u2");
+		Thread.sleep(TIMEOUT / 2);
+		assertTrue(wheel.touch("s1"));
+		assertFalse(wheel.touch("unknown"));
+		Thread.sleep(TIMEOUT / 2 + 3 * TICK);
+		wheel.advance();
+		assertEquals(1, expired.size());
+		assertTrue(expired.containsKey("s2"));
+		assertEquals(1, wheel.size());
+	}
+
+	@Test
+	public void testScheduleWithLastUsed() throws InterruptedException {
+		wheel.schedule("s1", "u1", System.currentTimeMillis() - TIMEOUT / 2);
+		Thread.sleep(TIMEOUT / 2 + 3 * TICK);
+		wheel.advance();
+		assertEquals("u1", expired.get("s1"));
+	}
+
+	@Test
+	public void testRemove() throws InterruptedException {
+		wheel.schedule("s1", "u1");
+		wheel.remove("s1");
+		wheel.remove("unknown");
+		assertEquals(0, wheel.size());
+		Thread.sleep(TIMEOUT + 3 * TICK);
+		wheel.advance();
+		assertTrue(expired.isEmpty());
+	}
+
+}
@@ -46,7 +46,7 @@ public class Timeline extends BaseServer {
 		addController(new FlashMsgController());
 		setRepositoryEvents(new FlashMsgRepositoryEventsSql());
 
-		TimelineMailer mailer = new TimelineMailer(vertx, Server.getEventBus(vertx), container, container.config().getInteger("users-loop-limit", 25));
+		TimelineMailer mailer = new TimelineMailer(vertx, Server.getEventBus(vertx), container, container.config().getInteger("users-loop-limit", 25), true);
 		final String dailyMailingCron = container.config().getString("daily-mailing-cron", "0 0 2 * * ?");
 		final String weeklyMailingCron = container.config().getString("weekly-mailing-cron", "0 0 5 ? * MON");
 		final int dailyDayDelta = container.config().getInteger("daily-day-delta", -1);
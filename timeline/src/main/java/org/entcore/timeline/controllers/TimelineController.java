@@ -19,10 +19,8 @@
 
 package org.entcore.timeline.controllers;
 
-import java.io.IOException;
 import java.io.StringReader;
 import java.io.Writer;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -53,10 +51,6 @@ import org.vertx.java.core.json.JsonObject;
 import org.vertx.java.core.spi.cluster.ClusterManager;
 import org.vertx.java.platform.Container;
 
-import com.samskivert.mustache.Mustache;
-import com.samskivert.mustache.Template;
-import com.samskivert.mustache.Template.Fragment;
-
 import org.entcore.common.user.UserUtils;
 import org.entcore.common.http.filter.ResourceFilter;
 import org.entcore.common.http.filter.SuperAdminFilter;
@@ -64,9 +58,11 @@ import org.entcore.common.http.request.JsonHttpServerRequest;
 import org.entcore.common.notification.TimelineHelper;
 import org.entcore.common.notification.TimelineMailer;
 import org.entcore.common.notification.TimelineNotificationsLoader;
+import org.entcore.common.notification.TimelineTemplateCache;
 import org.entcore.common.user.UserInfos;
 import fr.wseduc.security.SecuredAction;
 import org.entcore.timeline.events.DefaultTimelineEventStore;
+import org.entcore.timeline.events.InboxTimelineEventStore;
 import org.entcore.timeline.events.TimelineEventStore;
 import org.entcore.timeline.services.TimelineConfigService;
 import org.entcore.timeline.services.impl.DefaultTimelineConfigService;
@@ -78,7 +74,7 @@ public class TimelineController extends BaseController {
 	private TimelineEventStore store;
 	private TimelineConfigService configService;
 	private ConcurrentMap<String, String> eventsI18n;
-	private HashMap<String, JsonObject> lazyEventsI18n = new HashMap<>();
+	private TimelineTemplateCache templateCache;
 	private Map<String, String> registeredNotifications;
 	private Set<String> antiFlood;
 
@@ -93,10 +89,17 @@ public class TimelineController extends BaseController {
 	public void init(Vertx vertx, Container container, RouteMatcher rm,
 			Map<String, fr.wseduc.webutils.security.SecuredAction> securedActions) {
 		super.init(vertx, container, rm, securedActions);
-		store = new DefaultTimelineEventStore();
+		final long readMarkDelay = container.config().getLong("read-mark-delay", 1000l);
+		final int readMarkBatchSize = container.config().getInteger("read-mark-batch-size", 1000);
+		if ("inbox".equals(container.config().getString("timeline-storage"))) {
+			store = new InboxTimelineEventStore(vertx, readMarkDelay, readMarkBatchSize);
+		} else {
+			store = new DefaultTimelineEventStore(vertx, readMarkDelay, readMarkBatchSize);
+		}
 		configService = new DefaultTimelineConfigService(
 				TIMELINE_CONFIG_COLLECTION);
 		eventsI18n = vertx.sharedData().getMap("timelineEventsI18n");
+		templateCache = TimelineTemplateCache.getInstance(vertx);
 		timelineHelper = new TimelineHelper(vertx, eb, container);
 		Boolean cluster = (Boolean) vertx.sharedData().getMap("server")
 				.get("cluster");
@@ -107,7 +110,7 @@ public class TimelineController extends BaseController {
 			registeredNotifications = vertx.sharedData()
 					.getMap("notificationsMap");
 		}
-		mailer = new TimelineMailer(vertx, eb, container);
+		mailer = new TimelineMailer(vertx, eb, container, 10, true);
 
 		antiFlood = new TTLSet<>(container.config().getLong("antiFloodDelay", 3000l),
 				vertx, container.config().getLong("antiFloodClear", 3600 * 1000l));
@@ -117,68 +120,7 @@ public class TimelineController extends BaseController {
 	@Override
 	protected void setLambdaTemplateRequest(final HttpServerRequest request, final Map<String, Object> ctx) {
 		super.setLambdaTemplateRequest(request, ctx);
-
-		ctx.put("i18n", new Mustache.Lambda() {
-			@Override
-			public void execute(Template.Fragment frag, Writer out) throws IOException {
-				String key = frag.execute();
-				String language = Utils.getOrElse(I18n.acceptLanguage(request), "fr", false);
-
-				JsonObject timelineI18n;
-				if (!lazyEventsI18n.containsKey(language)) {
-					String i18n = eventsI18n.get(language.split(",")[0].split("-")[0]);
-					i18n = i18n != null ? i18n : "}";
-					timelineI18n = new JsonObject("{" + i18n.substring(0, i18n.length() - 1) + "}");
-					lazyEventsI18n.put(language, timelineI18n);
-				} else {
-					timelineI18n = lazyEventsI18n.get(language);
-				}
-
-				String translatedContents = I18n.getInstance().translate(key, getHost(request), language);
-				if (translatedContents.equals(key)) {
-					translatedContents = timelineI18n.getString(key, key);
-				}
-				Mustache.compiler().compile(translatedContents).execute(ctx, out);
-			}
-		});
-
-		ctx.put("host", new Mustache.Lambda() {
-			@Override
-			public void execute(Template.Fragment frag, Writer out) throws IOException{
-				String contents = frag.execute();
-				if(contents.matches("^(http://|https://).*")){
-					out.write(contents);
-				} else {
-					String host = getScheme(request) + "://" + getHost(request);
-					out.write(host + contents);
-				}
-			}
-		});
-
-		ctx.put("nested", new Mustache.Lambda() {
-			public void execute(Fragment frag, Writer out) throws IOException {
-				String nestedTemplateName = frag.execute();
-				String nestedTemplate = (String) ctx.get(nestedTemplateName);
-				if(nestedTemplate != null)
-					Mustache.compiler().compile(nestedTemplate).execute(ctx, out);
-			}
-		});
-
-		ctx.put("nestedArray", new Mustache.Lambda() {
-			public void execute(Fragment frag, Writer out) throws IOException {
-				String nestedTemplatePos = frag.execute();
-				JsonArray nestedArray = new JsonArray((List<Object>) ctx.get("nestedTemplatesArray"));
-				try {
-					JsonObject nestedTemplate = (JsonObject) nestedArray.get(Integer.parseInt(nestedTemplatePos) - 1);
-					ctx.putAll(nestedTemplate.getObject("params", new JsonObject()).toMap());
-					Mustache.compiler()
-						.compile(nestedTemplate.getString("template", ""))
-						.execute(ctx, out);
-				} catch(NumberFormatException e) {
-					log.error("Mustache compiler error while parsing a nested template array lambda.");
-				}
-			}
-		});
+		templateCache.setLambdas(request, ctx);
 	}
 
 	@Get("/timeline")
@@ -309,6 +251,30 @@ public class TimelineController extends BaseController {
 		});
 	}
 
+	@Get("/unreadCount")
+	@SecuredAction(value = "timeline.events", type = ActionType.AUTHENTICATED)
+	public void unreadCount(final HttpServerRequest request) {
+		UserUtils.getUserInfos(eb, request, new Handler<UserInfos>() {
+			@Override
+			public void handle(UserInfos user) {
+				if (user != null) {
+					store.unreadCount(user, new Handler<JsonObject>() {
+						@Override
+						public void handle(JsonObject res) {
+							if ("ok".equals(res.getString("status"))) {
+								renderJson(request, new JsonObject().putNumber("count", res.getInteger("count", 0)));
+							} else {
+								renderError(request, res);
+							}
+						}
+					});
+				} else {
+					unauthorized(request);
+				}
+			}
+		});
+	}
+
 	@Get("/types")
 	@SecuredAction(value = "timeline.auth", type = ActionType.AUTHENTICATED)
 	public void listTypes(final HttpServerRequest request) {
@@ -480,6 +446,14 @@ public class TimelineController extends BaseController {
 				}
 			});
 			break;
+		case "migrate-inbox":
+			if (store instanceof InboxTimelineEventStore) {
+				((InboxTimelineEventStore) store).migrate(handler);
+			} else {
+				message.reply(new JsonObject().putString("status", "error")
+						.putString("message", "inbox.storage.disabled"));
+			}
+			break;
 		case "get-notification-properties":
 			getNotificationProperties(json.getString("key"),
 					new Handler<Either<String, JsonObject>>() {
@@ -564,15 +538,10 @@ public class TimelineController extends BaseController {
 			final JsonArray i18nKeys = message.body().getArray("i18nKeys", new JsonArray());
 			final String language = message.body().getString("language", "fr");
 			final String domain = message.body().getString("domain", I18n.DEFAULT_DOMAIN);
-			String i18n = eventsI18n
-				.get(language.split(",")[0].split("-")[0]);
-			JsonObject timelineI18n = new JsonObject(
-					"{" + i18n.substring(0, i18n.length() - 1) + "}");
-			timelineI18n.mergeIn(I18n.getInstance().load(language, domain));
 			JsonArray translations = new JsonArray();
 			for(Object keyObj : i18nKeys){
 				String key = (String) keyObj;
-				translations.add(timelineI18n.getString(key, key));
+				translations.add(templateCache.translate(key, domain, language));
 			}
 			message.reply(new JsonObject()
 				.putString("status", "ok")
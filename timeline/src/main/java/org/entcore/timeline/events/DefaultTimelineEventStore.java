@@ -22,38 +22,139 @@ package org.entcore.timeline.events;
 import fr.wseduc.mongodb.MongoDb;
 import org.entcore.common.user.UserInfos;
 import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
 import org.vertx.java.core.eventbus.Message;
 import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 
 public class DefaultTimelineEventStore implements TimelineEventStore {
 
-	private static final String TIMELINE_COLLECTION = "timeline";
+	protected static final String TIMELINE_COLLECTION = "timeline";
+	private static final String UNREAD_COUNTERS_COLLECTION = "timeline.unread";
+	private static final long COUNTER_TTL = 24 * 3600 * 1000l;
 
-	private MongoDb mongo = MongoDb.getInstance();
+	protected MongoDb mongo = MongoDb.getInstance();
+	private final ReadMarkBatcher readMarkBatcher;
+
+	private final boolean unreadCounters;
+
+	public DefaultTimelineEventStore(Vertx vertx, long readMarkDelay, int readMarkBatchSize) {
+		this(vertx, readMarkDelay, readMarkBatchSize, true);
+	}
+
+	protected DefaultTimelineEventStore(Vertx vertx, long readMarkDelay, int readMarkBatchSize,
+			boolean unreadCounters) {
+		this.unreadCounters = unreadCounters;
+		readMarkBatcher = new ReadMarkBatcher(vertx, TIMELINE_COLLECTION,
+				unreadCounters ? UNREAD_COUNTERS_COLLECTION : null, readMarkDelay, readMarkBatchSize);
+	}
 
 	@Override
 	public void add(JsonObject event, final Handler<JsonObject> result) {
-		JsonObject doc = validAndGet(event);
+		final JsonObject doc = validAndGet(event);
 		if (doc != null) {
 			if (!doc.containsField("date")) {
 				doc.putObject("date", MongoDb.now());
 			}
-			mongo.save(TIMELINE_COLLECTION, doc, resultHandler(result));
+			mongo.save(TIMELINE_COLLECTION, doc, new Handler<Message<JsonObject>>() {
+				@Override
+				public void handle(Message<JsonObject> message) {
+					if ("ok".equals(message.body().getString("status"))) {
+						incrementUnreadCounters(doc.getArray("recipients"));
+					}
+					result.handle(message.body());
+				}
+			});
 		} else {
 			result.handle(invalidArguments());
 		}
 	}
 
+	private void incrementUnreadCounters(JsonArray recipients) {
+		if (recipients == null) {
+			return;
+		}
+		final JsonArray ids = new JsonArray();
+		for (Object o : recipients) {
+			if (!(o instanceof JsonObject)) continue;
+			final JsonObject r = (JsonObject) o;
+			if (r.getString("userId") != null && r.getInteger("unread", 0) == 1) {
+				ids.addString(r.getString("userId"));
+			}
+		}
+		if (ids.size() > 0) {
+			// only existing counters are maintained, the others are computed on first read
+			mongo.update(UNREAD_COUNTERS_COLLECTION, new JsonObject().putObject("_id",
+					new JsonObject().putArray("$in", ids)), new JsonObject().putObject("$inc",
+					new JsonObject().putNumber("count", 1)), false, true);
+		}
+	}
+
+	@Override
+	public void unreadCount(final UserInfos user, final Handler<JsonObject> result) {
+		final String recipient = user.getUserId();
+		if (recipient == null || recipient.trim().isEmpty()) {
+			result.handle(invalidArguments());
+			return;
+		}
+		mongo.findOne(UNREAD_COUNTERS_COLLECTION, new JsonObject().putString("_id", recipient),
+				new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> message) {
+				final JsonObject counter = message.body().getObject("result");
+				if ("ok".equals(message.body().getString("status")) && counter != null &&
+						counter.getObject("computed") != null && counter.getObject("computed").getLong("$date", 0l) +
+						COUNTER_TTL > System.currentTimeMillis()) {
+					result.handle(new JsonObject().putString("status", "ok")
+							.putNumber("count", Math.max(0, counter.getInteger("count", 0))));
+				} else {
+					computeUnreadCount(user, result);
+				}
+			}
+		});
+	}
+
+	private void computeUnreadCount(UserInfos user, final Handler<JsonObject> result) {
+		final String recipient = user.getUserId();
+		final String externalId = user.getExternalId();
+		final JsonObject recipientFilter = new JsonObject().putNumber("unread", 1);
+		if (externalId == null || externalId.trim().isEmpty()) {
+			recipientFilter.putString("userId", recipient);
+		} else {
+			recipientFilter.putObject("userId", new JsonObject()
+					.putArray("$in", new JsonArray().add(recipient).add(externalId)));
+		}
+		final JsonObject query = new JsonObject()
+				.putObject("date", new JsonObject().putObject("$lt", MongoDb.now()))
+				.putObject("recipients", new JsonObject().putObject("$elemMatch", recipientFilter));
+		mongo.count(TIMELINE_COLLECTION, query, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> message) {
+				if ("ok".equals(message.body().getString("status"))) {
+					final int count = message.body().getInteger("count", 0);
+					mongo.save(UNREAD_COUNTERS_COLLECTION, new JsonObject()
+							.putString("_id", recipient)
+							.putNumber("count", count)
+							.putObject("computed", MongoDb.now()));
+					result.handle(new JsonObject().putString("status", "ok").putNumber("count", count));
+				} else {
+					result.handle(message.body());
+				}
+			}
+		});
+	}
+
 	@Override
 	public void delete(String resource, Handler<JsonObject> result) {
 		if (resource != null && !resource.trim().isEmpty()) {
 			JsonObject query = new JsonObject()
 			.putString("resource", resource);
-			mongo.delete(TIMELINE_COLLECTION, query, resultHandler(result));
+			deleteEvents(query, result);
 		} else {
 			result.handle(invalidArguments());
 		}
@@ -73,28 +174,7 @@ public class DefaultTimelineEventStore implements TimelineEventStore {
 				query.putObject("recipients.userId", new JsonObject()
 						.putArray("$in", new JsonArray().add(recipient).add(externalId)));
 			}
-			if (types != null && !types.isEmpty()) {
-				if (types.size() == 1) {
-					query.putString("type", types.get(0));
-				} else {
-					JsonArray typesFilter = new JsonArray();
-					for (String t: types) {
-						typesFilter.addObject(new JsonObject().putString("type", t));
-					}
-					query.putArray("$or", typesFilter);
-				}
-			}
-			if(restrictionFilter != null && restrictionFilter.size() > 0){
-				JsonArray nor = new JsonArray();
-				for(String type : restrictionFilter.toMap().keySet()){
-					for(Object eventType : restrictionFilter.getArray(type, new JsonArray())){
-						nor.add(new JsonObject()
-							.putString("type", type)
-							.putString("event-type", eventType.toString()));
-					}
-					query.putArray("$nor", nor);
-				}
-			}
+			typesFilter(query, types, restrictionFilter);
 			JsonObject sort = new JsonObject().putNumber("date", -1);
 			JsonObject keys = new JsonObject()
 			.putNumber("message", 1)
@@ -121,17 +201,79 @@ public class DefaultTimelineEventStore implements TimelineEventStore {
 		}
 	}
 
+	protected void typesFilter(JsonObject query, List<String> types, JsonObject restrictionFilter) {
+		if (types != null && !types.isEmpty()) {
+			if (types.size() == 1) {
+				query.putString("type", types.get(0));
+			} else {
+				JsonArray typesFilter = new JsonArray();
+				for (String t: types) {
+					typesFilter.addObject(new JsonObject().putString("type", t));
+				}
+				query.putArray("$or", typesFilter);
+			}
+		}
+		if(restrictionFilter != null && restrictionFilter.size() > 0){
+			JsonArray nor = new JsonArray();
+			for(String type : restrictionFilter.toMap().keySet()){
+				for(Object eventType : restrictionFilter.getArray(type, new JsonArray())){
+					nor.add(new JsonObject()
+						.putString("type", type)
+						.putString("event-type", eventType.toString()));
+				}
+				query.putArray("$nor", nor);
+			}
+		}
+	}
+
 	@Override
 	public void deleteSubResource(String resource, Handler<JsonObject> result) {
 		if (resource != null && !resource.trim().isEmpty()) {
 			JsonObject query = new JsonObject()
 					.putString("sub-resource", resource);
-			mongo.delete(TIMELINE_COLLECTION, query, resultHandler(result));
+			deleteEvents(query, result);
 		} else {
 			result.handle(invalidArguments());
 		}
 	}
 
+	private void deleteEvents(final JsonObject query, final Handler<JsonObject> result) {
+		if (!unreadCounters) {
+			mongo.delete(TIMELINE_COLLECTION, query, resultHandler(result));
+			return;
+		}
+		final JsonObject unreadQuery = query.copy().putNumber("recipients.unread", 1);
+		mongo.find(TIMELINE_COLLECTION, unreadQuery, null, new JsonObject().putNumber("recipients", 1),
+				new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> event) {
+				final Map<String, Integer> unreadByRecipient = new HashMap<>();
+				if ("ok".equals(event.body().getString("status"))) {
+					for (Object o : event.body().getArray("results", new JsonArray())) {
+						if (!(o instanceof JsonObject)) continue;
+						for (Object r : ((JsonObject) o).getArray("recipients", new JsonArray())) {
+							if (!(r instanceof JsonObject)) continue;
+							final String userId = ((JsonObject) r).getString("userId");
+							if (userId != null && ((JsonObject) r).getInteger("unread", 0) == 1) {
+								final Integer count = unreadByRecipient.get(userId);
+								unreadByRecipient.put(userId, count != null ? count + 1 : 1);
+							}
+						}
+					}
+				}
+				mongo.delete(TIMELINE_COLLECTION, query, new Handler<Message<JsonObject>>() {
+					@Override
+					public void handle(Message<JsonObject> message) {
+						if ("ok".equals(message.body().getString("status"))) {
+							readMarkBatcher.decrementCounters(unreadByRecipient);
+						}
+						result.handle(message.body());
+					}
+				});
+			}
+		});
+	}
+
 	@Override
 	public void listTypes(final Handler<JsonArray> result) {
 		mongo.distinct(TIMELINE_COLLECTION, "type", new Handler<Message<JsonObject>>() {
@@ -146,7 +288,7 @@ public class DefaultTimelineEventStore implements TimelineEventStore {
 		});
 	}
 
-	private JsonObject validAndGet(JsonObject json) {
+	protected JsonObject validAndGet(JsonObject json) {
 		if (json != null) {
 			JsonObject e = json.copy();
 			for (String attr: json.getFieldNames()) {
@@ -161,13 +303,13 @@ public class DefaultTimelineEventStore implements TimelineEventStore {
 		return null;
 	}
 
-	private JsonObject invalidArguments() {
+	protected JsonObject invalidArguments() {
 		return new JsonObject().putString("status", "error")
 				.putString("message", "Invalid arguments.");
 	}
 
 
-	private Handler<Message<JsonObject>> resultHandler(final Handler<JsonObject> result) {
+	protected Handler<Message<JsonObject>> resultHandler(final Handler<JsonObject> result) {
 		return new Handler<Message<JsonObject>>() {
 
 			@Override
@@ -180,20 +322,23 @@ public class DefaultTimelineEventStore implements TimelineEventStore {
 	private void markEventsAsRead(Message<JsonObject> message, String recipient) {
 		JsonArray events = message.body().getArray("results");
 		if (events != null && "ok".equals(message.body().getString("status"))) {
-			JsonArray ids = new JsonArray();
+			JsonArray unreadIds = new JsonArray();
 			for (Object o : events) {
 				if (!(o instanceof JsonObject)) continue;
 				JsonObject json = (JsonObject) o;
-				ids.addString(json.getString("_id"));
+				JsonArray r = json.getArray("recipients");
+				if (r != null && r.size() == 1 && (r.get(0) instanceof JsonObject) &&
+						recipient.equals(((JsonObject) r.get(0)).getString("userId")) &&
+						((JsonObject) r.get(0)).getInteger("unread", 0) == 1) {
+					unreadIds.addString(json.getString("_id"));
+				}
 			}
-			JsonObject q = new JsonObject()
-					.putObject("_id", new JsonObject().putArray("$in", ids))
-					.putObject("recipients", new JsonObject().putObject("$elemMatch",
-							new JsonObject().putString("userId", recipient).putNumber("unread", 1)
-					));
-			mongo.update(TIMELINE_COLLECTION, q, new JsonObject().putObject("$set",
-					new JsonObject().putNumber("recipients.$.unread", 0)), false, true);
+			markAsRead(recipient, unreadIds);
 		}
 	}
 
+	protected void markAsRead(String recipient, JsonArray unreadEventIds) {
+		readMarkBatcher.add(recipient, unreadEventIds);
+	}
+
 }
@@ -0,0 +1,377 @@
+/* Copyright © WebServices pour l'Éducation, 2014
+ *
+ * This file is part of ENT Core. ENT Core is a versatile ENT engine based on the JVM.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with ENT Core is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of ENT Core, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package org.entcore.timeline.events;
+
+import fr.wseduc.mongodb.MongoDb;
+import org.entcore.common.user.UserInfos;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Fan-out-on-write timeline : besides the event itself, one compact inbox entry
+ * (userId, date, eventRef) is written per recipient, so reading a timeline is a
+ * bounded range scan on (userId, date) instead of a scan of the recipients arrays.
+ * Unread counts are counted on the inbox entries, so no unread counter is maintained.
+ */
+public class InboxTimelineEventStore extends DefaultTimelineEventStore {
+
+	private static final String INBOX_COLLECTION = "timeline.inbox";
+	private static final int INSERT_BATCH_SIZE = 1000;
+	private static final int MIGRATION_BATCH_SIZE = 200;
+	private static final int DUPLICATE_KEY = 11000;
+	private static final Logger log = LoggerFactory.getLogger(InboxTimelineEventStore.class);
+
+	public InboxTimelineEventStore(Vertx vertx, long readMarkDelay, int readMarkBatchSize) {
+		super(vertx, readMarkDelay, readMarkBatchSize, false);
+	}
+
+	@Override
+	public void add(JsonObject event, final Handler<JsonObject> result) {
+		final JsonObject doc = validAndGet(event);
+		if (doc != null) {
+			if (!doc.containsField("date")) {
+				doc.putObject("date", MongoDb.now());
+			}
+			doc.putString("_id", UUID.randomUUID().toString());
+			mongo.save(TIMELINE_COLLECTION, doc, new Handler<Message<JsonObject>>() {
+				@Override
+				public void handle(Message<JsonObject> message) {
+					if ("ok".equals(message.body().getString("status"))) {
+						insertEntries(inboxEntries(doc), 0, null);
+					}
+					result.handle(message.body());
+				}
+			});
+		} else {
+			result.handle(invalidArguments());
+		}
+	}
+
+	private JsonArray inboxEntries(JsonObject event) {
+		final JsonArray entries = new JsonArray();
+		final Set<String> userIds = new HashSet<>();
+		for (Object o : event.getArray("recipients", new JsonArray())) {
+			if (!(o instanceof JsonObject)) continue;
+			final JsonObject recipient = (JsonObject) o;
+			if (recipient.getString("userId") == null || !userIds.add(recipient.getString("userId"))) continue;
+			final JsonObject entry = new JsonObject()
+					.putString("userId", recipient.getString("userId"))
+					.putNumber("unread", recipient.getInteger("unread", 0))
+					.putString("eventRef", event.getString("_id"))
+					.putValue("date", event.getValue("date"))
+					.putString("type", event.getString("type"));
+			if (event.getString("event-type") != null) {
+				entry.putString("event-type", event.getString("event-type"));
+			}
+			if (event.getString("resource") != null) {
+				entry.putString("resource", event.getString("resource"));
+			}
+			if (event.getString("sub-resource") != null) {
+				entry.putString("sub-resource", event.getString("sub-resource"));
+			}
+			entries.addObject(entry);
+		}
+		return entries;
+	}
+
+	private void insertEntries(final JsonArray entries, final int from, final Handler<Boolean> handler) {
+		if (from >= entries.size()) {
+			if (handler != null) {
+				handler.handle(true);
+			}
+			return;
+		}
+		final int to = Math.min(from + INSERT_BATCH_SIZE, entries.size());
+		final JsonArray batch = new JsonArray();
+		for (int i = from; i < to; i++) {
+			batch.add(entries.get(i));
+		}
+		mongo.insert(INBOX_COLLECTION, batch, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> message) {
+				if ("ok".equals(message.body().getString("status"))) {
+					insertEntries(entries, to, handler);
+				} else {
+					log.error("Error inserting timeline inbox entries : " + message.body().getString("message"));
+					if (handler != null) {
+						handler.handle(false);
+					}
+				}
+			}
+		});
+	}
+
+	@Override
+	public void delete(String resource, Handler<JsonObject> result) {
+		if (resource != null && !resource.trim().isEmpty()) {
+			mongo.delete(INBOX_COLLECTION, new JsonObject().putString("resource", resource));
+		}
+		super.delete(resource, result);
+	}
+
+	@Override
+	public void deleteSubResource(String resource, Handler<JsonObject> result) {
+		if (resource != null && !resource.trim().isEmpty()) {
+			mongo.delete(INBOX_COLLECTION, new JsonObject().putString("sub-resource", resource));
+		}
+		super.deleteSubResource(resource, result);
+	}
+
+	@Override
+	public void get(final UserInfos user, List<String> types, int offset, int limit, JsonObject restrictionFilter,
+			final Handler<JsonObject> result) {
+		final String recipient = user.getUserId();
+		if (recipient == null || recipient.trim().isEmpty()) {
+			result.handle(invalidArguments());
+			return;
+		}
+		final JsonObject query = recipientQuery(user)
+				.putObject("date", new JsonObject().putObject("$lt", MongoDb.now()));
+		typesFilter(query, types, restrictionFilter);
+		final JsonObject sort = new JsonObject().putNumber("date", -1);
+		final JsonObject keys = new JsonObject()
+				.putNumber("userId", 1)
+				.putNumber("unread", 1)
+				.putNumber("eventRef", 1);
+		mongo.find(INBOX_COLLECTION, query, sort, keys, offset, limit, 100, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> message) {
+				final JsonArray entries = message.body().getArray("results");
+				if (!"ok".equals(message.body().getString("status")) || entries == null) {
+					result.handle(message.body());
+					return;
+				}
+				if (entries.size() == 0) {
+					result.handle(new JsonObject().putString("status", "ok").putArray("results", entries));
+					return;
+				}
+				fetchEvents(entries, result);
+			}
+		});
+	}
+
+	private void fetchEvents(final JsonArray entries, final Handler<JsonObject> result) {
+		final JsonArray eventRefs = new JsonArray();
+		for (Object o : entries) {
+			if (!(o instanceof JsonObject)) continue;
+			eventRefs.addString(((JsonObject) o).getString("eventRef"));
+		}
+		final JsonObject keys = new JsonObject()
+				.putNumber("message", 1)
+				.putNumber("params", 1)
+				.putNumber("date", 1)
+				.putNumber("sender", 1)
+				.putNumber("comments", 1)
+				.putNumber("type", 1)
+				.putNumber("event-type", 1)
+				.putNumber("resource", 1)
+				.putNumber("sub-resource", 1)
+				.putNumber("add-comment", 1);
+		mongo.find(TIMELINE_COLLECTION, new JsonObject().putObject("_id", new JsonObject().putArray("$in", eventRefs)),
+				null, keys, 0, eventRefs.size(), eventRefs.size(), new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> message) {
+				final JsonArray events = message.body().getArray("results");
+				if (!"ok".equals(message.body().getString("status")) || events == null) {
+					result.handle(message.body());
+					return;
+				}
+				final Map<String, JsonObject> eventsById = new HashMap<>();
+				for (Object o : events) {
+					if (!(o instanceof JsonObject)) continue;
+					eventsById.put(((JsonObject) o).getString("_id"), (JsonObject) o);
+				}
+				final JsonArray results = new JsonArray();
+				final JsonArray unreadEntries = new JsonArray();
+				final Map<String, JsonArray> unreadEvents = new HashMap<>();
+				for (Object o : entries) {
+					if (!(o instanceof JsonObject)) continue;
+					final JsonObject entry = (JsonObject) o;
+					final JsonObject event = eventsById.get(entry.getString("eventRef"));
+					if (event == null) continue;
+					event.putArray("recipients", new JsonArray().addObject(new JsonObject()
+							.putString("userId", entry.getString("userId"))
+							.putNumber("unread", entry.getInteger("unread", 0))));
+					results.addObject(event);
+					if (entry.getInteger("unread", 0) == 1) {
+						unreadEntries.addString(entry.getString("_id"));
+						JsonArray eventIds = unreadEvents.get(entry.getString("userId"));
+						if (eventIds == null) {
+							eventIds = new JsonArray();
+							unreadEvents.put(entry.getString("userId"), eventIds);
+						}
+						eventIds.addString(entry.getString("eventRef"));
+					}
+				}
+				result.handle(new JsonObject().putString("status", "ok")
+						.putNumber("number", results.size()).putArray("results", results));
+				if (unreadEntries.size() > 0) {
+					mongo.update(INBOX_COLLECTION, new JsonObject().putObject("_id",
+							new JsonObject().putArray("$in", unreadEntries)), new JsonObject().putObject("$set",
+							new JsonObject().putNumber("unread", 0)), false, true);
+				}
+				for (Map.Entry<String, JsonArray> e : unreadEvents.entrySet()) {
+					markAsRead(e.getKey(), e.getValue());
+				}
+			}
+		});
+	}
+
+	@Override
+	public void unreadCount(UserInfos user, final Handler<JsonObject> result) {
+		final String recipient = user.getUserId();
+		if (recipient == null || recipient.trim().isEmpty()) {
+			result.handle(invalidArguments());
+			return;
+		}
+		final JsonObject query = recipientQuery(user)
+				.putNumber("unread", 1)
+				.putObject("date", new JsonObject().putObject("$lt", MongoDb.now()));
+		mongo.count(INBOX_COLLECTION, query, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> message) {
+				if ("ok".equals(message.body().getString("status"))) {
+					result.handle(new JsonObject().putString("status", "ok")
+							.putNumber("count", message.body().getInteger("count", 0)));
+				} else {
+					result.handle(message.body());
+				}
+			}
+		});
+	}
+
+	private JsonObject recipientQuery(UserInfos user) {
+		final String externalId = user.getExternalId();
+		if (externalId == null || externalId.trim().isEmpty()) {
+			return new JsonObject().putString("userId", user.getUserId());
+		}
+		return new JsonObject().putObject("userId", new JsonObject()
+				.putArray("$in", new JsonArray().add(user.getUserId()).add(externalId)));
+	}
+
+	/**
+	 * Build the inbox entries of the events stored with the embedded recipients layout.
+	 * Events are processed in _id order and only missing entries are inserted, so the
+	 * migration can be run again after an interruption without resetting entries already read.
+	 */
+	public void migrate(final Handler<JsonObject> handler) {
+		migrate(null, 0, handler);
+	}
+
+	private void migrate(final String lastId, final int count, final Handler<JsonObject> handler) {
+		final JsonObject query = (lastId == null) ? new JsonObject() :
+				new JsonObject().putObject("_id", new JsonObject().putString("$gt", lastId));
+		final JsonObject keys = new JsonObject()
+				.putNumber("recipients", 1)
+				.putNumber("date", 1)
+				.putNumber("type", 1)
+				.putNumber("event-type", 1)
+				.putNumber("resource", 1)
+				.putNumber("sub-resource", 1);
+		mongo.find(TIMELINE_COLLECTION, query, new JsonObject().putNumber("_id", 1), keys, 0,
+				MIGRATION_BATCH_SIZE, MIGRATION_BATCH_SIZE, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> message) {
+				final JsonArray events = message.body().getArray("results");
+				if (!"ok".equals(message.body().getString("status")) || events == null) {
+					handler.handle(message.body());
+					return;
+				}
+				if (events.size() == 0) {
+					log.info("Timeline inbox migration done : " + count + " events.");
+					handler.handle(new JsonObject().putString("status", "ok").putNumber("number", count));
+					return;
+				}
+				final JsonArray entries = new JsonArray();
+				for (Object o : events) {
+					if (!(o instanceof JsonObject)) continue;
+					for (Object e : inboxEntries((JsonObject) o)) {
+						entries.add(((JsonObject) e).putString("_id", UUID.randomUUID().toString()));
+					}
+				}
+				final String last = ((JsonObject) events.get(events.size() - 1)).getString("_id");
+				final int total = count + events.size();
+				insertMissingEntries(entries, 0, new Handler<Boolean>() {
+					@Override
+					public void handle(Boolean ok) {
+						if (Boolean.TRUE.equals(ok)) {
+							migrate(last, total, handler);
+						} else {
+							handler.handle(new JsonObject().putString("status", "error")
+									.putString("message", "inbox.migration.error").putString("lastId", lastId));
+						}
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Unordered insert relying on the unique (eventRef, userId) index : entries that
+	 * already exist are rejected with a duplicate key error and keep their unread state.
+	 */
+	private void insertMissingEntries(final JsonArray entries, final int from, final Handler<Boolean> handler) {
+		if (from >= entries.size()) {
+			handler.handle(true);
+			return;
+		}
+		final int to = Math.min(from + INSERT_BATCH_SIZE, entries.size());
+		final JsonArray batch = new JsonArray();
+		for (int i = from; i < to; i++) {
+			batch.add(entries.get(i));
+		}
+		final JsonObject command = new JsonObject()
+				.putString("insert", INBOX_COLLECTION)
+				.putArray("documents", batch)
+				.putBoolean("ordered", false);
+		mongo.command(command.encode(), new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> message) {
+				final JsonObject result = message.body().getObject("result", new JsonObject());
+				boolean ok = "ok".equals(message.body().getString("status")) && result.getInteger("ok", 0) == 1;
+				for (Object o : result.getArray("writeErrors", new JsonArray())) {
+					if (!(o instanceof JsonObject) || ((JsonObject) o).getInteger("code", 0) != DUPLICATE_KEY) {
+						ok = false;
+						break;
+					}
+				}
+				if (ok) {
+					insertMissingEntries(entries, to, handler);
+				} else {
+					log.error("Error inserting timeline inbox entries : " + message.body().getString("message"));
+					handler.handle(false);
+				}
+			}
+		});
+	}
+
+}
@@ -0,0 +1,213 @@
+/* Copyright © WebServices pour l'Éducation, 2014
+ *
+ * This file is part of ENT Core. ENT Core is a versatile ENT engine based on the JVM.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with ENT Core is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of ENT Core, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package org.entcore.timeline.events;
+
+import fr.wseduc.mongodb.MongoDb;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Write-behind buffer of the "mark as read" updates done after each timeline fetch.
+ * Unread events are coalesced per recipient and flushed with one multi-statement update
+ * command when the window expires or when the buffer is full.
+ * Unread counters are decremented by the number of distinct events of each recipient, once the
+ * update reports that all of them were modified. Otherwise some events were already read
+ * elsewhere and the counters of the flushed recipients are dropped to be recomputed.
+ * Without counters collection, only the events are marked as read.
+ */
+public class ReadMarkBatcher {
+
+	private static final Logger log = LoggerFactory.getLogger(ReadMarkBatcher.class);
+	private final Vertx vertx;
+	private final MongoDb mongo = MongoDb.getInstance();
+	private final String collection;
+	private final String countersCollection;
+	private final long delay;
+	private final int maxSize;
+	private Map<String, Set<String>> pending = new HashMap<>();
+	private final Map<String, Set<String>> inFlight = new HashMap<>();
+	private int size;
+	private long timerId = -1;
+
+	public ReadMarkBatcher(Vertx vertx, String collection, String countersCollection, long delay, int maxSize) {
+		this.vertx = vertx;
+		this.collection = collection;
+		this.countersCollection = countersCollection;
+		this.delay = delay;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Queue unread events of a recipient to be marked as read.
+	 * Events already queued or being flushed for this recipient are ignored.
+	 * @param recipient the user id
+	 * @param unreadEventIds ids of the fetched events still unread for this recipient
+	 */
+	public void add(String recipient, JsonArray unreadEventIds) {
+		if (unreadEventIds == null || unreadEventIds.size() == 0) {
+			return;
+		}
+		final Set<String> flushing = inFlight.get(recipient);
+		Set<String> ids = pending.get(recipient);
+		if (ids == null) {
+			ids = new LinkedHashSet<>();
+		}
+		for (Object id : unreadEventIds) {
+			if (id instanceof String && (flushing == null || !flushing.contains(id)) && ids.add((String) id)) {
+				size++;
+			}
+		}
+		if (ids.isEmpty()) {
+			return;
+		}
+		pending.put(recipient, ids);
+		if (size >= maxSize || delay <= 0) {
+			flush();
+		} else if (timerId < 0) {
+			timerId = vertx.setTimer(delay, new Handler<Long>() {
+				@Override
+				public void handle(Long event) {
+					timerId = -1;
+					flush();
+				}
+			});
+		}
+	}
+
+	public void flush() {
+		if (timerId >= 0) {
+			vertx.cancelTimer(timerId);
+			timerId = -1;
+		}
+		if (pending.isEmpty()) {
+			return;
+		}
+		final Map<String, Set<String>> toFlush = pending;
+		final int expected = size;
+		pending = new HashMap<>();
+		size = 0;
+
+		final JsonArray updates = new JsonArray();
+		for (Map.Entry<String, Set<String>> e : toFlush.entrySet()) {
+			Set<String> flushing = inFlight.get(e.getKey());
+			if (flushing == null) {
+				flushing = new HashSet<>();
+				inFlight.put(e.getKey(), flushing);
+			}
+			flushing.addAll(e.getValue());
+			updates.addObject(new JsonObject()
+					.putObject("q", new JsonObject()
+							.putObject("_id", new JsonObject().putArray("$in", new JsonArray(e.getValue().toArray())))
+							.putObject("recipients", new JsonObject().putObject("$elemMatch",
+									new JsonObject().putString("userId", e.getKey()).putNumber("unread", 1))))
+					.putObject("u", new JsonObject().putObject("$set",
+							new JsonObject().putNumber("recipients.$.unread", 0)))
+					.putBoolean("multi", true));
+		}
+		command(collection, "update", updates, new Handler<JsonObject>() {
+			@Override
+			public void handle(JsonObject result) {
+				for (Map.Entry<String, Set<String>> e : toFlush.entrySet()) {
+					final Set<String> flushing = inFlight.get(e.getKey());
+					if (flushing != null) {
+						flushing.removeAll(e.getValue());
+						if (flushing.isEmpty()) {
+							inFlight.remove(e.getKey());
+						}
+					}
+				}
+				if (result != null && countersCollection != null) {
+					updateCounters(toFlush, result.getInteger("nModified", -1) == expected);
+				}
+			}
+		});
+	}
+
+	private void updateCounters(Map<String, Set<String>> flushed, boolean allModified) {
+		final JsonArray counterUpdates = new JsonArray();
+		for (Map.Entry<String, Set<String>> e : flushed.entrySet()) {
+			final JsonObject q = new JsonObject().putString("_id", e.getKey());
+			if (allModified) {
+				counterUpdates.addObject(new JsonObject()
+						.putObject("q", q)
+						.putObject("u", new JsonObject().putObject("$inc",
+								new JsonObject().putNumber("count", -e.getValue().size()))));
+			} else {
+				counterUpdates.addObject(new JsonObject().putObject("q", q).putNumber("limit", 1));
+			}
+		}
+		if (allModified) {
+			command(countersCollection, "update", counterUpdates, null);
+		} else {
+			command(countersCollection, "delete", counterUpdates, null);
+		}
+	}
+
+	/**
+	 * Decrement the unread counters of recipients whose unread events were deleted.
+	 * @param unreadByRecipient number of deleted unread events per recipient
+	 */
+	public void decrementCounters(Map<String, Integer> unreadByRecipient) {
+		if (countersCollection == null || unreadByRecipient == null || unreadByRecipient.isEmpty()) {
+			return;
+		}
+		final JsonArray counterUpdates = new JsonArray();
+		for (Map.Entry<String, Integer> e : unreadByRecipient.entrySet()) {
+			counterUpdates.addObject(new JsonObject()
+					.putObject("q", new JsonObject().putString("_id", e.getKey()))
+					.putObject("u", new JsonObject().putObject("$inc",
+							new JsonObject().putNumber("count", -e.getValue()))));
+		}
+		command(countersCollection, "update", counterUpdates, null);
+	}
+
+	private void command(final String coll, String type, JsonArray statements, final Handler<JsonObject> handler) {
+		final JsonObject command = new JsonObject()
+				.putString(type, coll)
+				.putArray("update".equals(type) ? "updates" : "deletes", statements)
+				.putBoolean("ordered", false);
+		mongo.command(command.encode(), new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> event) {
+				final JsonObject result = event.body().getObject("result", new JsonObject());
+				if (!"ok".equals(event.body().getString("status")) || result.getInteger("ok", 0) != 1) {
+					log.error("Error flushing read marks on " + coll + " : " + event.body().getString("message"));
+					if (handler != null) {
+						handler.handle(null);
+					}
+				} else if (handler != null) {
+					handler.handle(result);
+				}
+			}
+		});
+	}
+
+}
@@ -44,4 +44,6 @@ public interface TimelineEventStore {
 
 	void listTypes(Handler<JsonArray> result);
 
+	void unreadCount(UserInfos recipient, Handler<JsonObject> result);
+
 }
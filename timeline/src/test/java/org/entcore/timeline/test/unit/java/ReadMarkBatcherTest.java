@@ -0,0 +1,123 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2016
+ *
+ * This file is part of ENT Core. ENT Core is a versatile ENT engine based on the JVM.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with ENT Core is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of ENT Core, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package org.entcore.timeline.test.unit.java;
+
+import fr.wseduc.mongodb.MongoDb;
+import org.entcore.common.test.unit.java.Stubs;
+import org.entcore.timeline.events.ReadMarkBatcher;
+import org.junit.Before;
+import org.junit.Test;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ReadMarkBatcherTest {
+
+	private Stubs.Bus bus;
+	private List<JsonObject> commands;
+	private Vertx vertx;
+
+	@Before
+	public void setUp() {
+		bus = new Stubs.Bus();
+		commands = bus.commands;
+		MongoDb.getInstance().init(bus.eventBus, "wse.mongodb.persistor");
+		vertx = Stubs.vertx(bus.eventBus, null);
+	}
+
+	private void reply(int index, int nModified) {
+		bus.reply(index, new JsonObject().putString("status", "ok")
+				.putObject("result", new JsonObject().putNumber("ok", 1).putNumber("nModified", nModified)));
+	}
+
+	private static JsonArray ids(String... ids) {
+		return new JsonArray(ids);
+	}
+
+	@Test
+	public void testDeduplicateAndCount() {
+		ReadMarkBatcher batcher = new ReadMarkBatcher(vertx, "timeline", "timeline.unread", 60000l, 100);
+		batcher.add("u1", ids("e1", "e2"));
+		batcher.add("u1", ids("e2", "e3"));
+		batcher.add("u1", ids("e1"));
+		assertTrue(commands.isEmpty());
+		batcher.flush();
+		assertEquals(1, commands.size());
+		JsonArray updates = commands.get(0).getArray("updates");
+		assertEquals(1, updates.size());
+		JsonObject q = updates.<JsonObject>get(0).getObject("q");
+		assertEquals(3, q.getObject("_id").getArray("$in").size());
+
+		reply(0, 3);
+		assertEquals(2, commands.size());
+		JsonObject counter = commands.get(1);
+		assertEquals("timeline.unread", counter.getString("update"));
+		JsonObject inc = counter.getArray("updates").<JsonObject>get(0).getObject("u").getObject("$inc");
+		assertEquals(-3, inc.getInteger("count").intValue());
+	}
+
+	@Test
+	public void testSkipEventsBeingFlushed() {
+		ReadMarkBatcher batcher = new ReadMarkBatcher(vertx, "timeline", "timeline.unread", 60000l, 100);
+		batcher.add("u1", ids("e1"));
+		batcher.flush();
+		batcher.add("u1", ids("e1"));
+		batcher.flush();
+		assertEquals(1, commands.size());
+
+		reply(0, 1);
+		assertEquals(2, commands.size());
+		batcher.add("u1", ids("e1"));
+		batcher.flush();
+		assertEquals(3, commands.size());
+	}
+
+	@Test
+	public void testDropCountersWhenNotAllModified() {
+		ReadMarkBatcher batcher = new ReadMarkBatcher(vertx, "timeline", "timeline.unread", 60000l, 100);
+		batcher.add("u1", ids("e1", "e2"));
+		batcher.add("u2", ids("e1"));
+		batcher.flush();
+		assertEquals(2, commands.get(0).getArray("updates").size());
+
+		reply(0, 2);
+		assertEquals(2, commands.size());
+		JsonObject counter = commands.get(1);
+		assertEquals("timeline.unread", counter.getString("delete"));
+		assertEquals(2, counter.getArray("deletes").size());
+	}
+
+	@Test
+	public void testFlushWhenFull() {
+		ReadMarkBatcher batcher = new ReadMarkBatcher(vertx, "timeline", "timeline.unread", 60000l, 2);
+		batcher.add("u1", ids("e1"));
+		assertTrue(commands.isEmpty());
+		batcher.add("u2", ids("e1"));
+		assertEquals(1, commands.size());
+		batcher.add("u1", ids(new String[0]));
+		batcher.flush();
+		assertEquals(1, commands.size());
+	}
+
+}
@@ -46,7 +46,7 @@ import org.entcore.common.http.request.ActionsUtils;
 import org.entcore.common.http.request.JsonHttpServerRequest;
 import org.entcore.common.mongodb.MongoDbResult;
 import org.entcore.common.notification.TimelineHelper;
-import org.entcore.common.share.ShareService;
+import org.entcore.common.share.impl.GenericShareService;
 import org.entcore.common.share.impl.MongoDbShareService;
 import org.entcore.common.user.UserInfos;
 import org.entcore.common.user.UserUtils;
@@ -91,7 +91,7 @@ public class WorkspaceService extends BaseController {
 	private MongoDb mongo;
 	private DocumentDao documentDao;
 	private TimelineHelper notification;
-	private ShareService shareService;
+	private GenericShareService shareService;
 	private FolderService folderService;
 	private QuotaService quotaService;
 	private int threshold;
@@ -158,11 +158,45 @@ public class WorkspaceService extends BaseController {
 			badRequest(request);
 			return;
 		}
+		final boolean visibles = !"false".equals(request.params().get("visibles"));
 		getUserInfos(eb, request, new Handler<UserInfos>() {
 			@Override
 			public void handle(final UserInfos user) {
 				if (user != null) {
-					shareService.shareInfos(user.getUserId(), id, I18n.acceptLanguage(request), defaultResponseHandler(request));
+					shareService.shareInfos(user.getUserId(), id, I18n.acceptLanguage(request), visibles,
+							defaultResponseHandler(request));
+				} else {
+					unauthorized(request);
+				}
+			}
+		});
+	}
+
+	@Get("/share/visibles/:id")
+	@SecuredAction(value = "workspace.manager", type = ActionType.RESOURCE)
+	public void shareVisibles(final HttpServerRequest request) {
+		final boolean groups = "groups".equals(request.params().get("type"));
+		final String search = request.params().get("search");
+		final String afterName = request.params().get("afterName");
+		final String afterId = request.params().get("afterId");
+		final int limit;
+		try {
+			limit = Integer.parseInt(getOrElse(request.params().get("limit"), "50"));
+		} catch (NumberFormatException e) {
+			badRequest(request);
+			return;
+		}
+		getUserInfos(eb, request, new Handler<UserInfos>() {
+			@Override
+			public void handle(UserInfos user) {
+				if (user != null) {
+					shareService.visibleShareTargets(user.getUserId(), groups, search, afterName, afterId, limit,
+							I18n.acceptLanguage(request), new Handler<JsonArray>() {
+						@Override
+						public void handle(JsonArray visibles) {
+							renderJson(request, visibles);
+						}
+					});
 				} else {
 					unauthorized(request);
 				}